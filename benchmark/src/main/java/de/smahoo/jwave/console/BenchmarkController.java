@@ -0,0 +1,62 @@
+package de.smahoo.jwave.console;
+
+import de.smahoo.jwave.JWaveController;
+import de.smahoo.jwave.cmd.JWaveCommandClassSpecification;
+import de.smahoo.jwave.console.sim.SimulatedController;
+import de.smahoo.jwave.console.sim.SimulatorConfig;
+import de.smahoo.jwave.node.JWaveNode;
+import de.smahoo.jwave.specification.JWaveSpecification;
+
+/**
+ * Builds a JWaveController on the default specification and connects it to
+ * an emulated controller stick, so benchmarks run without hardware.
+ */
+class BenchmarkController {
+
+	static final int NODE_ID = 2;
+
+	private static final long CONNECT_TIMEOUT_MS = 30000;
+
+	private final JWaveController controller;
+	private final SimulatedController simulator;
+
+	BenchmarkController(int nodes, int latencyMs) throws Exception {
+		JWaveCommandClassSpecification spec = JWaveSpecification.loadDefaultSpecification();
+		JWaveController.doLogging(false);
+		controller = new JWaveController(spec);
+		SimulatorConfig config = new SimulatorConfig();
+		config.setNodes(nodes);
+		config.setLatencyMs(latencyMs);
+		config.setSeed(4711);
+		simulator = new SimulatedController(config);
+		simulator.start();
+		controller.init(simulator.getInputStream(), simulator.getOutputStream());
+		// nodes come up in id order
+		waitForNode(NODE_ID + nodes - 1);
+		JWaveConsole.setController(controller);
+	}
+
+	JWaveController getController(){
+		return controller;
+	}
+
+	JWaveNode getNode(){
+		return controller.getNode(NODE_ID);
+	}
+
+	void close(){
+		JWaveConsole.setController(null);
+		controller.dispose();
+		simulator.close();
+	}
+
+	private void waitForNode(int nodeId) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT_MS;
+		while (controller.getNode(nodeId) == null){
+			if (System.currentTimeMillis() > deadline){
+				throw new IllegalStateException("simulated node "+nodeId+" did not show up within "+CONNECT_TIMEOUT_MS+" ms");
+			}
+			Thread.sleep(50);
+		}
+	}
+}
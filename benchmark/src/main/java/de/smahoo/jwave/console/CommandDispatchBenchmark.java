@@ -0,0 +1,142 @@
+package de.smahoo.jwave.console;
+
+import de.smahoo.jwave.cmd.JWaveCommand;
+import de.smahoo.jwave.cmd.JWaveNodeCommand;
+import de.smahoo.jwave.console.cmd.SendTemplate;
+import de.smahoo.jwave.console.sched.SendScheduler;
+import de.smahoo.jwave.node.JWaveNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full send path from a command line down to {@link JWaveNode#sendData(JWaveNodeCommand)},
+ * against an emulated controller on an in-memory stream pair. Radio latency
+ * is zero, so the numbers are bound by the console and the library only.
+ * <p>
+ * Every invocation addresses the next of {@link #NODES} nodes with another
+ * value. The scheduler replaces a queued BASIC_SET by a newer one for the
+ * same node, so a fixed line would time that replacement instead of the
+ * dispatch. Lines the queue has no room for are dropped; the statistics of
+ * the scheduler printed after the run tell how many. {@link #schedulerSubmit()}
+ * times the scheduler alone, waiting for room instead of dropping.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandDispatchBenchmark {
+
+	private static final int NODES = 16;
+
+	// lcm of NODES and 100 values, so every node sees every value
+	private static final int LINES = 400;
+
+	private static final long QUEUE_WAIT_MS = 1000;
+
+	private BenchmarkController controller;
+	private PrintStream stdout;
+	private String[] sendLines;
+	private String[][] sendTokens;
+	private SendTemplate[] templates;
+	private int next = 0;
+	private JWaveNode node;
+	private JWaveNodeCommand nodeCmd;
+	private SendScheduler scheduler;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		controller = new BenchmarkController(NODES, 0);
+		sendLines = new String[LINES];
+		sendTokens = new String[LINES][];
+		templates = new SendTemplate[LINES];
+		for (int i = 0; i < LINES; i++){
+			sendLines[i] = "send "+(BenchmarkController.NODE_ID + i % NODES)+" COMMAND_CLASS_BASIC BASIC_SET "+(i % 100);
+			sendTokens[i] = sendLines[i].split(" ");
+			templates[i] = JWaveConsole.compileSendCmd(sendTokens[i]);
+		}
+		node = controller.getNode();
+		JWaveCommand cmd = JWaveConsole.getNodeCmd("COMMAND_CLASS_BASIC", "BASIC_SET", 1);
+		if (cmd == null){
+			throw new IllegalStateException("BASIC_SET not found in default specification");
+		}
+		nodeCmd = new JWaveNodeCommand(cmd);
+		nodeCmd.setParamValue(0, 255);
+		// the transmit callback right away, so only the scheduler is timed
+		scheduler = new SendScheduler("benchmark", new SendScheduler.Dispatcher() {
+			public boolean dispatch(SendTemplate template) {
+				scheduler.onSendCompleted(template.getNodeId(), template.getCommandClassKey(), true);
+				return true;
+			}
+		});
+		scheduler.start();
+		// the console reports errors on System.out - keep the benchmark output readable
+		stdout = System.out;
+		System.setOut(new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+				// discard
+			}
+		}));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown(){
+		System.setOut(stdout);
+		System.out.println();
+		System.out.println(JWaveConsole.getSession(null).getScheduler().getStatistics());
+		scheduler.close();
+		controller.close();
+	}
+
+	private int next(){
+		int i = next;
+		next = i + 1 == LINES ? 0 : i + 1;
+		return i;
+	}
+
+	@Benchmark
+	public void evalCmd(){
+		JWaveConsole.evalCmd(sendLines[next()]);
+	}
+
+	@Benchmark
+	public void evaluateParamCmd(){
+		JWaveConsole.evaluateParamCmd(sendLines[next()]);
+	}
+
+	@Benchmark
+	public void evalSendCmd(){
+		JWaveConsole.evalSendCmd(sendTokens[next()]);
+	}
+
+	@Benchmark
+	public boolean sendTemplate(){
+		return JWaveConsole.sendTemplate(templates[next()], QUEUE_WAIT_MS);
+	}
+
+	@Benchmark
+	public boolean schedulerSubmit() throws InterruptedException {
+		return scheduler.submit(templates[next()], QUEUE_WAIT_MS, null);
+	}
+
+	@Benchmark
+	public void nodeSendData(){
+		node.sendData(nodeCmd);
+	}
+}
@@ -0,0 +1,71 @@
+package de.smahoo.jwave.console;
+
+import de.smahoo.jwave.cmd.JWaveCommand;
+import de.smahoo.jwave.console.cmd.CommandIndex;
+import de.smahoo.jwave.console.cmd.SendTemplate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing and specification lookup of the console, without touching the
+ * controller's send queue.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandParsingBenchmark {
+
+	private static final String[] SEND_TOKENS = {"send", String.valueOf(BenchmarkController.NODE_ID), "COMMAND_CLASS_BASIC", "BASIC_SET", "255"};
+
+	private BenchmarkController controller;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		controller = new BenchmarkController(1, 0);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown(){
+		controller.close();
+	}
+
+	@Benchmark
+	public int parseIntDecimal(){
+		return CommandIndex.parseInt("255");
+	}
+
+	@Benchmark
+	public int parseIntHex(){
+		return CommandIndex.parseInt("0xFF");
+	}
+
+	@Benchmark
+	public JWaveCommand getNodeCmdByName(){
+		return JWaveConsole.getNodeCmd("COMMAND_CLASS_BASIC", "BASIC_SET", 1);
+	}
+
+	@Benchmark
+	public JWaveCommand getNodeCmdByKey(){
+		return JWaveConsole.getNodeCmd("0x20", "0x01", 1);
+	}
+
+	@Benchmark
+	public SendTemplate compileSendCmd(){
+		return JWaveConsole.compileSendCmd(SEND_TOKENS);
+	}
+}
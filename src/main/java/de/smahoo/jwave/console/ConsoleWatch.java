@@ -0,0 +1,66 @@
+package de.smahoo.jwave.console;
+
+/**
+ * Background view that refreshes its output on the console in a fixed
+ * interval until it is stopped ('watch stop').
+ */
+public abstract class ConsoleWatch implements Runnable {
+
+	private final String name;
+	private final long intervalMs;
+	private volatile boolean running = false;
+	private Thread thread = null;
+
+	protected ConsoleWatch(String name, long intervalMs){
+		this.name = name;
+		this.intervalMs = intervalMs;
+	}
+
+	public String getName(){
+		return name;
+	}
+
+	public synchronized void start(){
+		if (running){
+			return;
+		}
+		running = true;
+		thread = new Thread(this, "jwave-watch-"+name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public synchronized void stop(){
+		running = false;
+		if (thread != null){
+			thread.interrupt();
+			thread = null;
+		}
+	}
+
+	public boolean isRunning(){
+		return running;
+	}
+
+	public void run() {
+		while (running){
+			try {
+				refresh();
+			} catch (Exception exc){
+				System.out.println("watch "+name+" stopped ("+exc.getMessage()+")");
+				running = false;
+				return;
+			}
+			try {
+				Thread.sleep(intervalMs);
+			} catch (InterruptedException exc){
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Prints whatever changed since the last call.
+	 */
+	protected abstract void refresh();
+}
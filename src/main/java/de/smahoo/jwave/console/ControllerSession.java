@@ -0,0 +1,405 @@
+package de.smahoo.jwave.console;
+
+import de.smahoo.jwave.JWaveController;
+import de.smahoo.jwave.JWaveControllerMode;
+import de.smahoo.jwave.cmd.JWaveCommandClassSpecification;
+import de.smahoo.jwave.console.cmd.SendTemplate;
+import de.smahoo.jwave.console.event.EventBus;
+import de.smahoo.jwave.console.event.EventConsumer;
+import de.smahoo.jwave.console.event.OverflowPolicy;
+import de.smahoo.jwave.console.io.SerialAdapter;
+import de.smahoo.jwave.console.io.SerialOptions;
+import de.smahoo.jwave.console.io.TrafficRing;
+import de.smahoo.jwave.console.io.TrafficTap;
+import de.smahoo.jwave.console.journal.JournalReplay;
+import de.smahoo.jwave.console.log.Log;
+import de.smahoo.jwave.console.poll.PollEngine;
+import de.smahoo.jwave.console.sched.ReplyTracker;
+import de.smahoo.jwave.console.state.NodeStateCache;
+import de.smahoo.jwave.console.sched.SendScheduler;
+import de.smahoo.jwave.console.sim.SimulatedController;
+import de.smahoo.jwave.console.sim.SimulatorConfig;
+import de.smahoo.jwave.console.stats.SendStatistics;
+import de.smahoo.jwave.event.JWaveErrorEvent;
+import de.smahoo.jwave.event.JWaveEvent;
+import gnu.io.CommPort;
+import gnu.io.CommPortIdentifier;
+import gnu.io.NoSuchPortException;
+import gnu.io.SerialPort;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * One controller of the console together with everything that belongs to
+ * it: the connection (serial port, emulated stick or replay), the traffic
+ * tap with its ring and send statistics, the event pipeline, the send
+ * scheduler with its poll engine and a dedicated I/O thread that scripts
+ * dispatch on. Sessions do not share any of these, so several controllers
+ * can be driven in parallel.
+ */
+public class ControllerSession {
+
+	public static final String DEFAULT_NAME = "default";
+	public static final String EVENT_BUFFER_PROPERTY = "jwave.console.eventBufferSize";
+
+	private static final Log LOG = Log.get("io");
+	private static final Log SEND_LOG = Log.get("send");
+
+	static final String REPLAY_PORT_PREFIX = "replay:";
+	static final int OPEN_TIMEOUT_MS = 2000;
+
+	private final String name;
+	private final JWaveController controller;
+	private final EventBus eventBus;
+	private final TrafficTap trafficTap = new TrafficTap();
+	private final TrafficRing trafficRing = new TrafficRing();
+	private final SendStatistics sendStatistics = new SendStatistics();
+	private final SendScheduler scheduler;
+	private final PollEngine pollEngine;
+	private final ReplyTracker replies;
+	private final NodeStateCache nodeStates;
+	private final ExecutorService io;
+	private final ReconnectSupervisor reconnect = new ReconnectSupervisor(this);
+
+	private volatile String port = null;
+	private CommPort commPort = null;
+	private SerialAdapter serialAdapter = null;
+	private SerialOptions serialOptions = new SerialOptions();
+	private SimulatedController simulator = null;
+	private JournalReplay replay = null;
+
+	public ControllerSession(String name, JWaveCommandClassSpecification spec) throws Exception {
+		this(name, new JWaveController(spec));
+	}
+
+	public ControllerSession(final String name, JWaveController controller){
+		this.name = name;
+		this.controller = controller;
+		trafficTap.addListener(trafficRing);
+		trafficTap.addListener(sendStatistics);
+		eventBus = new EventBus(Integer.getInteger(EVENT_BUFFER_PROPERTY, EventBus.DEFAULT_CAPACITY), OverflowPolicy.DROP_OLDEST);
+		eventBus.subscribe(name+"-console", new EventConsumer() {
+
+			public void onEvent(JWaveEvent event, long receivedMillis, long receivedNanos) {
+				handleZWaveEvent(event);
+			}
+		});
+		controller.addCntrlListener(eventBus);
+		scheduler = new SendScheduler(name, new SendScheduler.Dispatcher() {
+
+			public boolean dispatch(SendTemplate template) {
+				return dispatchSend(template);
+			}
+		});
+		sendStatistics.addListener(scheduler);
+		scheduler.start();
+		replies = new ReplyTracker(name, scheduler);
+		pollEngine = new PollEngine(name, scheduler, replies);
+		eventBus.subscribe(name+"-replies", replies);
+		nodeStates = new NodeStateCache(controller);
+		eventBus.subscribe(name+"-nodes", nodeStates);
+		io = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "jwave-io-"+name);
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	public String getName(){
+		return name;
+	}
+
+	public JWaveController getController(){
+		return controller;
+	}
+
+	public EventBus getEventBus(){
+		return eventBus;
+	}
+
+	public TrafficTap getTrafficTap(){
+		return trafficTap;
+	}
+
+	public TrafficRing getTrafficRing(){
+		return trafficRing;
+	}
+
+	public SendStatistics getSendStatistics(){
+		return sendStatistics;
+	}
+
+	public SendScheduler getScheduler(){
+		return scheduler;
+	}
+
+	public PollEngine getPollEngine(){
+		return pollEngine;
+	}
+
+	public ReplyTracker getReplyTracker(){
+		return replies;
+	}
+
+	/**
+	 * Snapshot of the nodes, kept up to date from the controller's events.
+	 */
+	public NodeStateCache getNodeStates(){
+		return nodeStates;
+	}
+
+	/**
+	 * Port (or simulator / replay description) the controller is connected to.
+	 */
+	public String getPort(){
+		return port;
+	}
+
+	public boolean isConnected(){
+		return controller.getControllerMode() != JWaveControllerMode.CNTRL_MODE_NOT_CONNECTED;
+	}
+
+	/**
+	 * Runs the task on the session's I/O thread, after everything submitted before.
+	 */
+	public void execute(Runnable task){
+		io.execute(task);
+	}
+
+	/**
+	 * Called on the scheduler thread when the command may go on the air.
+	 */
+	protected boolean dispatchSend(SendTemplate template){
+		try {
+			if (!template.send(controller)){
+				SEND_LOG.warn("{}There exists no node with id {}", prefix(), template.getNodeId());
+				return false;
+			}
+		} catch (Exception exc){
+			SEND_LOG.warn("{}Unable to send command '{}' ({})", prefix(), template, exc.getMessage());
+			return false;
+		}
+		return true;
+	}
+
+	protected void handleZWaveEvent(JWaveEvent event){
+		switch (event.getEventType()){
+			case ERROR_IO_CONNECTION:
+				if (event instanceof JWaveErrorEvent){
+					JWaveErrorEvent errEvnt = (JWaveErrorEvent)event;
+					handleIOError(errEvnt.getMessage(),errEvnt.getThrowable());
+				}
+				break;
+			default:
+				break;
+		}
+	}
+
+	protected synchronized void handleIOError(String message, Throwable throwable){
+		LOG.error("{}IO-ERROR - {}", prefix(), message, throwable);
+		if (commPort != null){
+			LOG.warn("{}Serial Connection will be closed.", prefix());
+			commPort.close();
+			commPort = null;
+			closeSerialAdapter();
+			if (reconnect.isEnabled() && port != null){
+				LOG.info("{}Reconnecting to {} in the background, commands are held until the link is back", prefix(), port);
+				reconnect.linkLost(port);
+			}
+		}
+	}
+
+	ReconnectSupervisor getReconnectSupervisor(){
+		return reconnect;
+	}
+
+	String prefix(){
+		return DEFAULT_NAME.equals(name) ? "" : "["+name+"] ";
+	}
+
+	public synchronized void connect(String port){
+		connect(port, serialOptions);
+	}
+
+	public synchronized void connect(String port, SerialOptions options){
+		if (SimulatorConfig.isSimulatorPort(port)){
+			connectSimulator(port);
+			return;
+		}
+
+		SerialPort serialPort;
+		try {
+			serialPort = openSerialPort(port, options);
+		} catch (NoSuchPortException exc){
+			System.out.println("ERROR: there exists no port with the name '"+port+"'."+"\r\n"+
+							   "    ==>Type 'print serial' to get a list of available serial ports.");
+			return;
+		} catch (IOException exc){
+			System.out.println("Error: "+exc.getMessage());
+			return;
+		} catch (Exception exc){
+			LOG.error("{}Unable to open serial port {}", prefix(), port, exc);
+			return;
+		}
+		connect(port, serialPort, options);
+	}
+
+	/**
+	 * Initializes the controller with a serial port opened by {@link #openSerialPort(String, SerialOptions)}.
+	 * The port is read by a {@link SerialAdapter} configured with the same options.
+	 * Returns false if the controller could not be initialized.
+	 */
+	public synchronized boolean connect(String port, SerialPort serialPort, SerialOptions options){
+		closeSerialAdapter();
+		commPort = serialPort;
+		try {
+			SerialAdapter adapter = new SerialAdapter(name, serialPort.getInputStream(), serialPort.getOutputStream(), options);
+			adapter.start();
+			serialAdapter = adapter;
+			serialOptions = options;
+			controller.init(trafficTap.wrap(adapter.getInputStream()),trafficTap.wrap(adapter.getOutputStream()));
+			this.port = port;
+			return true;
+		} catch (Exception exc){
+			closeSerialAdapter();
+			LOG.error("{}Unable to connect to {}", prefix(), port, exc);
+			return false;
+		}
+	}
+
+	private void closeSerialAdapter(){
+		if (serialAdapter != null){
+			serialAdapter.close();
+			serialAdapter = null;
+		}
+	}
+
+	public synchronized SerialAdapter getSerialAdapter(){
+		return serialAdapter;
+	}
+
+	/**
+	 * Options of the last serial connection, used again when reconnecting.
+	 */
+	public synchronized SerialOptions getSerialOptions(){
+		return serialOptions;
+	}
+
+	/**
+	 * Opens and configures the serial port. It does not need a controller, so
+	 * the console opens the launch port while the specification is loading.
+	 */
+	static SerialPort openSerialPort(String port, SerialOptions options) throws Exception {
+		CommPortIdentifier portIdentifier = CommPortIdentifier.getPortIdentifier(port);
+		if (portIdentifier.isCurrentlyOwned()){
+			throw new IOException("Port '"+port+"' is currently in use");
+		}
+		CommPort opened = portIdentifier.open(JWaveConsole.class.getName(), OPEN_TIMEOUT_MS);
+		if (!(opened instanceof SerialPort)){
+			opened.close();
+			throw new IOException("Port '"+port+"' is not a serial port");
+		}
+		SerialPort serialPort = (SerialPort)opened;
+		try {
+			serialPort.setSerialPortParams(options.getBaudrate(),SerialPort.DATABITS_8,SerialPort.STOPBITS_1,SerialPort.PARITY_NONE);
+			serialPort.enableReceiveTimeout(options.getReceiveTimeoutMs());
+			if (options.getReceiveThreshold() > 0){
+				serialPort.enableReceiveThreshold(options.getReceiveThreshold());
+			}
+			serialPort.setInputBufferSize(options.getRxBuffer());
+			serialPort.setOutputBufferSize(Math.max(options.getTxBatch(), 1024));
+		} catch (Exception exc){
+			serialPort.close();
+			throw exc;
+		}
+		return serialPort;
+	}
+
+	protected void connectSimulator(String port){
+		SimulatorConfig config;
+		try {
+			config = SimulatorConfig.parse(port);
+		} catch (IllegalArgumentException exc){
+			System.out.println("ERROR: "+exc.getMessage()+"\r\n"+
+							   "    ==>use: connect sim[:nodes=<n>,latencyMs=<ms>,lossPct=<percent>]");
+			return;
+		}
+		if (simulator != null){
+			simulator.close();
+		}
+		simulator = new SimulatedController(config);
+		simulator.start();
+		try {
+			controller.init(trafficTap.wrap(simulator.getInputStream()), trafficTap.wrap(simulator.getOutputStream()));
+			this.port = config.toString();
+		} catch (Exception exc){
+			LOG.error("{}Unable to start the simulated controller", prefix(), exc);
+		}
+	}
+
+	public synchronized void replay(String path, double speed){
+		if (isConnected() && (port == null || !port.startsWith(REPLAY_PORT_PREFIX))){
+			System.out.println("Controller is connected to "+port+". Replay needs an unconnected controller, restart the console first.");
+			return;
+		}
+		if (replay != null){
+			replay.close();
+		}
+		JournalReplay newReplay = new JournalReplay(new File(path), speed);
+		try {
+			newReplay.start();
+		} catch (Exception exc){
+			System.out.println("Unable to replay '"+path+"' ("+exc.getMessage()+")");
+			return;
+		}
+		replay = newReplay;
+		try {
+			controller.init(trafficTap.wrap(replay.getInputStream()), trafficTap.wrap(replay.getOutputStream()));
+			this.port = REPLAY_PORT_PREFIX+path;
+		} catch (Exception exc){
+			LOG.error("{}Unable to replay {}", prefix(), path, exc);
+		}
+	}
+
+	/**
+	 * Stops the event pipeline, the scheduler and the I/O thread but leaves the controller
+	 * and its connection alone.
+	 */
+	public void detach(){
+		reconnect.close();
+		pollEngine.close();
+		replies.close();
+		scheduler.close();
+		sendStatistics.removeListener(scheduler);
+		eventBus.close();
+		io.shutdownNow();
+	}
+
+	/**
+	 * Disposes the controller and closes the connection.
+	 */
+	public synchronized void dispose(){
+		detach();
+		try {
+			controller.dispose();
+			if (commPort != null){
+				commPort.close();
+			}
+			closeSerialAdapter();
+			if (simulator != null){
+				simulator.close();
+			}
+			if (replay != null){
+				replay.close();
+			}
+		} catch (Exception exc){
+			LOG.error("{}Error while disconnecting", prefix(), exc);
+		}
+	}
+}
@@ -0,0 +1,169 @@
+package de.smahoo.jwave.console;
+
+import de.smahoo.jwave.JWaveController;
+import de.smahoo.jwave.console.cmd.NodeSelection;
+import de.smahoo.jwave.console.cmd.SendTemplate;
+import de.smahoo.jwave.console.sched.SendCallback;
+import de.smahoo.jwave.console.sched.SendResult;
+import de.smahoo.jwave.console.sched.SendScheduler;
+import de.smahoo.jwave.console.stats.RoundTripStats;
+import de.smahoo.jwave.console.stats.SendStatistics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 'send 2,5,10-40 ...' and 'send @group ...': one compiled command sent to
+ * every node of a selection. All targets go through the send scheduler of
+ * the controller, so its in-flight limits bound how many are on the air at
+ * once. Nodes the stick reached fastest before are queued first, so slow
+ * routes do not hold up the rest. The command only queues the targets and
+ * returns; the result and latency per node are printed once the last target
+ * reported, like the reply of 'get'. Targets held during a link outage
+ * report when the link is back.
+ */
+class FanOutSend implements SendCallback {
+
+	private final SendTemplate template;
+	private final NodeSelection selection;
+	private final String source;
+	private final int[] indexByNode = new int[NodeSelection.MAX_NODE_ID + 1];
+	private final SendResult[] results;
+	private final long[] latencies;
+	private final String[] notes;
+	private final AtomicInteger remaining;
+	private final long start = System.nanoTime();
+
+	FanOutSend(SendTemplate template, NodeSelection selection, String source){
+		this.template = template;
+		this.selection = selection;
+		this.source = source;
+		results = new SendResult[selection.size()];
+		latencies = new long[selection.size()];
+		notes = new String[selection.size()];
+		remaining = new AtomicInteger(selection.size());
+		for (int i = 0; i < selection.size(); i++){
+			indexByNode[selection.getNodeId(i)] = i;
+		}
+	}
+
+	public void onResult(SendTemplate sent, SendResult result, long latencyNanos) {
+		int index = indexByNode[sent.getNodeId()];
+		synchronized (this){
+			if (results[index] != null){
+				return;
+			}
+			results[index] = result;
+			latencies[index] = latencyNanos;
+		}
+		countDown();
+	}
+
+	/**
+	 * Queues the command for all nodes without waiting for room in the queue
+	 * or for the results.
+	 */
+	void start(ControllerSession session){
+		JWaveController controller = session.getController();
+		SendScheduler scheduler = session.getScheduler();
+		int queued = 0;
+		for (int nodeId : order(session.getSendStatistics())){
+			int index = indexByNode[nodeId];
+			if (controller.getNode(nodeId) == null){
+				notes[index] = "no such node";
+			} else if (scheduler.submit(template.forNode(nodeId), this)){
+				queued++;
+				continue;
+			} else {
+				notes[index] = "queue full";
+			}
+			countDown();
+		}
+		if (queued > 0){
+			System.out.println("queued for "+queued+" of "+selection.size()+" nodes, results follow");
+		}
+	}
+
+	private void countDown(){
+		if (remaining.decrementAndGet() == 0){
+			System.out.println(report(System.nanoTime() - start));
+		}
+	}
+
+	/**
+	 * Selected nodes, fastest known ack latency first, unknown nodes last.
+	 */
+	private List<Integer> order(final SendStatistics statistics){
+		List<Integer> nodeIds = new ArrayList<Integer>();
+		for (int i = 0; i < selection.size(); i++){
+			nodeIds.add(selection.getNodeId(i));
+		}
+		Collections.sort(nodeIds, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				long la = ackLatency(statistics, a);
+				long lb = ackLatency(statistics, b);
+				return la < lb ? -1 : (la > lb ? 1 : a.compareTo(b));
+			}
+		});
+		return nodeIds;
+	}
+
+	private static long ackLatency(SendStatistics statistics, int nodeId){
+		RoundTripStats stats = statistics.getNodeStats(nodeId);
+		if (stats == null || stats.getAckLatency().getCount() == 0){
+			return Long.MAX_VALUE;
+		}
+		return stats.getAckLatency().getPercentile(50);
+	}
+
+	private synchronized String report(long elapsedNanos){
+		int[] counts = new int[SendResult.values().length];
+		int notSent = 0;
+		int noResult = 0;
+		long[] okLatencies = new long[results.length];
+		int ok = 0;
+		StringBuilder rows = new StringBuilder();
+		for (int i = 0; i < results.length; i++){
+			String result;
+			String latency = "";
+			if (results[i] != null){
+				counts[results[i].ordinal()]++;
+				result = results[i].getLabel();
+				latency = String.format("%.1f ms", latencies[i] / 1000000.0);
+				if (results[i] == SendResult.ACKNOWLEDGED){
+					okLatencies[ok++] = latencies[i];
+				}
+			} else if (notes[i] != null){
+				notSent++;
+				result = notes[i];
+			} else {
+				noResult++;
+				result = "no result";
+			}
+			rows.append(String.format("  %6d  %-14s %10s", selection.getNodeId(i), result, latency)).append("\r\n");
+		}
+		StringBuilder sb = new StringBuilder();
+		sb.append(source).append("\r\n");
+		sb.append(String.format("  %d nodes: %d ok, %d failed, %d timeout, %d not sent (%.2f s)",
+				results.length, counts[SendResult.ACKNOWLEDGED.ordinal()],
+				counts[SendResult.FAILED.ordinal()] + counts[SendResult.DISPATCH_FAILED.ordinal()],
+				counts[SendResult.TIMED_OUT.ordinal()] + noResult,
+				notSent + counts[SendResult.SUPERSEDED.ordinal()],
+				elapsedNanos / 1000000000.0)).append("\r\n");
+		if (ok > 0){
+			Arrays.sort(okLatencies, 0, ok);
+			sb.append(String.format("  latency p50 / p90 / max = %.1f / %.1f / %.1f ms",
+					okLatencies[(ok - 1) / 2] / 1000000.0, okLatencies[(int)((ok - 1) * 0.9)] / 1000000.0, okLatencies[ok - 1] / 1000000.0)).append("\r\n");
+		}
+		sb.append("--------------------------------------").append("\r\n");
+		sb.append(String.format("  %6s  %-14s %10s", "node", "result", "latency")).append("\r\n");
+		sb.append("--------------------------------------").append("\r\n");
+		sb.append(rows);
+		sb.append("--------------------------------------");
+		return sb.toString();
+	}
+}
@@ -0,0 +1,508 @@
+package de.smahoo.jwave.console;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import de.smahoo.jwave.JWaveController;
+import de.smahoo.jwave.JWaveControllerMode;
+import de.smahoo.jwave.cmd.JWaveCommandClass;
+import de.smahoo.jwave.console.cmd.SendTemplate;
+import de.smahoo.jwave.console.event.EventBus;
+import de.smahoo.jwave.console.event.EventConsumer;
+import de.smahoo.jwave.console.history.ReportDecoder;
+import de.smahoo.jwave.console.http.EventLog;
+import de.smahoo.jwave.console.http.Json;
+import de.smahoo.jwave.console.poll.PollEngine;
+import de.smahoo.jwave.console.poll.PollListener;
+import de.smahoo.jwave.console.poll.PollResult;
+import de.smahoo.jwave.console.remote.OutputCapture;
+import de.smahoo.jwave.event.JWaveEvent;
+import de.smahoo.jwave.node.JWaveNode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * JSON over HTTP view of the console, built on the HTTP server of the JDK:
+ * <pre>
+ *   GET  /api/controllers                   all controllers
+ *   GET  /api/controllers/&lt;name&gt;            controller details
+ *   POST /api/controllers/&lt;name&gt;/mode       {"mode":"inclusion|exclusion|normal"}
+ *   GET  /api/nodes[?controller=&lt;name&gt;]     nodes of a controller
+ *   GET  /api/nodes/[&lt;name&gt;:]&lt;id&gt;            node details
+ *   POST /api/send                          {"node":"[&lt;name&gt;:]&lt;id&gt;","class":..,"command":..,"version":..,"params":[..]}
+ *   GET  /api/events?since=&lt;seq&gt;&amp;timeout=&lt;ms&gt;   long poll for controller events and poll results
+ * </pre>
+ * Every request runs on its own virtual thread when the JVM has them (Java
+ * 21 and later), so long polls cost next to nothing. Older JVMs fall back
+ * to a fixed thread pool.
+ */
+public class HttpControlApi implements HttpHandler, PollListener {
+
+	public static final String CONTEXT = "/api/";
+	public static final int EVENT_LOG_CAPACITY = 4096;
+	public static final long DEFAULT_POLL_TIMEOUT_MS = 25000;
+	public static final long MAX_POLL_TIMEOUT_MS = 60000;
+
+	private static final int FALLBACK_THREADS = 64;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final InetSocketAddress address;
+	private final EventLog eventLog = new EventLog(EVENT_LOG_CAPACITY);
+	private final Map<EventBus, EventBus.Subscription> subscriptions = new ConcurrentHashMap<EventBus, EventBus.Subscription>();
+	private final Map<PollEngine, Boolean> pollEngines = new ConcurrentHashMap<PollEngine, Boolean>();
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong failedRequests = new AtomicLong();
+	private HttpServer server = null;
+	private ExecutorService executor = null;
+	private boolean virtualThreads = false;
+
+	public HttpControlApi(InetSocketAddress address){
+		this.address = address;
+	}
+
+	public synchronized void start() throws IOException {
+		OutputCapture.install();
+		server = HttpServer.create(address, 0);
+		executor = createExecutor();
+		server.setExecutor(executor);
+		server.createContext(CONTEXT, this);
+		server.start();
+	}
+
+	public synchronized void stop(){
+		for (Map.Entry<EventBus, EventBus.Subscription> entry : subscriptions.entrySet()){
+			entry.getKey().unsubscribe(entry.getValue());
+		}
+		subscriptions.clear();
+		for (PollEngine polls : pollEngines.keySet()){
+			polls.removeListener(this);
+		}
+		pollEngines.clear();
+		if (server != null){
+			server.stop(0);
+			server = null;
+		}
+		if (executor != null){
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+
+	public InetSocketAddress getAddress(){
+		HttpServer s = server;
+		return s == null ? address : s.getAddress();
+	}
+
+	private ExecutorService createExecutor(){
+		try {
+			Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			ExecutorService virtual = (ExecutorService)method.invoke(null);
+			virtualThreads = true;
+			return virtual;
+		} catch (Exception exc){
+			// JVM without virtual threads
+		}
+		virtualThreads = false;
+		return Executors.newFixedThreadPool(FALLBACK_THREADS, new ThreadFactory() {
+			private final AtomicLong count = new AtomicLong();
+
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "jwave-http-"+count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Records the events of the bus and the results of the poll engine for
+	 * the long-polling event endpoint.
+	 */
+	public void attach(final String controllerName, EventBus bus, PollEngine polls){
+		if (pollEngines.put(polls, Boolean.TRUE) == null){
+			polls.addListener(this);
+		}
+		if (subscriptions.containsKey(bus)){
+			return;
+		}
+		EventBus.Subscription subscription = bus.subscribe("http-"+controllerName, new EventConsumer() {
+			public void onEvent(JWaveEvent event, long receivedMillis, long receivedNanos) {
+				eventLog.append(controllerName, String.valueOf(event.getEventType()), event.getClass().getSimpleName(), String.valueOf(event), receivedMillis);
+			}
+		});
+		subscriptions.put(bus, subscription);
+	}
+
+	public void onPollResult(PollResult result) {
+		eventLog.append(result.getControllerName(), "POLL", result.getResult().name(), String.valueOf(result), result.getTimeMillis());
+	}
+
+	public String getStatistics(){
+		return "--------------------------------------------------"+"\r\n"+
+			   "                  HTTP API"+"\r\n"+
+			   "--------------------------------------------------"+"\r\n"+
+			   "                 listening = http://"+getAddress().getHostString()+":"+getAddress().getPort()+CONTEXT+"\r\n"+
+			   "                   threads = "+(virtualThreads ? "virtual, one per request" : "pool of "+FALLBACK_THREADS)+"\r\n"+
+			   "                  requests = "+requests.get()+"\r\n"+
+			   "           failed requests = "+failedRequests.get()+"\r\n"+
+			   "        waiting long polls = "+eventLog.getWaiting()+"\r\n"+
+			   "            event sequence = "+eventLog.getSequence()+"\r\n"+
+			   "--------------------------------------------------";
+	}
+
+	public void handle(HttpExchange exchange) throws IOException {
+		requests.incrementAndGet();
+		try {
+			String path = exchange.getRequestURI().getPath().substring(CONTEXT.length());
+			String[] parts = path.length() == 0 ? new String[0] : path.split("/");
+			String method = exchange.getRequestMethod();
+			if (parts.length == 0){
+				throw new ApiException(404, "unknown resource");
+			}
+			if ("controllers".equals(parts[0])){
+				handleControllers(exchange, method, parts);
+			} else if ("nodes".equals(parts[0])){
+				requireMethod(method, "GET");
+				if (parts.length == 1){
+					respond(exchange, 200, getNodes(getSessionOrFail(getQueryParam(exchange, "controller"))));
+				} else {
+					respond(exchange, 200, getNode(parts[1]));
+				}
+			} else if ("send".equals(parts[0]) && parts.length == 1){
+				requireMethod(method, "POST");
+				respond(exchange, 200, send(readBody(exchange)));
+			} else if ("events".equals(parts[0]) && parts.length == 1){
+				requireMethod(method, "GET");
+				respond(exchange, 200, pollEvents(exchange));
+			} else {
+				throw new ApiException(404, "unknown resource");
+			}
+		} catch (ApiException exc){
+			failedRequests.incrementAndGet();
+			respond(exchange, exc.status, error(exc.getMessage()));
+		} catch (InterruptedException exc){
+			failedRequests.incrementAndGet();
+			respond(exchange, 503, error("request was interrupted"));
+		} catch (Exception exc){
+			failedRequests.incrementAndGet();
+			respond(exchange, 500, error(exc.getClass().getSimpleName()+": "+exc.getMessage()));
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private void handleControllers(HttpExchange exchange, String method, String[] parts) throws Exception {
+		if (parts.length == 1){
+			requireMethod(method, "GET");
+			List<Object> list = new ArrayList<Object>();
+			for (ControllerSession session : JWaveConsole.getSessionsByName()){
+				list.add(describeController(session));
+			}
+			respond(exchange, 200, list);
+			return;
+		}
+		ControllerSession session = getSessionOrFail(parts[1]);
+		if (parts.length == 2){
+			requireMethod(method, "GET");
+			respond(exchange, 200, describeController(session));
+			return;
+		}
+		if (parts.length == 3 && "mode".equals(parts[2])){
+			requireMethod(method, "POST");
+			String mode = getString(readBody(exchange), "mode", true);
+			if (!isControllerMode(mode)){
+				throw new ApiException(400, "invalid mode '"+mode+"', use inclusion, exclusion or normal");
+			}
+			if (session.getController().getControllerMode() == JWaveControllerMode.CNTRL_MODE_NOT_CONNECTED){
+				throw new ApiException(409, "controller '"+session.getName()+"' is not connected");
+			}
+			String messages = capture(new String[]{"set", mode.toLowerCase(), session.getName()});
+			Map<String, Object> result = describeController(session);
+			result.put("messages", messages);
+			respond(exchange, 200, result);
+			return;
+		}
+		throw new ApiException(404, "unknown resource");
+	}
+
+	private static boolean isControllerMode(String mode){
+		return "inclusion".equalsIgnoreCase(mode) || "exclusion".equalsIgnoreCase(mode) || "normal".equalsIgnoreCase(mode);
+	}
+
+	private Map<String, Object> describeController(ControllerSession session){
+		JWaveController controller = session.getController();
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		map.put("name", session.getName());
+		map.put("port", session.getPort());
+		map.put("mode", String.valueOf(controller.getControllerMode()));
+		map.put("connected", session.isConnected());
+		if (session.isConnected()){
+			map.put("homeId", controller.getHomeId());
+			map.put("controllerVersion", controller.getControllerVersion());
+			map.put("chipVersion", controller.getZWaveChipVersion());
+			map.put("nodes", controller.getNodes().size());
+		}
+		return map;
+	}
+
+	private List<Object> getNodes(ControllerSession session){
+		List<Object> list = new ArrayList<Object>();
+		for (JWaveNode node : session.getController().getNodes()){
+			list.add(describeNode(node));
+		}
+		return list;
+	}
+
+	private Map<String, Object> getNode(String address) throws ApiException {
+		ControllerSession session = getSessionOrFail(JWaveConsole.getControllerName(address));
+		int nodeId;
+		try {
+			nodeId = JWaveConsole.getNodeId(address);
+		} catch (NumberFormatException exc){
+			throw new ApiException(400, "invalid node id '"+address+"'");
+		}
+		for (JWaveNode node : session.getController().getNodes()){
+			if (node.getNodeId() == nodeId){
+				Map<String, Object> map = describeNode(node);
+				List<Object> polls = new ArrayList<Object>();
+				for (PollResult result : session.getPollEngine().getLatest(nodeId)){
+					Map<String, Object> poll = new LinkedHashMap<String, Object>();
+					poll.put("id", result.getScheduleId());
+					poll.put("command", result.getCommand());
+					poll.put("result", result.getResult().getLabel());
+					if (result.getReply() != null){
+						poll.put("reply", result.getReply());
+					}
+					if (result.getReading() != null){
+						poll.put("channel", result.getReading().getChannel());
+						poll.put("value", result.getReading().getValue() / (double)ReportDecoder.VALUE_SCALE);
+					}
+					poll.put("latencyMs", result.getLatencyNanos() / 1000000.0);
+					poll.put("time", result.getTimeMillis());
+					polls.add(poll);
+				}
+				map.put("polls", polls);
+				return map;
+			}
+		}
+		throw new ApiException(404, "there exists no node with id "+nodeId);
+	}
+
+	private Map<String, Object> describeNode(JWaveNode node){
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		map.put("id", node.getNodeId());
+		if (node.getGenericDeviceType() != null){
+			map.put("genericDeviceType", node.getGenericDeviceType().getKey());
+			map.put("genericDeviceTypeName", node.getGenericDeviceType().getName());
+		}
+		map.put("manufacturerId", node.getManufactureId());
+		map.put("productTypeId", node.getProductTypeId());
+		map.put("productId", node.getProductId());
+		List<Object> classes = new ArrayList<Object>();
+		if (node.getCommandClasses() != null){
+			for (JWaveCommandClass cc : node.getCommandClasses()){
+				Map<String, Object> cmdClass = new LinkedHashMap<String, Object>();
+				cmdClass.put("key", cc.getKey());
+				cmdClass.put("name", cc.getName());
+				classes.add(cmdClass);
+			}
+		}
+		map.put("commandClasses", classes);
+		return map;
+	}
+
+	private Map<String, Object> send(Map<String, Object> body) throws ApiException {
+		if (JWaveConsole.getController() == null){
+			throw new ApiException(503, "controller is not initialized");
+		}
+		List<String> cmd = new ArrayList<String>();
+		cmd.add("send");
+		cmd.add(getString(body, "node", true));
+		cmd.add(getString(body, "class", true));
+		cmd.add(getString(body, "command", true));
+		String version = getString(body, "version", false);
+		if (version != null){
+			cmd.add("-v="+version);
+		}
+		Object params = body.get("params");
+		if (params instanceof List){
+			for (Object param : (List<?>)params){
+				cmd.add(String.valueOf(param));
+			}
+		} else if (params != null){
+			throw new ApiException(400, "'params' must be an array");
+		}
+
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		OutputCapture.capture(output);
+		boolean sent = false;
+		SendTemplate template;
+		try {
+			synchronized (JWaveConsole.getCommandLock()){
+				template = JWaveConsole.compileSendCmd(cmd.toArray(new String[cmd.size()]));
+				if (template != null){
+					sent = JWaveConsole.sendTemplate(template);
+				}
+			}
+		} finally {
+			System.out.flush();
+			OutputCapture.release();
+		}
+		String messages = new String(output.toByteArray(), UTF8).trim();
+		if (template == null){
+			throw new ApiException(400, messages);
+		}
+		if (!sent){
+			throw new ApiException(409, messages);
+		}
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		result.put("queued", true);
+		result.put("priority", template.getPriority().getLabel());
+		result.put("command", template.toString());
+		return result;
+	}
+
+	private Map<String, Object> pollEvents(HttpExchange exchange) throws ApiException, InterruptedException {
+		long since = getLongParam(exchange, "since", eventLog.getSequence());
+		long timeout = Math.min(getLongParam(exchange, "timeout", DEFAULT_POLL_TIMEOUT_MS), MAX_POLL_TIMEOUT_MS);
+		List<Map<String, Object>> events = eventLog.await(since, timeout);
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		result.put("sequence", events.isEmpty() ? Math.max(since, 0) : events.get(events.size() - 1).get("seq"));
+		result.put("events", events);
+		return result;
+	}
+
+	private String capture(String[] cmd){
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		OutputCapture.capture(output);
+		try {
+			synchronized (JWaveConsole.getCommandLock()){
+				JWaveConsole.evalSetCmd(cmd);
+			}
+		} finally {
+			System.out.flush();
+			OutputCapture.release();
+		}
+		return new String(output.toByteArray(), UTF8).trim();
+	}
+
+	private ControllerSession getSessionOrFail(String name) throws ApiException {
+		ControllerSession session = JWaveConsole.getSession(name);
+		if (session == null){
+			throw new ApiException(404, name == null ? "controller is not initialized" : "there exists no controller '"+name+"'");
+		}
+		return session;
+	}
+
+	private static void requireMethod(String method, String expected) throws ApiException {
+		if (!expected.equalsIgnoreCase(method)){
+			throw new ApiException(405, "use "+expected);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> readBody(HttpExchange exchange) throws IOException, ApiException {
+		InputStream in = exchange.getRequestBody();
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1024];
+		int n;
+		while ((n = in.read(buffer)) > 0){
+			body.write(buffer, 0, n);
+		}
+		Object json;
+		try {
+			json = Json.parse(new String(body.toByteArray(), UTF8));
+		} catch (IllegalArgumentException exc){
+			throw new ApiException(400, "invalid json ("+exc.getMessage()+")");
+		}
+		if (!(json instanceof Map)){
+			throw new ApiException(400, "expected a json object");
+		}
+		return (Map<String, Object>)json;
+	}
+
+	private static String getString(Map<String, Object> body, String name, boolean required) throws ApiException {
+		Object value = body.get(name);
+		if (value == null){
+			if (required){
+				throw new ApiException(400, "missing '"+name+"'");
+			}
+			return null;
+		}
+		return String.valueOf(value);
+	}
+
+	private static String getQueryParam(HttpExchange exchange, String name) throws ApiException {
+		String query = exchange.getRequestURI().getRawQuery();
+		if (query == null){
+			return null;
+		}
+		for (String pair : query.split("&")){
+			int idx = pair.indexOf('=');
+			String key = idx < 0 ? pair : pair.substring(0, idx);
+			if (name.equals(key)){
+				try {
+					return idx < 0 ? "" : URLDecoder.decode(pair.substring(idx + 1), "UTF-8");
+				} catch (Exception exc){
+					throw new ApiException(400, "invalid parameter '"+name+"'");
+				}
+			}
+		}
+		return null;
+	}
+
+	private static long getLongParam(HttpExchange exchange, String name, long defaultValue) throws ApiException {
+		String value = getQueryParam(exchange, name);
+		if (value == null){
+			return defaultValue;
+		}
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException exc){
+			throw new ApiException(400, "invalid parameter '"+name+"'");
+		}
+	}
+
+	private static Map<String, Object> error(String message){
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		map.put("error", message);
+		return map;
+	}
+
+	private static void respond(HttpExchange exchange, int status, Object body) throws IOException {
+		byte[] bytes = Json.write(body).getBytes(UTF8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(bytes);
+		out.close();
+	}
+
+	private static class ApiException extends Exception {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int status;
+
+		ApiException(int status, String message){
+			super(message);
+			this.status = status;
+		}
+	}
+}
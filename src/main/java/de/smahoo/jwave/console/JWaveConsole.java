@@ -6,12 +6,40 @@ import de.smahoo.jwave.cmd.JWaveCommand;
 import de.smahoo.jwave.cmd.JWaveCommandClass;
 import de.smahoo.jwave.cmd.JWaveCommandClassSpecification;
 import de.smahoo.jwave.cmd.JWaveNodeCommand;
-import de.smahoo.jwave.event.JWaveErrorEvent;
-import de.smahoo.jwave.event.JWaveEvent;
-import de.smahoo.jwave.event.JWaveEventListener;
-import de.smahoo.jwave.node.JWaveNode;
-import de.smahoo.jwave.specification.JWaveSpecification;
-import gnu.io.CommPort;
+import de.smahoo.jwave.console.cmd.CommandIndex;
+import de.smahoo.jwave.console.cmd.NodeSelection;
+import de.smahoo.jwave.console.cmd.SendTemplate;
+import de.smahoo.jwave.console.cmd.SpecificationLoader;
+import de.smahoo.jwave.console.config.ConfigAutosave;
+import de.smahoo.jwave.console.config.ConfigJournal;
+import de.smahoo.jwave.console.event.EventBus;
+import de.smahoo.jwave.console.event.OverflowPolicy;
+import de.smahoo.jwave.console.history.HistoryRow;
+import de.smahoo.jwave.console.history.HistoryStore;
+import de.smahoo.jwave.console.history.ReportDecoder;
+import de.smahoo.jwave.console.interview.InterviewCache;
+import de.smahoo.jwave.console.interview.NodeInterviewer;
+import de.smahoo.jwave.console.io.SerialAdapter;
+import de.smahoo.jwave.console.io.SerialOptions;
+import de.smahoo.jwave.console.journal.EventJournal;
+import de.smahoo.jwave.console.log.Log;
+import de.smahoo.jwave.console.log.LogLevel;
+import de.smahoo.jwave.console.poll.PollEngine;
+import de.smahoo.jwave.console.remote.CommandHandler;
+import de.smahoo.jwave.console.remote.CommandServer;
+import de.smahoo.jwave.console.rules.Rule;
+import de.smahoo.jwave.console.rules.RuleAction;
+import de.smahoo.jwave.console.rules.RuleEngine;
+import de.smahoo.jwave.console.sched.ReplyTracker;
+import de.smahoo.jwave.console.sched.SendCallback;
+import de.smahoo.jwave.console.sched.SendPriority;
+import de.smahoo.jwave.console.sched.SendScheduler;
+import de.smahoo.jwave.console.sim.SimulatorConfig;
+import de.smahoo.jwave.console.state.NodeState;
+import de.smahoo.jwave.console.state.NodeStateCache;
+import de.smahoo.jwave.console.stats.LatencyHistogram;
+import de.smahoo.jwave.console.stats.RoundTripStats;
+import de.smahoo.jwave.console.stats.SendStatistics;
 import gnu.io.CommPortIdentifier;
 import gnu.io.NoSuchPortException;
 import gnu.io.SerialPort;
@@ -19,10 +47,24 @@ import gnu.io.SerialPort;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.InputStream;
+import java.io.IOException;
 import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
 import java.net.URL;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
 import java.util.StringTokenizer;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.function.BiConsumer;
 
 /**
  * @author Mathias Runge (mathias.runge@smahoo.de)
@@ -36,39 +78,75 @@ public class JWaveConsole implements Runnable {
 	private static JWaveController cntrl = null;
 	private static String cmdSpecificationPath = null;
 	
-	private static String currentSerialPort = null;
-	private static boolean keepAlive = true;
+	private static volatile boolean keepAlive = true;
 	private static String configFile;
-	private CommPort commPort = null;
+	private static String scriptFile = null;
+	private static final CountDownLatch controllerInitialized = new CountDownLatch(1);
+	private static JWaveCommandClassSpecification specification = null;
+	private static ControllerSession defaultSession = null;
+	private static final Map<String, ControllerSession> sessions = new ConcurrentHashMap<String, ControllerSession>();
+	// commands of all front ends (console, scripts, remote clients, http) run one at a time
+	// under this lock, it guards the static state below and the controller calls of the commands
+	private static final Object commandLock = new Object();
+	private static ConsoleWatch watch = null;
+	private static EventJournal journal = null;
+	private static CommandServer remoteServer = null;
+	private static String listenAddress = null;
+	private static HttpControlApi httpApi = null;
+	private static int inFlightPerNode = SendScheduler.DEFAULT_NODE_LIMIT;
+	private static int inFlightTotal = SendScheduler.DEFAULT_TOTAL_LIMIT;
+	private static String httpAddress = null;
+	private static EventBus.Subscription journalSubscription = null;
+	private static volatile CommandIndex commandIndex = null;
+	private static ConfigAutosave autosave = null;
+	private static NodeInterviewer interviewer = null;
+	private static HistoryStore history = null;
+	private static SpecificationLoader specLoader = null;
+	private static final StartupTimer startup = new StartupTimer();
+	private static String launchPort = null;
+	private static FutureTask<SerialPort> launchPortOpen = null;
+	private static final Map<String, SendTemplate> definitions = new ConcurrentHashMap<String, SendTemplate>();
+	private static final Map<String, NodeSelection> groups = new ConcurrentHashMap<String, NodeSelection>();
+	private static final RuleEngine rules = new RuleEngine(new RuleAction() {
+		public boolean send(SendTemplate template) {
+			return sendTemplate(template);
+		}
+	});
+	private static final String[] RESERVED_WORDS = {"help", "save", "load", "reset", "exit", "send", "connect", "print", "set", "define", "undefine", "run", "sleep", "journal", "replay", "watch", "listen", "http", "group", "ungroup", "poll", "get", "rule"};
+	private static final String CONFIG_NAME = "console";
+	// log of the z-wave library itself, it logs when this is at debug or trace
+	private static final String JWAVE_LOG = "jwave";
 
 	
 	
-	public void run(){		
+	/**
+	 * Loads the specification and creates the controller. Returns false if
+	 * the console is not usable.
+	 */
+	protected boolean initController(){		
 		System.out.println("Using JWave v"+JWaveController.getVersion());
 		JWaveCommandClassSpecification spec = null;
-		String path;
 		if (cmdSpecificationPath != null) {
-			path = System.getProperty("user.dir") + System.getProperty("file.separator") + cmdSpecificationPath;
 			System.out.print("loading Z-Wave Specification ("+cmdSpecificationPath+") ... ");
-			try {
-				spec = new JWaveCommandClassSpecification(path);
-			} catch (Exception exc){
-				System.out.println("ERROR");
-				exc.printStackTrace();
-				return;
-			}
 		} else {
 			System.out.print("loading default Z-Wave Specification from resource ... ");
-			try {
-				spec = JWaveSpecification.loadDefaultSpecification();
-			} catch (Exception exc){
-				System.out.println("ERROR");
-				exc.printStackTrace();
-				return;
-			}
+		}
+		long start = System.nanoTime();
+		StartupTimer.Phase phase = startup.begin("wait for specification");
+		try {
+			spec = specLoader.get();
+			System.out.println(String.format("OK (%.0f ms)", (System.nanoTime() - start) / 1000000.0));
+		} catch (Exception exc){
+			System.out.println("ERROR");
+			exc.printStackTrace();
+			return false;
+		} finally {
+			phase.end();
+			startup.record("specification xml parse", "jwave-spec", specLoader.getParseStartNanos(), specLoader.getParseNanos());
 		}
 
 		System.out.print("generating controller ...");
+		phase = startup.begin("controller");
 			try {
 				cntrl = new JWaveController(spec);
 				System.out.println("OK");
@@ -76,27 +154,37 @@ public class JWaveConsole implements Runnable {
 				System.out.println("ERROR");
 				System.out.println(exc.getMessage());
 			}
+		phase.end();
 
-		JWaveController.doLogging(true);
+		// the library logs synchronously on the receive thread, only when asked for
+		JWaveController.doLogging(Log.get(JWAVE_LOG).isEnabled(LogLevel.DEBUG));
 		if (cntrl == null){
 			System.out.println("Unable to initialize Controller");
-			return;
+			return false;
 		}
 		if (cntrl.getCommandClassSpecifications() == null){				
 			// mist
 			System.out.println("Controller was not initialized with zwave specifications. Will exit now");
+			return false;
+		}
+		specification = spec;
+		commandIndex = new CommandIndex(cntrl.getCommandClassSpecifications());
+		defaultSession = new ControllerSession(ControllerSession.DEFAULT_NAME, cntrl);
+		sessions.put(defaultSession.getName(), defaultSession);
+		rules.attach(defaultSession.getName(), defaultSession.getEventBus());
+		return true;
+	}
+	
+	public void run(){
+		boolean initialized;
+		synchronized (commandLock){
+			initialized = startUp();
+		}
+		controllerInitialized.countDown();
+		if (!initialized){
 			return;
 		}
 		
-		cntrl.addCntrlListener(new JWaveEventListener() {
-			
-
-			public void onJWaveEvent(JWaveEvent event) {
-				handleZWaveEvent(event);
-				
-			}
-		});
-				
 		System.out.println("Ready! Please type command (type 'help' for command list):");
 		//System.out.print("> ");
 		while (keepAlive){
@@ -105,38 +193,193 @@ public class JWaveConsole implements Runnable {
 			} catch (InterruptedException exc){
 				// do nothing - interrupt seems to be intended
 			}
-		}		
+		}
+		synchronized (commandLock){
+			shutDown();
+		}
+		Log.getWriter().close();
+	}
+	
+	private boolean startUp(){
+		boolean initialized = initController();
+		StartupTimer.Phase phase;
+		if (initialized){
+			phase = startup.begin("configuration");
+			openConfig();
+			phase.end();
+		}
+		if (initialized && interviewer != null){
+			// the known nodes are loaded before the controller is connected
+			phase = startup.begin("warm start");
+			interviewer.warmStart(cntrl);
+			// loading the cached nodes comes without events
+			defaultSession.getNodeStates().reload();
+			phase.end();
+		}
+		if (initialized && launchPort != null){
+			connectLaunchPort();
+		} else if (launchPortOpen != null){
+			closeLaunchPort();
+		}
+		if (initialized && listenAddress != null){
+			phase = startup.begin("remote command server");
+			startListening(listenAddress);
+			phase.end();
+		}
+		if (initialized && httpAddress != null){
+			phase = startup.begin("http api");
+			startHttp(httpAddress);
+			phase.end();
+		}
+		startup.ready();
+		return initialized;
+	}
+	
+	private void shutDown(){
 		try {
-			cntrl.dispose();
-			if (commPort != null){
-				commPort.close();
+			stopListening();
+			stopHttp();
+			stopJournal();
+			stopWatch();
+			if (interviewer != null){
+				interviewer.close();
+			}
+			if (history != null){
+				history.close();
+			}
+			if (autosave != null){
+				autosave.close();
+			}
+			for (ControllerSession session : sessions.values()){
+				session.dispose();
 			}
 		} catch (Exception exc){
 			exc.printStackTrace();
 		}
 	}
 	
-	protected void handleZWaveEvent(JWaveEvent event){
-		switch (event.getEventType()){
-			case ERROR_IO_CONNECTION:
-				if (event instanceof JWaveErrorEvent){
-					JWaveErrorEvent errEvnt = (JWaveErrorEvent)event;
-					handleIOError(errEvnt.getMessage(),errEvnt.getThrowable());
+	/**
+	 * Enumerates the serial ports and opens the launch port (--port) on the
+	 * thread jwave-port, so it overlaps loading the specification.
+	 */
+	protected static FutureTask<SerialPort> openLaunchPort(final String port){
+		FutureTask<SerialPort> task = new FutureTask<SerialPort>(new Callable<SerialPort>() {
+			public SerialPort call() throws Exception {
+				StartupTimer.Phase phase = startup.begin("serial port enumeration");
+				CommPortIdentifier.getPortIdentifiers();
+				phase.end();
+				phase = startup.begin("serial port open");
+				try {
+					return ControllerSession.openSerialPort(port, new SerialOptions());
+				} finally {
+					phase.end();
 				}
-				break;
-			default:
-				break;
+			}
+		});
+		Thread t = new Thread(task, "jwave-port");
+		t.setDaemon(true);
+		t.start();
+		return task;
+	}
+	
+	protected static void connectLaunchPort(){
+		StartupTimer.Phase phase = startup.begin("connect");
+		System.out.println("Connecting to "+launchPort);
+		try {
+			if (launchPortOpen == null){
+				defaultSession.connect(launchPort);
+				return;
+			}
+			defaultSession.connect(launchPort, launchPortOpen.get(), new SerialOptions());
+		} catch (ExecutionException exc){
+			if (exc.getCause() instanceof NoSuchPortException){
+				System.out.println("ERROR: there exists no port with the name '"+launchPort+"'."+"\r\n"+
+								   "    ==>Type 'print serial' to get a list of available serial ports.");
+			} else {
+				System.out.println("Unable to open port '"+launchPort+"' ("+exc.getCause().getMessage()+")");
+			}
+		} catch (InterruptedException exc){
+			Thread.currentThread().interrupt();
+		} finally {
+			phase.end();
+		}
+	}
+	
+	protected static void closeLaunchPort(){
+		try {
+			launchPortOpen.get().close();
+		} catch (Exception exc){
+			// port was not opened
 		}
 	}
 	
+	static JWaveController getController(){
+		return cntrl;
+	}
 	
-	protected void handleIOError(String message, Throwable throwable){
-		System.out.println("IO-ERROR - "+message);
-		if (commPort != null){			
-			System.out.println("Serial Connection will be closed.");
-			commPort.close();
+	static void setController(JWaveController controller){
+		if (defaultSession != null){
+			defaultSession.detach();
+			sessions.remove(defaultSession.getName());
+			defaultSession = null;
 		}
-		
+		cntrl = controller;
+		if (controller == null){
+			commandIndex = null;
+			return;
+		}
+		specification = controller.getCommandClassSpecifications();
+		commandIndex = new CommandIndex(specification);
+		defaultSession = new ControllerSession(ControllerSession.DEFAULT_NAME, controller);
+		sessions.put(defaultSession.getName(), defaultSession);
+		rules.attach(defaultSession.getName(), defaultSession.getEventBus());
+		if (history != null){
+			history.attach(defaultSession.getName(), defaultSession.getEventBus());
+		}
+		if (autosave != null){
+			autosave.setTarget(controller, defaultSession.getEventBus(), configFile);
+		}
+		if (interviewer != null){
+			interviewer.setTarget(controller, defaultSession.getReplyTracker(), getInterviewCommand());
+		}
+	}
+	
+	/**
+	 * The session with the given name, the default session for null.
+	 */
+	static ControllerSession getSession(String name){
+		if (name == null){
+			return defaultSession;
+		}
+		return sessions.get(name);
+	}
+	
+	/**
+	 * Controller part of a node address (&lt;controller&gt;:&lt;node id&gt;), null if the address has none.
+	 */
+	protected static String getControllerName(String address){
+		int idx = address.indexOf(':');
+		if (idx <= 0){
+			return null;
+		}
+		return address.substring(0, idx);
+	}
+	
+	/**
+	 * Node id part of a node address (&lt;controller&gt;:&lt;node id&gt; or &lt;node id&gt;).
+	 */
+	protected static int getNodeId(String address) throws NumberFormatException {
+		int idx = address.indexOf(':');
+		return CommandIndex.parseInt(idx < 0 ? address : address.substring(idx + 1));
+	}
+	
+	protected static ControllerSession getSessionOfAddress(String address){
+		String name = getControllerName(address);
+		ControllerSession session = getSession(name);
+		if (session == null){
+			System.out.println("There exists no controller '"+name+"'. Type 'print controllers' for a list of controllers.");
+		}
+		return session;
 	}
 	
 	protected static boolean checkConnection(){
@@ -147,89 +390,483 @@ public class JWaveConsole implements Runnable {
 		return true;
 	}
 	
-	protected void connect(String port){		
-			
-			int baudrate = 115200;
-			
-			CommPortIdentifier portIdentifier = null;
-		    
-			try {
-		        	portIdentifier = CommPortIdentifier.getPortIdentifier(port);
-		    } catch (NoSuchPortException exc){
-		        	//exc.printStackTrace();
-		    		System.out.println("ERROR: there exists no port with the name '"+port+"'."+"\r\n"+
-		    						   "    ==>Type 'print serial' to get a list of available serial ports.");
-		    		return;
-		    }
-		    
-			if ( portIdentifier.isCurrentlyOwned() ) {
-		            System.out.println("Error: Port '"+port+"' is currently in use");
-		    } else   {
-		    	try {
-		          commPort = portIdentifier.open(this.getClass().getName(),2000);
-		            
-		            if ( commPort instanceof SerialPort )  {
-		                SerialPort serialPort = (SerialPort) commPort;
-		                serialPort.setSerialPortParams(baudrate,SerialPort.DATABITS_8,SerialPort.STOPBITS_1,SerialPort.PARITY_NONE);                    
-		                serialPort.enableReceiveTimeout(500000);          
-		                
-		                cntrl.init(serialPort.getInputStream(),serialPort.getOutputStream());
-		                currentSerialPort = port;
-		              
-		               
-		            }  else  {
-		            	
-		         
-		            }
-		    	} catch (Exception exc){
-		    		exc.printStackTrace();
-		    	}
-		   }  
+	protected static void evalReplayCmd(String[] cmd){
+		if (cmd.length < 2 || cmd.length > 3){
+			System.out.println("Invalid replay command -> replay <journal> [speed|max]");
+			return;
+		}
+		double speed = 1.0;
+		if (cmd.length == 3){
+			if ("max".equalsIgnoreCase(cmd[2])){
+				speed = 0;
+			} else {
+				try {
+					speed = Double.parseDouble(cmd[2]);
+				} catch (NumberFormatException exc){
+					System.out.println("Invalid replay speed ("+cmd[2]+")");
+					return;
+				}
+				if (speed <= 0){
+					System.out.println("Invalid replay speed ("+cmd[2]+"), use 'max' to replay without delays");
+					return;
+				}
+			}
+		}
+		System.out.println("Replaying "+cmd[1]+(speed > 0 ? " at "+speed+"x" : " without delays"));
+		defaultSession.replay(cmd[1], speed);
+	}
+	
+	protected static void evalJournalCmd(String[] cmd){
+		if (cmd.length != 2){
+			System.out.println("Invalid journal command -> journal <file> | journal stop");
+			return;
+		}
+		if ("stop".equalsIgnoreCase(cmd[1])){
+			if (journal == null){
+				System.out.println("No journal is running");
+				return;
+			}
+			EventJournal stopped = journal;
+			stopJournal();
+			System.out.println("Journal "+stopped.getFile().getPath()+" closed ("+stopped.getRecords()+" records)");
+			return;
+		}
+		stopJournal();
+		try {
+			journal = new EventJournal(new File(cmd[1]));
+		} catch (Exception exc){
+			System.out.println("Unable to open journal '"+cmd[1]+"' ("+exc.getMessage()+")");
+			return;
+		}
+		defaultSession.getTrafficTap().addListener(journal);
+		journalSubscription = defaultSession.getEventBus().subscribe("journal", journal);
+		System.out.println("Journaling events and serial frames to "+cmd[1]);
+	}
+	
+	protected static void stopJournal(){
+		if (journal == null){
+			return;
+		}
+		defaultSession.getTrafficTap().removeListener(journal);
+		if (journalSubscription != null){
+			defaultSession.getEventBus().unsubscribe(journalSubscription);
+			journalSubscription = null;
+		}
+		try {
+			journal.close();
+		} catch (Exception exc){
+			System.out.println("Error while closing journal ("+exc.getMessage()+")");
+		}
+		journal = null;
+	}
+	
+	protected static void evalListenCmd(String[] cmd){
+		if (cmd.length != 2){
+			System.out.println("Invalid listen command -> listen [host:]<port> | listen stop");
+			return;
+		}
+		if ("stop".equalsIgnoreCase(cmd[1])){
+			if (remoteServer == null){
+				System.out.println("Remote command server is not running");
+				return;
+			}
+			stopListening();
+			System.out.println("Remote command server stopped");
+			return;
+		}
+		startListening(cmd[1]);
+	}
+	
+	/**
+	 * Starts the remote command server on [host:]port. Without host it
+	 * listens on the loopback interface; other interfaces are refused, the
+	 * server has no authentication.
+	 */
+	protected static boolean startListening(String address){
+		InetSocketAddress socketAddress = parseAddress(address);
+		if (socketAddress == null){
+			System.out.println("Invalid listen address '"+address+"' -> listen [host:]<port>");
+			return false;
+		}
+		if (!isLoopback(socketAddress)){
+			System.out.println("Refusing to listen on "+address+", remote commands are only accepted on the loopback interface (e.g. 127.0.0.1)");
+			return false;
+		}
+		stopListening();
+		CommandServer server = new CommandServer(socketAddress, new CommandHandler() {
+			public void execute(String line) {
+				evalCmd(line);
+			}
+		});
+		try {
+			server.start();
+		} catch (Exception exc){
+			System.out.println("Unable to listen on "+socketAddress+" ("+exc.getMessage()+")");
+			return false;
+		}
+		remoteServer = server;
+		for (ControllerSession session : sessions.values()){
+			server.attach(session.getName(), session.getEventBus());
+		}
+		System.out.println("Listening for remote commands on "+socketAddress);
+		return true;
+	}
+	
+	protected static void stopListening(){
+		if (remoteServer != null){
+			remoteServer.stop();
+			remoteServer = null;
+		}
+	}
+	
+	/**
+	 * Parses [host:]port, without host the loopback interface. Returns null
+	 * if the address is invalid.
+	 */
+	protected static InetSocketAddress parseAddress(String address){
+		String host = "127.0.0.1";
+		String port = address;
+		int index = address.lastIndexOf(':');
+		if (index >= 0){
+			host = address.substring(0, index);
+			port = address.substring(index + 1);
+		}
+		try {
+			return new InetSocketAddress(host, Integer.parseInt(port));
+		} catch (IllegalArgumentException exc){
+			return null;
+		}
+	}
+	
+	/**
+	 * Remote commands and the http api have no authentication, anyone who
+	 * reaches them may send commands or 'exit'. They only bind to loopback
+	 * addresses; use an ssh tunnel to reach them from elsewhere.
+	 */
+	protected static boolean isLoopback(InetSocketAddress address){
+		return !address.isUnresolved() && address.getAddress().isLoopbackAddress();
+	}
+	
+	protected static void evalHttpCmd(String[] cmd){
+		if (cmd.length != 2){
+			System.out.println("Invalid http command -> http [host:]<port> | http stop");
+			return;
+		}
+		if ("stop".equalsIgnoreCase(cmd[1])){
+			if (httpApi == null){
+				System.out.println("HTTP API is not running");
+				return;
+			}
+			stopHttp();
+			System.out.println("HTTP API stopped");
+			return;
+		}
+		startHttp(cmd[1]);
+	}
+	
+	protected static boolean startHttp(String address){
+		InetSocketAddress socketAddress = parseAddress(address);
+		if (socketAddress == null){
+			System.out.println("Invalid http address '"+address+"' -> http [host:]<port>");
+			return false;
+		}
+		if (!isLoopback(socketAddress)){
+			System.out.println("Refusing to serve http on "+address+", the api is only available on the loopback interface (e.g. 127.0.0.1)");
+			return false;
+		}
+		stopHttp();
+		HttpControlApi api = new HttpControlApi(socketAddress);
+		try {
+			api.start();
+		} catch (Exception exc){
+			System.out.println("Unable to start HTTP API on "+socketAddress+" ("+exc.getMessage()+")");
+			return false;
+		}
+		httpApi = api;
+		for (ControllerSession session : sessions.values()){
+			api.attach(session.getName(), session.getEventBus(), session.getPollEngine());
+		}
+		System.out.println("HTTP API available at http://"+api.getAddress().getHostString()+":"+api.getAddress().getPort()+HttpControlApi.CONTEXT);
+		return true;
+	}
+	
+	protected static void stopHttp(){
+		if (httpApi != null){
+			httpApi.stop();
+			httpApi = null;
+		}
+	}
+	
+	protected static void printHttp(){
+		if (httpApi == null){
+			System.out.println("HTTP API is not running. Start it with 'http <port>'.");
+			return;
+		}
+		System.out.println(httpApi.getStatistics());
+	}
+	
+	protected static void printClients(){
+		if (remoteServer == null){
+			System.out.println("Remote command server is not running. Start it with 'listen <port>'.");
+			return;
+		}
+		System.out.println(remoteServer.getStatistics());
+	}
+	
+	protected static void printJournal(){
+		if (journal == null){
+			System.out.println("No journal is running. Start one with 'journal <file>'.");
+			return;
+		}
+		System.out.println("journal "+journal.getFile().getPath()+": "+journal.getRecords()+" records, "+journal.getSize()+" bytes");
+	}
+	
+	protected static void printTraffic(int count){
+		StringBuilder sb = new StringBuilder();
+		sb.append("--------------------------------------------------------------------------").append("\r\n");
+		sb.append("                          Serial Traffic").append("\r\n");
+		sb.append("--------------------------------------------------------------------------").append("\r\n");
+		for (String line : defaultSession.getTrafficRing().formatLast(count)){
+			sb.append(line).append("\r\n");
+		}
+		sb.append("--------------------------------------------------------------------------").append("\r\n");
+		sb.append(defaultSession.getTrafficRing().getStatistics()).append("\r\n");
+		sb.append("--------------------------------------------------------------------------");
+		System.out.println(sb);
+	}
+	
+	protected static void printStats(){
+		SendStatistics sendStatistics = defaultSession.getSendStatistics();
+		sendStatistics.expirePending();
+		StringBuilder sb = new StringBuilder();
+		sb.append("-------------------------------------------------------------------------------------------").append("\r\n");
+		sb.append("                          Command Round Trips (latency in ms)").append("\r\n");
+		sb.append("-------------------------------------------------------------------------------------------").append("\r\n");
+		appendStatsHeader(sb, "node");
+		for (int nodeId = 0; nodeId < 256; nodeId++){
+			RoundTripStats stats = sendStatistics.getNodeStats(nodeId);
+			if (stats != null){
+				appendStatsRow(sb, String.valueOf(nodeId), stats);
+			}
+		}
+		sb.append("\r\n");
+		appendStatsHeader(sb, "command class");
+		for (int key = 0; key < 256; key++){
+			RoundTripStats stats = sendStatistics.getClassStats(key);
+			if (stats != null){
+				appendStatsRow(sb, getClassName(key), stats);
+			}
+		}
+		sb.append("\r\n");
+		appendStatsRow(sb, "total", sendStatistics.getTotal());
+		sb.append("-------------------------------------------------------------------------------------------");
+		System.out.println(sb);
+	}
+	
+	protected static void printStats(String address){
+		ControllerSession session = getSessionOfAddress(address);
+		if (session == null){
+			return;
 		}
+		int nodeId;
+		try {
+			nodeId = getNodeId(address);
+		} catch (NumberFormatException exc){
+			System.out.println("Invalid print stats command -> print stats [[controller:]node id]");
+			return;
+		}
+		SendStatistics sendStatistics = session.getSendStatistics();
+		sendStatistics.expirePending();
+		RoundTripStats stats = sendStatistics.getNodeStats(nodeId);
+		if (stats == null){
+			System.out.println("No commands were sent to node "+address+" yet");
+			return;
+		}
+		StringBuilder sb = new StringBuilder();
+		sb.append("--------------------------------------------------").append("\r\n");
+		sb.append("             Round Trips of Node ").append(address).append("\r\n");
+		sb.append("--------------------------------------------------").append("\r\n");
+		sb.append("                      sent = ").append(stats.getSent()).append("\r\n");
+		sb.append("                    failed = ").append(stats.getFailed()).append("\r\n");
+		sb.append("                 timed out = ").append(stats.getTimedOut()).append("\r\n");
+		sb.append("                throughput = ").append(String.format("%.1f sends/s", stats.getThroughput())).append("\r\n");
+		appendHistogram(sb, "transmit complete", stats.getAckLatency());
+		appendHistogram(sb, "report", stats.getReportLatency());
+		sb.append("--------------------------------------------------");
+		System.out.println(sb);
+	}
+	
+	private static void appendStatsHeader(StringBuilder sb, String title){
+		sb.append(String.format("  %-28s %7s %7s %7s %7s %8s %8s %8s %8s %8s", title, "sent", "ok", "failed", "timeout",
+				"p50", "p99", "max", "rep p50", "sends/s")).append("\r\n");
+	}
+	
+	private static void appendStatsRow(StringBuilder sb, String title, RoundTripStats stats){
+		LatencyHistogram ack = stats.getAckLatency();
+		sb.append(String.format("  %-28s %7d %7d %7d %7d %8.1f %8.1f %8.1f %8.1f %8.1f", title, stats.getSent(),
+				ack.getCount() - stats.getFailed(), stats.getFailed(), stats.getTimedOut(),
+				ack.getPercentile(50) / 1000.0, ack.getPercentile(99) / 1000.0, ack.getMax() / 1000.0,
+				stats.getReportLatency().getPercentile(50) / 1000.0, stats.getThroughput())).append("\r\n");
+	}
+	
+	private static void appendHistogram(StringBuilder sb, String title, LatencyHistogram histogram){
+		sb.append("\r\n");
+		sb.append("  ").append(title).append(" (").append(histogram.getCount()).append(" samples)").append("\r\n");
+		sb.append(String.format("                 p50 / p90 = %.1f / %.1f ms", histogram.getPercentile(50) / 1000.0, histogram.getPercentile(90) / 1000.0)).append("\r\n");
+		sb.append(String.format("                 p99 / max = %.1f / %.1f ms", histogram.getPercentile(99) / 1000.0, histogram.getMax() / 1000.0)).append("\r\n");
+		sb.append(String.format("                      mean = %.1f ms", histogram.getMean() / 1000.0)).append("\r\n");
+	}
+	
+	protected static String getClassName(int key){
+		String name = null;
+		if (cntrl != null && cntrl.getCommandClassSpecifications() != null){
+			JWaveCommandClass cmdClass = cntrl.getCommandClassSpecifications().getCommandClass(key, 1);
+			if (cmdClass != null){
+				name = cmdClass.getName();
+			}
+		}
+		String hex = "0x"+Integer.toHexString(key);
+		return name == null ? hex : hex+" "+name;
+	}
 	
+	protected static void evalWatchCmd(String[] cmd){
+		if (cmd.length < 2){
+			System.out.println("Invalid watch command -> watch <traffic|nodes [filter]|stop>");
+			return;
+		}
+		if ("stop".equalsIgnoreCase(cmd[1])){
+			stopWatch();
+			return;
+		}
+		ConsoleWatch newWatch = null;
+		if ("traffic".equalsIgnoreCase(cmd[1])){
+			newWatch = new TrafficWatch(defaultSession.getTrafficRing());
+		}
+		if ("nodes".equalsIgnoreCase(cmd[1])){
+			newWatch = createNodeWatch(cmd.length > 2 ? join(cmd, 2) : null);
+			if (newWatch == null){
+				return;
+			}
+		}
+		if (newWatch == null){
+			System.out.println("Unknown watch command ("+cmd[1]+")");
+			return;
+		}
+		stopWatch();
+		watch = newWatch;
+		System.out.println("Watching "+watch.getName()+", type 'watch stop' to end");
+		watch.start();
+	}
 	
+	/**
+	 * @param filter node list like '[name:]2,5,10-40', any other text is matched against the rows, may be null
+	 */
+	protected static ConsoleWatch createNodeWatch(String filter){
+		ControllerSession session = defaultSession;
+		NodeSelection selection = null;
+		String text = filter;
+		if (filter != null && filter.matches("([^:\\s]+:)?[0-9,-]+")){
+			try {
+				selection = NodeSelection.parse(filter);
+			} catch (IllegalArgumentException exc){
+				System.out.println("Invalid node selection ("+exc.getMessage()+")");
+				return null;
+			}
+			session = getSession(selection.getControllerName());
+			if (session == null){
+				System.out.println("There exists no controller '"+selection.getControllerName()+"'");
+				return null;
+			}
+			text = null;
+		}
+		if (session == null){
+			System.out.println("Controller is not initialized");
+			return null;
+		}
+		return new NodeWatch(session.getNodeStates(), selection, text);
+	}
 	
+	protected static void stopWatch(){
+		if (watch != null){
+			watch.stop();
+			watch = null;
+		}
+	}
 	
 	protected static void printNodes(){
-		if (cntrl==null){
+		printNodes(defaultSession);
+	}
+	
+	protected static void printNodes(ControllerSession session){
+		if (session==null){
 			System.out.println("Controller is not initialized. Unable to print nodes.");
 			return;
 		}
-		
-		if (cntrl.getNodes().size() <=1){
+		NodeStateCache states = session.getNodeStates();
+		if (states.size() <=1){
 			System.out.println("No nodes connected to this controller");
 			return;
 		}
-		
-		for (JWaveNode node : cntrl.getNodes()){
-			System.out.println("");
-			printNode(node);
+		// one write for all nodes, the event threads keep updating the cache meanwhile
+		StringBuilder sb = new StringBuilder();
+		for (NodeState state : states.getNodes()){
+			sb.append("\r\n");
+			appendNode(sb, state);
+		}
+		System.out.print(sb);
+	}
+	
+	protected static void printNode(String address){
+		ControllerSession session = getSessionOfAddress(address);
+		if (session == null){
+			return;
+		}
+		int id;
+		try {
+			id = getNodeId(address);
+		} catch (NumberFormatException exc){
+			System.out.println("Invalid node id ("+address+")");
+			return;
 		}
+		printNode(session, id);
 	}
 	
 	protected static void printNode(int id){
-		for (JWaveNode node : cntrl.getNodes()){
-			if (node.getNodeId() == id){
-				printNode(node);
-				return;
-			}
+		printNode(defaultSession, id);
+	}
+	
+	protected static void printNode(ControllerSession session, int id){
+		NodeState state = session.getNodeStates().get(id);
+		if (state == null){
+			System.out.println("There exists no node with id = "+id);
+			return;
 		}
-		System.out.println("There exists no node with id = "+id);
+		StringBuilder sb = new StringBuilder();
+		appendNode(sb, state);
+		System.out.print(sb);
 	}
 	
-	protected static void printNode(JWaveNode node) {
-		System.out.println("===========================================================================");		
-		System.out.println("             NODE "+node.getNodeId()+" | 0x"+Integer.toHexString(node.getGenericDeviceType().getKey())+" | "+node.getGenericDeviceType().getName());
-		System.out.println("---------------------------------------------------------------------------");
-		System.out.println("    Manufacturer 0x"+Integer.toHexString(node.getManufactureId()));
-		System.out.println("    Product Type 0x"+Integer.toHexString(node.getProductTypeId()));
-		System.out.println("         Product 0x"+Integer.toHexString(node.getProductId()));		
-		System.out.println("---------------------------------------------------------------------------");
-		System.out.println(" COMMAND CLASSES");
-		for (JWaveCommandClass cc : node.getCommandClasses()){
-			System.out.println("   0x"+Integer.toHexString(cc.getKey())+" "+cc.getName());
-		}		
-		System.out.println("---------------------------------------------------------------------------");
+	protected static void appendNode(StringBuilder sb, NodeState state) {
+		sb.append("===========================================================================").append("\r\n");
+		sb.append("             NODE "+state.getNodeId()+" | 0x"+Integer.toHexString(state.getDeviceTypeKey())+" | "+state.getDeviceTypeName()).append("\r\n");
+		sb.append("---------------------------------------------------------------------------").append("\r\n");
+		sb.append("    Manufacturer 0x"+Integer.toHexString(state.getManufacturerId())).append("\r\n");
+		sb.append("    Product Type 0x"+Integer.toHexString(state.getProductTypeId())).append("\r\n");
+		sb.append("         Product 0x"+Integer.toHexString(state.getProductId())).append("\r\n");
+		sb.append("       Last seen "+(state.getLastSeenMillis() == 0 ? "-" : String.format("%tF %<tT", state.getLastSeenMillis()))).append("\r\n");
+		sb.append("---------------------------------------------------------------------------").append("\r\n");
+		sb.append(" COMMAND CLASSES").append("\r\n");
+		for (String cc : state.getCommandClasses()){
+			sb.append("   "+cc).append("\r\n");
+		}
+		if (!state.getReports().isEmpty()){
+			sb.append("---------------------------------------------------------------------------").append("\r\n");
+			sb.append(" LATEST REPORTS").append("\r\n");
+			for (String report : state.getReports().values()){
+				sb.append("   "+report).append("\r\n");
+			}
+		}
+		sb.append("---------------------------------------------------------------------------").append("\r\n");
 	}
 	
 	
@@ -239,317 +876,1580 @@ public class JWaveConsole implements Runnable {
 		for (int i = 0; i<pcmd.length; i++){
 			pcmd[i] = tok.nextToken();
 		}
-		
-		if ("send".equals(pcmd[0])){
-			evalSendCmd(pcmd);
+		
+		if ("send".equals(pcmd[0])){
+			evalSendCmd(pcmd);
+			return;
+		}
+		if ("connect".equalsIgnoreCase(pcmd[0])){
+			evalConnectCmd(pcmd);
+			return;
+		}		
+		if ("print".equalsIgnoreCase(pcmd[0])){
+			evalPrintCmd(pcmd);
+			return;
+		}
+			
+		if ("set".equalsIgnoreCase(pcmd[0])){
+			evalSetCmd(pcmd);
+			return;
+		}
+		if ("load".equalsIgnoreCase(pcmd[0])){
+			evalLoadCmd(pcmd);
+			return;
+		}		
+		if ("save".equalsIgnoreCase(pcmd[0])){
+			evalSaveCmd(pcmd);
+			return;
+		}
+		if ("define".equalsIgnoreCase(pcmd[0])){
+			evalDefineCmd(pcmd);
+			return;
+		}
+		if ("undefine".equalsIgnoreCase(pcmd[0])){
+			evalUndefineCmd(pcmd);
+			return;
+		}
+		if ("poll".equalsIgnoreCase(pcmd[0])){
+			evalPollCmd(pcmd);
+			return;
+		}
+		if ("get".equalsIgnoreCase(pcmd[0])){
+			evalGetCmd(pcmd);
+			return;
+		}
+		if ("rule".equalsIgnoreCase(pcmd[0])){
+			evalRuleCmd(pcmd);
+			return;
+		}
+		if ("group".equalsIgnoreCase(pcmd[0])){
+			evalGroupCmd(pcmd);
+			return;
+		}
+		if ("ungroup".equalsIgnoreCase(pcmd[0])){
+			evalUngroupCmd(pcmd);
+			return;
+		}
+		if ("run".equalsIgnoreCase(pcmd[0])){
+			evalRunCmd(pcmd);
+			return;
+		}
+		if ("journal".equalsIgnoreCase(pcmd[0])){
+			evalJournalCmd(pcmd);
+			return;
+		}
+		if ("watch".equalsIgnoreCase(pcmd[0])){
+			evalWatchCmd(pcmd);
+			return;
+		}
+		if ("replay".equalsIgnoreCase(pcmd[0])){
+			evalReplayCmd(pcmd);
+			return;
+		}
+		if ("listen".equalsIgnoreCase(pcmd[0])){
+			evalListenCmd(pcmd);
+			return;
+		}
+		if ("http".equalsIgnoreCase(pcmd[0])){
+			evalHttpCmd(pcmd);
+			return;
+		}
+		System.out.println("Unknown command ("+pcmd[0]+").");
+	}
+	
+	protected static void reset(){		
+		if (!checkConnection()){
+			return;
+		}
+		System.out.println("Resetting the controller");
+		cntrl.resetController();
+		return;
+	}
+	
+	protected static void evalSaveCmd(String[] cmd){
+		if (cmd.length < 2){
+			System.out.println("invalid save cmd");
+		}
+		saveSpecification(cmd[1]);;
+	}
+	
+	
+	protected static void evalLoadCmd(String[] cmd){
+		if (cmd.length < 2){
+			System.out.println("invalid load cmd");
+		}
+		loadSpecification(cmd[1]);;
+	}
+	
+	
+	protected static void saveSpecification(String path){	
+		if (autosave != null){
+			System.out.println("Saving nodes configuration in the background");
+			autosave.save(path);
+			return;
+		}
+		System.out.println("Saving nodes configuration");
+		try {
+			cntrl.saveConfiguration(path);
+		} catch (Exception exc){
+			System.out.println("Error during saving ("+exc.getMessage()+")");
+			return;
+		}
+		System.out.println("Specification saved");
+	}
+	
+	protected static void loadSpecification(String path){
+		if (cntrl.getControllerMode() == JWaveControllerMode.CNTRL_MODE_NOT_CONNECTED){
+			System.out.println("Controller is not connected. Connect the controller first ('connect <serial port>')");
+			return;
+		}
+		
+		System.out.println("Loading nodes configuration");
+		
+		File f = new File(path);
+		if (!f.exists()){
+			System.out.println("file '"+path+"' does not exist.");
+			return;
+		}
+		try {
+			if (autosave != null){
+				// a save still running in the background may be writing the file
+				autosave.awaitIdle();
+			}
+			cntrl.loadConfiguration(path);
+		} catch (Exception exc){
+			System.out.println("Error during loading ("+exc.getMessage()+")");
+			return;
+		}
+		System.out.println("Specification loaded");
+		defaultSession.getNodeStates().reload();
+		if (autosave != null && new File(configFile).getAbsoluteFile().equals(f.getAbsoluteFile())){
+			String changed = autosave.getChangedNodes(cntrl);
+			if (changed.length() > 0){
+				System.out.println("Nodes "+changed+" changed after '"+path+"' was written, interview them again");
+			}
+		}
+	}
+	
+	protected static void evalSetCmd(String[] cmd){
+		if (cmd.length > 1 && "events".equalsIgnoreCase(cmd[1])){
+			evalSetEventsCmd(cmd);
+			return;
+		}
+		if (cmd.length > 1 && "inflight".equalsIgnoreCase(cmd[1])){
+			evalSetInFlightCmd(cmd);
+			return;
+		}
+		if (cmd.length > 1 && "autosave".equalsIgnoreCase(cmd[1])){
+			evalSetAutosaveCmd(cmd);
+			return;
+		}
+		if (cmd.length > 1 && "interview".equalsIgnoreCase(cmd[1])){
+			evalSetInterviewCmd(cmd);
+			return;
+		}
+		if (cmd.length > 1 && "reconnect".equalsIgnoreCase(cmd[1])){
+			evalSetReconnectCmd(cmd);
+			return;
+		}
+		if (cmd.length > 1 && "log".equalsIgnoreCase(cmd[1])){
+			evalSetLogCmd(cmd);
+			return;
+		}
+		JWaveController controller = cntrl;
+		if (cmd.length == 3){
+			ControllerSession session = getSession(cmd[2]);
+			if (session == null){
+				System.out.println("There exists no controller '"+cmd[2]+"'");
+				return;
+			}
+			controller = session.getController();
+		}
+		if (controller.getControllerMode() == JWaveControllerMode.CNTRL_MODE_NOT_CONNECTED){
+			System.out.println("Controller is not connected. Connect the controller first ('connect <serial port>')");
+			return;
+		}
+		if (cmd.length < 2){
+			System.out.println("Invalid set cmd");
+		}
+		if ("inclusion".equalsIgnoreCase(cmd[1])){
+			System.out.println("Setting inclusion mode");
+			controller.setInclusionMode(true);		
+			return;
+		}
+		
+		if ("exclusion".equalsIgnoreCase(cmd[1])){
+			System.out.println("Setting exclusion mode");
+			controller.setExlusionMode();
+			return;
+		}
+		if ("normal".equalsIgnoreCase(cmd[1])){
+			System.out.println("Setting controller back to normal mode");
+			controller.setNormalMode();
+			return;
+		}
+		
+		System.out.println("Unknown set command ("+cmd[1]+")");
+	}
+	
+	protected static void evalSetEventsCmd(String[] cmd){
+		OverflowPolicy policy = null;
+		if (cmd.length == 3){
+			policy = OverflowPolicy.parse(cmd[2]);
+		}
+		if (policy == null){
+			System.out.println("Invalid set events command -> set events <drop-oldest|block|count-and-drop>");
+			return;
+		}
+		for (ControllerSession session : sessions.values()){
+			session.getEventBus().setOverflowPolicy(policy);
+		}
+		System.out.println("Event overflow policy set to "+policy.getLabel());
+	}
+	
+	protected static void evalSetInFlightCmd(String[] cmd){
+		int perNode;
+		int total;
+		try {
+			perNode = CommandIndex.parseInt(cmd[2]);
+			total = cmd.length > 3 ? CommandIndex.parseInt(cmd[3]) : Math.max(perNode, inFlightTotal);
+		} catch (Exception exc){
+			System.out.println("Invalid set inflight command -> set inflight <per node> [total]");
+			return;
+		}
+		if (perNode <= 0 || total <= 0){
+			System.out.println("In-flight limits must be positive");
+			return;
+		}
+		inFlightPerNode = perNode;
+		inFlightTotal = total;
+		for (ControllerSession session : sessions.values()){
+			session.getScheduler().setLimits(perNode, total);
+		}
+		persist("set/inflight", perNode+" "+total);
+		System.out.println("In-flight limits set to "+perNode+" per node, "+total+" total");
+	}
+	
+	protected static void evalSetAutosaveCmd(String[] cmd){
+		if (cmd.length != 3){
+			System.out.println("Invalid set autosave command -> set autosave <interval>|off");
+			return;
+		}
+		if (autosave == null){
+			System.out.println("Autosave is not available, the console configuration could not be opened");
+			return;
+		}
+		long intervalMs = 0;
+		if (!"off".equalsIgnoreCase(cmd[2])){
+			try {
+				intervalMs = PollEngine.parseInterval(cmd[2]);
+			} catch (IllegalArgumentException exc){
+				System.out.println("Invalid interval ("+exc.getMessage()+")");
+				return;
+			}
+		}
+		autosave.setInterval(intervalMs);
+		persist("set/autosave", String.valueOf(intervalMs));
+		System.out.println(intervalMs == 0 ? "Autosave is off" : "Changed nodes are saved every "+PollEngine.formatInterval(intervalMs));
+	}
+	
+	protected static void evalSetReconnectCmd(String[] cmd){
+		if (cmd.length != 3 || !("on".equalsIgnoreCase(cmd[2]) || "off".equalsIgnoreCase(cmd[2]))){
+			System.out.println("Invalid set reconnect command -> set reconnect on|off");
+			return;
+		}
+		boolean enabled = "on".equalsIgnoreCase(cmd[2]);
+		for (ControllerSession session : sessions.values()){
+			session.getReconnectSupervisor().setEnabled(enabled);
+		}
+		persist("set/reconnect", enabled ? "on" : "off");
+		System.out.println(enabled ? "Lost serial links are reopened automatically" : "Lost serial links stay closed until 'connect'");
+	}
+	
+	/**
+	 * set log &lt;level&gt; [subsystem] | set log json|text | set log file &lt;path&gt;|console
+	 */
+	protected static void evalSetLogCmd(String[] cmd){
+		if (cmd.length < 3 || cmd.length > 4){
+			System.out.println("Invalid set log command -> set log <trace|debug|info|warn|error|off> [subsystem], set log json|text or set log file <path>|console");
+			return;
+		}
+		if (cmd.length == 3 && ("json".equalsIgnoreCase(cmd[2]) || "text".equalsIgnoreCase(cmd[2]))){
+			Log.getWriter().setJson("json".equalsIgnoreCase(cmd[2]));
+			System.out.println("Log lines are written as "+cmd[2].toLowerCase());
+			return;
+		}
+		if ("file".equalsIgnoreCase(cmd[2])){
+			String path = cmd.length == 4 && !"console".equalsIgnoreCase(cmd[3]) ? cmd[3] : null;
+			try {
+				Log.getWriter().setFile(path);
+			} catch (IOException exc){
+				System.out.println("Unable to open log file '"+path+"' ("+exc.getMessage()+")");
+				return;
+			}
+			System.out.println(path == null ? "Logging to the console" : "Logging to "+path);
+			return;
+		}
+		LogLevel level = LogLevel.parse(cmd[2]);
+		if (level == null){
+			System.out.println("Unknown log level ("+cmd[2]+")");
+			return;
+		}
+		if (cmd.length == 4){
+			Log.setLevel(cmd[3], level);
+			System.out.println("Logging "+cmd[3]+" at level "+level);
+		} else {
+			Log.setLevel(level);
+			System.out.println("Logging at level "+level);
+		}
+		JWaveController.doLogging(Log.get(JWAVE_LOG).isEnabled(LogLevel.DEBUG));
+	}
+	
+	protected static void evalSetInterviewCmd(String[] cmd){
+		if (cmd.length != 3){
+			System.out.println("Invalid set interview command -> set interview <concurrent interviews>");
+			return;
+		}
+		if (interviewer == null){
+			System.out.println("Interviews are not available, the console configuration could not be opened");
+			return;
+		}
+		try {
+			interviewer.setConcurrency(Integer.parseInt(cmd[2]));
+		} catch (IllegalArgumentException exc){
+			System.out.println("Invalid number of concurrent interviews ("+exc.getMessage()+")");
+			return;
+		}
+		persist("set/interview", cmd[2]);
+		System.out.println("Up to "+cmd[2]+" nodes are interviewed at a time");
+	}
+	
+	/**
+	 * Opens the console configuration next to the node configuration file
+	 * and restores definitions, groups, rules and settings from it.
+	 */
+	protected static void openConfig(){
+		File dir = new File(configFile).getAbsoluteFile().getParentFile();
+		ConfigJournal config;
+		try {
+			config = ConfigJournal.open(dir, CONFIG_NAME);
+		} catch (Exception exc){
+			System.out.println("Unable to open console configuration in "+dir+" ("+exc.getMessage()+"), changes will not be saved");
+			return;
+		}
+		int restored = 0;
+		for (Map.Entry<String, String> entry : config.getAll("set/").entrySet()){
+			try {
+				if ("set/inflight".equals(entry.getKey())){
+					String[] limits = entry.getValue().split(" ");
+					inFlightPerNode = Integer.parseInt(limits[0]);
+					inFlightTotal = Integer.parseInt(limits[1]);
+					for (ControllerSession session : sessions.values()){
+						session.getScheduler().setLimits(inFlightPerNode, inFlightTotal);
+					}
+					restored++;
+				}
+			} catch (Exception exc){
+				System.out.println("Ignoring invalid setting "+entry.getKey()+" = "+entry.getValue());
+			}
+		}
+		for (Map.Entry<String, String> entry : config.getAll("group/").entrySet()){
+			try {
+				groups.put(entry.getKey().substring("group/".length()), NodeSelection.parse(entry.getValue()));
+				restored++;
+			} catch (IllegalArgumentException exc){
+				System.out.println("Ignoring invalid group "+entry.getKey()+" ("+exc.getMessage()+")");
+			}
+		}
+		for (Map.Entry<String, String> entry : config.getAll("define/").entrySet()){
+			SendTemplate template = compileSendCmd(ScriptRunner.tokenize(entry.getValue()));
+			if (template == null){
+				System.out.println("Ignoring definition "+entry.getKey()+" = "+entry.getValue());
+				continue;
+			}
+			definitions.put(entry.getKey().substring("define/".length()), template);
+			restored++;
+		}
+		for (Map.Entry<String, String> entry : config.getAll("rule/").entrySet()){
+			Rule rule = compileRule(entry.getKey().substring("rule/".length()), ScriptRunner.tokenize(entry.getValue()));
+			if (rule == null){
+				System.out.println("Ignoring rule "+entry.getKey()+" = "+entry.getValue());
+				continue;
+			}
+			rules.add(rule);
+			restored++;
+		}
+		autosave = new ConfigAutosave(config);
+		autosave.setTarget(cntrl, defaultSession.getEventBus(), configFile);
+		String interval = config.get("set/autosave");
+		if (interval != null){
+			try {
+				autosave.setInterval(Long.parseLong(interval));
+				restored++;
+			} catch (NumberFormatException exc){
+				System.out.println("Ignoring invalid setting set/autosave = "+interval);
+			}
+		}
+		if ("off".equals(config.get("set/reconnect"))){
+			defaultSession.getReconnectSupervisor().setEnabled(false);
+			restored++;
+		}
+		interviewer = new NodeInterviewer(new InterviewCache(config, new File(configFile)));
+		interviewer.setTarget(cntrl, defaultSession.getReplyTracker(), getInterviewCommand());
+		String concurrency = config.get("set/interview");
+		if (concurrency != null){
+			try {
+				interviewer.setConcurrency(Integer.parseInt(concurrency));
+				restored++;
+			} catch (IllegalArgumentException exc){
+				System.out.println("Ignoring invalid setting set/interview = "+concurrency);
+			}
+		}
+		history = new HistoryStore(new File(dir, "history"), Integer.getInteger(HistoryStore.RETENTION_PROPERTY, HistoryStore.DEFAULT_RETENTION_DAYS) * 24L * 3600 * 1000);
+		for (ControllerSession session : sessions.values()){
+			history.attach(session.getName(), session.getEventBus());
+		}
+		if (restored > 0){
+			System.out.println("Restored "+restored+" definitions, groups, rules and settings from "+dir);
+		}
+	}
+	
+	/**
+	 * MANUFACTURER_SPECIFIC_GET, which the interviewer sends to unknown and changed nodes.
+	 */
+	protected static JWaveCommand getInterviewCommand(){
+		try {
+			return getCommandIndex().getCommand("0x72", "0x04", 1);
+		} catch (Exception exc){
+			return null;
+		}
+	}
+	
+	/**
+	 * Journals a change of the console configuration.
+	 */
+	protected static void persist(String key, String value){
+		if (autosave == null){
+			return;
+		}
+		try {
+			if (value == null){
+				autosave.getConfig().remove(key);
+			} else {
+				autosave.getConfig().put(key, value);
+			}
+		} catch (Exception exc){
+			System.out.println("Unable to save configuration change "+key+" ("+exc.getMessage()+")");
+		}
+	}
+	
+	protected static void evalConnectCmd(String[] cmd){
+		if (cmd.length < 2){
+			System.out.println("Unvalid connect command");
+			return;
+		}
+		int idx = 2;
+		SerialOptions options = new SerialOptions();
+		if (cmd.length > idx && SerialOptions.isOptions(cmd[idx])){
+			try {
+				options = SerialOptions.parse(cmd[idx]);
+			} catch (IllegalArgumentException exc){
+				System.out.println("ERROR: "+exc.getMessage()+"\r\n"+
+								   "    ==>use: connect <port> [baud=<n>,timeoutMs=<ms>,threshold=<n>,rxBuffer=<bytes>,readChunk=<bytes>,txBatch=<bytes>] [as <name>]");
+				return;
+			}
+			idx++;
+		}
+		if (cmd.length == idx + 2 && "as".equalsIgnoreCase(cmd[idx])){
+			ControllerSession session = getOrCreateSession(cmd[idx + 1]);
+			if (session == null){
+				return;
+			}
+			System.out.println("Connecting "+session.getName()+" to "+cmd[1]);
+			session.connect(cmd[1], options);
+			return;
+		}
+		if (cmd.length != idx){
+			System.out.println("Unvalid connect command -> connect <port> [<serial options>] [as <name>]");
+			return;
+		}
+		System.out.println("Connecting to "+cmd[1]);
+		defaultSession.connect(cmd[1], options);
+	}
+	
+	protected static ControllerSession getOrCreateSession(String name){
+		ControllerSession session = sessions.get(name);
+		if (session != null){
+			return session;
+		}
+		if (name.indexOf(':') >= 0 || name.indexOf(',') >= 0){
+			System.out.println("Invalid controller name '"+name+"'");
+			return null;
+		}
+		try {
+			session = new ControllerSession(name, specification);
+		} catch (Exception exc){
+			System.out.println("Unable to create controller "+name+" ("+exc.getMessage()+")");
+			return null;
+		}
+		session.getScheduler().setLimits(inFlightPerNode, inFlightTotal);
+		session.getReconnectSupervisor().setEnabled(defaultSession.getReconnectSupervisor().isEnabled());
+		sessions.put(name, session);
+		rules.attach(name, session.getEventBus());
+		if (history != null){
+			history.attach(name, session.getEventBus());
+		}
+		if (remoteServer != null){
+			remoteServer.attach(name, session.getEventBus());
+		}
+		if (httpApi != null){
+			httpApi.attach(name, session.getEventBus(), session.getPollEngine());
+		}
+		return session;
+	}
+	
+	protected static List<ControllerSession> getSessionsByName(){
+		return new ArrayList<ControllerSession>(new TreeMap<String, ControllerSession>(sessions).values());
+	}
+	
+	public static void evalPrintCmd(String[] cmd){
+		if (cmd.length < 2){
+			System.out.println("Invalid print command");
+			return;
+		}
+		
+		if ("version".equalsIgnoreCase(cmd[1])){
+			System.out.println("v"+VERSION);
+			return;
+		}
+		if ("serial".equalsIgnoreCase(cmd[1])){
+			printPorts();
+			return;
+		}
+		if ("commands".equalsIgnoreCase(cmd[1])){
+			printHelp();
+			return;
+		}
+		if ("nodes".equalsIgnoreCase(cmd[1])){
+			if (cmd.length == 3){
+				ControllerSession session = getSession(cmd[2]);
+				if (session == null){
+					System.out.println("There exists no controller '"+cmd[2]+"'");
+					return;
+				}
+				printNodes(session);
+				return;
+			}
+			printNodes();
+			return;
+		}
+		if ("node".equalsIgnoreCase(cmd[1])){
+			if (cmd.length == 3){
+				printNode(cmd[2]);
+			} else {
+				System.out.println("Invalid print node command");
+			}
+			return;
+		}
+		if ("controller".equalsIgnoreCase(cmd[1])){
+			if (cmd.length == 3){
+				ControllerSession session = getSession(cmd[2]);
+				if (session == null){
+					System.out.println("There exists no controller '"+cmd[2]+"'");
+					return;
+				}
+				printControllerDetails(session);
+				return;
+			}
+			printControllerDetails();
+			return;
+		}
+		if ("controllers".equalsIgnoreCase(cmd[1])){
+			printControllers();
+			return;
+		}
+		if ("defines".equalsIgnoreCase(cmd[1])){
+			printDefinitions();
+			return;
+		}
+		if ("groups".equalsIgnoreCase(cmd[1])){
+			printGroups();
+			return;
+		}
+		if ("rules".equalsIgnoreCase(cmd[1])){
+			printRules();
+			return;
+		}
+		if ("history".equalsIgnoreCase(cmd[1])){
+			printHistory(cmd);
+			return;
+		}
+		if ("events".equalsIgnoreCase(cmd[1])){
+			for (ControllerSession session : getSessionsByName()){
+				System.out.println("controller "+session.getName());
+				System.out.println(session.getEventBus().getStatistics());
+			}
+			return;
+		}
+		if ("log".equalsIgnoreCase(cmd[1])){
+			System.out.println(Log.getWriter().getStatistics());
+			return;
+		}
+		if ("replies".equalsIgnoreCase(cmd[1])){
+			ControllerSession session = getSession(cmd.length == 3 ? cmd[2] : null);
+			if (session == null){
+				System.out.println("There exists no controller '"+cmd[2]+"'");
+				return;
+			}
+			System.out.println(session.getReplyTracker().getStatistics());
+			return;
+		}
+		if ("queue".equalsIgnoreCase(cmd[1])){
+			if (cmd.length == 3){
+				ControllerSession session = getSession(cmd[2]);
+				if (session == null){
+					System.out.println("There exists no controller '"+cmd[2]+"'");
+					return;
+				}
+				System.out.println(session.getScheduler().getStatistics());
+				return;
+			}
+			for (ControllerSession session : getSessionsByName()){
+				System.out.println("controller "+session.getName());
+				System.out.println(session.getScheduler().getStatistics());
+			}
+			return;
+		}
+		if ("startup".equalsIgnoreCase(cmd[1])){
+			System.out.println(startup.getReport());
+			return;
+		}
+		if ("spec".equalsIgnoreCase(cmd[1])){
+			System.out.println(specLoader.getStatistics());
+			return;
+		}
+		if ("connection".equalsIgnoreCase(cmd[1])){
+			ControllerSession session = getSession(cmd.length == 3 ? cmd[2] : null);
+			if (session == null){
+				System.out.println("There exists no controller '"+cmd[2]+"'");
+				return;
+			}
+			System.out.println(session.getReconnectSupervisor().getStatistics());
+			return;
+		}
+		if ("adapter".equalsIgnoreCase(cmd[1])){
+			ControllerSession session = getSession(cmd.length == 3 ? cmd[2] : null);
+			if (session == null){
+				System.out.println("There exists no controller '"+cmd[2]+"'");
+				return;
+			}
+			SerialAdapter adapter = session.getSerialAdapter();
+			if (adapter == null){
+				System.out.println("Controller "+session.getName()+" is not connected to a serial port");
+				return;
+			}
+			System.out.println(adapter.getStatistics());
+			return;
+		}
+		if ("interviews".equalsIgnoreCase(cmd[1])){
+			if (interviewer == null){
+				System.out.println("Interviews are not available, the console configuration could not be opened");
+				return;
+			}
+			System.out.println(interviewer.getStatistics());
+			return;
+		}
+		if ("config".equalsIgnoreCase(cmd[1])){
+			if (autosave == null){
+				System.out.println("The console configuration could not be opened, changes are not saved");
+				return;
+			}
+			System.out.println(autosave.getStatistics());
+			return;
+		}
+		if ("polls".equalsIgnoreCase(cmd[1])){
+			if (cmd.length == 3){
+				ControllerSession session = getSession(cmd[2]);
+				if (session == null){
+					System.out.println("There exists no controller '"+cmd[2]+"'");
+					return;
+				}
+				System.out.println(session.getPollEngine().getStatistics());
+				return;
+			}
+			for (ControllerSession session : getSessionsByName()){
+				System.out.println("controller "+session.getName());
+				System.out.println(session.getPollEngine().getStatistics());
+			}
+			return;
+		}
+		if ("http".equalsIgnoreCase(cmd[1])){
+			printHttp();
+			return;
+		}
+		if ("clients".equalsIgnoreCase(cmd[1])){
+			printClients();
+			return;
+		}
+		if ("journal".equalsIgnoreCase(cmd[1])){
+			printJournal();
+			return;
+		}
+		if ("traffic".equalsIgnoreCase(cmd[1])){
+			int count = 20;
+			if (cmd.length == 3){
+				try {
+					count = CommandIndex.parseInt(cmd[2]);
+				} catch (NumberFormatException exc){
+					System.out.println("Invalid print traffic command -> print traffic [n]");
+					return;
+				}
+			}
+			printTraffic(count);
+			return;
+		}
+		if ("stats".equalsIgnoreCase(cmd[1])){
+			if (cmd.length == 3){
+				printStats(cmd[2]);
+				return;
+			}
+			printStats();
+			return;
+		}
+		System.out.println("Unknown print command ("+cmd[1]+")");
+	}
+	
+	protected static void printControllerDetails(){
+		printControllerDetails(defaultSession);
+	}
+	
+	protected static void printControllerDetails(ControllerSession session){
+		if (session != null){
+			JWaveController controller = session.getController();
+			if (controller.getControllerMode() == JWaveControllerMode.CNTRL_MODE_NOT_CONNECTED){
+				System.out.println("Z-Wave Controller is not connected. Connect the controller to a serial port (use cmd \"connect <portname>\")");
+				return;
+			}
+			System.out.println("--------------------------------------------------"+"\r\n"+
+							   "                  Controller Details"+"\r\n"+
+							   "--------------------------------------------------"+"\r\n"+
+							   ""+"\r\n"+
+							   "                       name = "+session.getName()+"\r\n"+
+							   "          connected to port = "+session.getPort()+"\r\n"+
+							   "             z-wave home id = "+controller.getHomeId()+"\r\n"+
+							   "  z-wave controller version = "+controller.getControllerVersion()+"\r\n"+
+							   "        z-wave chip version = "+controller.getZWaveChipVersion()+"\r\n"+
+							   "--------------------------------------------------"+"\r\n");					
+		}
+	}
+	
+	protected static void printControllers(){
+		StringBuilder sb = new StringBuilder();
+		sb.append("--------------------------------------------------------------------------").append("\r\n");
+		sb.append(String.format("  %-16s %-32s %-14s %6s", "name", "port", "mode", "nodes")).append("\r\n");
+		sb.append("--------------------------------------------------------------------------").append("\r\n");
+		for (ControllerSession session : getSessionsByName()){
+			JWaveController controller = session.getController();
+			sb.append(String.format("  %-16s %-32s %-14s %6d", session.getName(), session.getPort() == null ? "-" : session.getPort(),
+					controller.getControllerMode(), session.isConnected() ? controller.getNodes().size() : 0)).append("\r\n");
+		}
+		sb.append("--------------------------------------------------------------------------");
+		System.out.println(sb);
+	}
+	
+	protected static void printPorts(){
+		System.out.println("available serial ports:"+"\r\n"+
+	                        "-----------------------------------");
+		
+		@SuppressWarnings("unchecked")
+		Enumeration<CommPortIdentifier> ports = CommPortIdentifier.getPortIdentifiers();
+		while (ports.hasMoreElements()){
+			System.out.println("   "+ports.nextElement().getName());
+		}
+		System.out.println("-----------------------------------");
+	}
+	
+	
+	public static void evalSendCmd(String[] cmd){
+		if (isFanOutSend(cmd)){
+			evalFanOutSendCmd(cmd);
+			return;
+		}
+		SendTemplate template = compileSendCmd(cmd);
+		if (template == null){
+			return;
+		}
+		sendTemplate(template);
+	}
+	
+	/**
+	 * Resolves a send command (send &lt;id&gt; &lt;cmd_class&gt; &lt;cmd&gt; [-v=&lt;version&gt;] [-p=&lt;priority&gt;] [[param_value]])
+	 * into a template. Returns null and reports the reason if the command is invalid.
+	 */
+	protected static SendTemplate compileSendCmd(String[] cmd){
+		int version = 1;	
+		int nodeId;
+		JWaveCommand zwaveCmd = null;
+		if (cmd.length < 4){
+			System.out.println("Unvalid send command -> send <id> <cmd_class_id> <cmd_id> [[param_value]]");
+			return null;
+		}
+		
+		String controllerName = getControllerName(cmd[1]);
+		if (controllerName != null && getSession(controllerName) == null){
+			System.out.println("There exists no controller '"+controllerName+"'");
+			return null;
+		}
+		try {
+			nodeId = Integer.parseInt(controllerName == null ? cmd[1] : cmd[1].substring(controllerName.length() + 1));
+			
+		} catch (Exception exc){
+			System.out.println("Unvalid node Id ("+exc.getMessage()+")");
+			return null;
+		}	
+		
+		SendPriority priority = SendPriority.NORMAL;
+		int paramStart = 4;
+		for (; paramStart < cmd.length; paramStart++){
+			if (cmd[paramStart].contains("-v=")){
+				try {
+					version = Integer.parseInt(cmd[paramStart].replace("-v=",""));
+				} catch (Exception exc){
+					System.out.println("Unvalid version parameter ("+cmd[paramStart]+")");
+				}
+			} else if (cmd[paramStart].startsWith("-p=")){
+				priority = SendPriority.parse(cmd[paramStart].substring(3));
+				if (priority == null){
+					System.out.println("Unvalid priority ("+cmd[paramStart]+") -> -p=<high|normal|low>");
+					return null;
+				}
+			} else {
+				break;
+			}
+		}
+		
+		zwaveCmd = getNodeCmd(cmd[2], cmd[3],version);
+		
+		
+		if (zwaveCmd == null){
+			System.out.println("Unable to find Z-Wave Command "+cmd[2]+" "+cmd[3]+" of version "+version);
+			return null;
+		}		
+		JWaveCommandClass cmdClass = getCommandIndex().getCommandClass(cmd[2], version);
+		
+		int[] params = new int[Math.max(0, cmd.length - paramStart)];
+		JWaveNodeCommand probe = new JWaveNodeCommand(zwaveCmd);
+		for (int i = paramStart; i< cmd.length; i++){
+			try {
+				params[i-paramStart] = CommandIndex.parseInt(cmd[i]);
+				probe.setParamValue(i-paramStart, params[i-paramStart]);
+			} catch (Exception exc){
+				System.out.println("Unable to set param value ("+(i-paramStart)+" "+cmd[i]+")");
+				return null;
+			}
+		}
+		
+		return SendTemplate.of(controllerName, nodeId, cmdClass == null ? -1 : cmdClass.getKey(), zwaveCmd, params, priority, join(cmd, 0));
+	}
+	
+	protected static boolean sendTemplate(SendTemplate template){
+		return sendTemplate(template, 0);
+	}
+	
+	protected static boolean sendTemplate(SendTemplate template, long waitMs){
+		return sendTemplate(template, waitMs, null);
+	}
+	
+	/**
+	 * Hands the command to the send scheduler of its controller, waiting up
+	 * to waitMs for room in the queue. Returns false and reports the reason
+	 * if the command was not queued; otherwise the callback (may be null)
+	 * learns how it ended.
+	 */
+	protected static boolean sendTemplate(SendTemplate template, long waitMs, SendCallback callback){
+		ControllerSession session = getSession(template.getControllerName());
+		if (session == null){
+			System.out.println("There exists no controller '"+template.getControllerName()+"'");
+			return false;
+		}
+		if (session.getController().getNode(template.getNodeId()) == null){
+			System.out.println("There exists no node with id "+template.getNodeId());
+			return false;
+		}
+		try {
+			if (!session.getScheduler().submit(template, waitMs, callback)){
+				if (session.getScheduler().isPaused()){
+					System.out.println("Link of controller "+session.getName()+" is down and the outage queue is full, command '"+template+"' dropped");
+					return false;
+				}
+				System.out.println("Send queue of controller "+session.getName()+" is full, command '"+template+"' dropped");
+				return false;
+			}
+		} catch (InterruptedException exc){
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * get [&lt;name&gt;:]&lt;id&gt; &lt;cmd_class&gt; &lt;cmd&gt; [-v=&lt;version&gt;] [-p=&lt;priority&gt;] [-t=&lt;timeout&gt;] [[param_value]]
+	 * sends a GET and prints the matching report once it arrives. Does not
+	 * wait for it, so a script can have GETs to many nodes outstanding.
+	 */
+	protected static void evalGetCmd(String[] cmd){
+		long timeoutMs = ReplyTracker.DEFAULT_TIMEOUT_MS;
+		List<String> sendCmd = new ArrayList<String>();
+		for (int i = 0; i < cmd.length; i++){
+			if (i >= 4 && cmd[i].startsWith("-t=")){
+				try {
+					timeoutMs = PollEngine.parseInterval(cmd[i].substring(3));
+				} catch (IllegalArgumentException exc){
+					System.out.println("Invalid timeout ("+exc.getMessage()+")");
+					return;
+				}
+				continue;
+			}
+			sendCmd.add(cmd[i]);
+		}
+		if (sendCmd.size() < 4){
+			System.out.println("Unvalid get command -> get [<name>:]<id> <cmd_class> <cmd> [-v=<version>] [-t=<timeout>] [[param_value]]");
+			return;
+		}
+		final SendTemplate template = compileSendCmd(sendCmd.toArray(new String[sendCmd.size()]));
+		if (template == null){
+			return;
+		}
+		JWaveCommand report = ReplyTracker.getReport(template.getCommand());
+		if (report == null){
+			System.out.println(cmd[2]+" "+cmd[3]+" is not a GET with a matching REPORT");
+			return;
+		}
+		ControllerSession session = getSession(template.getControllerName());
+		if (session == null){
+			System.out.println("There exists no controller '"+template.getControllerName()+"'");
+			return;
+		}
+		if (session.getController().getNode(template.getNodeId()) == null){
+			System.out.println("There exists no node with id "+template.getNodeId());
+			return;
+		}
+		final String node = session.prefix()+"node "+template.getNodeId();
+		final long start = System.nanoTime();
+		session.getReplyTracker().sendAndAwait(template, report, timeoutMs).whenComplete(new BiConsumer<JWaveNodeCommand, Throwable>() {
+			public void accept(JWaveNodeCommand reply, Throwable failure) {
+				if (failure != null){
+					System.out.println(node+": no reply to "+template.getCommand().getName()+" ("+failure.getMessage()+")");
+					return;
+				}
+				System.out.println(node+": "+ReplyTracker.describe(reply)+String.format(" (%.1f ms)", (System.nanoTime() - start) / 1000000.0));
+			}
+		});
+	}
+	
+	protected static void evalDefineCmd(String[] cmd){
+		if (cmd.length < 3 || !"send".equalsIgnoreCase(cmd[2])){
+			System.out.println("Invalid define command -> define <alias> send <id> <cmd_class> <cmd> [-v=<version>] [[param_value]]");
+			return;
+		}
+		String alias = cmd[1];
+		if (isReservedWord(alias)){
+			System.out.println("'"+alias+"' is a console command and can not be used as alias");
+			return;
+		}
+		String[] sendCmd = new String[cmd.length - 2];
+		System.arraycopy(cmd, 2, sendCmd, 0, sendCmd.length);
+		SendTemplate template = compileSendCmd(sendCmd);
+		if (template == null){
+			return;
+		}
+		definitions.put(alias, template);
+		persist("define/"+alias, template.getSource());
+		System.out.println("defined "+alias+" = "+template);
+	}
+	
+	protected static void evalUndefineCmd(String[] cmd){
+		if (cmd.length < 2){
+			System.out.println("Invalid undefine command -> undefine <alias>");
+			return;
+		}
+		if (definitions.remove(cmd[1]) == null){
+			System.out.println("There exists no definition '"+cmd[1]+"'");
+			return;
+		}
+		persist("define/"+cmd[1], null);
+		System.out.println("removed definition "+cmd[1]);
+	}
+	
+	static SendTemplate getDefinition(String alias){
+		return definitions.get(alias);
+	}
+	
+	protected static void evalGroupCmd(String[] cmd){
+		if (cmd.length != 3){
+			System.out.println("Invalid group command -> group <name> [controller:]<id>,<id>,<from>-<to>");
+			return;
+		}
+		String name = cmd[1];
+		if (name.startsWith("@") || name.indexOf(':') >= 0){
+			System.out.println("Invalid group name '"+name+"'");
+			return;
+		}
+		NodeSelection selection;
+		try {
+			selection = NodeSelection.parse(cmd[2]);
+		} catch (IllegalArgumentException exc){
+			System.out.println("Invalid node list ("+exc.getMessage()+")");
+			return;
+		}
+		if (selection.getControllerName() != null && getSession(selection.getControllerName()) == null){
+			System.out.println("There exists no controller '"+selection.getControllerName()+"'");
+			return;
+		}
+		groups.put(name, selection);
+		persist("group/"+name, selection.toString());
+		System.out.println("group "+name+" = "+selection+" ("+selection.size()+" nodes)");
+	}
+	
+	protected static void evalUngroupCmd(String[] cmd){
+		if (cmd.length < 2){
+			System.out.println("Invalid ungroup command -> ungroup <name>");
+			return;
+		}
+		if (groups.remove(cmd[1]) == null){
+			System.out.println("There exists no group '"+cmd[1]+"'");
+			return;
+		}
+		persist("group/"+cmd[1], null);
+		System.out.println("removed group "+cmd[1]);
+	}
+	
+	protected static void printGroups(){
+		if (groups.isEmpty()){
+			System.out.println("No groups. Use 'group <name> <id>,<id>,<from>-<to>' to define one.");
+			return;
+		}
+		StringBuilder sb = new StringBuilder();
+		for (String name : new TreeMap<String, NodeSelection>(groups).keySet()){
+			NodeSelection selection = groups.get(name);
+			sb.append("   @").append(name).append(" = ").append(selection).append(" (").append(selection.size()).append(" nodes)").append("\r\n");
+		}
+		System.out.print(sb);
+	}
+	
+	/**
+	 * rule [&lt;id&gt;] when [&lt;name&gt;:]&lt;id&gt; &lt;cmd_class&gt; &lt;cmd&gt; [&lt;param&gt; &lt;op&gt; &lt;value&gt;] then send ... | &lt;alias&gt;
+	 * rule remove &lt;id&gt;|all
+	 */
+	protected static void evalRuleCmd(String[] cmd){
+		if (cmd.length >= 2 && "remove".equalsIgnoreCase(cmd[1])){
+			evalRuleRemoveCmd(cmd);
+			return;
+		}
+		int when = cmd.length > 1 && "when".equalsIgnoreCase(cmd[1]) ? 1 : 2;
+		if (cmd.length <= when || !"when".equalsIgnoreCase(cmd[when])){
+			System.out.println("Invalid rule command -> rule [<id>] when [<name>:]<id> <cmd_class> <cmd> [<param> <op> <value>] then send <id> <cmd_class> <cmd> [[param_value]]");
+			return;
+		}
+		String id;
+		if (when == 2){
+			id = cmd[1];
+			if (isReservedWord(id) || "all".equalsIgnoreCase(id) || "remove".equalsIgnoreCase(id)){
+				System.out.println("Invalid rule id '"+id+"'");
+				return;
+			}
+		} else {
+			int n = 1;
+			while (rules.getRule(String.valueOf(n)) != null){
+				n++;
+			}
+			id = String.valueOf(n);
+		}
+		String[] ruleCmd = new String[cmd.length - when];
+		System.arraycopy(cmd, when, ruleCmd, 0, ruleCmd.length);
+		Rule rule = compileRule(id, ruleCmd);
+		if (rule == null){
+			return;
+		}
+		rules.add(rule);
+		persist("rule/"+id, rule.getSource());
+		System.out.println("rule "+id+": "+rule);
+	}
+	
+	protected static void evalRuleRemoveCmd(String[] cmd){
+		if (cmd.length != 3){
+			System.out.println("Invalid rule command -> rule remove <id>|all");
+			return;
+		}
+		if ("all".equalsIgnoreCase(cmd[2])){
+			int count = 0;
+			for (Rule rule : rules.getRules()){
+				rules.remove(rule.getId());
+				persist("rule/"+rule.getId(), null);
+				count++;
+			}
+			System.out.println("removed "+count+" rules");
+			return;
+		}
+		if (rules.remove(cmd[2]) == null){
+			System.out.println("There exists no rule '"+cmd[2]+"'");
+			return;
+		}
+		persist("rule/"+cmd[2], null);
+		System.out.println("removed rule "+cmd[2]);
+	}
+	
+	/**
+	 * Resolves 'when ... then ...' into a rule. The trigger and the action
+	 * are looked up once here, an event only compares keys and values.
+	 * Returns null and reports the reason if the rule is invalid.
+	 */
+	protected static Rule compileRule(String id, String[] cmd){
+		int then = -1;
+		for (int i = 0; i < cmd.length; i++){
+			if ("then".equalsIgnoreCase(cmd[i])){
+				then = i;
+				break;
+			}
+		}
+		if (then != 4 && then != 7){
+			System.out.println("Invalid rule, use: when [<name>:]<id> <cmd_class> <cmd> [<param> <op> <value>] then ...");
+			return null;
+		}
+		String controllerName = getControllerName(cmd[1]);
+		if (controllerName != null && getSession(controllerName) == null){
+			System.out.println("There exists no controller '"+controllerName+"'");
+			return null;
+		}
+		int nodeId;
+		try {
+			nodeId = getNodeId(cmd[1]);
+		} catch (NumberFormatException exc){
+			System.out.println("Unvalid node Id ("+exc.getMessage()+")");
+			return null;
+		}
+		// rules match class and command key, whatever version the node reports
+		JWaveCommand trigger = getCommandIndex().findCommand(cmd[2], cmd[3]);
+		if (trigger == null || trigger.getCommandClass() == null){
+			System.out.println("Unable to find Z-Wave Command "+cmd[2]+" "+cmd[3]);
+			return null;
+		}
+		int paramIndex = -1;
+		Rule.Operator operator = null;
+		int value = 0;
+		if (then == 7){
+			operator = Rule.Operator.parse(cmd[5]);
+			if (operator == null){
+				System.out.println("Invalid operator '"+cmd[5]+"' -> ==, !=, <, <=, >, >=");
+				return null;
+			}
+			try {
+				paramIndex = Integer.parseInt(cmd[4].startsWith("p") ? cmd[4].substring(1) : cmd[4]);
+				value = CommandIndex.parseInt(cmd[6]);
+			} catch (NumberFormatException exc){
+				System.out.println("Invalid condition '"+cmd[4]+" "+cmd[5]+" "+cmd[6]+"' -> <param index> <op> <value>");
+				return null;
+			}
+		}
+		SendTemplate action;
+		if (then == cmd.length - 2 && definitions.containsKey(cmd[then + 1])){
+			action = definitions.get(cmd[then + 1]);
+		} else if (then + 1 < cmd.length && "send".equalsIgnoreCase(cmd[then + 1])){
+			String[] sendCmd = new String[cmd.length - then - 1];
+			System.arraycopy(cmd, then + 1, sendCmd, 0, sendCmd.length);
+			if (isFanOutSend(sendCmd)){
+				System.out.println("A rule sends to a single node, define one rule per node");
+				return null;
+			}
+			action = compileSendCmd(sendCmd);
+			if (action == null){
+				return null;
+			}
+		} else {
+			System.out.println("Invalid rule action, use: then send <id> <cmd_class> <cmd> [[param_value]] | then <alias>");
+			return null;
+		}
+		return new Rule(id, controllerName == null ? ControllerSession.DEFAULT_NAME : controllerName, nodeId, trigger.getCommandClass().getKey(), trigger.getKey(), paramIndex, operator, value, action, join(cmd, 0));
+	}
+	
+	protected static void printRules(){
+		if (rules.getRules().isEmpty()){
+			System.out.println("No rules. Use 'rule when <id> <cmd_class> <cmd> [<param> <op> <value>] then send ...' to add one.");
+			return;
+		}
+		StringBuilder sb = new StringBuilder();
+		for (Rule rule : rules.getRules()){
+			sb.append("   ").append(rule.getId()).append(": ").append(rule).append("\r\n");
+			sb.append("      fired ").append(rule.getFired()).append(" times");
+			if (rule.getLastFiredMillis() > 0){
+				sb.append(String.format(", last at %tT", rule.getLastFiredMillis()));
+			}
+			if (rule.getRejected() > 0){
+				sb.append(", ").append(rule.getRejected()).append(" not queued");
+			}
+			sb.append("\r\n");
+		}
+		System.out.print(sb);
+		System.out.println(rules.getStatistics());
+	}
+	
+	/**
+	 * print history [[&lt;name&gt;:]&lt;id&gt; &lt;cmd_class&gt; [from] [to] [step]]: from and to are
+	 * 'now', a time ago (e.g. 12h) or a date (2026-10-16 or 2026-10-16T22:00); step is an
+	 * interval or 'raw'. Without a node the state of the store is printed.
+	 */
+	protected static void printHistory(String[] cmd){
+		if (history == null){
+			System.out.println("History is not available, the console configuration could not be opened");
+			return;
+		}
+		if (cmd.length == 2){
+			System.out.println(history.getStatistics());
+			return;
+		}
+		if (cmd.length < 4 || cmd.length > 7){
+			System.out.println("Invalid print command -> print history [<name>:]<id> <cmd_class> [from] [to] [step]");
+			return;
+		}
+		String controllerName = getControllerName(cmd[2]);
+		ControllerSession session = getSession(controllerName);
+		if (session == null){
+			System.out.println("There exists no controller '"+controllerName+"'");
 			return;
 		}
-		if ("connect".equalsIgnoreCase(pcmd[0])){
-			evalConnectCmd(pcmd);
+		int nodeId;
+		try {
+			nodeId = getNodeId(cmd[2]);
+		} catch (NumberFormatException exc){
+			System.out.println("Unvalid node Id ("+exc.getMessage()+")");
 			return;
-		}		
-		if ("print".equalsIgnoreCase(pcmd[0])){
-			evalPrintCmd(pcmd);
+		}
+		JWaveCommandClass cmdClass = getCommandIndex().getCommandClass(cmd[3], 1);
+		if (cmdClass == null){
+			System.out.println("Unable to find Z-Wave Command Class "+cmd[3]);
 			return;
 		}
-			
-		if ("set".equalsIgnoreCase(pcmd[0])){
-			evalSetCmd(pcmd);
+		if (!HistoryStore.isRecorded(cmdClass.getKey())){
+			System.out.println(cmdClass.getName()+" is not recorded, history keeps meter, sensor and battery reports");
 			return;
 		}
-		if ("load".equalsIgnoreCase(pcmd[0])){
-			evalLoadCmd(pcmd);
+		long now = System.currentTimeMillis();
+		long from;
+		long to;
+		long step;
+		try {
+			from = parseHistoryTime(cmd.length > 4 ? cmd[4] : "24h", now);
+			to = parseHistoryTime(cmd.length > 5 ? cmd[5] : "now", now);
+			if (cmd.length > 6){
+				step = "raw".equalsIgnoreCase(cmd[6]) ? 0 : PollEngine.parseInterval(cmd[6]);
+			} else {
+				step = getHistoryStep(to - from);
+			}
+		} catch (IllegalArgumentException exc){
+			System.out.println("Invalid history range ("+exc.getMessage()+")");
 			return;
-		}		
-		if ("save".equalsIgnoreCase(pcmd[0])){
-			evalSaveCmd(pcmd);
+		}
+		if (to <= from){
+			System.out.println("Invalid history range, 'to' must be after 'from'");
 			return;
 		}
-		System.out.println("Unknown command ("+pcmd[0]+").");
-	}
-	
-	protected static void reset(){		
-		if (!checkConnection()){
+		Map<String, List<HistoryRow>> series;
+		try {
+			series = history.query(session.getName(), nodeId, cmdClass.getKey(), from, to, step);
+		} catch (IOException exc){
+			System.out.println("Unable to read history ("+exc.getMessage()+")");
 			return;
 		}
-		System.out.println("Resetting the controller");
-		cntrl.resetController();
-		return;
+		if (series.isEmpty()){
+			System.out.println("No history of node "+nodeId+" "+cmdClass.getName());
+			return;
+		}
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, List<HistoryRow>> entry : series.entrySet()){
+			sb.append(session.prefix()).append("node ").append(nodeId).append(" ").append(cmdClass.getName()).append(" ").append(ReportDecoder.describe(entry.getKey()));
+			sb.append(String.format(", %tF %<tR to %tF %<tR, ", from, to)).append(step == 0 ? "raw" : "step "+PollEngine.formatInterval(step)).append("\r\n");
+			for (HistoryRow row : entry.getValue()){
+				if (step == 0){
+					sb.append(String.format("   %tF %<tT   %s", row.getTimeMillis(), ReportDecoder.format(row.getMin()))).append("\r\n");
+				} else {
+					sb.append(String.format("   %tF %<tR   min %s  max %s  avg %s  (%d values)", row.getTimeMillis(), ReportDecoder.format(row.getMin()), ReportDecoder.format(row.getMax()), ReportDecoder.format(row.getAverage()), row.getCount())).append("\r\n");
+				}
+			}
+			if (entry.getValue().isEmpty()){
+				sb.append("   no values in this range").append("\r\n");
+			}
+		}
+		System.out.print(sb);
 	}
 	
-	protected static void evalSaveCmd(String[] cmd){
-		if (cmd.length < 2){
-			System.out.println("invalid save cmd");
+	/**
+	 * 'now', a time ago (interval like 12h) or a date with optional time of day.
+	 */
+	protected static long parseHistoryTime(String value, long now) throws IllegalArgumentException {
+		if ("now".equalsIgnoreCase(value)){
+			return now;
 		}
-		saveSpecification(cmd[1]);;
+		if (value.length() >= 10 && value.charAt(4) == '-'){
+			String pattern = value.length() == 10 ? "yyyy-MM-dd" : "yyyy-MM-dd'T'HH:mm";
+			try {
+				SimpleDateFormat format = new SimpleDateFormat(pattern);
+				format.setLenient(false);
+				return format.parse(value).getTime();
+			} catch (ParseException exc){
+				throw new IllegalArgumentException("invalid date '"+value+"' (e.g. 2026-10-16 or 2026-10-16T22:00)");
+			}
+		}
+		return now - PollEngine.parseInterval(value);
 	}
 	
-	
-	protected static void evalLoadCmd(String[] cmd){
-		if (cmd.length < 2){
-			System.out.println("invalid load cmd");
+	/**
+	 * Step for a range without one: every value up to an hour, else the
+	 * smallest step that gives at most 48 rows.
+	 */
+	protected static long getHistoryStep(long rangeMs){
+		if (rangeMs <= 3600000L){
+			return 0;
 		}
-		loadSpecification(cmd[1]);;
+		long[] steps = {5 * 60000L, 15 * 60000L, 3600000L, 6 * 3600000L, 24 * 3600000L};
+		for (long step : steps){
+			if (rangeMs / step <= 48){
+				return step;
+			}
+		}
+		return steps[steps.length - 1];
 	}
 	
+	/**
+	 * True if the send command addresses a node list, a range or a group (@name).
+	 */
+	protected static boolean isFanOutSend(String[] cmd){
+		return cmd.length > 1 && (cmd[1].startsWith("@") || NodeSelection.isSelection(cmd[1]));
+	}
 	
-	protected static void saveSpecification(String path){	
-		System.out.println("Saving nodes configuration");
-		try {
-			cntrl.saveConfiguration(path);
-		} catch (Exception exc){
-			System.out.println("Error during saving ("+exc.getMessage()+")");
+	/**
+	 * send &lt;id&gt;,&lt;from&gt;-&lt;to&gt;|@group ...: the command is resolved once and
+	 * queued for every selected node; the results are printed when all arrived.
+	 */
+	protected static void evalFanOutSendCmd(String[] cmd){
+		NodeSelection selection = resolveSelection(cmd[1]);
+		if (selection == null){
 			return;
 		}
-		System.out.println("Specification saved");
-	}
-	
-	protected static void loadSpecification(String path){
-		if (cntrl.getControllerMode() == JWaveControllerMode.CNTRL_MODE_NOT_CONNECTED){
-			System.out.println("Controller is not connected. Connect the controller first ('connect <serial port>')");
+		String controllerName = selection.getControllerName();
+		ControllerSession session = getSession(controllerName);
+		if (session == null){
+			System.out.println("There exists no controller '"+controllerName+"'");
 			return;
 		}
-		
-		System.out.println("Loading nodes configuration");
-		
-		File f = new File(path);
-		if (!f.exists()){
-			System.out.println("file '"+path+"' does not exist.");
+		String[] single = cmd.clone();
+		single[1] = (controllerName == null ? "" : controllerName+":")+selection.getNodeId(0);
+		SendTemplate template = compileSendCmd(single);
+		if (template == null){
 			return;
 		}
+		new FanOutSend(template, selection, join(cmd, 0)).start(session);
+	}
+	
+	/**
+	 * Resolves a node address, list, range or group (@name). Returns null and
+	 * reports the reason if there is no such group or the list is invalid.
+	 */
+	protected static NodeSelection resolveSelection(String address){
+		if (address.startsWith("@")){
+			NodeSelection selection = groups.get(address.substring(1));
+			if (selection == null){
+				System.out.println("There exists no group '"+address.substring(1)+"'. Type 'print groups' for a list of groups.");
+			}
+			return selection;
+		}
 		try {
-			cntrl.loadConfiguration(path);
-		} catch (Exception exc){
-			System.out.println("Error during loading ("+exc.getMessage()+")");
-			return;
+			return NodeSelection.parse(address);
+		} catch (IllegalArgumentException exc){
+			System.out.println("Invalid node list ("+exc.getMessage()+")");
+			return null;
 		}
-		System.out.println("Specification loaded");
 	}
 	
-	protected static void evalSetCmd(String[] cmd){
-		if (cntrl.getControllerMode() == JWaveControllerMode.CNTRL_MODE_NOT_CONNECTED){
-			System.out.println("Controller is not connected. Connect the controller first ('connect <serial port>')");
+	protected static void evalPollCmd(String[] cmd){
+		if (cmd.length >= 2 && "stop".equalsIgnoreCase(cmd[1])){
+			evalPollStopCmd(cmd);
 			return;
 		}
-		if (cmd.length < 2){
-			System.out.println("Invalid set cmd");
+		int every = -1;
+		for (int i = 0; i < cmd.length; i++){
+			if ("every".equalsIgnoreCase(cmd[i])){
+				every = i;
+			}
 		}
-		if ("inclusion".equalsIgnoreCase(cmd[1])){
-			System.out.println("Setting inclusion mode");
-			cntrl.setInclusionMode(true);		
+		if (every < 4 || every != cmd.length - 2){
+			System.out.println("Invalid poll command -> poll <id>|<id>,<from>-<to>|@<group> <cmd_class> <cmd> [-v=<version>] [[param_value]] every <interval>");
 			return;
 		}
-		
-		if ("exclusion".equalsIgnoreCase(cmd[1])){
-			System.out.println("Setting exclusion mode");
-			cntrl.setExlusionMode();
+		long intervalMs;
+		try {
+			intervalMs = PollEngine.parseInterval(cmd[every + 1]);
+		} catch (IllegalArgumentException exc){
+			System.out.println("Invalid interval ("+exc.getMessage()+")");
 			return;
 		}
-		if ("normal".equalsIgnoreCase(cmd[1])){
-			System.out.println("Setting controller back to normal mode");
-			cntrl.setNormalMode();
+		if (intervalMs < PollEngine.MIN_INTERVAL_MS){
+			System.out.println("Invalid interval, polls may not be more frequent than every "+PollEngine.formatInterval(PollEngine.MIN_INTERVAL_MS));
 			return;
 		}
-		
-		System.out.println("Unknown set command ("+cmd[1]+")");
-	}
-	
-	protected static void evalConnectCmd(String[] cmd){
-		if (cmd.length < 2){
-			System.out.println("Unvalid connect command");
-		}
-		System.out.println("Connecting to "+cmd[1]);
-		instance.connect(cmd[1]);
-	}
-	
-	public static void evalPrintCmd(String[] cmd){
-		if (cmd.length < 2){
-			System.out.println("Invalid print command");
+		NodeSelection selection = resolveSelection(cmd[1]);
+		if (selection == null){
 			return;
 		}
-		
-		if ("version".equalsIgnoreCase(cmd[1])){
-			System.out.println("v"+VERSION);
+		String controllerName = selection.getControllerName();
+		ControllerSession session = getSession(controllerName);
+		if (session == null){
+			System.out.println("There exists no controller '"+controllerName+"'");
 			return;
 		}
-		if ("serial".equalsIgnoreCase(cmd[1])){
-			printPorts();
+		String[] sendCmd = new String[every];
+		sendCmd[0] = "send";
+		System.arraycopy(cmd, 1, sendCmd, 1, every - 1);
+		sendCmd[1] = (controllerName == null ? "" : controllerName+":")+selection.getNodeId(0);
+		SendTemplate template = compileSendCmd(sendCmd);
+		if (template == null){
 			return;
 		}
-		if ("commands".equalsIgnoreCase(cmd[1])){
-			printHelp();
+		PollEngine polls = session.getPollEngine();
+		String command = cmd[2]+" "+cmd[3];
+		int first = -1;
+		int last = -1;
+		for (int nodeId : selection.getNodeIds()){
+			if (session.getController().getNode(nodeId) == null){
+				System.out.println("There exists no node with id "+nodeId+", not polled");
+				continue;
+			}
+			last = polls.add(template.forNode(nodeId), command, intervalMs);
+			if (first < 0){
+				first = last;
+			}
+		}
+		if (first < 0){
 			return;
 		}
-		if ("nodes".equalsIgnoreCase(cmd[1])){
-			printNodes();
+		System.out.println("polling "+command+" every "+PollEngine.formatInterval(intervalMs)+" (poll "+(first == last ? "#"+first : "#"+first+" to #"+last)+")");
+	}
+	
+	protected static void evalPollStopCmd(String[] cmd){
+		if (cmd.length != 3){
+			System.out.println("Invalid poll command -> poll stop <poll id>|all");
 			return;
 		}
-		if ("node".equalsIgnoreCase(cmd[1])){
-			if (cmd.length == 3){
-				printNode(parseInt(cmd[2]));
-			} else {
-				System.out.println("Invalid print node command");
+		if ("all".equalsIgnoreCase(cmd[2])){
+			int count = 0;
+			for (ControllerSession session : getSessionsByName()){
+				count += session.getPollEngine().cancelAll();
 			}
+			System.out.println("stopped "+count+" polls");
 			return;
 		}
-		if ("controller".equalsIgnoreCase(cmd[1])){
-			printControllerDetails();
+		int id;
+		try {
+			id = Integer.parseInt(cmd[2].startsWith("#") ? cmd[2].substring(1) : cmd[2]);
+		} catch (NumberFormatException exc){
+			System.out.println("Invalid poll id '"+cmd[2]+"'");
 			return;
 		}
-		System.out.println("Unknown print command ("+cmd[1]+")");
-	}
-	
-	protected static void printControllerDetails(){
-		if (cntrl != null){
-			if (cntrl.getControllerMode() == JWaveControllerMode.CNTRL_MODE_NOT_CONNECTED){
-				System.out.println("Z-Wave Controller is not connected. Connect the controller to a serial port (use cmd \"connect <portname>\")");
+		for (ControllerSession session : getSessionsByName()){
+			if (session.getPollEngine().cancel(id)){
+				System.out.println("stopped poll #"+id);
 				return;
 			}
-			System.out.println("--------------------------------------------------"+"\r\n"+
-							   "                  Controller Details"+"\r\n"+
-							   "--------------------------------------------------"+"\r\n"+
-							   ""+"\r\n"+
-							   "          connected to port = "+currentSerialPort+"\r\n"+
-							   "             z-wave home id = "+cntrl.getHomeId()+"\r\n"+
-							   "  z-wave controller version = "+cntrl.getControllerVersion()+"\r\n"+
-							   "        z-wave chip version = "+cntrl.getZWaveChipVersion()+"\r\n"+
-							   "--------------------------------------------------"+"\r\n");					
 		}
+		System.out.println("There exists no poll #"+id+". Type 'print polls' for a list of polls.");
 	}
 	
-	protected static void printPorts(){
-		System.out.println("available serial ports:"+"\r\n"+
-	                        "-----------------------------------");
-		
-		@SuppressWarnings("unchecked")
-		Enumeration<CommPortIdentifier> ports = CommPortIdentifier.getPortIdentifiers();
-		while (ports.hasMoreElements()){
-			System.out.println("   "+ports.nextElement().getName());
+	protected static void evalRunCmd(String[] cmd){
+		if (cmd.length < 2){
+			System.out.println("Invalid run command -> run <file>");
+			return;
 		}
-		System.out.println("-----------------------------------");
+		runScript(cmd[1]);
 	}
 	
+	protected static boolean runScript(String path){
+		ScriptRunner runner = new ScriptRunner(new File(path));
+		boolean ok = runner.run();
+		if (runner.isExitRequested()){
+			keepAlive = false;
+		}
+		return ok;
+	}
 	
-	public static void evalSendCmd(String[] cmd){
-		int version = 1;	
-		boolean containsVersionParam = false;
-		int nodeId;
-		JWaveNode node = null;
-		JWaveCommand zwaveCmd = null;
-		if (cmd.length < 4){
-			System.out.println("Unvalid send command -> send <id> <cmd_class_id> <cmd_id> [[param_value]]");
+	protected static void printDefinitions(){
+		if (definitions.isEmpty()){
+			System.out.println("No definitions. Use 'define <alias> send ...' to define one.");
 			return;
 		}
-		
-		try {
-			nodeId = Integer.parseInt(cmd[1]);
-			
-		} catch (Exception exc){
-			System.out.println("Unvalid node Id ("+exc.getMessage()+")");
-			return;
-		}	
-		
-		node = cntrl.getNode(nodeId);
-		if (node == null){
-			System.out.println("There exists no node with id "+nodeId);
-			return;
+		StringBuilder sb = new StringBuilder();
+		for (String alias : new TreeMap<String, SendTemplate>(definitions).keySet()){
+			sb.append("   ").append(alias).append(" = ").append(definitions.get(alias)).append("\r\n");
 		}
+		System.out.print(sb);
+	}
 	
-		
-		if (cmd.length > 4){
-			if (cmd[4].contains("-v=")){
-				containsVersionParam = true;
-				try {
-					version = Integer.parseInt(cmd[4].replace("-v=",""));
-				} catch (Exception exc){
-					System.out.println("Unvalid version parameter ("+cmd[4]+")");
-				}
+	protected static boolean isReservedWord(String word){
+		for (String reserved : RESERVED_WORDS){
+			if (reserved.equalsIgnoreCase(word)){
+				return true;
 			}
 		}
-		
-		zwaveCmd = getNodeCmd(cmd[2], cmd[3],version);
-		
-		
-		if (zwaveCmd == null){
-			System.out.println("Unable to find Z-Wave Command "+cmd[2]+" "+cmd[3]+" of version "+version);
-			return;
-		}		
-			
-		
-		JWaveNodeCommand nodeCmd = new JWaveNodeCommand(zwaveCmd);
-		
-		
-		int paramStart;
-		if (containsVersionParam){
-			paramStart = 5;
-		} else {
-			paramStart = 4;
-		}
-		
-		if (paramStart < cmd.length){
-			for (int i = paramStart; i< cmd.length; i++){
-				try {
-					nodeCmd.setParamValue(i-paramStart, parseInt(cmd[i]));
-					
-				} catch (Exception exc){
-					System.out.println("Unable to set param value ("+(i-paramStart)+" "+cmd[i]+")");
-					return;
-				}
-			}
-		} 
-		
-		node.sendData(nodeCmd);
-		
-		
+		return false;
 	}
 	
-	protected static int parseInt(String value) throws NumberFormatException{
-		if (value.contains("0x")){
-			return Integer.parseInt(value.replace("0x",""),16);
+	protected static String join(String[] tokens, int start){
+		StringBuilder sb = new StringBuilder();
+		for (int i = start; i < tokens.length; i++){
+			if (i > start){
+				sb.append(' ');
+			}
+			sb.append(tokens[i]);
 		}
-		return Integer.parseInt(value);
+		return sb.toString();
 	}
 	
 	protected static JWaveCommand getNodeCmd(String cl, String cmd, int version){
-		int class_key = -1;
-		int cmd_key = -1;
-		try {			
-			class_key = parseInt(cl);	
-			
-		} catch (Exception exc){
-			
-		}
-		try {			
-			cmd_key = parseInt(cl);	
-			
-		} catch (Exception exc){
-			
-		}
-		
-		JWaveCommandClass cmdClass = null;
-		
-		if (class_key != -1){
-			cmdClass = cntrl.getCommandClassSpecifications().getCommandClass(class_key,version);
-		} else {
-			cmdClass = cntrl.getCommandClassSpecifications().getCommandClass(cl,version);
+		return getCommandIndex().getCommand(cl, cmd, version);
+	}
+	
+	protected static CommandIndex getCommandIndex(){
+		CommandIndex index = commandIndex;
+		JWaveCommandClassSpecification spec = cntrl.getCommandClassSpecifications();
+		if (index == null || index.getSpecification() != spec){
+			index = new CommandIndex(spec);
+			commandIndex = index;
 		}
-		
-		if (cmdClass == null){
-			return null;
+		return index;
+	}
+	
+	/**
+	 * Lock held while a command runs. Front ends that call command methods
+	 * other than {@link #evalCmd(String)} hold it as well.
+	 */
+	static Object getCommandLock(){
+		return commandLock;
+	}
+	
+	/**
+	 * Runs a command line; commands of all front ends run one after another.
+	 * A script ('run') does not hold the lock itself, its lines take it one
+	 * at a time.
+	 */
+	public static void evalCmd(String cmd){
+		if (cmd.regionMatches(true, 0, "run ", 0, 4)){
+			evalCommand(cmd);
+			return;
 		}
-		
-		JWaveCommand zwaveCmd = null;
-		
-		if (cmd_key == -1){
-			zwaveCmd = cmdClass.getCommand(cmd);
-		} else {
-			zwaveCmd = cmdClass.getCommand(cmd_key);
+		synchronized (commandLock){
+			evalCommand(cmd);
 		}
-		
-		return zwaveCmd;
 	}
 	
-	public static void evalCmd(String cmd){
+	protected static void evalCommand(String cmd){
 		if (cmd.contains(" ")){
 			evaluateParamCmd(cmd);
 			return;
@@ -574,6 +2474,11 @@ public class JWaveConsole implements Runnable {
 			keepAlive = false;
 			return;
 		}
+		SendTemplate template = definitions.get(cmd);
+		if (template != null){
+			sendTemplate(template);
+			return;
+		}
 		System.out.println("unknown command ("+cmd+"). Type 'print commands' for a list of possible commands.");
 	}
 	
@@ -585,31 +2490,128 @@ public class JWaveConsole implements Runnable {
 						   ""+"\r\n"+				
 						   "       save = saving nodes configuration"+"\r\n"+
 						   "              ==> use: save [filename]"+"\r\n"+	
+						   "              (saves in the background; aliases, groups and settings are saved as they change)"+"\r\n"+	
 						   "       load = loading nodes configuration"+"\r\n"+	
 						   "              ==> use: load [filename]" + "\r\n" +
 						   "\r\n"+	
 						   "        set = sets parameter"+"\r\n"+	
-						   "              ==> use: set <command>"+"\r\n"+	
+						   "              ==> use: set <command> [controller]"+"\r\n"+	
 						   "              set inclusion    = sets controller to inclusion mode"+"\r\n"+	
 						   "              set exclusion    = sets controller to exclusion mode"+"\r\n"+	
-						   "              set normal       = sets controller to normal mode"+"\r\n"+					
+						   "              set normal       = sets controller to normal mode"+"\r\n"+
+						   "              set events <drop-oldest|block|count-and-drop>"+"\r\n"+
+						   "                               = sets what happens when an event consumer falls behind"+"\r\n"+
+						   "              set inflight <per node> [total]"+"\r\n"+
+						   "                               = sets how many sends may be on the air at once"+"\r\n"+
+						   "              set autosave <interval>|off"+"\r\n"+
+						   "                               = sets how often changed nodes are saved in the background"+"\r\n"+
+						   "              set interview <n>= sets how many unknown or changed nodes are interviewed at once"+"\r\n"+
+						   "              set reconnect on|off"+"\r\n"+
+						   "                               = sets whether a lost serial link is reopened automatically"+"\r\n"+
+						   "              set log <trace|debug|info|warn|error|off> [subsystem]"+"\r\n"+
+						   "                               = sets the log level of all or one subsystem (io, send, events,"+"\r\n"+
+						   "                                 history, journal, config, remote, sim, interview, jwave)"+"\r\n"+
+						   "              set log json|text = writes log lines as JSON objects or plain text"+"\r\n"+
+						   "              set log file <path>|console = appends the log to a file or writes it to the console"+"\r\n"+					
 						   "\r\n"+	
 						   "      reset = resets the controller"+"\r\n"+
 						   "\r\n"+
 						   "    connect = connect with z-wave controller"+"\r\n"+			
-						   "              ==> use: connect <portname>"+"\r\n"+			
+						   "              ==> use: connect <portname> [<serial options>] [as <name>]"+"\r\n"+
+						   "              serial options: baud=<n>,timeoutMs=<ms>,threshold=<n>,rxBuffer=<bytes>,"+"\r\n"+
+						   "              readChunk=<bytes>,txBatch=<bytes> (txBatch=0 writes through)"+"\r\n"+
+						   "              (or start with --port <portname>, the port is opened while the specification loads)"+"\r\n"+			
+						   "              connect sim[:nodes=<n>,latencyMs=<ms>,lossPct=<percent>]"+"\r\n"+
+						   "                               = connect with an emulated controller stick"+"\r\n"+
+						   "              (further controllers get a name, their nodes are addressed as <name>:<id>)"+"\r\n"+
 						   "\r\n"+	
 						   "       send = sends a command to a node"+"\r\n"+			
-						   "              ==> use: send <id> <cmd_class> <cmd> [-v=<version>] [[param_value]]"+"\r\n"+	
+						   "              ==> use: send [<name>:]<id> <cmd_class> <cmd> [-v=<version>] [-p=<high|normal|low>] [[param_value]]"+"\r\n"+	
+						   "              sends are queued per node and priority, a queued SET is replaced by a newer one"+"\r\n"+	
+						   "              send [<name>:]<id>,<from>-<to> ... | send @<group> ..."+"\r\n"+	
+						   "                               = sends the command to every listed node, reports each result when all are done"+"\r\n"+	
+						   "\r\n"+	
+						   "        get = sends a GET and prints the node's REPORT when it arrives (does not block)"+"\r\n"+			
+						   "              ==> use: get [<name>:]<id> <cmd_class> <cmd> [-v=<version>] [-t=<timeout>] [[param_value]]"+"\r\n"+	
+						   "              (timeout e.g. 500ms, 10s; default 10s)"+"\r\n"+	
+						   "\r\n"+	
+						   "       rule = sends a command when a node reports something (runs inside the console)"+"\r\n"+			
+						   "              ==> use: rule [<id>] when [<name>:]<id> <cmd_class> <cmd> [<param> <op> <value>] then send <id> <cmd_class> <cmd> [[param_value]]"+"\r\n"+	
+						   "              (param is the parameter index, op one of == != < <= > >=; 'then <alias>' sends a defined command)"+"\r\n"+	
+						   "              rule remove <id>|all = removes rules"+"\r\n"+	
+						   "\r\n"+	
+						   "      group = names a list of nodes for 'send @<group> ...'"+"\r\n"+			
+						   "              ==> use: group <group> [<name>:]<id>,<id>,<from>-<to>"+"\r\n"+	
+						   "              ungroup <group>  = removes the group"+"\r\n"+	
+						   "\r\n"+	
+						   "       poll = sends a command periodically (with jitter, backs off while the send queue is deep)"+"\r\n"+			
+						   "              ==> use: poll <id>|<id>,<from>-<to>|@<group> <cmd_class> <cmd> [[param_value]] every <interval>"+"\r\n"+	
+						   "              (interval e.g. 30s, 5m, 1h; a GET waits for the node's REPORT, print polls shows it)"+"\r\n"+	
+						   "              poll stop <poll id>|all = stops polling"+"\r\n"+	
+						   "\r\n"+	
+						   "     define = defines an alias for a pre-resolved send command"+"\r\n"+			
+						   "              ==> use: define <alias> send <id> <cmd_class> <cmd> [-v=<version>] [[param_value]]"+"\r\n"+	
+						   "              <alias>          = sends the defined command"+"\r\n"+	
+						   "              undefine <alias> = removes the definition"+"\r\n"+	
+						   "\r\n"+	
+						   "        run = runs a command file, send commands are pipelined"+"\r\n"+			
+						   "              ==> use: run <file>"+"\r\n"+	
+						   "              (start with --script <file> to run a file without prompt)"+"\r\n"+	
+						   "              sleep <ms>       = pauses the script"+"\r\n"+	
+						   "\r\n"+	
+						   "    journal = records events and serial frames to a binary journal"+"\r\n"+			
+						   "              ==> use: journal <file> | journal stop"+"\r\n"+	
+						   "     replay = feeds a recorded journal into the (unconnected) controller"+"\r\n"+			
+						   "              ==> use: replay <journal> [speed|max]"+"\r\n"+	
+						   "\r\n"+	
+						   "     listen = accepts console commands from tcp clients (telnet, scripts)"+"\r\n"+			
+						   "              ==> use: listen [host:]<port> | listen stop"+"\r\n"+	
+						   "              (start with --listen [host:]<port>, host must be a loopback address)"+"\r\n"+	
+						   "              clients type 'events on' to receive controller events, 'quit' to disconnect"+"\r\n"+	
+						   "\r\n"+	
+						   "       http = serves nodes, controllers, sends and events as json (GET /api/controllers,"+"\r\n"+			
+						   "              /api/nodes, /api/events; POST /api/send, /api/controllers/<name>/mode)"+"\r\n"+			
+						   "              ==> use: http [host:]<port> | http stop  (or start with --http [host:]<port>)"+"\r\n"+
+						   "              only loopback addresses are accepted, neither listen nor http authenticate clients"+"\r\n"+	
+						   "\r\n"+	
+						   "      watch = continuously shows something on the console"+"\r\n"+			
+						   "              watch traffic    = shows frames on the serial line as they pass"+"\r\n"+
+						   "              watch nodes [filter] = shows a row per node whenever it changed, filter by"+"\r\n"+
+						   "                                 node list ('2,5,10-40', 'name:3') or text ('METER')"+"\r\n"+	
+						   "              watch stop       = ends the current watch"+"\r\n"+	
 						   "\r\n"+	
 						   "      print = prints something on the console"+"\r\n"+			
 						   "              ==> use: print <what to print> [[additional params]]"+"\r\n"+	
 						   "              print commands   = prints this help"+"\r\n"+	
 						   "              print serial     = prints all available serial ports"+"\r\n"+	
 						   "              print version    = prints the version of this application"+"\r\n"+	
-						   "              print nodes      = prints alle node details"+"\r\n"+	
-						   "              print node <id>  = prints the node details of specific node"+"\r\n"+	
-						   "              print controller = prints details about the current z-wave controller"+"\r\n"+			
+						   "              print nodes [name]     = prints alle node details"+"\r\n"+	
+						   "              print node [name:]<id> = prints the node details of specific node"+"\r\n"+	
+						   "              print controller [name]= prints details about the z-wave controller"+"\r\n"+
+						   "              print controllers= prints all controllers of this console"+"\r\n"+
+						   "              print defines    = prints all defined aliases"+"\r\n"+
+						   "              print groups     = prints all node groups"+"\r\n"+
+						   "              print history [[<name>:]<id> <cmd_class> [from] [to] [step]]"+"\r\n"+
+						   "                               = prints recorded meter, sensor and battery values per sensor type or meter scale"+"\r\n"+
+						   "                                 (from/to: now, 12h, 2026-10-16T22:00;"+"\r\n"+
+						   "                                 step: 5m, 1h, raw); without a node the state of the history store"+"\r\n"+
+						   "              print rules      = prints all rules, how often they fired and rule engine counters"+"\r\n"+
+						   "              print config     = prints the state of the configuration journal and autosave"+"\r\n"+
+						   "              print spec       = prints the specification file and its load time"+"\r\n"+
+						   "              print interviews = prints the interview cache, running and failed interviews"+"\r\n"+
+						   "              print connection [name] = prints link outages, reconnect attempts and held commands"+"\r\n"+
+						   "              print adapter [name] = prints serial reads, buffer occupancy and hand-off latency"+"\r\n"+
+						   "              print startup    = prints the start and duration of all startup phases"+"\r\n"+
+						   "              print events     = prints event queue depths and drop counters"+"\r\n"+
+						   "              print replies [name] = prints outstanding GETs, replies, timeouts and reply latency"+"\r\n"+
+						   "              print log        = prints log levels, written and dropped log lines"+"\r\n"+
+						   "              print queue [name] = prints send queue depths, coalesced sends and queue waits"+"\r\n"+
+						   "              print polls [name] = prints polls, their latest results and back off counters"+"\r\n"+
+						   "              print http       = prints the state of the http api"+"\r\n"+
+						   "              print clients    = prints connected remote clients and their buffers"+"\r\n"+
+						   "              print journal    = prints the state of the running journal"+"\r\n"+
+						   "              print traffic [n]= prints the last n serial frames and traffic counters"+"\r\n"+
+						   "              print stats [[name:]id]= prints round trip latencies per node and command class"+"\r\n"+			
 						   "=======================================================================================");
 	}
 	
@@ -633,10 +2635,40 @@ public class JWaveConsole implements Runnable {
 		
 		configFile = System.getProperty("user.dir")+System.getProperty("file.separator")+"cnf"+System.getProperty("file.separator")+"nodes.xml";
 
-		if (args.length > 0){
-			cmdSpecificationPath = args[0];
-		} else {
-			cmdSpecificationPath = null;
+		cmdSpecificationPath = null;
+		for (int i = 0; i < args.length; i++){
+			if ("--script".equals(args[i])){
+				if (i + 1 >= args.length){
+					System.out.println("Missing file after --script");
+					return;
+				}
+				scriptFile = args[++i];
+			} else if ("--http".equals(args[i])){
+				if (i + 1 >= args.length){
+					System.out.println("Missing address after --http");
+					return;
+				}
+				httpAddress = args[++i];
+			} else if ("--port".equals(args[i])){
+				if (i + 1 >= args.length){
+					System.out.println("Missing port after --port");
+					return;
+				}
+				launchPort = args[++i];
+			} else if ("--listen".equals(args[i])){
+				if (i + 1 >= args.length){
+					System.out.println("Missing address after --listen");
+					return;
+				}
+				listenAddress = args[++i];
+			} else if (cmdSpecificationPath == null){
+				cmdSpecificationPath = args[i];
+			}
+		}
+		// parse the specification while the console starts up
+		specLoader = SpecificationLoader.start(cmdSpecificationPath == null ? null : System.getProperty("user.dir") + System.getProperty("file.separator") + cmdSpecificationPath);
+		if (launchPort != null && !SimulatorConfig.isSimulatorPort(launchPort)){
+			launchPortOpen = openLaunchPort(launchPort);
 		}
 
 		instance = new JWaveConsole();
@@ -647,6 +2679,19 @@ public class JWaveConsole implements Runnable {
 	    } catch (Exception exc){
 	    	exc.printStackTrace();
 	    }
+	    
+	    if (scriptFile != null){
+	    	try {
+	    		controllerInitialized.await();
+	    	} catch (InterruptedException exc){
+	    		return;
+	    	}
+	    	if (cntrl != null){
+	    		runScript(scriptFile);
+	    	}
+	    	keepAlive = false;
+	    	return;
+	    }
 	    	    
 	    BufferedReader console = new BufferedReader(new InputStreamReader(System.in));
 		
@@ -655,6 +2700,14 @@ public class JWaveConsole implements Runnable {
 	    while (keepAlive) {
 	    	try {	    		
 	    		cmd = console.readLine();
+	    		if (cmd == null){
+	    			// no console input (e.g. started in background), remote clients keep the console alive
+	    			controllerInitialized.await();
+	    			if (remoteServer == null && httpApi == null){
+	    				keepAlive = false;
+	    			}
+	    			break;
+	    		}
 	    		if (cmd.length()!= 0){	    						
 	    			evalCmd(cmd);
 	    		//	System.out.print("> ");
@@ -0,0 +1,107 @@
+package de.smahoo.jwave.console;
+
+import de.smahoo.jwave.console.cmd.NodeSelection;
+import de.smahoo.jwave.console.state.NodeState;
+import de.smahoo.jwave.console.state.NodeStateCache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 'watch nodes [filter]': one row per node, printed again only when the
+ * node changed. Checks at most every {@link #INTERVAL_MS} and prints at most
+ * {@link #MAX_ROWS} rows per check; further changed rows follow with the
+ * next check. The filter is a node list (2,5,10-40) or a text the row has
+ * to contain.
+ */
+class NodeWatch extends ConsoleWatch {
+
+	private static final long INTERVAL_MS = 500;
+	private static final int MAX_ROWS = 40;
+
+	private final NodeStateCache cache;
+	private final NodeSelection selection;
+	private final String text;
+	// version of every node as last printed
+	private final Map<Integer, Long> printed = new HashMap<Integer, Long>();
+	private long checkedVersion = -1;
+	private boolean header = false;
+
+	NodeWatch(NodeStateCache cache, NodeSelection selection, String text){
+		super("nodes", INTERVAL_MS);
+		this.cache = cache;
+		this.selection = selection;
+		this.text = text == null ? null : text.toLowerCase();
+	}
+
+	static String formatRow(NodeState state){
+		return String.format("  %3d  0x%02x %-26s %-8s %s", state.getNodeId(), state.getDeviceTypeKey(), state.getDeviceTypeName(),
+				state.getLastSeenMillis() == 0 ? "-" : String.format("%tT", state.getLastSeenMillis()),
+				state.getLastReport() == null ? "" : state.getLastReport());
+	}
+
+	private boolean accepts(NodeState state, String row){
+		if (selection != null && !selection.contains(state.getNodeId())){
+			return false;
+		}
+		return text == null || row.toLowerCase().contains(text);
+	}
+
+	@Override
+	protected void refresh() {
+		long version = cache.getVersion();
+		if (version == checkedVersion){
+			return;
+		}
+		StringBuilder sb = new StringBuilder();
+		if (!header){
+			header = true;
+			sb.append("   id  type                            seen     last report").append("\r\n");
+		}
+		List<NodeState> states = cache.getNodes();
+		Map<Integer, Boolean> present = new HashMap<Integer, Boolean>();
+		List<String> rows = new ArrayList<String>();
+		int pending = 0;
+		for (NodeState state : states){
+			present.put(state.getNodeId(), Boolean.TRUE);
+			Long last = printed.get(state.getNodeId());
+			if (last != null && last.longValue() == state.getVersion()){
+				continue;
+			}
+			String row = formatRow(state);
+			if (!accepts(state, row)){
+				printed.put(state.getNodeId(), state.getVersion());
+				continue;
+			}
+			if (rows.size() == MAX_ROWS){
+				pending++;
+				continue;
+			}
+			rows.add(row);
+			printed.put(state.getNodeId(), state.getVersion());
+		}
+		for (Iterator<Integer> it = printed.keySet().iterator(); it.hasNext();){
+			Integer nodeId = it.next();
+			if (!present.containsKey(nodeId)){
+				it.remove();
+				if (selection == null || selection.contains(nodeId)){
+					rows.add(String.format("  %3d  removed", nodeId));
+				}
+			}
+		}
+		for (String row : rows){
+			sb.append(row).append("\r\n");
+		}
+		if (pending > 0){
+			sb.append("  ... ").append(pending).append(" more changed nodes follow").append("\r\n");
+		} else {
+			checkedVersion = version;
+		}
+		if (sb.length() > 0){
+			System.out.print(sb);
+		}
+	}
+}
@@ -0,0 +1,179 @@
+package de.smahoo.jwave.console;
+
+import de.smahoo.jwave.console.io.SerialOptions;
+import de.smahoo.jwave.console.log.Log;
+import gnu.io.SerialPort;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Brings the serial link of a session back after an I/O error: the port is
+ * reopened on the thread <code>jwave-reconnect-&lt;name&gt;</code>, first
+ * after {@link #MIN_BACKOFF_MS}, then with the wait doubled after every
+ * failed attempt up to {@link #MAX_BACKOFF_MS}, and the controller is
+ * initialized with it again. The session's send scheduler is paused for
+ * the outage, so commands submitted meanwhile are held and sent in order
+ * once the link is back.
+ */
+class ReconnectSupervisor implements Runnable {
+
+	private static final Log LOG = Log.get("io");
+
+	static final long MIN_BACKOFF_MS = 500;
+	static final long MAX_BACKOFF_MS = 60000;
+	// commands held by the scheduler while the link is down
+	static final int OUTAGE_QUEUE = 512;
+
+	private final ControllerSession session;
+	private volatile boolean enabled = true;
+	private Thread thread = null;
+	private String port = null;
+
+	private long outages = 0;
+	private long attempts = 0;
+	private long outageStartMillis = 0;
+	private long lastOutageMillis = 0;
+	private long longestOutageMillis = 0;
+	private long totalOutageMillis = 0;
+	private String lastError = null;
+
+	ReconnectSupervisor(ControllerSession session){
+		this.session = session;
+	}
+
+	/**
+	 * Turning it off stops a reconnect going on and sends the held commands,
+	 * they fail on the closed link and their callbacks learn so.
+	 */
+	synchronized void setEnabled(boolean enabled){
+		this.enabled = enabled;
+		if (!enabled){
+			stop();
+		}
+	}
+
+	boolean isEnabled(){
+		return enabled;
+	}
+
+	/**
+	 * The link to the port broke, starts reconnecting unless that is already going on.
+	 */
+	synchronized void linkLost(String port){
+		if (!enabled || thread != null){
+			return;
+		}
+		this.port = port;
+		outages++;
+		outageStartMillis = System.currentTimeMillis();
+		session.getScheduler().pause(OUTAGE_QUEUE);
+		thread = new Thread(this, "jwave-reconnect-"+session.getName());
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public void run() {
+		long backoff = MIN_BACKOFF_MS;
+		int tries = 0;
+		while (true){
+			synchronized (this){
+				if (!enabled || thread != Thread.currentThread()){
+					return;
+				}
+			}
+			try {
+				// +-20% so several sticks on one hub do not retry in lockstep
+				Thread.sleep(backoff + ThreadLocalRandom.current().nextLong(-backoff / 5, backoff / 5 + 1));
+			} catch (InterruptedException exc){
+				synchronized (this){
+					if (thread == Thread.currentThread()){
+						thread = null;
+					}
+				}
+				return;
+			}
+			String target;
+			synchronized (this){
+				if (!enabled || thread != Thread.currentThread()){
+					return;
+				}
+				target = port;
+				attempts++;
+			}
+			tries++;
+			try {
+				SerialOptions options = session.getSerialOptions();
+				SerialPort serialPort = ControllerSession.openSerialPort(target, options);
+				if (session.connect(target, serialPort, options)){
+					break;
+				}
+				serialPort.close();
+				synchronized (this){
+					lastError = "controller could not be initialized";
+				}
+				backoff = Math.min(backoff * 2, MAX_BACKOFF_MS);
+			} catch (Exception exc){
+				synchronized (this){
+					lastError = exc.getMessage();
+				}
+				backoff = Math.min(backoff * 2, MAX_BACKOFF_MS);
+			}
+		}
+		int held = session.getScheduler().getQueued();
+		long duration;
+		synchronized (this){
+			if (thread != Thread.currentThread()){
+				// stopped while connecting, the scheduler is going on already
+				return;
+			}
+			duration = System.currentTimeMillis() - outageStartMillis;
+			outageStartMillis = 0;
+			lastOutageMillis = duration;
+			longestOutageMillis = Math.max(longestOutageMillis, duration);
+			totalOutageMillis += duration;
+			thread = null;
+		}
+		session.getScheduler().resume();
+		LOG.info("{}Reconnected to {} after {} s ({} attempts), sending {} held commands", session.prefix(), port, String.format("%.1f", duration / 1000.0), tries, held);
+	}
+
+	/**
+	 * Stops reconnecting and lets the scheduler go on.
+	 */
+	synchronized void close(){
+		stop();
+	}
+
+	private void stop(){
+		if (thread != null){
+			thread.interrupt();
+			thread = null;
+			outageStartMillis = 0;
+			session.getScheduler().resume();
+		}
+	}
+
+	synchronized boolean isReconnecting(){
+		return thread != null;
+	}
+
+	synchronized String getStatistics(){
+		long now = System.currentTimeMillis();
+		StringBuilder sb = new StringBuilder();
+		sb.append("--------------------------------------------------").append("\r\n");
+		sb.append("                  Connection").append("\r\n");
+		sb.append("--------------------------------------------------").append("\r\n");
+		sb.append("                      port = ").append(session.getPort() == null ? "-" : session.getPort()).append("\r\n");
+		sb.append("            auto reconnect = ").append(enabled ? "on" : "off").append("\r\n");
+		sb.append("                     state = ").append(thread == null ? "up" : String.format("down for %.1f s, reconnecting", (now - outageStartMillis) / 1000.0)).append("\r\n");
+		sb.append("                   outages = ").append(outages).append("\r\n");
+		sb.append("        reconnect attempts = ").append(attempts).append("\r\n");
+		sb.append("               last outage = ").append(String.format("%.1f s", lastOutageMillis / 1000.0)).append("\r\n");
+		sb.append("            longest outage = ").append(String.format("%.1f s", longestOutageMillis / 1000.0)).append("\r\n");
+		sb.append("              total outage = ").append(String.format("%.1f s", totalOutageMillis / 1000.0)).append("\r\n");
+		sb.append("         held / hold limit = ").append(thread == null ? 0 : session.getScheduler().getQueued()).append(" / ").append(OUTAGE_QUEUE).append("\r\n");
+		sb.append("                last error = ").append(lastError == null ? "-" : lastError).append("\r\n");
+		sb.append("--------------------------------------------------");
+		return sb.toString();
+	}
+}
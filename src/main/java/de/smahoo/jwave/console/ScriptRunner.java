@@ -0,0 +1,237 @@
+package de.smahoo.jwave.console;
+
+import de.smahoo.jwave.console.cmd.SendTemplate;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Streams a command file through the console parser. Send lines (and
+ * defined aliases) are compiled on the reading thread and handed to a
+ * dispatcher thread, so the next line is parsed while the previous command
+ * is being queued at the controller. The dispatcher hands each send to the
+ * I/O thread of its controller session, so sends to different controllers
+ * run in parallel while sends to one controller keep their order. Every
+ * other command acts as a barrier: it is executed only after all sends
+ * before it have been handed to their controllers.
+ * <p>
+ * The script never holds the console's command lock while it sleeps or
+ * waits for its sends; each line takes it for as long as it is compiled or
+ * executed, so other front ends keep working while a script runs.
+ */
+public class ScriptRunner {
+
+	private static final int QUEUE_CAPACITY = 1024;
+	private static final String COMMENT_PREFIX = "#";
+	private static final int MAX_IN_FLIGHT = 256;
+	// scripts wait for room in a full send queue instead of dropping commands
+	private static final long QUEUE_WAIT_MS = 60000;
+
+	private final File file;
+	private final BlockingQueue<Object> queue = new ArrayBlockingQueue<Object>(QUEUE_CAPACITY);
+	// sends handed to a session but not yet executed there
+	private final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+
+	private final AtomicLong sent = new AtomicLong();
+	private final AtomicLong sendFailures = new AtomicLong();
+	private long lines = 0;
+	private long commands = 0;
+	private long parseFailures = 0;
+	private boolean exitRequested = false;
+
+	public ScriptRunner(File file){
+		this.file = file;
+	}
+
+	/**
+	 * Runs the script and prints a summary. Returns false if the file could
+	 * not be read.
+	 */
+	public boolean run(){
+		if (!file.isFile()){
+			System.out.println("script file '"+file.getPath()+"' does not exist.");
+			return false;
+		}
+		System.out.println("Running script "+file.getPath());
+		Thread dispatcher = new Thread(new Runnable() {
+			public void run() {
+				dispatchLoop();
+			}
+		}, "jwave-script-dispatch");
+		dispatcher.setDaemon(true);
+		long start = System.nanoTime();
+		dispatcher.start();
+		boolean ok = true;
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new FileReader(file));
+			String line;
+			while (!exitRequested && (line = reader.readLine()) != null){
+				lines++;
+				evalLine(line.trim());
+			}
+		} catch (IOException exc){
+			System.out.println("Error while reading script ("+exc.getMessage()+")");
+			ok = false;
+		} catch (InterruptedException exc){
+			Thread.currentThread().interrupt();
+			System.out.println("Script was interrupted");
+			ok = false;
+		} finally {
+			if (reader != null){
+				try {
+					reader.close();
+				} catch (IOException exc){
+					// nothing to do
+				}
+			}
+			try {
+				awaitDispatched();
+			} catch (InterruptedException exc){
+				Thread.currentThread().interrupt();
+			}
+			dispatcher.interrupt();
+		}
+		printSummary(System.nanoTime() - start);
+		return ok;
+	}
+
+	public boolean isExitRequested(){
+		return exitRequested;
+	}
+
+	protected void evalLine(String line) throws InterruptedException {
+		if (line.length() == 0 || line.startsWith(COMMENT_PREFIX)){
+			return;
+		}
+		commands++;
+		SendTemplate template = null;
+		if (line.startsWith("send ") && !JWaveConsole.isFanOutSend(tokenize(line))){
+			synchronized (JWaveConsole.getCommandLock()){
+				template = JWaveConsole.compileSendCmd(tokenize(line));
+			}
+			if (template == null){
+				reportParseFailure(line);
+				return;
+			}
+		} else if (line.indexOf(' ') < 0){
+			template = JWaveConsole.getDefinition(line);
+		}
+		if (template != null){
+			queue.put(template);
+			return;
+		}
+
+		awaitDispatched();
+		if ("exit".equalsIgnoreCase(line)){
+			exitRequested = true;
+			return;
+		}
+		if (line.startsWith("sleep ")){
+			sleep(line);
+			return;
+		}
+		JWaveConsole.evalCmd(line);
+	}
+
+	private void sleep(String line) throws InterruptedException {
+		try {
+			Thread.sleep(Long.parseLong(line.substring("sleep ".length()).trim()));
+		} catch (NumberFormatException exc){
+			reportParseFailure(line);
+		}
+	}
+
+	private void reportParseFailure(String line){
+		parseFailures++;
+		System.out.println("  line "+lines+" failed: "+line);
+	}
+
+	/**
+	 * Blocks until every send queued so far has been handed to the controller.
+	 */
+	private void awaitDispatched() throws InterruptedException {
+		CountDownLatch barrier = new CountDownLatch(1);
+		queue.put(barrier);
+		barrier.await();
+	}
+
+	private void dispatchLoop(){
+		try {
+			while (true){
+				Object item = queue.take();
+				if (item instanceof CountDownLatch){
+					// wait until the sessions executed everything handed to them
+					inFlight.acquire(MAX_IN_FLIGHT);
+					inFlight.release(MAX_IN_FLIGHT);
+					((CountDownLatch)item).countDown();
+					continue;
+				}
+				dispatch((SendTemplate)item);
+			}
+		} catch (InterruptedException exc){
+			// script finished
+		}
+	}
+
+	private void dispatch(final SendTemplate template) throws InterruptedException {
+		ControllerSession session = JWaveConsole.getSession(template.getControllerName());
+		if (session == null){
+			// reports the unknown controller
+			send(template);
+			return;
+		}
+		inFlight.acquire();
+		try {
+			session.execute(new Runnable() {
+				public void run() {
+					try {
+						send(template);
+					} finally {
+						inFlight.release();
+					}
+				}
+			});
+		} catch (RejectedExecutionException exc){
+			inFlight.release();
+			sendFailures.incrementAndGet();
+		}
+	}
+
+	private void send(SendTemplate template){
+		if (JWaveConsole.sendTemplate(template, QUEUE_WAIT_MS)){
+			sent.incrementAndGet();
+		} else {
+			sendFailures.incrementAndGet();
+		}
+	}
+
+	private void printSummary(long elapsedNanos){
+		double seconds = elapsedNanos / 1000000000.0;
+		long sends = sent.get();
+		long failures = parseFailures + sendFailures.get();
+		System.out.println("--------------------------------------------------"+"\r\n"+
+						   "                  Script Summary"+"\r\n"+
+						   "--------------------------------------------------"+"\r\n"+
+						   "                    script = "+file.getPath()+"\r\n"+
+						   "                     lines = "+lines+"\r\n"+
+						   "                  commands = "+commands+"\r\n"+
+						   "             sent commands = "+sends+"\r\n"+
+						   "                  failures = "+failures+" (parse "+parseFailures+", send "+sendFailures.get()+")"+"\r\n"+
+						   "                   elapsed = "+String.format("%.3f s", seconds)+"\r\n"+
+						   "                throughput = "+String.format("%.1f sends/s", seconds > 0 ? sends / seconds : 0.0)+"\r\n"+
+						   "--------------------------------------------------");
+	}
+
+	static String[] tokenize(String line){
+		return line.split(" +");
+	}
+}
@@ -0,0 +1,103 @@
+package de.smahoo.jwave.console;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Start and end of the phases of the console start ('print startup').
+ * Phases run on several threads at once, so every phase keeps the thread
+ * it ran on; times are relative to the entry of main.
+ */
+class StartupTimer {
+
+	private final long originNanos = System.nanoTime();
+	private final long originMillis = System.currentTimeMillis();
+	private final List<Phase> phases = new ArrayList<Phase>();
+	private volatile long readyNanos = 0;
+
+	/**
+	 * Starts a phase on the calling thread; {@link Phase#end()} ends it.
+	 */
+	Phase begin(String name){
+		Phase phase = new Phase(name, Thread.currentThread().getName(), System.nanoTime());
+		synchronized (phases){
+			phases.add(phase);
+		}
+		return phase;
+	}
+
+	/**
+	 * Adds a phase that was measured elsewhere.
+	 */
+	void record(String name, String thread, long startNanos, long durationNanos){
+		Phase phase = new Phase(name, thread, startNanos);
+		phase.endNanos = startNanos + durationNanos;
+		synchronized (phases){
+			phases.add(phase);
+		}
+	}
+
+	/**
+	 * The console accepts commands from now on.
+	 */
+	void ready(){
+		readyNanos = System.nanoTime();
+	}
+
+	long getReadyMillis(){
+		return readyNanos == 0 ? -1 : (readyNanos - originNanos) / 1000000;
+	}
+
+	String getReport(){
+		List<Phase> sorted;
+		synchronized (phases){
+			sorted = new ArrayList<Phase>(phases);
+		}
+		Collections.sort(sorted, new Comparator<Phase>() {
+			public int compare(Phase a, Phase b) {
+				return a.startNanos < b.startNanos ? -1 : (a.startNanos == b.startNanos ? 0 : 1);
+			}
+		});
+		StringBuilder sb = new StringBuilder();
+		sb.append("--------------------------------------------------------------------------").append("\r\n");
+		sb.append(String.format("  %-30s %-16s %10s %12s", "phase", "thread", "start", "duration")).append("\r\n");
+		sb.append("--------------------------------------------------------------------------").append("\r\n");
+		long jvmStart = ManagementFactory.getRuntimeMXBean().getStartTime();
+		if (jvmStart > 0 && jvmStart <= originMillis){
+			sb.append(String.format("  %-30s %-16s %10s %12s", "jvm start", "", "-"+(originMillis - jvmStart)+" ms", (originMillis - jvmStart)+" ms")).append("\r\n");
+		}
+		for (Phase phase : sorted){
+			sb.append(String.format("  %-30s %-16s %10s %12s", phase.name, phase.thread, ms(phase.startNanos - originNanos),
+					phase.endNanos == 0 ? "running" : String.format("%.1f ms", (phase.endNanos - phase.startNanos) / 1000000.0))).append("\r\n");
+		}
+		sb.append("--------------------------------------------------------------------------").append("\r\n");
+		sb.append(String.format("  %-30s %-16s %10s", "ready", "", readyNanos == 0 ? "not yet" : ms(readyNanos - originNanos))).append("\r\n");
+		sb.append("--------------------------------------------------------------------------");
+		return sb.toString();
+	}
+
+	private static String ms(long nanos){
+		return (nanos / 1000000)+" ms";
+	}
+
+	static class Phase {
+
+		private final String name;
+		private final String thread;
+		private final long startNanos;
+		private volatile long endNanos = 0;
+
+		Phase(String name, String thread, long startNanos){
+			this.name = name;
+			this.thread = thread;
+			this.startNanos = startNanos;
+		}
+
+		void end(){
+			endNanos = System.nanoTime();
+		}
+	}
+}
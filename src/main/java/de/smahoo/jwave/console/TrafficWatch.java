@@ -0,0 +1,42 @@
+package de.smahoo.jwave.console;
+
+import de.smahoo.jwave.console.io.TrafficRing;
+
+import java.util.List;
+
+/**
+ * 'watch traffic': prints every frame recorded by the traffic ring since the
+ * watch was started.
+ */
+class TrafficWatch extends ConsoleWatch {
+
+	private static final long INTERVAL_MS = 200;
+
+	private final TrafficRing ring;
+	private long next;
+
+	TrafficWatch(TrafficRing ring){
+		super("traffic", INTERVAL_MS);
+		this.ring = ring;
+		this.next = ring.getSequence();
+	}
+
+	@Override
+	protected void refresh() {
+		long sequence = ring.getSequence();
+		if (sequence == next){
+			return;
+		}
+		List<String> lines = ring.format(next, sequence);
+		long skipped = sequence - next - lines.size();
+		next = sequence;
+		StringBuilder sb = new StringBuilder();
+		if (skipped > 0){
+			sb.append("  ... ").append(skipped).append(" frames skipped").append("\r\n");
+		}
+		for (String line : lines){
+			sb.append(line).append("\r\n");
+		}
+		System.out.print(sb);
+	}
+}
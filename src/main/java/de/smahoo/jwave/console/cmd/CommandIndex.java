@@ -0,0 +1,233 @@
+package de.smahoo.jwave.console.cmd;
+
+import de.smahoo.jwave.cmd.JWaveCommand;
+import de.smahoo.jwave.cmd.JWaveCommandClass;
+import de.smahoo.jwave.cmd.JWaveCommandClassSpecification;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Lookup table of all commands of a specification, keyed by
+ * (class key or name, version, command key or name). It is filled once when
+ * the specification is loaded; combinations the specification resolves
+ * differently (e.g. a requested version the class does not define) are
+ * resolved through the specification once and remembered.
+ */
+public class CommandIndex {
+
+	private static final ClassEntry MISSING = new ClassEntry(null);
+
+	private final JWaveCommandClassSpecification spec;
+	private final Map<Integer, ClassEntry> byKey = new ConcurrentHashMap<Integer, ClassEntry>();
+	private final Map<String, ClassEntry> byName = new ConcurrentHashMap<String, ClassEntry>();
+	// highest version of every class key, and the key of every class name
+	private final Map<Integer, Integer> maxVersions = new ConcurrentHashMap<Integer, Integer>();
+	private final Map<String, Integer> classKeys = new ConcurrentHashMap<String, Integer>();
+
+	public CommandIndex(JWaveCommandClassSpecification spec){
+		this.spec = spec;
+		Collection<JWaveCommandClass> classes = spec.getCommandClasses();
+		if (classes == null){
+			return;
+		}
+		for (JWaveCommandClass cmdClass : classes){
+			ClassEntry entry = new ClassEntry(cmdClass);
+			byKey.put(classKey(cmdClass.getKey(), cmdClass.getVersion()), entry);
+			Integer max = maxVersions.get(cmdClass.getKey());
+			if (max == null || max < cmdClass.getVersion()){
+				maxVersions.put(cmdClass.getKey(), cmdClass.getVersion());
+			}
+			if (cmdClass.getName() != null){
+				byName.put(className(cmdClass.getName(), cmdClass.getVersion()), entry);
+				classKeys.put(cmdClass.getName(), cmdClass.getKey());
+			}
+		}
+	}
+
+	public JWaveCommandClassSpecification getSpecification(){
+		return spec;
+	}
+
+	public int size(){
+		return byKey.size();
+	}
+
+	/**
+	 * Resolves a command the same way the console accepts it on the command
+	 * line: class and command either as number (decimal or 0x..) or name.
+	 */
+	public JWaveCommand getCommand(String cl, String cmd, int version){
+		ClassEntry entry = getClassEntry(cl, version);
+		if (entry == null){
+			return null;
+		}
+		if (isNumber(cmd)){
+			try {
+				return entry.getCommand(parseInt(cmd));
+			} catch (NumberFormatException exc){
+				// not a key, try it as name
+			}
+		}
+		return entry.getCommand(cmd);
+	}
+
+	/**
+	 * Resolves a command of any version of its class, starting with the
+	 * highest. A command keeps its key in all versions of a class, so the
+	 * result tells the keys of a received command whatever version the node
+	 * implements. Null if no version of the class defines the command.
+	 */
+	public JWaveCommand findCommand(String cl, String cmd){
+		Integer key;
+		if (isNumber(cl)){
+			try {
+				key = parseInt(cl);
+			} catch (NumberFormatException exc){
+				key = classKeys.get(cl);
+			}
+		} else {
+			key = classKeys.get(cl);
+		}
+		Integer max = key == null ? null : maxVersions.get(key);
+		if (max == null){
+			return null;
+		}
+		for (int version = max; version >= 1; version--){
+			JWaveCommand command = getCommand(String.valueOf(key), cmd, version);
+			if (command != null){
+				return command;
+			}
+		}
+		return null;
+	}
+
+	public JWaveCommandClass getCommandClass(String cl, int version){
+		ClassEntry entry = getClassEntry(cl, version);
+		if (entry == null){
+			return null;
+		}
+		return entry.cmdClass;
+	}
+
+	private ClassEntry getClassEntry(String cl, int version){
+		ClassEntry entry;
+		if (isNumber(cl)){
+			int key;
+			try {
+				key = parseInt(cl);
+			} catch (NumberFormatException exc){
+				return getClassEntryByName(cl, version);
+			}
+			entry = getClassEntry(key, version);
+		} else {
+			entry = getClassEntryByName(cl, version);
+		}
+		return entry == MISSING ? null : entry;
+	}
+
+	private ClassEntry getClassEntry(int key, int version){
+		Integer mapKey = classKey(key, version);
+		ClassEntry entry = byKey.get(mapKey);
+		if (entry == null){
+			entry = wrap(spec.getCommandClass(key, version));
+			byKey.put(mapKey, entry);
+		}
+		return entry;
+	}
+
+	private ClassEntry getClassEntryByName(String cl, int version){
+		String mapKey = className(cl, version);
+		ClassEntry entry = byName.get(mapKey);
+		if (entry == null){
+			entry = wrap(spec.getCommandClass(cl, version));
+			byName.put(mapKey, entry);
+		}
+		return entry;
+	}
+
+	private static ClassEntry wrap(JWaveCommandClass cmdClass){
+		if (cmdClass == null){
+			return MISSING;
+		}
+		return new ClassEntry(cmdClass);
+	}
+
+	private static Integer classKey(int key, int version){
+		return Integer.valueOf((key & 0xFFFF) << 8 | (version & 0xFF));
+	}
+
+	private static String className(String name, int version){
+		return name + '#' + version;
+	}
+
+	/**
+	 * Cheap pre-check so that names never go through a NumberFormatException.
+	 */
+	public static boolean isNumber(String value){
+		if (value == null || value.isEmpty()){
+			return false;
+		}
+		char c = value.charAt(0);
+		return (c >= '0' && c <= '9') || c == '-';
+	}
+
+	/**
+	 * A number as the console accepts it, decimal or hex with 0x.
+	 */
+	public static int parseInt(String value) throws NumberFormatException {
+		if (value.contains("0x")){
+			return Integer.parseInt(value.replace("0x",""),16);
+		}
+		return Integer.parseInt(value);
+	}
+
+	private static class ClassEntry {
+
+		private final JWaveCommandClass cmdClass;
+		private final JWaveCommand[] byKey = new JWaveCommand[256];
+		private final Map<String, JWaveCommand> byName = new ConcurrentHashMap<String, JWaveCommand>();
+
+		ClassEntry(JWaveCommandClass cmdClass){
+			this.cmdClass = cmdClass;
+			if (cmdClass == null){
+				return;
+			}
+			Collection<JWaveCommand> commands = cmdClass.getCommands();
+			if (commands == null){
+				return;
+			}
+			for (JWaveCommand command : commands){
+				if (command.getKey() >= 0 && command.getKey() < byKey.length){
+					byKey[command.getKey()] = command;
+				}
+				if (command.getName() != null){
+					byName.put(command.getName(), command);
+				}
+			}
+		}
+
+		JWaveCommand getCommand(int key){
+			if (key >= 0 && key < byKey.length && byKey[key] != null){
+				return byKey[key];
+			}
+			JWaveCommand command = cmdClass.getCommand(key);
+			if (command != null && key >= 0 && key < byKey.length){
+				byKey[key] = command;
+			}
+			return command;
+		}
+
+		JWaveCommand getCommand(String name){
+			JWaveCommand command = byName.get(name);
+			if (command == null){
+				command = cmdClass.getCommand(name);
+				if (command != null){
+					byName.put(name, command);
+				}
+			}
+			return command;
+		}
+	}
+}
@@ -0,0 +1,117 @@
+package de.smahoo.jwave.console.cmd;
+
+import java.util.Arrays;
+
+/**
+ * Set of nodes of one controller, written as a comma separated list of ids
+ * and ranges, optionally prefixed with the controller name:
+ * <code>2,5,10-40</code> or <code>upstairs:3-7</code>. Ids are kept sorted
+ * and without duplicates.
+ */
+public class NodeSelection {
+
+	public static final int MIN_NODE_ID = 1;
+	public static final int MAX_NODE_ID = 232;
+
+	private final String controllerName;
+	private final int[] nodeIds;
+	private final String source;
+
+	private NodeSelection(String controllerName, int[] nodeIds, String source){
+		this.controllerName = controllerName;
+		this.nodeIds = nodeIds;
+		this.source = source;
+	}
+
+	/**
+	 * True if the node address of a send command is a list or a range
+	 * rather than a single node.
+	 */
+	public static boolean isSelection(String address){
+		String ids = address.substring(address.indexOf(':') + 1);
+		return ids.indexOf(',') >= 0 || ids.indexOf('-') > 0;
+	}
+
+	public static NodeSelection parse(String spec) throws IllegalArgumentException {
+		String controllerName = null;
+		String ids = spec;
+		int idx = spec.indexOf(':');
+		if (idx == 0){
+			throw new IllegalArgumentException("missing controller name in '"+spec+"'");
+		}
+		if (idx > 0){
+			controllerName = spec.substring(0, idx);
+			ids = spec.substring(idx + 1);
+		}
+		boolean[] selected = new boolean[MAX_NODE_ID + 1];
+		int count = 0;
+		for (String part : ids.split(",")){
+			part = part.trim();
+			if (part.length() == 0){
+				continue;
+			}
+			int from;
+			int to;
+			try {
+				int dash = part.indexOf('-', 1);
+				if (dash > 0){
+					from = CommandIndex.parseInt(part.substring(0, dash));
+					to = CommandIndex.parseInt(part.substring(dash + 1));
+				} else {
+					from = CommandIndex.parseInt(part);
+					to = from;
+				}
+			} catch (NumberFormatException exc){
+				throw new IllegalArgumentException("invalid node id or range '"+part+"'");
+			}
+			if (from > to || from < MIN_NODE_ID || to > MAX_NODE_ID){
+				throw new IllegalArgumentException("invalid node range '"+part+"' (ids are "+MIN_NODE_ID+" to "+MAX_NODE_ID+")");
+			}
+			for (int id = from; id <= to; id++){
+				if (!selected[id]){
+					selected[id] = true;
+					count++;
+				}
+			}
+		}
+		if (count == 0){
+			throw new IllegalArgumentException("no nodes in '"+spec+"'");
+		}
+		int[] nodeIds = new int[count];
+		int i = 0;
+		for (int id = MIN_NODE_ID; id <= MAX_NODE_ID; id++){
+			if (selected[id]){
+				nodeIds[i++] = id;
+			}
+		}
+		return new NodeSelection(controllerName, nodeIds, spec);
+	}
+
+	/**
+	 * Name of the controller, null for the default controller.
+	 */
+	public String getControllerName(){
+		return controllerName;
+	}
+
+	public int size(){
+		return nodeIds.length;
+	}
+
+	public int getNodeId(int index){
+		return nodeIds[index];
+	}
+
+	public int[] getNodeIds(){
+		return nodeIds.clone();
+	}
+
+	public boolean contains(int nodeId){
+		return Arrays.binarySearch(nodeIds, nodeId) >= 0;
+	}
+
+	@Override
+	public String toString(){
+		return source;
+	}
+}
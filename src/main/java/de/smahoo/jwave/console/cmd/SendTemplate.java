@@ -0,0 +1,161 @@
+package de.smahoo.jwave.console.cmd;
+
+import de.smahoo.jwave.JWaveController;
+import de.smahoo.jwave.cmd.JWaveCommand;
+import de.smahoo.jwave.cmd.JWaveNodeCommand;
+import de.smahoo.jwave.console.sched.SendPriority;
+import de.smahoo.jwave.node.JWaveNode;
+
+/**
+ * A send command whose node id, command and parameter values are already
+ * resolved. The node command is built from them on the first send and sent
+ * again as it is afterwards, also by the copies of the template for other
+ * nodes and priorities; it holds no node, libjwave encodes it for the node
+ * it is sent to. No tokenizing or specification lookup is involved.
+ */
+public class SendTemplate {
+
+	private final String controllerName;
+	private final int nodeId;
+	private final int commandClassKey;
+	private final JWaveCommand command;
+	private final int[] params;
+	private final SendPriority priority;
+	private final String source;
+	private volatile JWaveNodeCommand nodeCmd;
+
+	public SendTemplate(int nodeId, JWaveCommand command, int[] params, String source){
+		this(null, nodeId, command, params, source);
+	}
+
+	/**
+	 * @param controllerName name of the controller the node belongs to, null for the default controller
+	 */
+	public SendTemplate(String controllerName, int nodeId, JWaveCommand command, int[] params, String source){
+		this(controllerName, nodeId, -1, command, params.clone(), SendPriority.NORMAL, source, null);
+	}
+
+	// params and node command are shared by the copies of one template, never changed
+	private SendTemplate(String controllerName, int nodeId, int commandClassKey, JWaveCommand command, int[] params, SendPriority priority, String source, JWaveNodeCommand nodeCmd){
+		this.controllerName = controllerName;
+		this.nodeId = nodeId;
+		this.commandClassKey = commandClassKey;
+		this.command = command;
+		this.params = params;
+		this.priority = priority;
+		this.source = source;
+		this.nodeCmd = nodeCmd;
+	}
+
+	/**
+	 * @param controllerName name of the controller the node belongs to, null for the default controller
+	 * @param commandClassKey key of the command's class, -1 if unknown
+	 */
+	public static SendTemplate of(String controllerName, int nodeId, int commandClassKey, JWaveCommand command, int[] params, SendPriority priority, String source){
+		return new SendTemplate(controllerName, nodeId, commandClassKey, command, params.clone(), priority, source, null);
+	}
+
+	/**
+	 * Name of the controller the node belongs to, null for the default controller.
+	 */
+	public String getControllerName(){
+		return controllerName;
+	}
+
+	public int getNodeId(){
+		return nodeId;
+	}
+
+	/**
+	 * Key of the command's class, -1 if unknown.
+	 */
+	public int getCommandClassKey(){
+		return commandClassKey;
+	}
+
+	public JWaveCommand getCommand(){
+		return command;
+	}
+
+	public SendPriority getPriority(){
+		return priority;
+	}
+
+	public int getParamCount(){
+		return params.length;
+	}
+
+	public int getParam(int index){
+		return params[index];
+	}
+
+	/**
+	 * The command line the template was compiled from.
+	 */
+	public String getSource(){
+		return source;
+	}
+
+	/**
+	 * Same template, addressed to another node.
+	 */
+	public SendTemplate forNode(int otherNodeId){
+		if (otherNodeId == nodeId){
+			return this;
+		}
+		return new SendTemplate(controllerName, otherNodeId, commandClassKey, command, params, priority, source, getBuiltCommand());
+	}
+
+	/**
+	 * Same template with another priority.
+	 */
+	public SendTemplate withPriority(SendPriority otherPriority){
+		if (otherPriority == priority){
+			return this;
+		}
+		return new SendTemplate(controllerName, nodeId, commandClassKey, command, params, otherPriority, source, getBuiltCommand());
+	}
+
+	/**
+	 * The node command of the template, built on first use. Two threads
+	 * sending at once may both build it, the commands are equal.
+	 */
+	public JWaveNodeCommand getNodeCommand() throws Exception {
+		JWaveNodeCommand built = nodeCmd;
+		if (built == null){
+			built = new JWaveNodeCommand(command);
+			for (int i = 0; i < params.length; i++){
+				built.setParamValue(i, params[i]);
+			}
+			nodeCmd = built;
+		}
+		return built;
+	}
+
+	// built once for all copies; an error is reported by the send that builds it again
+	private JWaveNodeCommand getBuiltCommand(){
+		try {
+			return getNodeCommand();
+		} catch (Exception exc){
+			return null;
+		}
+	}
+
+	/**
+	 * Sends the command to the node. Returns false if the controller does not
+	 * know the node (anymore).
+	 */
+	public boolean send(JWaveController cntrl) throws Exception {
+		JWaveNode node = cntrl.getNode(nodeId);
+		if (node == null){
+			return false;
+		}
+		node.sendData(getNodeCommand());
+		return true;
+	}
+
+	@Override
+	public String toString(){
+		return source;
+	}
+}
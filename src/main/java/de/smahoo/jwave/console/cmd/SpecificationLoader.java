@@ -0,0 +1,95 @@
+package de.smahoo.jwave.console.cmd;
+
+import de.smahoo.jwave.cmd.JWaveCommandClassSpecification;
+import de.smahoo.jwave.specification.JWaveSpecification;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Loads the command class specification on the thread <code>jwave-spec</code>,
+ * so parsing the XML overlaps the rest of the start.
+ * <p>
+ * There is no binary cache of the specification: libjwave only builds a
+ * {@link JWaveCommandClassSpecification} by parsing the XML, and the
+ * controller needs the complete parameter definitions of every class from
+ * it. A cache could only replace the console's own lookups, never the parse.
+ */
+public class SpecificationLoader {
+
+	private final String path;
+	private final FutureTask<JWaveCommandClassSpecification> task;
+	private volatile long parseStartNanos = 0;
+	private volatile long parseNanos = 0;
+
+	private SpecificationLoader(String path){
+		this.path = path;
+		task = new FutureTask<JWaveCommandClassSpecification>(new Callable<JWaveCommandClassSpecification>() {
+			public JWaveCommandClassSpecification call() throws Exception {
+				long start = System.nanoTime();
+				parseStartNanos = start;
+				try {
+					if (SpecificationLoader.this.path == null){
+						return JWaveSpecification.loadDefaultSpecification();
+					}
+					return new JWaveCommandClassSpecification(SpecificationLoader.this.path);
+				} finally {
+					parseNanos = System.nanoTime() - start;
+				}
+			}
+		});
+	}
+
+	/**
+	 * Starts loading the specification file, the default specification of
+	 * the library for null.
+	 */
+	public static SpecificationLoader start(String path){
+		SpecificationLoader loader = new SpecificationLoader(path);
+		Thread t = new Thread(loader.task, "jwave-spec");
+		t.setDaemon(true);
+		t.start();
+		return loader;
+	}
+
+	/**
+	 * Waits for the specification. Throws what the XML parser threw.
+	 */
+	public JWaveCommandClassSpecification get() throws Exception {
+		try {
+			return task.get();
+		} catch (ExecutionException exc){
+			if (exc.getCause() instanceof Exception){
+				throw (Exception)exc.getCause();
+			}
+			throw exc;
+		}
+	}
+
+	/**
+	 * Start (System.nanoTime) and duration of parsing the XML.
+	 */
+	public long getParseStartNanos(){
+		return parseStartNanos;
+	}
+
+	public long getParseNanos(){
+		return parseNanos;
+	}
+
+	public String getPath(){
+		return path;
+	}
+
+	public String getStatistics(){
+		StringBuilder sb = new StringBuilder();
+		sb.append("--------------------------------------------------").append("\r\n");
+		sb.append("                  Specification").append("\r\n");
+		sb.append("--------------------------------------------------").append("\r\n");
+		sb.append("                       xml = ").append(path == null ? "default (resource)" : path).append("\r\n");
+		sb.append("            xml parse time = ").append(task.isDone() ? String.format("%.1f ms", parseNanos / 1000000.0) : "running").append("\r\n");
+		sb.append("--------------------------------------------------");
+		return sb.toString();
+	}
+}
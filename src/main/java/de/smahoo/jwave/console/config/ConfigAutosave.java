@@ -0,0 +1,370 @@
+package de.smahoo.jwave.console.config;
+
+import de.smahoo.jwave.JWaveController;
+import de.smahoo.jwave.JWaveControllerMode;
+import de.smahoo.jwave.console.event.EventBus;
+import de.smahoo.jwave.console.event.EventConsumer;
+import de.smahoo.jwave.console.log.Log;
+import de.smahoo.jwave.event.JWaveEvent;
+import de.smahoo.jwave.event.JWaveNodeEvent;
+import de.smahoo.jwave.node.JWaveNode;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background persistence of the console: syncs and compacts the
+ * {@link ConfigJournal} and keeps the node configuration file of the
+ * controller up to date, all on the thread <code>jwave-autosave</code>.
+ * <p>
+ * The node configuration is written by the controller as one XML document,
+ * which takes long for large networks. Therefore the node fingerprints
+ * ({@link NodeFingerprint}) are journaled under <code>node/&lt;id&gt;</code>
+ * as they change, and the XML document is only rewritten when one of them
+ * changed since the last write, at most once per autosave interval. Which
+ * nodes to look at comes from the controller's event bus: nodes that were
+ * added, removed or sent data since the last autosave; all nodes are only
+ * compared when the controller was (re)initialized. The document is
+ * written to a temporary file and renamed over the old one, so a crash
+ * while saving never leaves a half-written configuration.
+ */
+public class ConfigAutosave {
+
+	private static final Log LOG = Log.get("config");
+
+	public static final long DEFAULT_INTERVAL_MS = 30000;
+	public static final long COMPACT_AFTER_RECORDS = 1000;
+	public static final String NODE_PREFIX = "node/";
+
+	private static final long SYNC_INTERVAL_MS = 1000;
+
+	private final ConfigJournal config;
+	private final ScheduledExecutorService executor;
+	private volatile JWaveController controller = null;
+	private volatile String path = null;
+	private EventBus bus = null;
+	private EventBus.Subscription subscription = null;
+	// nodes with events since they were last journaled
+	private final Set<Integer> touched = ConcurrentHashMap.newKeySet();
+	private volatile boolean rescan = true;
+	private volatile long intervalMs = DEFAULT_INTERVAL_MS;
+
+	private long lastCheckMillis = System.currentTimeMillis();
+	private boolean nodesDirty = false;
+	private long saves = 0;
+	private long autosaves = 0;
+	private long failures = 0;
+	private long lastSaveMillis = 0;
+	private long lastSaveNanos = 0;
+	private long nodeChanges = 0;
+	private String lastError = null;
+
+	public ConfigAutosave(ConfigJournal config){
+		this.config = config;
+		executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "jwave-autosave");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		executor.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				tick();
+			}
+		}, SYNC_INTERVAL_MS, SYNC_INTERVAL_MS, TimeUnit.MILLISECONDS);
+	}
+
+	public ConfigJournal getConfig(){
+		return config;
+	}
+
+	/**
+	 * Controller whose node configuration is saved to the file.
+	 *
+	 * @param bus event bus of the controller, tells which nodes changed
+	 */
+	public synchronized void setTarget(JWaveController controller, EventBus bus, String path){
+		this.controller = controller;
+		this.path = path;
+		if (this.bus != bus){
+			if (subscription != null){
+				this.bus.unsubscribe(subscription);
+				subscription = null;
+			}
+			this.bus = bus;
+			if (bus != null){
+				subscription = bus.subscribe("autosave", new EventConsumer() {
+					public void onEvent(JWaveEvent event, long receivedMillis, long receivedNanos) {
+						touched(event);
+					}
+				});
+			}
+		}
+		rescan = true;
+	}
+
+	private void touched(JWaveEvent event){
+		if (event.getEventType() == null){
+			return;
+		}
+		switch (event.getEventType()){
+			case CNTRL_EVENT_INIT_COMPLETED:
+				rescan = true;
+				break;
+			case NODE_EVENT_NODE_ADDED:
+			case NODE_EVENT_NODE_REMOVED:
+			case NODE_EVENT_DATA_RECEIVED:
+				if (event instanceof JWaveNodeEvent && ((JWaveNodeEvent)event).getNode() != null){
+					touched.add(((JWaveNodeEvent)event).getNode().getNodeId());
+				}
+				break;
+			default:
+				break;
+		}
+	}
+
+	/**
+	 * How often changed nodes are saved, 0 turns autosaving off.
+	 */
+	public void setInterval(long intervalMs){
+		this.intervalMs = intervalMs;
+	}
+
+	public long getInterval(){
+		return intervalMs;
+	}
+
+	private void tick(){
+		try {
+			config.sync();
+			if (config.getJournalRecords() >= COMPACT_AFTER_RECORDS){
+				config.compact();
+			}
+		} catch (IOException exc){
+			failed("configuration journal", exc);
+		}
+		long now = System.currentTimeMillis();
+		long interval = intervalMs;
+		if (interval <= 0 || now - lastCheckMillis < interval){
+			return;
+		}
+		lastCheckMillis = now;
+		if (journalNodes() && path != null){
+			try {
+				write(path);
+				autosaves++;
+			} catch (Exception exc){
+				failed(path, exc);
+			}
+		}
+	}
+
+	/**
+	 * Journals the fingerprints of new, changed and removed nodes. Returns
+	 * true if the node configuration needs to be written.
+	 */
+	private boolean journalNodes(){
+		JWaveController cntrl = controller;
+		if (cntrl == null || cntrl.getControllerMode() == JWaveControllerMode.CNTRL_MODE_NOT_CONNECTED){
+			return false;
+		}
+		try {
+			if (rescan){
+				rescan = false;
+				touched.clear();
+				journalAllNodes(cntrl);
+			} else {
+				for (Iterator<Integer> it = touched.iterator(); it.hasNext();){
+					int nodeId = it.next();
+					it.remove();
+					JWaveNode node = cntrl.getNode(nodeId);
+					journal(NODE_PREFIX+nodeId, node == null ? null : NodeFingerprint.of(node));
+				}
+			}
+		} catch (IOException exc){
+			failed("configuration journal", exc);
+		}
+		return nodesDirty;
+	}
+
+	private void journalAllNodes(JWaveController cntrl) throws IOException {
+		Map<String, String> journaled = config.getAll(NODE_PREFIX);
+		Map<String, String> current = new HashMap<String, String>();
+		for (JWaveNode node : cntrl.getNodes()){
+			current.put(NODE_PREFIX+node.getNodeId(), NodeFingerprint.of(node));
+		}
+		for (Map.Entry<String, String> entry : current.entrySet()){
+			journal(entry.getKey(), entry.getValue());
+		}
+		for (String key : journaled.keySet()){
+			if (!current.containsKey(key)){
+				journal(key, null);
+			}
+		}
+	}
+
+	// fingerprint null for a removed node
+	private void journal(String key, String fingerprint) throws IOException {
+		String journaled = config.get(key);
+		if (fingerprint == null ? journaled == null : fingerprint.equals(journaled)){
+			return;
+		}
+		if (fingerprint == null){
+			config.remove(key);
+		} else {
+			config.put(key, fingerprint);
+		}
+		nodeChanges++;
+		nodesDirty = true;
+	}
+
+	/**
+	 * Saves the node configuration in the background. The returned future
+	 * completes when the file is written.
+	 */
+	public Future<?> save(final String target){
+		return executor.submit(new Runnable() {
+			public void run() {
+				long start = System.nanoTime();
+				try {
+					journalNodes();
+					write(target);
+					saves++;
+					LOG.info("Specification saved ({} ms)", (System.nanoTime() - start) / 1000000);
+				} catch (Exception exc){
+					failed(target, exc);
+					LOG.error("Error during saving ({})", exc.getMessage());
+				}
+			}
+		});
+	}
+
+	private void write(String target) throws Exception {
+		JWaveController cntrl = controller;
+		if (cntrl == null){
+			throw new IOException("no controller");
+		}
+		long start = System.nanoTime();
+		File file = new File(target);
+		File dir = file.getAbsoluteFile().getParentFile();
+		if (dir != null && !dir.isDirectory() && !dir.mkdirs()){
+			throw new IOException("unable to create directory "+dir);
+		}
+		File tmp = new File(file.getPath()+".tmp");
+		cntrl.saveConfiguration(tmp.getPath());
+		ConfigJournal.replaceAtomically(tmp, file);
+		if (target.equals(path)){
+			nodesDirty = false;
+		}
+		lastSaveMillis = System.currentTimeMillis();
+		lastSaveNanos = System.nanoTime() - start;
+	}
+
+	/**
+	 * Waits until saves submitted before are done.
+	 */
+	public void awaitIdle() throws InterruptedException {
+		try {
+			executor.submit(new Runnable() {
+				public void run() {
+				}
+			}).get();
+		} catch (ExecutionException exc){
+			// nothing to wait for
+		}
+	}
+
+	/**
+	 * Node ids whose fingerprint differs from the journaled one, e.g. nodes
+	 * that changed after the node configuration file was last written.
+	 */
+	public String getChangedNodes(JWaveController cntrl){
+		Map<String, String> journaled = config.getAll(NODE_PREFIX);
+		StringBuilder sb = new StringBuilder();
+		for (JWaveNode node : cntrl.getNodes()){
+			String fingerprint = journaled.get(NODE_PREFIX+node.getNodeId());
+			if (fingerprint != null && !fingerprint.equals(NodeFingerprint.of(node))){
+				if (sb.length() > 0){
+					sb.append(", ");
+				}
+				sb.append(node.getNodeId());
+			}
+		}
+		return sb.toString();
+	}
+
+	private void failed(String what, Exception exc){
+		failures++;
+		lastError = what+": "+exc.getMessage();
+		LOG.error("Autosave of {} failed ({})", what, exc.getMessage());
+	}
+
+	/**
+	 * Saves unsaved node changes, then stops the thread and closes the journal.
+	 */
+	public void close(){
+		executor.submit(new Runnable() {
+			public void run() {
+				if (intervalMs > 0 && journalNodes() && path != null){
+					try {
+						write(path);
+						autosaves++;
+					} catch (Exception exc){
+						failed(path, exc);
+					}
+				}
+			}
+		});
+		executor.shutdown();
+		synchronized (this){
+			if (subscription != null){
+				bus.unsubscribe(subscription);
+				subscription = null;
+			}
+		}
+		try {
+			executor.awaitTermination(10, TimeUnit.SECONDS);
+			config.close();
+		} catch (Exception exc){
+			LOG.warn("Unable to close configuration journal ({})", exc.getMessage());
+		}
+	}
+
+	public String getStatistics(){
+		final StringBuilder sb = new StringBuilder();
+		try {
+			executor.submit(new Runnable() {
+				public void run() {
+					sb.append("--------------------------------------------------").append("\r\n");
+					sb.append("                  Configuration").append("\r\n");
+					sb.append("--------------------------------------------------").append("\r\n");
+					sb.append(config.getStatistics()).append("\r\n");
+					sb.append("        node configuration = ").append(path).append("\r\n");
+					sb.append("                  autosave = ").append(intervalMs <= 0 ? "off" : "every "+(intervalMs / 1000)+" s").append("\r\n");
+					sb.append("    journaled node changes = ").append(nodeChanges).append("\r\n");
+					sb.append("         nodes with events = ").append(rescan ? "all" : String.valueOf(touched.size())).append("\r\n");
+					sb.append("             unsaved nodes = ").append(nodesDirty ? "yes" : "no").append("\r\n");
+					sb.append("         saves / autosaves = ").append(saves).append(" / ").append(autosaves).append("\r\n");
+					sb.append("                 last save = ").append(lastSaveMillis == 0 ? "-" : String.format("%tT (%.0f ms)", lastSaveMillis, lastSaveNanos / 1000000.0)).append("\r\n");
+					sb.append("                  failures = ").append(failures).append(lastError == null ? "" : " (last: "+lastError+")").append("\r\n");
+					sb.append("--------------------------------------------------");
+				}
+			}).get();
+		} catch (Exception exc){
+			return "Configuration statistics unavailable ("+exc.getMessage()+")";
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,357 @@
+package de.smahoo.jwave.console.config;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Key/value configuration of the console, persisted as a snapshot plus a
+ * write-ahead journal. Every change is appended to the journal as one small
+ * record, so a change costs one write no matter how much configuration
+ * there is. {@link #compact()} writes the current state to a new snapshot
+ * (temporary file, then atomic rename) and starts an empty journal; opening
+ * reads the snapshot and replays the journal on top of it.
+ *
+ * <pre>
+ * snapshot : magic "JWC1" | version (int) | record*
+ * journal  : record*
+ * record   : length (int) | crc32 (int) | op (byte) | key (utf) | value (utf)
+ * </pre>
+ *
+ * A record that is cut short or fails its checksum ends the replay (the
+ * console died while writing it); the journal is truncated before it.
+ * <p>
+ * During a compaction the journal is first renamed to <code>.old</code> so
+ * writers can go on with a fresh one while the snapshot is written. The
+ * <code>.old</code> journal is deleted after the new snapshot is in place;
+ * if the console dies in between, opening replays it as well, which is
+ * harmless because replaying a journal over a newer state changes nothing.
+ */
+public class ConfigJournal {
+
+	public static final int MAGIC = 0x4A574331;	// "JWC1"
+	public static final int VERSION = 1;
+	public static final int MAX_RECORD_SIZE = 64 * 1024;
+
+	static final byte OP_PUT = 1;
+	static final byte OP_REMOVE = 2;
+
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+
+	private final File snapshotFile;
+	private final File journalFile;
+	private final File oldJournalFile;
+	private final Map<String, String> entries = new TreeMap<String, String>();
+	private FileChannel journal;
+	private long journalRecords = 0;
+	private long journalBytes = 0;
+	private long compactions = 0;
+	private long lastCompactionMillis = 0;
+	private long lastCompactionNanos = 0;
+	private long discardedBytes = 0;
+	private boolean dirty = false;
+	private boolean compacting = false;
+
+	private ConfigJournal(File dir, String name){
+		snapshotFile = new File(dir, name+".snapshot");
+		journalFile = new File(dir, name+".journal");
+		oldJournalFile = new File(dir, name+".journal.old");
+	}
+
+	/**
+	 * Opens (or creates) the configuration <code>name</code> in the directory.
+	 */
+	public static ConfigJournal open(File dir, String name) throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs()){
+			throw new IOException("unable to create directory "+dir);
+		}
+		ConfigJournal config = new ConfigJournal(dir, name);
+		config.load();
+		return config;
+	}
+
+	private void load() throws IOException {
+		if (snapshotFile.exists()){
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile)));
+			try {
+				if (in.readInt() != MAGIC){
+					throw new IOException(snapshotFile+" is not a configuration snapshot");
+				}
+				int version = in.readInt();
+				if (version != VERSION){
+					throw new IOException("unsupported snapshot version "+version);
+				}
+				replay(in);
+			} finally {
+				in.close();
+			}
+		}
+		boolean interrupted = oldJournalFile.exists();
+		if (interrupted){
+			replay(oldJournalFile);
+		}
+		journalRecords = 0;
+		long valid = journalFile.exists() ? replay(journalFile) : 0;
+		journal = new RandomAccessFile(journalFile, "rw").getChannel();
+		if (journal.size() > valid){
+			discardedBytes = journal.size() - valid;
+			journal.truncate(valid);
+		}
+		journal.position(valid);
+		journalBytes = valid;
+		if (interrupted){
+			// finish the compaction that was interrupted; the journal is still
+			// replayed over the new snapshot next time, which changes nothing
+			writeSnapshot(new TreeMap<String, String>(entries));
+			if (!oldJournalFile.delete()){
+				throw new IOException("unable to delete "+oldJournalFile);
+			}
+		}
+	}
+
+	/**
+	 * Replays the records of the file and returns the length of the valid part.
+	 */
+	private long replay(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			return replay(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	private long replay(DataInputStream in) throws IOException {
+		long valid = 0;
+		CRC32 crc = new CRC32();
+		while (true){
+			int length;
+			int checksum;
+			byte[] body;
+			try {
+				length = in.readInt();
+				if (length <= 0 || length > MAX_RECORD_SIZE){
+					break;
+				}
+				checksum = in.readInt();
+				body = new byte[length];
+				in.readFully(body);
+			} catch (EOFException exc){
+				break;
+			}
+			crc.reset();
+			crc.update(body, 0, body.length);
+			if ((int)crc.getValue() != checksum){
+				break;
+			}
+			ByteBuffer record = ByteBuffer.wrap(body);
+			byte op = record.get();
+			String key = readString(record);
+			String value = readString(record);
+			if (op == OP_PUT){
+				entries.put(key, value);
+			} else if (op == OP_REMOVE){
+				entries.remove(key);
+			}
+			valid += 8 + length;
+			journalRecords++;
+		}
+		return valid;
+	}
+
+	private static String readString(ByteBuffer record){
+		int length = record.getShort() & 0xFFFF;
+		String value = new String(record.array(), record.position(), length, CHARSET);
+		record.position(record.position() + length);
+		return value;
+	}
+
+	private static ByteBuffer encode(byte op, String key, String value) throws IOException {
+		byte[] k = key.getBytes(CHARSET);
+		byte[] v = value.getBytes(CHARSET);
+		int length = 1 + 2 + k.length + 2 + v.length;
+		if (length > MAX_RECORD_SIZE){
+			throw new IOException("configuration entry '"+key+"' is too large");
+		}
+		ByteBuffer record = ByteBuffer.allocate(8 + length);
+		record.putInt(length);
+		record.putInt(0);
+		record.put(op);
+		record.putShort((short)k.length).put(k);
+		record.putShort((short)v.length).put(v);
+		CRC32 crc = new CRC32();
+		crc.update(record.array(), 8, length);
+		record.putInt(4, (int)crc.getValue());
+		record.flip();
+		return record;
+	}
+
+	public synchronized String get(String key){
+		return entries.get(key);
+	}
+
+	/**
+	 * Entries whose key starts with the prefix, ordered by key.
+	 */
+	public synchronized Map<String, String> getAll(String prefix){
+		Map<String, String> result = new TreeMap<String, String>();
+		for (Map.Entry<String, String> entry : entries.entrySet()){
+			if (entry.getKey().startsWith(prefix)){
+				result.put(entry.getKey(), entry.getValue());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Sets the value and journals the change; does nothing if the value is unchanged.
+	 */
+	public synchronized void put(String key, String value) throws IOException {
+		if (value.equals(entries.get(key))){
+			return;
+		}
+		append(OP_PUT, key, value);
+		entries.put(key, value);
+	}
+
+	public synchronized void remove(String key) throws IOException {
+		if (!entries.containsKey(key)){
+			return;
+		}
+		append(OP_REMOVE, key, "");
+		entries.remove(key);
+	}
+
+	private void append(byte op, String key, String value) throws IOException {
+		ByteBuffer record = encode(op, key, value);
+		int size = record.remaining();
+		while (record.hasRemaining()){
+			journal.write(record);
+		}
+		journalRecords++;
+		journalBytes += size;
+		dirty = true;
+	}
+
+	/**
+	 * Forces journaled changes to the disk. Until then they survive a crash
+	 * of the console but not of the machine.
+	 */
+	public synchronized void sync() throws IOException {
+		if (!dirty){
+			return;
+		}
+		journal.force(false);
+		dirty = false;
+	}
+
+	/**
+	 * Writes the current state to a new snapshot and empties the journal.
+	 * Only the switch to a new journal blocks writers; the snapshot is
+	 * written without holding the lock.
+	 */
+	public void compact() throws IOException {
+		long start = System.nanoTime();
+		Map<String, String> state;
+		synchronized (this){
+			if (compacting){
+				return;
+			}
+			compacting = true;
+			// a .old journal left by a failed compaction is covered by the
+			// snapshot written now, the current journal is kept in that case
+			if (!oldJournalFile.exists()){
+				journal.force(false);
+				journal.close();
+				if (!journalFile.renameTo(oldJournalFile)){
+					journal = new RandomAccessFile(journalFile, "rw").getChannel();
+					journal.position(journal.size());
+					compacting = false;
+					throw new IOException("unable to rotate "+journalFile);
+				}
+				journal = new RandomAccessFile(journalFile, "rw").getChannel();
+				journal.truncate(0);
+				journalRecords = 0;
+				journalBytes = 0;
+				dirty = false;
+			}
+			state = new TreeMap<String, String>(entries);
+		}
+		try {
+			writeSnapshot(state);
+			if (!oldJournalFile.delete()){
+				throw new IOException("unable to delete "+oldJournalFile);
+			}
+		} finally {
+			synchronized (this){
+				compacting = false;
+				compactions++;
+				lastCompactionMillis = System.currentTimeMillis();
+				lastCompactionNanos = System.nanoTime() - start;
+			}
+		}
+	}
+
+	private void writeSnapshot(Map<String, String> state) throws IOException {
+		File tmp = new File(snapshotFile.getPath()+".tmp");
+		FileOutputStream out = new FileOutputStream(tmp);
+		try {
+			ByteBuffer header = ByteBuffer.allocate(8);
+			header.putInt(MAGIC).putInt(VERSION);
+			out.write(header.array());
+			for (Map.Entry<String, String> entry : state.entrySet()){
+				out.write(encode(OP_PUT, entry.getKey(), entry.getValue()).array());
+			}
+			out.getFD().sync();
+		} finally {
+			out.close();
+		}
+		replaceAtomically(tmp, snapshotFile);
+	}
+
+	/**
+	 * Moves the file over the target so readers see either the old or the new content.
+	 */
+	public static void replaceAtomically(File source, File target) throws IOException {
+		try {
+			Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException exc){
+			Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	public synchronized long getJournalRecords(){
+		return journalRecords;
+	}
+
+	public synchronized long getJournalBytes(){
+		return journalBytes;
+	}
+
+	public synchronized void close() throws IOException {
+		journal.force(false);
+		journal.close();
+	}
+
+	public synchronized String getStatistics(){
+		return "                  snapshot = "+snapshotFile+"\r\n"+
+			   "                   entries = "+entries.size()+"\r\n"+
+			   "           journal records = "+journalRecords+" ("+journalBytes+" bytes)"+"\r\n"+
+			   "               compactions = "+compactions+(compactions == 0 ? "" : String.format(" (last %.1f ms, %tT)", lastCompactionNanos / 1000000.0, lastCompactionMillis))+"\r\n"+
+			   "   dropped torn tail bytes = "+discardedBytes;
+	}
+}
@@ -0,0 +1,44 @@
+package de.smahoo.jwave.console.config;
+
+import de.smahoo.jwave.cmd.JWaveCommandClass;
+import de.smahoo.jwave.node.JWaveNode;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * What the controller learned about a node during the interview, as a
+ * short string: device type, manufacturer and product ids and the sorted
+ * command class keys, e.g. <code>g=0x10 m=0x86 t=0x3 p=0x6 c=0x20,0x25,0x86</code>.
+ * Two equal fingerprints mean the node presents itself the same way.
+ */
+public final class NodeFingerprint {
+
+	private NodeFingerprint(){
+	}
+
+	public static String of(JWaveNode node){
+		StringBuilder sb = new StringBuilder();
+		sb.append("g=0x").append(node.getGenericDeviceType() == null ? "?" : Integer.toHexString(node.getGenericDeviceType().getKey()));
+		sb.append(" m=0x").append(Integer.toHexString(node.getManufactureId()));
+		sb.append(" t=0x").append(Integer.toHexString(node.getProductTypeId()));
+		sb.append(" p=0x").append(Integer.toHexString(node.getProductId()));
+		sb.append(" c=");
+		Collection<JWaveCommandClass> classes = node.getCommandClasses();
+		if (classes != null){
+			int[] keys = new int[classes.size()];
+			int i = 0;
+			for (JWaveCommandClass cc : classes){
+				keys[i++] = cc.getKey();
+			}
+			Arrays.sort(keys);
+			for (i = 0; i < keys.length; i++){
+				if (i > 0){
+					sb.append(',');
+				}
+				sb.append("0x").append(Integer.toHexString(keys[i]));
+			}
+		}
+		return sb.toString();
+	}
+}
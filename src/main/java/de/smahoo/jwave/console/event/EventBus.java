@@ -0,0 +1,210 @@
+package de.smahoo.jwave.console.event;
+
+import de.smahoo.jwave.console.log.Log;
+import de.smahoo.jwave.event.JWaveEvent;
+import de.smahoo.jwave.event.JWaveEventListener;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decouples the controller's receive path from the consumers of its events.
+ * Registered as {@link JWaveEventListener} at the controller, it copies every
+ * event into one bounded ring buffer per consumer and returns. Each consumer
+ * reads its ring on its own thread, so a slow consumer only fills its own
+ * buffer; what happens then is decided by the {@link OverflowPolicy}.
+ */
+public class EventBus implements JWaveEventListener {
+
+	private static final Log LOG = Log.get("events");
+
+	public static final int DEFAULT_CAPACITY = 4096;
+
+	private static final int BATCH_SIZE = 64;
+	private static final long POLL_TIMEOUT_MS = 500;
+
+	private final int capacity;
+	private volatile OverflowPolicy policy;
+	private final List<Subscription> subscriptions = new CopyOnWriteArrayList<Subscription>();
+	private final AtomicLong received = new AtomicLong();
+	private volatile boolean closed = false;
+
+	public EventBus(){
+		this(DEFAULT_CAPACITY, OverflowPolicy.DROP_OLDEST);
+	}
+
+	public EventBus(int capacity, OverflowPolicy policy){
+		if (capacity <= 0){
+			throw new IllegalArgumentException("capacity must be positive");
+		}
+		this.capacity = capacity;
+		this.policy = policy;
+	}
+
+	public void onJWaveEvent(JWaveEvent event) {
+		publish(event);
+	}
+
+	public void publish(JWaveEvent event){
+		if (closed){
+			return;
+		}
+		received.incrementAndGet();
+		long receivedMillis = System.currentTimeMillis();
+		long receivedNanos = System.nanoTime();
+		OverflowPolicy currentPolicy = policy;
+		for (Subscription subscription : subscriptions){
+			try {
+				subscription.ring.offer(event, receivedMillis, receivedNanos, currentPolicy);
+			} catch (InterruptedException exc){
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Registers a consumer that is called on its own thread named
+	 * <code>jwave-events-&lt;name&gt;</code>.
+	 */
+	public Subscription subscribe(String name, EventConsumer consumer){
+		Subscription subscription = new Subscription(name, consumer, new EventRing(capacity));
+		subscriptions.add(subscription);
+		subscription.start();
+		return subscription;
+	}
+
+	public void unsubscribe(Subscription subscription){
+		if (subscriptions.remove(subscription)){
+			subscription.close();
+		}
+	}
+
+	public List<Subscription> getSubscriptions(){
+		return subscriptions;
+	}
+
+	public OverflowPolicy getOverflowPolicy(){
+		return policy;
+	}
+
+	public void setOverflowPolicy(OverflowPolicy policy){
+		this.policy = policy;
+	}
+
+	public int getCapacity(){
+		return capacity;
+	}
+
+	public long getReceived(){
+		return received.get();
+	}
+
+	public void close(){
+		closed = true;
+		for (Subscription subscription : subscriptions){
+			subscription.close();
+		}
+		subscriptions.clear();
+	}
+
+	public String getStatistics(){
+		StringBuilder sb = new StringBuilder();
+		sb.append("--------------------------------------------------").append("\r\n");
+		sb.append("                  Event Bus").append("\r\n");
+		sb.append("--------------------------------------------------").append("\r\n");
+		sb.append("           overflow policy = ").append(policy.getLabel()).append("\r\n");
+		sb.append("  buffer size per consumer = ").append(capacity).append("\r\n");
+		sb.append("           received events = ").append(received.get()).append("\r\n");
+		for (Subscription subscription : subscriptions){
+			EventRing ring = subscription.ring;
+			sb.append("\r\n");
+			sb.append("  consumer ").append(subscription.getName()).append("\r\n");
+			sb.append("               queue depth = ").append(ring.depth()).append(" / ").append(ring.capacity()).append("\r\n");
+			sb.append("            high watermark = ").append(ring.getHighWatermark()).append("\r\n");
+			sb.append("                   offered = ").append(ring.getOffered()).append("\r\n");
+			sb.append("                 delivered = ").append(subscription.getDelivered()).append("\r\n");
+			sb.append("                   dropped = ").append(ring.getDropped()).append("\r\n");
+			sb.append("            blocked offers = ").append(ring.getBlocked()).append("\r\n");
+			sb.append("                    errors = ").append(subscription.getErrors()).append("\r\n");
+		}
+		sb.append("--------------------------------------------------");
+		return sb.toString();
+	}
+
+	/**
+	 * A consumer, its ring buffer and the thread draining it.
+	 */
+	public static class Subscription implements Runnable {
+
+		private final String name;
+		private final EventConsumer consumer;
+		private final EventRing ring;
+		private final Thread thread;
+		private final AtomicLong delivered = new AtomicLong();
+		private final AtomicLong errors = new AtomicLong();
+
+		Subscription(String name, EventConsumer consumer, EventRing ring){
+			this.name = name;
+			this.consumer = consumer;
+			this.ring = ring;
+			this.thread = new Thread(this, "jwave-events-"+name);
+			this.thread.setDaemon(true);
+		}
+
+		public String getName(){
+			return name;
+		}
+
+		public int getDepth(){
+			return ring.depth();
+		}
+
+		public long getDropped(){
+			return ring.getDropped();
+		}
+
+		public long getDelivered(){
+			return delivered.get();
+		}
+
+		public long getErrors(){
+			return errors.get();
+		}
+
+		void start(){
+			thread.start();
+		}
+
+		void close(){
+			ring.close();
+		}
+
+		public void run() {
+			JWaveEvent[] batch = new JWaveEvent[BATCH_SIZE];
+			long[] batchMillis = new long[BATCH_SIZE];
+			long[] batchNanos = new long[BATCH_SIZE];
+			try {
+				while (true){
+					int n = ring.drainTo(batch, batchMillis, batchNanos, POLL_TIMEOUT_MS);
+					if (n < 0){
+						return;
+					}
+					for (int i = 0; i < n; i++){
+						try {
+							consumer.onEvent(batch[i], batchMillis[i], batchNanos[i]);
+						} catch (Exception exc){
+							errors.incrementAndGet();
+							LOG.error("Error in event consumer {}", name, exc);
+						}
+						batch[i] = null;
+					}
+					delivered.addAndGet(n);
+				}
+			} catch (InterruptedException exc){
+				// consumer was stopped
+			}
+		}
+	}
+}
@@ -0,0 +1,16 @@
+package de.smahoo.jwave.console.event;
+
+import de.smahoo.jwave.event.JWaveEvent;
+
+/**
+ * Receives events from the {@link EventBus} on the consumer's own thread.
+ */
+public interface EventConsumer {
+
+	/**
+	 * @param event the event as delivered by the controller
+	 * @param receivedMillis wall clock time the controller delivered the event
+	 * @param receivedNanos {@link System#nanoTime()} at the same moment, for latency measurements
+	 */
+	void onEvent(JWaveEvent event, long receivedMillis, long receivedNanos);
+}
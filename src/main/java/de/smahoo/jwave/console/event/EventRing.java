@@ -0,0 +1,183 @@
+package de.smahoo.jwave.console.event;
+
+import de.smahoo.jwave.event.JWaveEvent;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded ring buffer of events with preallocated slots. Producers only hold
+ * the lock for copying three values into the slot arrays; the consumer takes
+ * whole batches at once and processes them outside the lock.
+ */
+class EventRing {
+
+	private final JWaveEvent[] events;
+	private final long[] millis;
+	private final long[] nanos;
+	private final int mask;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	private final Condition notFull = lock.newCondition();
+
+	private int head = 0;
+	private int size = 0;
+	private boolean closed = false;
+
+	private long offered = 0;
+	private long dropped = 0;
+	private long blocked = 0;
+	private int highWatermark = 0;
+
+	EventRing(int capacity){
+		int cap = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		events = new JWaveEvent[cap];
+		millis = new long[cap];
+		nanos = new long[cap];
+		mask = cap - 1;
+	}
+
+	int capacity(){
+		return events.length;
+	}
+
+	/**
+	 * Returns false if the event was dropped.
+	 */
+	boolean offer(JWaveEvent event, long receivedMillis, long receivedNanos, OverflowPolicy policy) throws InterruptedException {
+		lock.lock();
+		try {
+			if (closed){
+				return false;
+			}
+			offered++;
+			if (size == events.length){
+				switch (policy){
+					case DROP_OLDEST:
+						events[head] = null;
+						head = (head + 1) & mask;
+						size--;
+						dropped++;
+						break;
+					case BLOCK:
+						blocked++;
+						while (size == events.length && !closed){
+							notFull.await();
+						}
+						if (closed){
+							return false;
+						}
+						break;
+					default:
+						dropped++;
+						return false;
+				}
+			}
+			int slot = (head + size) & mask;
+			events[slot] = event;
+			millis[slot] = receivedMillis;
+			nanos[slot] = receivedNanos;
+			size++;
+			if (size > highWatermark){
+				highWatermark = size;
+			}
+			notEmpty.signal();
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Moves up to batch.length events into the given arrays, waiting at most
+	 * timeoutMs for the first one. Returns the number of events, or -1 once
+	 * the ring is closed and empty.
+	 */
+	int drainTo(JWaveEvent[] batch, long[] batchMillis, long[] batchNanos, long timeoutMs) throws InterruptedException {
+		lock.lock();
+		try {
+			long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+			while (size == 0){
+				if (closed){
+					return -1;
+				}
+				if (remaining <= 0){
+					return 0;
+				}
+				remaining = notEmpty.awaitNanos(remaining);
+			}
+			int n = Math.min(size, batch.length);
+			for (int i = 0; i < n; i++){
+				int slot = (head + i) & mask;
+				batch[i] = events[slot];
+				batchMillis[i] = millis[slot];
+				batchNanos[i] = nanos[slot];
+				events[slot] = null;
+			}
+			head = (head + n) & mask;
+			size -= n;
+			notFull.signalAll();
+			return n;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	void close(){
+		lock.lock();
+		try {
+			closed = true;
+			notEmpty.signalAll();
+			notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	int depth(){
+		lock.lock();
+		try {
+			return size;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	long getOffered(){
+		lock.lock();
+		try {
+			return offered;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	long getDropped(){
+		lock.lock();
+		try {
+			return dropped;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	long getBlocked(){
+		lock.lock();
+		try {
+			return blocked;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	int getHighWatermark(){
+		lock.lock();
+		try {
+			return highWatermark;
+		} finally {
+			lock.unlock();
+		}
+	}
+}
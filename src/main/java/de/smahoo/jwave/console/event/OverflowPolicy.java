@@ -0,0 +1,33 @@
+package de.smahoo.jwave.console.event;
+
+/**
+ * What the event bus does when a consumer's ring buffer is full.
+ */
+public enum OverflowPolicy {
+
+	/** overwrite the oldest buffered event, the receive thread never waits */
+	DROP_OLDEST("drop-oldest"),
+	/** wait until the consumer made room - slow consumers stall the controller */
+	BLOCK("block"),
+	/** discard the new event and count it, the receive thread never waits */
+	COUNT_AND_DROP("count-and-drop");
+
+	private final String label;
+
+	OverflowPolicy(String label){
+		this.label = label;
+	}
+
+	public String getLabel(){
+		return label;
+	}
+
+	public static OverflowPolicy parse(String value){
+		for (OverflowPolicy policy : values()){
+			if (policy.label.equalsIgnoreCase(value) || policy.name().equalsIgnoreCase(value)){
+				return policy;
+			}
+		}
+		return null;
+	}
+}
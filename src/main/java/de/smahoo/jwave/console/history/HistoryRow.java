@@ -0,0 +1,52 @@
+package de.smahoo.jwave.console.history;
+
+/**
+ * Values of one series within one step of a history query. A raw query
+ * (step 0) has one row per reported value, with min = max = the value.
+ */
+public class HistoryRow {
+
+	private final long timeMillis;
+	private long min;
+	private long max;
+	private long sum;
+	private long count;
+
+	HistoryRow(long timeMillis, long min, long max, long sum, long count){
+		this.timeMillis = timeMillis;
+		this.min = min;
+		this.max = max;
+		this.sum = sum;
+		this.count = count;
+	}
+
+	void add(long min, long max, long sum, long count){
+		this.min = Math.min(this.min, min);
+		this.max = Math.max(this.max, max);
+		this.sum += sum;
+		this.count += count;
+	}
+
+	/**
+	 * Start of the step, or time of the value for raw queries.
+	 */
+	public long getTimeMillis(){
+		return timeMillis;
+	}
+
+	public long getMin(){
+		return min;
+	}
+
+	public long getMax(){
+		return max;
+	}
+
+	public double getAverage(){
+		return count == 0 ? 0 : sum / (double)count;
+	}
+
+	public long getCount(){
+		return count;
+	}
+}
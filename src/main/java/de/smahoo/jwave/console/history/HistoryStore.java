@@ -0,0 +1,218 @@
+package de.smahoo.jwave.console.history;
+
+import de.smahoo.jwave.cmd.JWaveNodeCommand;
+import de.smahoo.jwave.console.event.EventBus;
+import de.smahoo.jwave.console.event.EventConsumer;
+import de.smahoo.jwave.console.log.Log;
+import de.smahoo.jwave.event.JWaveEvent;
+import de.smahoo.jwave.event.JWaveNodeDataEvent;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the values of meter, sensor and battery reports. Every channel of a
+ * node (command class plus sensor type or meter type and scale, see
+ * {@link ReportDecoder}) is a series of its own, stored below
+ * <code>&lt;dir&gt;/&lt;controller&gt;/&lt;node&gt;/&lt;channel&gt;</code>
+ * as columnar segment files (see {@link Segment}) plus rollups per
+ * {@link #ROLLUP_STEPS} step, so queries over long ranges read buckets
+ * instead of values. Segments older than the retention are deleted, the
+ * rollups are kept {@link #ROLLUP_RETENTION_FACTOR} times as long.
+ * <p>
+ * Values are written on the event thread of their controller, never on the
+ * serial receive thread.
+ */
+public class HistoryStore {
+
+	private static final Log LOG = Log.get("history");
+
+	public static final String RETENTION_PROPERTY = "jwave.console.historyRetentionDays";
+	public static final int DEFAULT_RETENTION_DAYS = 30;
+	public static final long[] ROLLUP_STEPS = {5 * 60 * 1000, 3600 * 1000};
+	public static final int ROLLUP_RETENTION_FACTOR = 12;
+
+	private static final int COLUMN_BYTES = 16 * 1024;
+	private static final long EXPIRE_INTERVAL_MS = 3600 * 1000;
+
+	private final File dir;
+	private final long retentionMs;
+	private final Map<String, ValueSeries> series = new ConcurrentHashMap<String, ValueSeries>();
+	private final Map<EventBus, EventBus.Subscription> subscriptions = new ConcurrentHashMap<EventBus, EventBus.Subscription>();
+
+	private final AtomicLong reports = new AtomicLong();
+	private final AtomicLong values = new AtomicLong();
+	private final AtomicLong undecoded = new AtomicLong();
+	private final AtomicLong errors = new AtomicLong();
+	private final AtomicLong expired = new AtomicLong();
+	private volatile long lastExpireMillis = 0;
+
+	public HistoryStore(File dir, long retentionMs){
+		this.dir = dir;
+		this.retentionMs = retentionMs;
+	}
+
+	public File getDirectory(){
+		return dir;
+	}
+
+	public long getRetentionMs(){
+		return retentionMs;
+	}
+
+	/**
+	 * Records the reports arriving on the bus for the named controller.
+	 */
+	public void attach(final String controllerName, EventBus bus){
+		if (subscriptions.containsKey(bus)){
+			return;
+		}
+		EventBus.Subscription subscription = bus.subscribe("history-"+controllerName, new EventConsumer() {
+			public void onEvent(JWaveEvent event, long receivedMillis, long receivedNanos) {
+				record(controllerName, event, receivedMillis);
+			}
+		});
+		subscriptions.put(bus, subscription);
+	}
+
+	public static boolean isRecorded(int commandClassKey){
+		return ReportDecoder.isRecorded(commandClassKey);
+	}
+
+	void record(String controllerName, JWaveEvent event, long receivedMillis){
+		if (!(event instanceof JWaveNodeDataEvent)){
+			return;
+		}
+		JWaveNodeDataEvent dataEvent = (JWaveNodeDataEvent)event;
+		JWaveNodeCommand nodeCmd = dataEvent.getCommand();
+		if (dataEvent.getNode() == null || nodeCmd == null || nodeCmd.getCommandClass() == null || nodeCmd.getCommand() == null){
+			return;
+		}
+		int classKey = nodeCmd.getCommandClass().getKey();
+		if (!isRecorded(classKey)){
+			return;
+		}
+		ReportDecoder.Reading reading = ReportDecoder.decode(classKey, nodeCmd.getCommand().getKey(), ReportDecoder.getParams(nodeCmd));
+		if (reading == null){
+			// a GET or SET of the class, or a report too short for its value
+			undecoded.incrementAndGet();
+			return;
+		}
+		reports.incrementAndGet();
+		int nodeId = dataEvent.getNode().getNodeId();
+		try {
+			getSeries(controllerName, nodeId, reading.getChannel(), true).append(receivedMillis, reading.getValue());
+			values.incrementAndGet();
+		} catch (IOException exc){
+			if (errors.getAndIncrement() == 0){
+				LOG.warn("Unable to record history of node {} ({})", nodeId, exc.getMessage());
+			}
+		}
+		if (receivedMillis - lastExpireMillis >= EXPIRE_INTERVAL_MS){
+			lastExpireMillis = receivedMillis;
+			expire(receivedMillis);
+		}
+	}
+
+	private File getNodeDir(String controllerName, int nodeId){
+		return new File(new File(dir, controllerName), String.valueOf(nodeId));
+	}
+
+	private ValueSeries getSeries(String controllerName, int nodeId, String channel, boolean create) throws IOException {
+		String key = controllerName+"/"+nodeId+"/"+channel;
+		ValueSeries values = series.get(key);
+		if (values != null){
+			return values;
+		}
+		synchronized (series){
+			values = series.get(key);
+			if (values != null){
+				return values;
+			}
+			File seriesDir = new File(getNodeDir(controllerName, nodeId), channel);
+			if (!create && !seriesDir.isDirectory()){
+				return null;
+			}
+			values = new ValueSeries(seriesDir, ROLLUP_STEPS, COLUMN_BYTES);
+			series.put(key, values);
+			return values;
+		}
+	}
+
+	/**
+	 * The recorded values of a node's command class per channel, values in
+	 * thousandths ({@link ReportDecoder#VALUE_SCALE}).
+	 *
+	 * @param step length of the rows, 0 for every single value
+	 */
+	public Map<String, List<HistoryRow>> query(String controllerName, int nodeId, int classKey, long from, long to, long step) throws IOException {
+		Map<String, List<HistoryRow>> result = new TreeMap<String, List<HistoryRow>>();
+		String[] channels = getNodeDir(controllerName, nodeId).list();
+		if (channels == null){
+			return result;
+		}
+		for (String channel : channels){
+			if (!ReportDecoder.isChannelOf(channel, classKey)){
+				continue;
+			}
+			ValueSeries values = getSeries(controllerName, nodeId, channel, false);
+			if (values != null){
+				result.put(channel, values.query(from, to, step));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Deletes segments older than the retention.
+	 */
+	public void expire(long nowMillis){
+		for (ValueSeries values : series.values()){
+			expired.addAndGet(values.expire(nowMillis - retentionMs, nowMillis - retentionMs * ROLLUP_RETENTION_FACTOR));
+		}
+	}
+
+	public void close(){
+		for (Map.Entry<EventBus, EventBus.Subscription> entry : subscriptions.entrySet()){
+			entry.getKey().unsubscribe(entry.getValue());
+		}
+		subscriptions.clear();
+		for (ValueSeries values : series.values()){
+			values.force();
+		}
+	}
+
+	public String getStatistics(){
+		long rows = 0;
+		long rollupRows = 0;
+		long bytes = 0;
+		int segments = 0;
+		for (ValueSeries values : series.values()){
+			rows += values.getRows();
+			rollupRows += values.getRollupRows();
+			bytes += values.getBytes();
+			segments += values.getSegments();
+		}
+		StringBuilder sb = new StringBuilder();
+		sb.append("--------------------------------------------------").append("\r\n");
+		sb.append("                  History").append("\r\n");
+		sb.append("--------------------------------------------------").append("\r\n");
+		sb.append("                 directory = ").append(dir).append("\r\n");
+		sb.append("                 retention = ").append(retentionMs / 3600000).append(" h (rollups ").append(retentionMs * ROLLUP_RETENTION_FACTOR / 3600000).append(" h)").append("\r\n");
+		sb.append("               open series = ").append(series.size()).append("\r\n");
+		sb.append("          recorded reports = ").append(reports.get()).append(" (").append(values.get()).append(" values)").append("\r\n");
+		sb.append("     not decodable reports = ").append(undecoded.get()).append("\r\n");
+		sb.append("                raw values = ").append(rows).append("\r\n");
+		sb.append("            rollup buckets = ").append(rollupRows).append("\r\n");
+		sb.append("                  segments = ").append(segments).append(" (").append(expired.get()).append(" expired)").append("\r\n");
+		sb.append("                used bytes = ").append(bytes).append(rows == 0 ? "" : String.format(" (%.1f bytes per raw value)", bytes / (double)rows)).append("\r\n");
+		sb.append("              write errors = ").append(errors.get()).append("\r\n");
+		sb.append("--------------------------------------------------");
+		return sb.toString();
+	}
+}
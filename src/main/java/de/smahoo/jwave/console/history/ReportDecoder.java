@@ -0,0 +1,235 @@
+package de.smahoo.jwave.console.history;
+
+import de.smahoo.jwave.cmd.JWaveNodeCommand;
+
+import java.util.Arrays;
+
+/**
+ * Decodes the value of a meter, sensor or battery report and names the
+ * series it belongs to. A multilevel sensor reports temperature, humidity
+ * and luminance with the same command, a meter kWh and W; the channel keeps
+ * them apart:
+ * <pre>
+ *   30-t&lt;type&gt;             SENSOR_BINARY_REPORT, 0 or 1
+ *   31-t&lt;type&gt;-s&lt;scale&gt;    SENSOR_MULTILEVEL_REPORT
+ *   32-m&lt;type&gt;-s&lt;scale&gt;    METER_REPORT, -e appended for exported energy
+ *   35                   METER_PULSE_REPORT, pulse count
+ *   80                   BATTERY_REPORT, percent (0 for the low battery warning)
+ * </pre>
+ * Type and scale are hex. The selector bytes (type, precision, scale, size)
+ * are not values; the value is the signed big endian number that follows
+ * them, stored in thousandths of the unit ({@link #VALUE_SCALE}).
+ */
+public final class ReportDecoder {
+
+	/** stored values are the reported value times this */
+	public static final int VALUE_SCALE = 1000;
+	private static final int VALUE_DIGITS = 3;
+
+	/** parameters read from a report at most: two selector bytes and a 4 byte value */
+	static final int MAX_PARAMS = 6;
+
+	private static final int SENSOR_BINARY = 0x30;
+	private static final int SENSOR_MULTILEVEL = 0x31;
+	private static final int METER = 0x32;
+	private static final int METER_PULSE = 0x35;
+	private static final int BATTERY = 0x80;
+
+	private static final int SENSOR_BINARY_REPORT = 0x03;
+	private static final int SENSOR_MULTILEVEL_REPORT = 0x05;
+	private static final int METER_REPORT = 0x02;
+	private static final int METER_PULSE_REPORT = 0x05;
+	private static final int BATTERY_REPORT = 0x03;
+
+	private static final int RATE_TYPE_EXPORT = 2;
+
+	private static final String[] SENSOR_TYPES = {null, "temperature", "general purpose", "luminance", "power", "humidity"};
+	private static final String[][] SENSOR_SCALES = {null, {"C", "F"}, {"%", ""}, {"%", "lux"}, {"W", "Btu/h"}, {"%", "g/m3"}};
+	private static final String[] METER_TYPES = {null, "electric", "gas", "water"};
+	private static final String[][] METER_SCALES = {null, {"kWh", "kVAh", "W", "pulses", "V", "A", "power factor"}, {"m3", "ft3", "", "pulses"}, {"m3", "ft3", "US gallons", "pulses"}};
+
+	private ReportDecoder(){
+	}
+
+	/**
+	 * A decoded report: the series and its value in thousandths.
+	 */
+	public static final class Reading {
+
+		private final String channel;
+		private final long value;
+
+		Reading(String channel, long value){
+			this.channel = channel;
+			this.value = value;
+		}
+
+		public String getChannel(){
+			return channel;
+		}
+
+		public long getValue(){
+			return value;
+		}
+	}
+
+	/**
+	 * The reading of a received report, null if it is none of the recorded
+	 * reports or its parameters are incomplete.
+	 */
+	public static Reading decode(JWaveNodeCommand nodeCmd){
+		if (nodeCmd.getCommandClass() == null || nodeCmd.getCommand() == null || !isRecorded(nodeCmd.getCommandClass().getKey())){
+			return null;
+		}
+		return decode(nodeCmd.getCommandClass().getKey(), nodeCmd.getCommand().getKey(), getParams(nodeCmd));
+	}
+
+	/**
+	 * The first {@link #MAX_PARAMS} parameter bytes of a report, fewer if it has less.
+	 */
+	public static int[] getParams(JWaveNodeCommand nodeCmd){
+		int[] params = new int[MAX_PARAMS];
+		int count = 0;
+		for (; count < params.length; count++){
+			try {
+				params[count] = nodeCmd.getParamValue(count);
+			} catch (Exception exc){
+				// no further parameters
+				break;
+			}
+		}
+		return count == params.length ? params : Arrays.copyOf(params, count);
+	}
+
+	public static boolean isRecorded(int classKey){
+		return classKey == SENSOR_BINARY || classKey == SENSOR_MULTILEVEL || classKey == METER
+				|| classKey == METER_PULSE || classKey == BATTERY;
+	}
+
+	/**
+	 * The reading of a report, null if the command is not a recorded report
+	 * or its parameters are incomplete.
+	 *
+	 * @param params the parameter bytes, as many as the report has (up to {@link #MAX_PARAMS})
+	 */
+	public static Reading decode(int classKey, int cmdKey, int[] params){
+		switch (classKey){
+			case SENSOR_BINARY:
+				if (cmdKey != SENSOR_BINARY_REPORT || params.length < 1){
+					return null;
+				}
+				// version 1 reports no sensor type
+				return new Reading(channel(classKey)+"-t"+hex(params.length > 1 ? params[1] : 0), params[0] == 0 ? 0 : VALUE_SCALE);
+			case SENSOR_MULTILEVEL:
+				if (cmdKey != SENSOR_MULTILEVEL_REPORT || params.length < 2){
+					return null;
+				}
+				return decodeValue(channel(classKey)+"-t"+hex(params[0])+"-s"+getScale(params[1]), params, 1);
+			case METER:
+				if (cmdKey != METER_REPORT || params.length < 2){
+					return null;
+				}
+				// the third scale bit of version 3 is bit 7 of the first byte
+				int scale = ((params[0] >> 5) & 0x04) | getScale(params[1]);
+				boolean export = ((params[0] >> 5) & 0x03) == RATE_TYPE_EXPORT;
+				return decodeValue(channel(classKey)+"-m"+hex(params[0] & 0x1F)+"-s"+scale+(export ? "-e" : ""), params, 1);
+			case METER_PULSE:
+				if (cmdKey != METER_PULSE_REPORT || params.length < 4){
+					return null;
+				}
+				return new Reading(channel(classKey), readUnsigned(params, 0, 4) * VALUE_SCALE);
+			case BATTERY:
+				if (cmdKey != BATTERY_REPORT || params.length < 1){
+					return null;
+				}
+				return new Reading(channel(classKey), params[0] == 0xFF ? 0 : (long)(params[0] & 0xFF) * VALUE_SCALE);
+			default:
+				return null;
+		}
+	}
+
+	// level byte: precision (bits 7-5), scale (bits 4-3), size (bits 2-0), then size value bytes
+	private static Reading decodeValue(String channel, int[] params, int level){
+		int precision = (params[level] >> 5) & 0x07;
+		int size = params[level] & 0x07;
+		if ((size != 1 && size != 2 && size != 4) || params.length < level + 1 + size){
+			return null;
+		}
+		long value = readUnsigned(params, level + 1, size);
+		// sign extension
+		value = (value << (64 - size * 8)) >> (64 - size * 8);
+		for (int i = precision; i < VALUE_DIGITS; i++){
+			value *= 10;
+		}
+		for (int i = VALUE_DIGITS; i < precision; i++){
+			value /= 10;
+		}
+		return new Reading(channel, value);
+	}
+
+	private static long readUnsigned(int[] params, int offset, int size){
+		long value = 0;
+		for (int i = 0; i < size; i++){
+			value = (value << 8) | (params[offset + i] & 0xFF);
+		}
+		return value;
+	}
+
+	private static int getScale(int level){
+		return (level >> 3) & 0x03;
+	}
+
+	private static String channel(int classKey){
+		return String.format("%02x", classKey);
+	}
+
+	private static String hex(int value){
+		return String.format("%02x", value & 0xFF);
+	}
+
+	/**
+	 * True if the channel belongs to the command class.
+	 */
+	public static boolean isChannelOf(String channel, int classKey){
+		String prefix = channel(classKey);
+		return channel.equals(prefix) || (channel.startsWith(prefix+"-") && !channel.startsWith(prefix+"-p"));
+	}
+
+	/**
+	 * Readable name of a channel, e.g. "temperature (C)" for 31-t01-s0.
+	 */
+	public static String describe(String channel){
+		String[] parts = channel.split("-");
+		try {
+			if (parts.length >= 3 && (parts[1].startsWith("t") || parts[1].startsWith("m"))){
+				boolean meter = parts[1].startsWith("m");
+				int type = Integer.parseInt(parts[1].substring(1), 16);
+				int scale = Integer.parseInt(parts[2].substring(1));
+				String[] types = meter ? METER_TYPES : SENSOR_TYPES;
+				String[][] scales = meter ? METER_SCALES : SENSOR_SCALES;
+				String name = type < types.length && types[type] != null ? types[type] : (meter ? "meter" : "sensor")+" type "+type;
+				String unit = type < scales.length && scales[type] != null && scale < scales[type].length ? scales[type][scale] : "scale "+scale;
+				return name+(unit.length() == 0 ? "" : " ("+unit+")")+(parts.length > 3 ? " exported" : "");
+			}
+			if (parts.length == 2 && parts[1].startsWith("t")){
+				return "binary sensor type "+Integer.parseInt(parts[1].substring(1), 16);
+			}
+		} catch (NumberFormatException exc){
+			// not one of ours, show it as it is
+		}
+		if (channel.equals(channel(METER_PULSE))){
+			return "pulses";
+		}
+		if (channel.equals(channel(BATTERY))){
+			return "battery (%)";
+		}
+		return channel;
+	}
+
+	/**
+	 * A stored value as a decimal number.
+	 */
+	public static String format(double value){
+		return String.format("%.3f", value / VALUE_SCALE);
+	}
+}
@@ -0,0 +1,211 @@
+package de.smahoo.jwave.console.history;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * One memory-mapped segment file of a series: a fixed number of long
+ * columns (column 0 is the time in milliseconds), each stored in its own
+ * region as zig-zag varints of the difference to the previous value of the
+ * column. Appending writes the column bytes first and the header last, so
+ * a segment of a console that died mid-append ends at the previous row.
+ *
+ * <pre>
+ * header : magic "JTS1" | columns | count | column bytes | first time (long) | last time (long)
+ *          | write position per column (int[8]) | last value per column (long[8])
+ * column : varint(zigzag(value - previous value))*
+ * </pre>
+ */
+class Segment {
+
+	static final int MAGIC = 0x4A545331;	// "JTS1"
+	static final int MAX_COLUMNS = 8;
+	static final int HEADER_SIZE = 32 + MAX_COLUMNS * 4 + MAX_COLUMNS * 8;
+
+	private static final int OFF_COUNT = 8;
+	private static final int OFF_FIRST = 16;
+	private static final int OFF_LAST = 24;
+	private static final int OFF_POSITIONS = 32;
+	private static final int OFF_LAST_VALUES = OFF_POSITIONS + MAX_COLUMNS * 4;
+	// a zig-zag encoded long takes at most 10 varint bytes
+	private static final int MAX_VARINT = 10;
+
+	interface RowVisitor {
+		void visit(long[] row);
+	}
+
+	private final File file;
+	private final MappedByteBuffer buffer;
+	private final int columns;
+	private final int columnBytes;
+	private final int[] positions;
+	private final long[] lastValues;
+	private int count;
+	private long firstTime;
+	private long lastTime;
+
+	private Segment(File file, MappedByteBuffer buffer, int columns, int columnBytes){
+		this.file = file;
+		this.buffer = buffer;
+		this.columns = columns;
+		this.columnBytes = columnBytes;
+		positions = new int[columns];
+		lastValues = new long[columns];
+	}
+
+	static Segment create(File file, int columns, int columnBytes) throws IOException {
+		if (columns < 1 || columns > MAX_COLUMNS){
+			throw new IllegalArgumentException("invalid column count "+columns);
+		}
+		Segment segment = new Segment(file, map(file, HEADER_SIZE + (long)columns * columnBytes), columns, columnBytes);
+		segment.buffer.putInt(0, MAGIC);
+		segment.buffer.putInt(4, columns);
+		segment.buffer.putInt(OFF_COUNT, 0);
+		segment.buffer.putInt(12, columnBytes);
+		return segment;
+	}
+
+	static Segment open(File file) throws IOException {
+		if (file.length() < HEADER_SIZE){
+			throw new IOException("segment "+file.getName()+" is too short");
+		}
+		MappedByteBuffer buffer = map(file, file.length());
+		if (buffer.getInt(0) != MAGIC){
+			throw new IOException("segment "+file.getName()+" has no valid header");
+		}
+		int columns = buffer.getInt(4);
+		int columnBytes = buffer.getInt(12);
+		if (columns < 1 || columns > MAX_COLUMNS || file.length() != HEADER_SIZE + (long)columns * columnBytes){
+			throw new IOException("segment "+file.getName()+" has an invalid layout");
+		}
+		Segment segment = new Segment(file, buffer, columns, columnBytes);
+		segment.count = buffer.getInt(OFF_COUNT);
+		segment.firstTime = buffer.getLong(OFF_FIRST);
+		segment.lastTime = buffer.getLong(OFF_LAST);
+		for (int i = 0; i < columns; i++){
+			segment.positions[i] = buffer.getInt(OFF_POSITIONS + i * 4);
+			segment.lastValues[i] = buffer.getLong(OFF_LAST_VALUES + i * 8);
+		}
+		return segment;
+	}
+
+	private static MappedByteBuffer map(File file, long size) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			if (raf.length() != size){
+				raf.setLength(size);
+			}
+			return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+		} finally {
+			// the mapping stays valid after the file is closed
+			raf.close();
+		}
+	}
+
+	File getFile(){
+		return file;
+	}
+
+	int getColumns(){
+		return columns;
+	}
+
+	int getCount(){
+		return count;
+	}
+
+	long getFirstTime(){
+		return firstTime;
+	}
+
+	long getLastTime(){
+		return lastTime;
+	}
+
+	/**
+	 * Bytes used by the columns.
+	 */
+	long getUsedBytes(){
+		long used = 0;
+		for (int position : positions){
+			used += position;
+		}
+		return used;
+	}
+
+	/**
+	 * Appends a row (column 0 is the time). Returns false if the segment is full.
+	 */
+	boolean append(long[] row){
+		for (int i = 0; i < columns; i++){
+			if (positions[i] + MAX_VARINT > columnBytes){
+				return false;
+			}
+		}
+		for (int i = 0; i < columns; i++){
+			long delta = row[i] - (count == 0 ? 0 : lastValues[i]);
+			positions[i] = writeVarint(HEADER_SIZE + i * columnBytes, positions[i], (delta << 1) ^ (delta >> 63));
+			lastValues[i] = row[i];
+		}
+		for (int i = 0; i < columns; i++){
+			buffer.putInt(OFF_POSITIONS + i * 4, positions[i]);
+			buffer.putLong(OFF_LAST_VALUES + i * 8, lastValues[i]);
+		}
+		if (count == 0){
+			firstTime = row[0];
+			buffer.putLong(OFF_FIRST, firstTime);
+		}
+		lastTime = row[0];
+		buffer.putLong(OFF_LAST, lastTime);
+		count++;
+		buffer.putInt(OFF_COUNT, count);
+		return true;
+	}
+
+	private int writeVarint(int base, int position, long value){
+		while ((value & ~0x7FL) != 0){
+			buffer.put(base + position++, (byte)((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put(base + position++, (byte)value);
+		return position;
+	}
+
+	/**
+	 * Hands every row with from &lt;= time &lt; to to the visitor, oldest first.
+	 */
+	void read(long from, long to, RowVisitor visitor){
+		if (count == 0 || lastTime < from || firstTime >= to){
+			return;
+		}
+		int[] cursor = new int[columns];
+		long[] row = new long[columns];
+		for (int n = 0; n < count; n++){
+			for (int i = 0; i < columns; i++){
+				int base = HEADER_SIZE + i * columnBytes;
+				long value = 0;
+				int shift = 0;
+				byte b;
+				do {
+					b = buffer.get(base + cursor[i]++);
+					value |= (long)(b & 0x7F) << shift;
+					shift += 7;
+				} while ((b & 0x80) != 0);
+				row[i] += (value >>> 1) ^ -(value & 1);
+			}
+			if (row[0] >= to){
+				return;
+			}
+			if (row[0] >= from){
+				visitor.visit(row);
+			}
+		}
+	}
+
+	void force(){
+		buffer.force();
+	}
+}
@@ -0,0 +1,160 @@
+package de.smahoo.jwave.console.history;
+
+import de.smahoo.jwave.console.log.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Rows of one series, kept as numbered segment files in a directory. Only
+ * the newest segment stays mapped for appending; older ones are mapped
+ * while a query reads them and deleted as a whole once they are older than
+ * the retention.
+ */
+class Series {
+
+	private static final Log LOG = Log.get("history");
+
+	private static final String SUFFIX = ".seg";
+
+	private final File dir;
+	private final int columns;
+	private final int columnBytes;
+	private final List<File> closedFiles = new ArrayList<File>();
+	// first time, last time, rows and bytes of each closed segment
+	private final List<long[]> closedRanges = new ArrayList<long[]>();
+	private Segment active = null;
+	private int nextNumber = 0;
+	private long closedRows = 0;
+	private long closedBytes = 0;
+
+	Series(File dir, int columns, int columnBytes) throws IOException {
+		this.dir = dir;
+		this.columns = columns;
+		this.columnBytes = columnBytes;
+		if (!dir.isDirectory() && !dir.mkdirs()){
+			throw new IOException("unable to create "+dir);
+		}
+		File[] files = dir.listFiles();
+		if (files == null){
+			throw new IOException("unable to list "+dir);
+		}
+		Arrays.sort(files);
+		for (File file : files){
+			if (!file.getName().endsWith(SUFFIX)){
+				continue;
+			}
+			try {
+				nextNumber = Math.max(nextNumber, Integer.parseInt(file.getName().substring(0, file.getName().length() - SUFFIX.length())) + 1);
+			} catch (NumberFormatException exc){
+				continue;
+			}
+			Segment segment;
+			try {
+				segment = Segment.open(file);
+			} catch (IOException exc){
+				LOG.warn("Ignoring damaged history segment {} ({})", file, exc.getMessage());
+				continue;
+			}
+			if (segment.getColumns() != columns){
+				continue;
+			}
+			if (active != null){
+				close(active);
+			}
+			active = segment;
+		}
+	}
+
+	private void close(Segment segment){
+		if (segment.getCount() == 0){
+			segment.getFile().delete();
+			return;
+		}
+		closedFiles.add(segment.getFile());
+		closedRanges.add(new long[]{segment.getFirstTime(), segment.getLastTime(), segment.getCount(), segment.getUsedBytes()});
+		closedRows += segment.getCount();
+		closedBytes += segment.getUsedBytes();
+	}
+
+	synchronized void append(long[] row) throws IOException {
+		if (active != null && active.append(row)){
+			return;
+		}
+		if (active != null){
+			active.force();
+			close(active);
+		}
+		active = Segment.create(new File(dir, String.format("%010d", nextNumber++)+SUFFIX), columns, columnBytes);
+		if (!active.append(row)){
+			throw new IOException("row does not fit into an empty segment");
+		}
+	}
+
+	/**
+	 * Time of the newest row, Long.MIN_VALUE if there is none.
+	 */
+	synchronized long getLastTime(){
+		if (active != null && active.getCount() > 0){
+			return active.getLastTime();
+		}
+		return closedRanges.isEmpty() ? Long.MIN_VALUE : closedRanges.get(closedRanges.size() - 1)[1];
+	}
+
+	synchronized void read(long from, long to, Segment.RowVisitor visitor){
+		for (int i = 0; i < closedFiles.size(); i++){
+			long[] range = closedRanges.get(i);
+			if (range[1] < from || range[0] >= to){
+				continue;
+			}
+			try {
+				Segment.open(closedFiles.get(i)).read(from, to, visitor);
+			} catch (IOException exc){
+				LOG.warn("Unable to read history segment {} ({})", closedFiles.get(i), exc.getMessage());
+			}
+		}
+		if (active != null){
+			active.read(from, to, visitor);
+		}
+	}
+
+	/**
+	 * Deletes the closed segments whose newest row is older than the cutoff.
+	 * Returns the number of deleted segments.
+	 */
+	synchronized int expire(long cutoffMillis){
+		int expired = 0;
+		while (!closedFiles.isEmpty() && closedRanges.get(0)[1] < cutoffMillis){
+			long[] range = closedRanges.remove(0);
+			File file = closedFiles.remove(0);
+			closedRows -= range[2];
+			closedBytes -= range[3];
+			if (!file.delete()){
+				LOG.warn("Unable to delete expired history segment {}", file);
+			}
+			expired++;
+		}
+		return expired;
+	}
+
+	synchronized long getRows(){
+		return closedRows + (active == null ? 0 : active.getCount());
+	}
+
+	synchronized long getBytes(){
+		return closedBytes + (active == null ? 0 : active.getUsedBytes());
+	}
+
+	synchronized int getSegments(){
+		return closedFiles.size() + (active == null ? 0 : 1);
+	}
+
+	synchronized void force(){
+		if (active != null){
+			active.force();
+		}
+	}
+}
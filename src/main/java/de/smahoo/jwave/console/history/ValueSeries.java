@@ -0,0 +1,181 @@
+package de.smahoo.jwave.console.history;
+
+import de.smahoo.jwave.console.log.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * History of one reported value: the raw series (time, value) and one
+ * rollup series (bucket start, min, max, sum, count) per rollup step. A
+ * bucket is written when the first value of the next bucket arrives; the
+ * open bucket lives in memory and is rebuilt from the raw values when the
+ * series is opened again.
+ */
+class ValueSeries {
+
+	private static final Log LOG = Log.get("history");
+
+	private static final String RAW = "raw";
+
+	private final Series raw;
+	private final Rollup[] rollups;
+
+	ValueSeries(File dir, long[] rollupSteps, int columnBytes) throws IOException {
+		raw = new Series(new File(dir, RAW), 2, columnBytes);
+		rollups = new Rollup[rollupSteps.length];
+		for (int i = 0; i < rollupSteps.length; i++){
+			rollups[i] = new Rollup(new Series(new File(dir, "rollup-"+(rollupSteps[i] / 1000)+"s"), 5, columnBytes), rollupSteps[i]);
+			long written = rollups[i].series.getLastTime();
+			final Rollup rollup = rollups[i];
+			raw.read(written == Long.MIN_VALUE ? Long.MIN_VALUE : written + rollup.step, Long.MAX_VALUE, new Segment.RowVisitor() {
+				public void visit(long[] row) {
+					rollup.add(row[0], row[1]);
+				}
+			});
+		}
+	}
+
+	synchronized void append(long timeMillis, long value) throws IOException {
+		raw.append(new long[]{timeMillis, value});
+		for (Rollup rollup : rollups){
+			rollup.add(timeMillis, value);
+		}
+	}
+
+	/**
+	 * Rows from (inclusive) to (exclusive), one per value for step 0, else one
+	 * per step. Uses the coarsest rollup whose step divides the query step.
+	 */
+	synchronized List<HistoryRow> query(long from, long to, final long step){
+		final Map<Long, HistoryRow> rows = new LinkedHashMap<Long, HistoryRow>();
+		if (step <= 0){
+			final List<HistoryRow> values = new ArrayList<HistoryRow>();
+			raw.read(from, to, new Segment.RowVisitor() {
+				public void visit(long[] row) {
+					values.add(new HistoryRow(row[0], row[1], row[1], row[1], 1));
+				}
+			});
+			return values;
+		}
+		Rollup source = null;
+		for (Rollup rollup : rollups){
+			if (step % rollup.step == 0 && (source == null || rollup.step > source.step)){
+				source = rollup;
+			}
+		}
+		if (source == null){
+			raw.read(from, to, new Segment.RowVisitor() {
+				public void visit(long[] row) {
+					add(rows, row[0] - Math.floorMod(row[0], step), row[1], row[1], row[1], 1);
+				}
+			});
+		} else {
+			// buckets that overlap the range, the open one included
+			long first = from - Math.floorMod(from, source.step);
+			source.series.read(first, to, new Segment.RowVisitor() {
+				public void visit(long[] row) {
+					add(rows, row[0] - Math.floorMod(row[0], step), row[1], row[2], row[3], row[4]);
+				}
+			});
+			if (source.count > 0 && source.bucket >= first && source.bucket < to){
+				add(rows, source.bucket - Math.floorMod(source.bucket, step), source.min, source.max, source.sum, source.count);
+			}
+		}
+		return new ArrayList<HistoryRow>(rows.values());
+	}
+
+	private static void add(Map<Long, HistoryRow> rows, long time, long min, long max, long sum, long count){
+		HistoryRow row = rows.get(time);
+		if (row == null){
+			rows.put(time, new HistoryRow(time, min, max, sum, count));
+		} else {
+			row.add(min, max, sum, count);
+		}
+	}
+
+	synchronized int expire(long rawCutoffMillis, long rollupCutoffMillis){
+		int expired = raw.expire(rawCutoffMillis);
+		for (Rollup rollup : rollups){
+			expired += rollup.series.expire(rollupCutoffMillis);
+		}
+		return expired;
+	}
+
+	synchronized long getRows(){
+		return raw.getRows();
+	}
+
+	synchronized long getRollupRows(){
+		long rows = 0;
+		for (Rollup rollup : rollups){
+			rows += rollup.series.getRows();
+		}
+		return rows;
+	}
+
+	synchronized long getBytes(){
+		long bytes = raw.getBytes();
+		for (Rollup rollup : rollups){
+			bytes += rollup.series.getBytes();
+		}
+		return bytes;
+	}
+
+	synchronized int getSegments(){
+		int segments = raw.getSegments();
+		for (Rollup rollup : rollups){
+			segments += rollup.series.getSegments();
+		}
+		return segments;
+	}
+
+	synchronized void force(){
+		raw.force();
+		for (Rollup rollup : rollups){
+			rollup.series.force();
+		}
+	}
+
+	private static class Rollup {
+
+		final Series series;
+		final long step;
+		long bucket = Long.MIN_VALUE;
+		long min;
+		long max;
+		long sum;
+		long count = 0;
+
+		Rollup(Series series, long step){
+			this.series = series;
+			this.step = step;
+		}
+
+		void add(long timeMillis, long value){
+			long start = timeMillis - Math.floorMod(timeMillis, step);
+			if (start != bucket){
+				if (count > 0){
+					try {
+						series.append(new long[]{bucket, min, max, sum, count});
+					} catch (IOException exc){
+						LOG.warn("Unable to write history rollup ({})", exc.getMessage());
+					}
+				}
+				bucket = start;
+				min = value;
+				max = value;
+				sum = 0;
+				count = 0;
+			}
+			min = Math.min(min, value);
+			max = Math.max(max, value);
+			sum += value;
+			count++;
+		}
+	}
+}
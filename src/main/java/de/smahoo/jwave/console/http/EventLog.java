@@ -0,0 +1,108 @@
+package de.smahoo.jwave.console.http;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The most recent controller events with increasing sequence numbers, for
+ * long-polling clients: a request asks for everything after the last
+ * sequence number it has seen and waits until there is something or the
+ * timeout expires. Waiting uses a {@link ReentrantLock} condition rather
+ * than a monitor, so waiting virtual threads do not block their carrier.
+ */
+public class EventLog {
+
+	private final Map<String, Object>[] entries;
+	private final long[] sequences;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition appended = lock.newCondition();
+	private long sequence = 0;
+	private int waiting = 0;
+
+	@SuppressWarnings("unchecked")
+	public EventLog(int capacity){
+		if (capacity <= 0){
+			throw new IllegalArgumentException("capacity must be positive");
+		}
+		entries = new Map[capacity];
+		sequences = new long[capacity];
+	}
+
+	public void append(String controller, String type, String eventClass, String text, long millis){
+		Map<String, Object> entry = new LinkedHashMap<String, Object>();
+		entry.put("controller", controller);
+		entry.put("type", type);
+		entry.put("class", eventClass);
+		entry.put("text", text);
+		entry.put("time", millis);
+		lock.lock();
+		try {
+			sequence++;
+			entry.put("seq", sequence);
+			int slot = (int)(sequence % entries.length);
+			entries[slot] = entry;
+			sequences[slot] = sequence;
+			appended.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public long getSequence(){
+		lock.lock();
+		try {
+			return sequence;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int getWaiting(){
+		lock.lock();
+		try {
+			return waiting;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the entries after the given sequence number, waiting up to the
+	 * timeout for the first one. Entries that were already overwritten are
+	 * skipped; callers can tell from the gap in the sequence numbers.
+	 */
+	public List<Map<String, Object>> await(long since, long timeoutMs) throws InterruptedException {
+		long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+		lock.lock();
+		try {
+			if (since > sequence){
+				// sequence of an earlier run of the console
+				since = sequence;
+			}
+			waiting++;
+			try {
+				while (sequence <= since && remaining > 0){
+					remaining = appended.awaitNanos(remaining);
+				}
+			} finally {
+				waiting--;
+			}
+			List<Map<String, Object>> result = new ArrayList<Map<String, Object>>();
+			long first = Math.max(since + 1, sequence - entries.length + 1);
+			for (long s = first; s <= sequence; s++){
+				int slot = (int)(s % entries.length);
+				if (sequences[slot] == s){
+					result.add(entries[slot]);
+				}
+			}
+			return result;
+		} finally {
+			lock.unlock();
+		}
+	}
+}
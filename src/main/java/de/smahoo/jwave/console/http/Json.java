@@ -0,0 +1,260 @@
+package de.smahoo.jwave.console.http;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal JSON support for the control API, so the console does not need
+ * a JSON library. Objects map to {@link Map}, arrays to {@link List};
+ * numbers are parsed as {@link Long} or {@link Double}.
+ */
+public final class Json {
+
+	private Json(){
+	}
+
+	public static String write(Object value){
+		StringBuilder sb = new StringBuilder();
+		write(sb, value);
+		return sb.toString();
+	}
+
+	@SuppressWarnings("unchecked")
+	public static void write(StringBuilder sb, Object value){
+		if (value == null){
+			sb.append("null");
+		} else if (value instanceof String){
+			quote(sb, (String)value);
+		} else if (value instanceof Number || value instanceof Boolean){
+			sb.append(value);
+		} else if (value instanceof Map){
+			sb.append('{');
+			boolean first = true;
+			for (Map.Entry<String, Object> entry : ((Map<String, Object>)value).entrySet()){
+				if (!first){
+					sb.append(',');
+				}
+				first = false;
+				quote(sb, entry.getKey());
+				sb.append(':');
+				write(sb, entry.getValue());
+			}
+			sb.append('}');
+		} else if (value instanceof Collection){
+			sb.append('[');
+			boolean first = true;
+			for (Object item : (Collection<Object>)value){
+				if (!first){
+					sb.append(',');
+				}
+				first = false;
+				write(sb, item);
+			}
+			sb.append(']');
+		} else {
+			quote(sb, value.toString());
+		}
+	}
+
+	private static void quote(StringBuilder sb, String s){
+		sb.append('"');
+		for (int i = 0; i < s.length(); i++){
+			char c = s.charAt(i);
+			switch (c){
+				case '"':  sb.append("\\\""); break;
+				case '\\': sb.append("\\\\"); break;
+				case '\n': sb.append("\\n"); break;
+				case '\r': sb.append("\\r"); break;
+				case '\t': sb.append("\\t"); break;
+				default:
+					if (c < 0x20){
+						sb.append(String.format("\\u%04x", (int)c));
+					} else {
+						sb.append(c);
+					}
+			}
+		}
+		sb.append('"');
+	}
+
+	/**
+	 * Parses a JSON document. Throws {@link IllegalArgumentException} with
+	 * the position of the first error.
+	 */
+	public static Object parse(String text){
+		Parser parser = new Parser(text);
+		Object value = parser.value();
+		parser.skipWhitespace();
+		if (parser.pos != text.length()){
+			throw parser.error("unexpected content");
+		}
+		return value;
+	}
+
+	private static class Parser {
+
+		private final String text;
+		private int pos = 0;
+
+		Parser(String text){
+			this.text = text;
+		}
+
+		Object value(){
+			skipWhitespace();
+			if (pos >= text.length()){
+				throw error("unexpected end");
+			}
+			char c = text.charAt(pos);
+			if (c == '{'){
+				return object();
+			}
+			if (c == '['){
+				return array();
+			}
+			if (c == '"'){
+				return string();
+			}
+			if (text.startsWith("true", pos)){
+				pos += 4;
+				return Boolean.TRUE;
+			}
+			if (text.startsWith("false", pos)){
+				pos += 5;
+				return Boolean.FALSE;
+			}
+			if (text.startsWith("null", pos)){
+				pos += 4;
+				return null;
+			}
+			return number();
+		}
+
+		private Map<String, Object> object(){
+			Map<String, Object> map = new LinkedHashMap<String, Object>();
+			pos++;
+			skipWhitespace();
+			if (peek() == '}'){
+				pos++;
+				return map;
+			}
+			while (true){
+				skipWhitespace();
+				if (peek() != '"'){
+					throw error("expected name");
+				}
+				String name = string();
+				skipWhitespace();
+				expect(':');
+				map.put(name, value());
+				skipWhitespace();
+				if (peek() == ','){
+					pos++;
+					continue;
+				}
+				expect('}');
+				return map;
+			}
+		}
+
+		private List<Object> array(){
+			List<Object> list = new ArrayList<Object>();
+			pos++;
+			skipWhitespace();
+			if (peek() == ']'){
+				pos++;
+				return list;
+			}
+			while (true){
+				list.add(value());
+				skipWhitespace();
+				if (peek() == ','){
+					pos++;
+					continue;
+				}
+				expect(']');
+				return list;
+			}
+		}
+
+		private String string(){
+			StringBuilder sb = new StringBuilder();
+			pos++;
+			while (pos < text.length()){
+				char c = text.charAt(pos++);
+				if (c == '"'){
+					return sb.toString();
+				}
+				if (c != '\\'){
+					sb.append(c);
+					continue;
+				}
+				if (pos >= text.length()){
+					break;
+				}
+				char e = text.charAt(pos++);
+				switch (e){
+					case 'n': sb.append('\n'); break;
+					case 'r': sb.append('\r'); break;
+					case 't': sb.append('\t'); break;
+					case 'b': sb.append('\b'); break;
+					case 'f': sb.append('\f'); break;
+					case 'u':
+						if (pos + 4 > text.length()){
+							throw error("invalid escape");
+						}
+						try {
+							sb.append((char)Integer.parseInt(text.substring(pos, pos + 4), 16));
+						} catch (NumberFormatException exc){
+							throw error("invalid escape");
+						}
+						pos += 4;
+						break;
+					default: sb.append(e);
+				}
+			}
+			throw error("unterminated string");
+		}
+
+		private Number number(){
+			int start = pos;
+			while (pos < text.length() && "+-0123456789.eE".indexOf(text.charAt(pos)) >= 0){
+				pos++;
+			}
+			String number = text.substring(start, pos);
+			try {
+				if (number.indexOf('.') >= 0 || number.indexOf('e') >= 0 || number.indexOf('E') >= 0){
+					return Double.valueOf(number);
+				}
+				return Long.valueOf(number);
+			} catch (NumberFormatException exc){
+				pos = start;
+				throw error("unexpected character");
+			}
+		}
+
+		void skipWhitespace(){
+			while (pos < text.length() && Character.isWhitespace(text.charAt(pos))){
+				pos++;
+			}
+		}
+
+		private char peek(){
+			return pos < text.length() ? text.charAt(pos) : 0;
+		}
+
+		private void expect(char c){
+			if (peek() != c){
+				throw error("expected '"+c+"'");
+			}
+			pos++;
+		}
+
+		IllegalArgumentException error(String message){
+			return new IllegalArgumentException(message+" at position "+pos);
+		}
+	}
+}
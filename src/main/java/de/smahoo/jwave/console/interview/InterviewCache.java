@@ -0,0 +1,104 @@
+package de.smahoo.jwave.console.interview;
+
+import de.smahoo.jwave.JWaveController;
+import de.smahoo.jwave.console.config.ConfigAutosave;
+import de.smahoo.jwave.console.config.ConfigJournal;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * What the console knows about the nodes of the Z-Wave network it was last
+ * connected to. The node details are the node configuration file saved by
+ * {@link ConfigAutosave}, which also journals the fingerprints of the nodes
+ * in it under <code>node/&lt;id&gt;</code>. The home id of the network the
+ * file belongs to is journaled under {@link #HOME_KEY}; a file without one
+ * is never restored, since the stick's home id is only known once it is
+ * connected and libjwave cannot take restored nodes out again.
+ */
+public class InterviewCache {
+
+	public static final String HOME_KEY = "network/home";
+
+	private final ConfigJournal config;
+	private final File file;
+
+	public InterviewCache(ConfigJournal config, File file){
+		this.config = config;
+		this.file = file;
+	}
+
+	/**
+	 * Journaled fingerprints of the nodes by node id.
+	 */
+	public Map<Integer, String> getFingerprints(){
+		String prefix = ConfigAutosave.NODE_PREFIX;
+		Map<Integer, String> result = new TreeMap<Integer, String>();
+		for (Map.Entry<String, String> entry : config.getAll(prefix).entrySet()){
+			try {
+				result.put(Integer.parseInt(entry.getKey().substring(prefix.length())), entry.getValue());
+			} catch (NumberFormatException exc){
+				// not a node entry
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Home id of the cached network, 0 if it is not known yet.
+	 */
+	public int getHomeId(){
+		String value = config.get(HOME_KEY);
+		if (value == null){
+			return 0;
+		}
+		try {
+			return (int)Long.parseLong(value, 16);
+		} catch (NumberFormatException exc){
+			return 0;
+		}
+	}
+
+	/**
+	 * Home id of the network the file belongs to, 0 if that is not known.
+	 */
+	public void setHomeId(int homeId) throws IOException {
+		if (homeId == 0){
+			config.remove(HOME_KEY);
+			return;
+		}
+		config.put(HOME_KEY, String.format("%08x", homeId));
+	}
+
+	/**
+	 * Loads the cached node details into the controller, which must not be
+	 * connected yet. Returns false if nothing is cached or the network the
+	 * file belongs to is not known.
+	 */
+	public boolean restore(JWaveController controller) throws Exception {
+		if (!file.exists() || getHomeId() == 0){
+			return false;
+		}
+		controller.loadConfiguration(file.getPath());
+		return true;
+	}
+
+	/**
+	 * Deletes the file and the fingerprints of its nodes, it belongs to
+	 * another network. The autosave writes it again for the connected one.
+	 */
+	public void discard() throws IOException {
+		if (file.exists() && !file.delete()){
+			throw new IOException("unable to delete "+file);
+		}
+		for (Integer nodeId : getFingerprints().keySet()){
+			config.remove(ConfigAutosave.NODE_PREFIX+nodeId);
+		}
+	}
+
+	public File getFile(){
+		return file;
+	}
+}
@@ -0,0 +1,337 @@
+package de.smahoo.jwave.console.interview;
+
+import de.smahoo.jwave.JWaveController;
+import de.smahoo.jwave.JWaveControllerMode;
+import de.smahoo.jwave.cmd.JWaveCommand;
+import de.smahoo.jwave.cmd.JWaveNodeCommand;
+import de.smahoo.jwave.console.cmd.SendTemplate;
+import de.smahoo.jwave.console.config.NodeFingerprint;
+import de.smahoo.jwave.console.log.Log;
+import de.smahoo.jwave.console.sched.ReplyTracker;
+import de.smahoo.jwave.console.sched.SendPriority;
+import de.smahoo.jwave.node.JWaveNode;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Warm start and background re-interview of the nodes of the default
+ * controller, on the thread <code>jwave-interview</code>.
+ * <p>
+ * Before the controller is connected, {@link #warmStart} loads the cached
+ * node details ({@link InterviewCache}) into it, so known nodes are usable
+ * right away. Once the controller is connected the fingerprints of its
+ * nodes are compared with the cached ones every second; if the controller
+ * belongs to another network than the cache, no node counts as known and
+ * the cache is given up: a file restored for the wrong network is never
+ * restored again (its nodes stay in the controller until the console is
+ * restarted), one that was not restored is deleted.
+ * Nodes that are not known yet, never answered an interview or whose
+ * fingerprint changed are interviewed again: a MANUFACTURER_SPECIFIC_GET
+ * goes through the {@link ReplyTracker} with low priority, and the
+ * interview is done when the MANUFACTURER_SPECIFIC_REPORT arrived. At most
+ * {@link #getConcurrency()} interviews run at a time; a failed interview is
+ * retried after {@link #RETRY_MS}. The node configuration itself is saved
+ * and journaled by the autosave, as for every other node change.
+ */
+public class NodeInterviewer {
+
+	private static final Log LOG = Log.get("interview");
+
+	public static final int DEFAULT_CONCURRENCY = 4;
+	public static final int MAX_CONCURRENCY = 32;
+	public static final long RETRY_MS = 60000;
+
+	private static final long CHECK_INTERVAL_MS = 1000;
+	// low priority GETs may wait behind other sends before they go out
+	private static final long REPORT_TIMEOUT_MS = 30000;
+	private static final int GENERIC_TYPE_GENERIC_CONTROLLER = 0x01;
+	private static final int GENERIC_TYPE_STATIC_CONTROLLER = 0x02;
+	private static final int[] NO_PARAMS = new int[0];
+
+	private final InterviewCache cache;
+	private final ScheduledExecutorService executor;
+	private volatile JWaveController controller = null;
+	private volatile ReplyTracker replies = null;
+	private volatile JWaveCommand command = null;
+	private volatile JWaveCommand report = null;
+	private volatile int concurrency = DEFAULT_CONCURRENCY;
+
+	// only used on the executor thread
+	private int homeId = 0;
+	// fingerprint of every node as cached or last interviewed
+	private final Map<Integer, String> known = new HashMap<Integer, String>();
+	private final Deque<Integer> queue = new ArrayDeque<Integer>();
+	private final Set<Integer> running = new HashSet<Integer>();
+	private final Map<Integer, Long> retryAt = new HashMap<Integer, Long>();
+	// the controller holds nodes of the cache whose network is not confirmed yet
+	private volatile boolean restored = false;
+	private volatile int restoredNodes = 0;
+	private volatile long restoreNanos = 0;
+	private long unknown = 0;
+	private long changed = 0;
+	private long interviewed = 0;
+	private long failed = 0;
+	private volatile String lastError = null;
+
+	public NodeInterviewer(InterviewCache cache){
+		this.cache = cache;
+		executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "jwave-interview");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		executor.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				try {
+					tick();
+				} catch (Exception exc){
+					lastError = exc.getMessage();
+				}
+			}
+		}, CHECK_INTERVAL_MS, CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Controller whose nodes are interviewed.
+	 *
+	 * @param command the interview command (MANUFACTURER_SPECIFIC_GET), null to only warm start
+	 */
+	public void setTarget(JWaveController controller, ReplyTracker replies, JWaveCommand command){
+		this.controller = controller;
+		this.replies = replies;
+		this.report = command == null ? null : ReplyTracker.getReport(command);
+		this.command = report == null ? null : command;
+	}
+
+	public void setConcurrency(int concurrency){
+		if (concurrency < 1 || concurrency > MAX_CONCURRENCY){
+			throw new IllegalArgumentException("concurrency must be between 1 and "+MAX_CONCURRENCY);
+		}
+		this.concurrency = concurrency;
+		executor.execute(new Runnable() {
+			public void run() {
+				startInterviews();
+			}
+		});
+	}
+
+	public int getConcurrency(){
+		return concurrency;
+	}
+
+	private void tick(){
+		JWaveController cntrl = controller;
+		if (cntrl == null || cntrl.getControllerMode() == JWaveControllerMode.CNTRL_MODE_NOT_CONNECTED){
+			homeId = 0;
+			return;
+		}
+		int id = cntrl.getHomeId();
+		if (id == 0){
+			return;
+		}
+		if (id != homeId){
+			homeId = id;
+			queue.clear();
+			retryAt.clear();
+			loadKnown();
+		}
+		check(cntrl);
+		startInterviews();
+	}
+
+	/**
+	 * Loads the cached node details into the controller. Has to be called
+	 * before the controller is connected.
+	 */
+	public void warmStart(JWaveController cntrl){
+		long start = System.nanoTime();
+		try {
+			if (cache.restore(cntrl)){
+				restored = true;
+				restoreNanos = System.nanoTime() - start;
+				restoredNodes = cache.getFingerprints().size();
+				LOG.info("Restored {} known nodes from {} ({} ms)", restoredNodes, cache.getFile(), restoreNanos / 1000000);
+			}
+		} catch (Exception exc){
+			lastError = "restoring "+cache.getFile()+": "+exc.getMessage();
+			LOG.warn("Unable to restore the known nodes from {} ({})", cache.getFile(), exc.getMessage());
+		}
+	}
+
+	/**
+	 * Takes the cached fingerprints as known if the cache belongs to the
+	 * network of the controller, otherwise gives the cache up.
+	 */
+	private void loadKnown(){
+		known.clear();
+		int cachedHomeId = cache.getHomeId();
+		if (cachedHomeId != 0 && cachedHomeId == homeId){
+			restored = false;
+			known.putAll(cache.getFingerprints());
+			return;
+		}
+		try {
+			if (restored){
+				// the autosave writes the foreign nodes back, keep that file from being restored
+				LOG.warn("The restored node configuration belongs to home {}, the controller to home {}; all nodes are interviewed again",
+						cachedHomeId == 0 ? "-" : String.format("0x%08x", cachedHomeId), String.format("0x%08x", homeId));
+				cache.setHomeId(0);
+				return;
+			}
+			if (cachedHomeId != 0){
+				LOG.warn("The node configuration belongs to home {}, the controller to home {}; discarding it",
+						String.format("0x%08x", cachedHomeId), String.format("0x%08x", homeId));
+			}
+			cache.discard();
+			cache.setHomeId(homeId);
+		} catch (Exception exc){
+			lastError = exc.getMessage();
+		}
+	}
+
+	/**
+	 * Queues nodes that are not known, changed or never answered an
+	 * interview, forgets removed ones.
+	 */
+	private void check(JWaveController cntrl){
+		Set<Integer> present = new HashSet<Integer>();
+		long now = System.currentTimeMillis();
+		try {
+			for (JWaveNode node : cntrl.getNodes()){
+				int nodeId = node.getNodeId();
+				present.add(nodeId);
+				String fingerprint = NodeFingerprint.of(node);
+				String last = known.get(nodeId);
+				if ((fingerprint.equals(last) && hasAnswered(node)) || running.contains(nodeId) || queue.contains(nodeId)){
+					continue;
+				}
+				if (isController(node) || command == null){
+					// nothing to ask, take what the controller knows
+					known.put(nodeId, fingerprint);
+					continue;
+				}
+				Long retry = retryAt.get(nodeId);
+				if (retry != null && retry > now){
+					continue;
+				}
+				if (last == null || !hasAnswered(node)){
+					unknown++;
+				} else {
+					changed++;
+				}
+				queue.add(nodeId);
+			}
+			known.keySet().retainAll(present);
+			retryAt.keySet().retainAll(present);
+		} catch (Exception exc){
+			lastError = exc.getMessage();
+		}
+	}
+
+	// the manufacturer and product ids are only known from a MANUFACTURER_SPECIFIC_REPORT
+	private static boolean hasAnswered(JWaveNode node){
+		return node.getManufactureId() != 0 || node.getProductTypeId() != 0 || node.getProductId() != 0;
+	}
+
+	private static boolean isController(JWaveNode node){
+		if (node.getGenericDeviceType() == null){
+			return false;
+		}
+		int key = node.getGenericDeviceType().getKey();
+		return key == GENERIC_TYPE_GENERIC_CONTROLLER || key == GENERIC_TYPE_STATIC_CONTROLLER;
+	}
+
+	private void startInterviews(){
+		ReplyTracker tracker = replies;
+		JWaveCommand cmd = command;
+		JWaveCommand expected = report;
+		if (tracker == null || cmd == null || expected == null){
+			return;
+		}
+		while (running.size() < concurrency && !queue.isEmpty()){
+			final int nodeId = queue.poll();
+			running.add(nodeId);
+			SendTemplate template = SendTemplate.of(null, nodeId, -1, cmd, NO_PARAMS, SendPriority.LOW, "interview");
+			CompletableFuture<JWaveNodeCommand> reply = tracker.sendAndAwait(template, expected, REPORT_TIMEOUT_MS);
+			reply.whenComplete(new BiConsumer<JWaveNodeCommand, Throwable>() {
+				public void accept(JWaveNodeCommand nodeCmd, final Throwable error) {
+					executor.execute(new Runnable() {
+						public void run() {
+							finish(nodeId, error);
+							startInterviews();
+						}
+					});
+				}
+			});
+		}
+	}
+
+	private void finish(int nodeId, Throwable error){
+		if (!running.remove(nodeId)){
+			return;
+		}
+		JWaveController cntrl = controller;
+		JWaveNode node = cntrl == null ? null : cntrl.getNode(nodeId);
+		if (error != null || node == null || homeId == 0){
+			failed++;
+			if (error != null){
+				lastError = "node "+nodeId+": "+error.getMessage();
+			}
+			retryAt.put(nodeId, System.currentTimeMillis() + RETRY_MS);
+			return;
+		}
+		retryAt.remove(nodeId);
+		known.put(nodeId, NodeFingerprint.of(node));
+		interviewed++;
+	}
+
+	public void close(){
+		executor.shutdownNow();
+		try {
+			executor.awaitTermination(5, TimeUnit.SECONDS);
+		} catch (InterruptedException exc){
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public String getStatistics(){
+		final StringBuilder sb = new StringBuilder();
+		try {
+			executor.submit(new Runnable() {
+				public void run() {
+					sb.append("--------------------------------------------------").append("\r\n");
+					sb.append("                  Interviews").append("\r\n");
+					sb.append("--------------------------------------------------").append("\r\n");
+					sb.append("                   home id = ").append(homeId == 0 ? "-" : String.format("0x%08x", homeId)).append("\r\n");
+					sb.append("                     cache = ").append(cache.getFile().getPath()).append("\r\n");
+					sb.append("               known nodes = ").append(known.size()).append("\r\n");
+					sb.append("            restored nodes = ").append(restoredNodes).append(restoredNodes == 0 ? "" : String.format(" (%.0f ms)", restoreNanos / 1000000.0)).append("\r\n");
+					sb.append("         interview command = ").append(command == null ? "unavailable (warm start only)" : command.getName()).append("\r\n");
+					sb.append("               concurrency = ").append(concurrency).append("\r\n");
+					sb.append("         running / waiting = ").append(running.size()).append(" / ").append(queue.size()).append("\r\n");
+					sb.append("   unknown / changed nodes = ").append(unknown).append(" / ").append(changed).append("\r\n");
+					sb.append("      interviewed / failed = ").append(interviewed).append(" / ").append(failed).append("\r\n");
+					sb.append("         waiting for retry = ").append(retryAt.size()).append("\r\n");
+					sb.append("                last error = ").append(lastError == null ? "-" : lastError).append("\r\n");
+					sb.append("--------------------------------------------------");
+				}
+			}).get();
+		} catch (Exception exc){
+			return "Interview statistics unavailable ("+exc.getMessage()+")";
+		}
+		return sb.toString();
+	}
+}
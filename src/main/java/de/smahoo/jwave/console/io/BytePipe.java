@@ -0,0 +1,154 @@
+package de.smahoo.jwave.console.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * In-memory, blocking byte pipe with a fixed ring buffer. Unlike
+ * {@link java.io.PipedInputStream} it does not care which threads are
+ * reading or writing, so it can connect a {@link de.smahoo.jwave.JWaveController}
+ * to an emulated controller or a recorded session.
+ */
+public class BytePipe {
+
+	public static final int DEFAULT_CAPACITY = 64 * 1024;
+
+	private final byte[] buffer;
+	private int readPos = 0;
+	private int count = 0;
+	private boolean closed = false;
+
+	private final InputStream inputStream = new PipeInputStream();
+	private final OutputStream outputStream = new PipeOutputStream();
+
+	public BytePipe(){
+		this(DEFAULT_CAPACITY);
+	}
+
+	public BytePipe(int capacity){
+		if (capacity <= 0){
+			throw new IllegalArgumentException("capacity must be positive");
+		}
+		buffer = new byte[capacity];
+	}
+
+	public InputStream getInputStream(){
+		return inputStream;
+	}
+
+	public OutputStream getOutputStream(){
+		return outputStream;
+	}
+
+	public synchronized int available(){
+		return count;
+	}
+
+	public synchronized void close(){
+		closed = true;
+		notifyAll();
+	}
+
+	public synchronized boolean isClosed(){
+		return closed;
+	}
+
+	protected synchronized void write(byte[] b, int off, int len) throws IOException {
+		while (len > 0){
+			while (count == buffer.length && !closed){
+				waitForChange();
+			}
+			if (closed){
+				throw new IOException("pipe closed");
+			}
+			int writePos = (readPos + count) % buffer.length;
+			int chunk = Math.min(len, Math.min(buffer.length - count, buffer.length - writePos));
+			System.arraycopy(b, off, buffer, writePos, chunk);
+			count += chunk;
+			off += chunk;
+			len -= chunk;
+			notifyAll();
+		}
+	}
+
+	protected synchronized int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0){
+			return 0;
+		}
+		while (count == 0 && !closed){
+			waitForChange();
+		}
+		if (count == 0){
+			return -1;
+		}
+		int chunk = Math.min(len, Math.min(count, buffer.length - readPos));
+		System.arraycopy(buffer, readPos, b, off, chunk);
+		readPos = (readPos + chunk) % buffer.length;
+		count -= chunk;
+		notifyAll();
+		return chunk;
+	}
+
+	private void waitForChange() throws InterruptedIOException {
+		try {
+			wait();
+		} catch (InterruptedException exc){
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while waiting on pipe");
+		}
+	}
+
+	private class PipeInputStream extends InputStream {
+
+		private final byte[] single = new byte[1];
+
+		@Override
+		public int read() throws IOException {
+			int n = BytePipe.this.read(single, 0, 1);
+			if (n < 0){
+				return -1;
+			}
+			return single[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			return BytePipe.this.read(b, off, len);
+		}
+
+		@Override
+		public int available(){
+			return BytePipe.this.available();
+		}
+
+		@Override
+		public void close(){
+			BytePipe.this.close();
+		}
+	}
+
+	private class PipeOutputStream extends OutputStream {
+
+		private final byte[] single = new byte[1];
+
+		@Override
+		public void write(int b) throws IOException {
+			synchronized (BytePipe.this){
+				single[0] = (byte)b;
+				BytePipe.this.write(single, 0, 1);
+			}
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			BytePipe.this.write(b, off, len);
+		}
+
+		@Override
+		public void close(){
+			BytePipe.this.close();
+		}
+	}
+}
@@ -0,0 +1,42 @@
+package de.smahoo.jwave.console.io;
+
+/**
+ * Counts occurrences in one-second buckets and reports the average rate of
+ * the last {@link #WINDOW_SECONDS} seconds. Not thread safe, callers
+ * synchronize.
+ */
+class RateMeter {
+
+	static final int WINDOW_SECONDS = 10;
+
+	private final long[] buckets = new long[WINDOW_SECONDS];
+	private final long originNanos = System.nanoTime();
+	private long currentSecond = 0;
+
+	void add(long amount, long nowNanos){
+		advance(nowNanos);
+		buckets[(int)(currentSecond % WINDOW_SECONDS)] += amount;
+	}
+
+	double getRate(long nowNanos){
+		advance(nowNanos);
+		long sum = 0;
+		// the current second is not complete yet
+		for (int i = 1; i <= WINDOW_SECONDS - 1; i++){
+			sum += buckets[(int)((currentSecond - i + WINDOW_SECONDS) % WINDOW_SECONDS)];
+		}
+		return sum / (double)(WINDOW_SECONDS - 1);
+	}
+
+	private void advance(long nowNanos){
+		long second = (nowNanos - originNanos) / 1000000000L;
+		if (second <= currentSecond){
+			return;
+		}
+		long steps = Math.min(second - currentSecond, WINDOW_SECONDS);
+		for (long i = 1; i <= steps; i++){
+			buckets[(int)((currentSecond + i) % WINDOW_SECONDS)] = 0;
+		}
+		currentSecond = second;
+	}
+}
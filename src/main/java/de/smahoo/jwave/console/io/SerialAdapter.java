@@ -0,0 +1,351 @@
+package de.smahoo.jwave.console.io;
+
+import de.smahoo.jwave.console.stats.LatencyHistogram;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * Sits between the serial port and the controller. A dedicated thread
+ * (<code>jwave-serial-&lt;name&gt;</code>, maximum priority) reads the port
+ * in large chunks into a preallocated ring buffer; the controller reads from
+ * that buffer, so its small reads never block in the serial driver. Writes
+ * of the controller are collected until a serial API frame (or
+ * {@link SerialOptions#getTxBatch()} bytes) is complete and then written to
+ * the port at once.
+ * <p>
+ * The hand-off latency is the time from a chunk arriving from the port until
+ * the controller read its last byte. An error of the port is passed on to the
+ * controller by its next read.
+ */
+public class SerialAdapter implements Runnable {
+
+	// arrival times of the chunks still in the ring
+	private static final int CHUNKS = 1024;
+
+	private final String name;
+	private final InputStream portIn;
+	private final OutputStream portOut;
+	private final SerialOptions options;
+
+	private final byte[] ring;
+	private int readPos = 0;
+	private int count = 0;
+	private boolean closed = false;
+	private IOException failure = null;
+	private long received = 0;
+	private long consumed = 0;
+	private final long[] chunkEnd = new long[CHUNKS];
+	private final long[] chunkNanos = new long[CHUNKS];
+	private int chunkHead = 0;
+	private int chunks = 0;
+
+	private final LatencyHistogram handOff = new LatencyHistogram();
+	private long reads = 0;
+	private long fullWaits = 0;
+	private int highWatermark = 0;
+
+	private final InputStream inputStream = new AdapterInputStream();
+	private final BatchingOutputStream outputStream;
+	private Thread thread = null;
+
+	public SerialAdapter(String name, InputStream portIn, OutputStream portOut, SerialOptions options){
+		this.name = name;
+		this.portIn = portIn;
+		this.portOut = portOut;
+		this.options = options;
+		ring = new byte[options.getRxBuffer()];
+		outputStream = new BatchingOutputStream(options.getTxBatch());
+	}
+
+	public synchronized void start(){
+		if (thread != null){
+			return;
+		}
+		thread = new Thread(this, "jwave-serial-"+name);
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MAX_PRIORITY);
+		thread.start();
+	}
+
+	/**
+	 * Stream the controller reads from.
+	 */
+	public InputStream getInputStream(){
+		return inputStream;
+	}
+
+	/**
+	 * Stream the controller writes to.
+	 */
+	public OutputStream getOutputStream(){
+		return outputStream;
+	}
+
+	public SerialOptions getOptions(){
+		return options;
+	}
+
+	public void run() {
+		byte[] chunk = new byte[Math.min(options.getReadChunk(), ring.length)];
+		try {
+			while (!isClosed()){
+				int n = portIn.read(chunk, 0, chunk.length);
+				if (n < 0){
+					throw new IOException("serial port closed");
+				}
+				if (n > 0){
+					put(chunk, n, System.nanoTime());
+				}
+			}
+		} catch (IOException exc){
+			fail(exc);
+		}
+	}
+
+	private synchronized boolean isClosed(){
+		return closed;
+	}
+
+	private synchronized void put(byte[] b, int len, long nowNanos) throws InterruptedIOException {
+		reads++;
+		int off = 0;
+		while (len > 0){
+			if (count == ring.length){
+				fullWaits++;
+				while (count == ring.length && !closed){
+					waitForChange();
+				}
+			}
+			if (closed){
+				return;
+			}
+			int writePos = (readPos + count) % ring.length;
+			int n = Math.min(len, Math.min(ring.length - count, ring.length - writePos));
+			System.arraycopy(b, off, ring, writePos, n);
+			count += n;
+			received += n;
+			off += n;
+			len -= n;
+			if (count > highWatermark){
+				highWatermark = count;
+			}
+			if (chunks < CHUNKS){
+				int slot = (chunkHead + chunks) % CHUNKS;
+				chunkEnd[slot] = received;
+				chunkNanos[slot] = nowNanos;
+				chunks++;
+			} else {
+				// too many small chunks waiting, the newest one absorbs this one
+				chunkEnd[(chunkHead + CHUNKS - 1) % CHUNKS] = received;
+			}
+			notifyAll();
+		}
+	}
+
+	private synchronized int take(byte[] b, int off, int len) throws IOException {
+		if (len == 0){
+			return 0;
+		}
+		while (count == 0 && !closed){
+			waitForChange();
+		}
+		if (count == 0){
+			if (failure != null){
+				throw new IOException(failure.getMessage(), failure);
+			}
+			return -1;
+		}
+		int n = Math.min(len, Math.min(count, ring.length - readPos));
+		System.arraycopy(ring, readPos, b, off, n);
+		readPos = (readPos + n) % ring.length;
+		count -= n;
+		consumed += n;
+		long now = System.nanoTime();
+		while (chunks > 0 && chunkEnd[chunkHead] <= consumed){
+			handOff.record((now - chunkNanos[chunkHead]) / 1000);
+			chunkHead = (chunkHead + 1) % CHUNKS;
+			chunks--;
+		}
+		notifyAll();
+		return n;
+	}
+
+	private void waitForChange() throws InterruptedIOException {
+		try {
+			wait();
+		} catch (InterruptedException exc){
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while waiting for serial data");
+		}
+	}
+
+	private synchronized void fail(IOException exc){
+		if (!closed){
+			failure = exc;
+			closed = true;
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Stops the reader thread. Data still buffered can be read, then the
+	 * controller sees the end of the stream.
+	 */
+	public void close(){
+		Thread t;
+		synchronized (this){
+			closed = true;
+			notifyAll();
+			t = thread;
+			thread = null;
+		}
+		if (t != null){
+			t.interrupt();
+		}
+	}
+
+	public synchronized String getStatistics(){
+		StringBuilder sb = new StringBuilder();
+		sb.append("--------------------------------------------------").append("\r\n");
+		sb.append("                  Serial Adapter").append("\r\n");
+		sb.append("--------------------------------------------------").append("\r\n");
+		sb.append("                   options = ").append(options).append("\r\n");
+		sb.append("                     state = ").append(!closed ? "reading" : (failure == null ? "closed" : "failed ("+failure.getMessage()+")")).append("\r\n");
+		sb.append("            bytes received = ").append(received).append(" in ").append(reads).append(" reads").append(reads == 0 ? "" : String.format(" (%.1f bytes per read)", received / (double)reads)).append("\r\n");
+		sb.append("      buffer occupancy now = ").append(count).append(" / ").append(ring.length).append("\r\n");
+		sb.append("     buffer high watermark = ").append(highWatermark).append("\r\n");
+		sb.append("        reader waited full = ").append(fullWaits).append("\r\n");
+		sb.append(String.format("  hand-off p50 / p99 / max = %.2f / %.2f / %.2f ms", handOff.getPercentile(50) / 1000.0, handOff.getPercentile(99) / 1000.0, handOff.getMax() / 1000.0)).append("\r\n");
+		sb.append(outputStream.getStatistics()).append("\r\n");
+		sb.append("--------------------------------------------------");
+		return sb.toString();
+	}
+
+	private class AdapterInputStream extends InputStream {
+
+		private final byte[] single = new byte[1];
+
+		@Override
+		public int read() throws IOException {
+			synchronized (SerialAdapter.this){
+				int n = take(single, 0, 1);
+				if (n < 0){
+					return -1;
+				}
+				return single[0] & 0xFF;
+			}
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			return take(b, off, len);
+		}
+
+		@Override
+		public int available(){
+			synchronized (SerialAdapter.this){
+				return count;
+			}
+		}
+
+		@Override
+		public void close(){
+			SerialAdapter.this.close();
+		}
+	}
+
+	/**
+	 * Collects the bytes of a frame and writes them to the port in one call.
+	 */
+	private class BatchingOutputStream extends OutputStream {
+
+		private final byte[] batch;
+		private int length = 0;
+		private int expected = 0;
+		private long bytes = 0;
+		private long writes = 0;
+		private long frames = 0;
+
+		BatchingOutputStream(int size){
+			batch = new byte[Math.max(size, 1)];
+		}
+
+		@Override
+		public synchronized void write(int b) throws IOException {
+			if (batch.length == 1){
+				writeThrough(new byte[]{(byte)b}, 0, 1);
+				return;
+			}
+			batch[length++] = (byte)b;
+			if (frameComplete(b) || length == batch.length){
+				flushBatch();
+			}
+		}
+
+		@Override
+		public synchronized void write(byte[] b, int off, int len) throws IOException {
+			if (batch.length == 1){
+				writeThrough(b, off, len);
+				return;
+			}
+			for (int i = off; i < off + len; i++){
+				batch[length++] = b[i];
+				if (frameComplete(b[i] & 0xFF) || length == batch.length){
+					flushBatch();
+				}
+			}
+		}
+
+		/**
+		 * Follows the frame structure (SOF, length, body, or a single ACK/NAK/CAN).
+		 */
+		private boolean frameComplete(int b){
+			if (expected == 0){
+				if (b != SerialFrames.SOF){
+					return true;
+				}
+				expected = -1;
+				return false;
+			}
+			if (expected == -1){
+				// length byte counts the bytes after it
+				expected = b == 0 ? 0 : b;
+				return b == 0;
+			}
+			expected--;
+			if (expected == 0){
+				frames++;
+				return true;
+			}
+			return false;
+		}
+
+		private void flushBatch() throws IOException {
+			if (length == 0){
+				return;
+			}
+			int n = length;
+			length = 0;
+			writeThrough(batch, 0, n);
+		}
+
+		private void writeThrough(byte[] b, int off, int len) throws IOException {
+			portOut.write(b, off, len);
+			bytes += len;
+			writes++;
+		}
+
+		@Override
+		public synchronized void flush() throws IOException {
+			flushBatch();
+			portOut.flush();
+		}
+
+		synchronized String getStatistics(){
+			return "                bytes sent = "+bytes+" in "+writes+" writes ("+frames+" frames batched)";
+		}
+	}
+}
@@ -0,0 +1,138 @@
+package de.smahoo.jwave.console.io;
+
+/**
+ * Constants and helpers of the Z-Wave serial API framing
+ * (SOF | LEN | TYPE | FUNC | PAYLOAD | CHECKSUM).
+ */
+public final class SerialFrames {
+
+	public static final int SOF = 0x01;
+	public static final int ACK = 0x06;
+	public static final int NAK = 0x15;
+	public static final int CAN = 0x18;
+
+	public static final int TYPE_REQUEST  = 0x00;
+	public static final int TYPE_RESPONSE = 0x01;
+
+	public static final int FUNC_APPLICATION_COMMAND_HANDLER   = 0x04;
+	public static final int FUNC_SERIAL_API_GET_INIT_DATA      = 0x02;
+	public static final int FUNC_SERIAL_API_APPL_NODE_INFO     = 0x03;
+	public static final int FUNC_GET_CONTROLLER_CAPABILITIES   = 0x05;
+	public static final int FUNC_SERIAL_API_SET_TIMEOUTS       = 0x06;
+	public static final int FUNC_SERIAL_API_GET_CAPABILITIES   = 0x07;
+	public static final int FUNC_SEND_DATA                     = 0x13;
+	public static final int FUNC_GET_VERSION                   = 0x15;
+	public static final int FUNC_MEMORY_GET_ID                 = 0x20;
+	public static final int FUNC_GET_NODE_PROTOCOL_INFO        = 0x41;
+	public static final int FUNC_SET_DEFAULT                   = 0x42;
+	public static final int FUNC_APPLICATION_UPDATE            = 0x49;
+	public static final int FUNC_ADD_NODE_TO_NETWORK           = 0x4A;
+	public static final int FUNC_REMOVE_NODE_FROM_NETWORK      = 0x4B;
+	public static final int FUNC_GET_SUC_NODE_ID               = 0x56;
+	public static final int FUNC_REQUEST_NODE_INFO             = 0x60;
+
+	public static final int TRANSMIT_COMPLETE_OK     = 0x00;
+	public static final int TRANSMIT_COMPLETE_NO_ACK = 0x01;
+
+	public static final int UPDATE_STATE_NODE_INFO_RECEIVED = 0x84;
+	public static final int UPDATE_STATE_NODE_INFO_REQ_FAILED = 0x81;
+
+	private SerialFrames(){
+		// constants only
+	}
+
+	/**
+	 * Checksum over LEN .. last payload byte, as defined by the serial API.
+	 */
+	public static int checksum(byte[] frame, int off, int len){
+		int cs = 0xFF;
+		for (int i = off; i < off + len; i++){
+			cs ^= frame[i] & 0xFF;
+		}
+		return cs & 0xFF;
+	}
+
+	/**
+	 * Builds a complete data frame including SOF and checksum.
+	 */
+	public static byte[] build(int type, int func, byte[] payload){
+		int payloadLength = payload == null ? 0 : payload.length;
+		byte[] frame = new byte[payloadLength + 5];
+		frame[0] = (byte)SOF;
+		frame[1] = (byte)(payloadLength + 3);
+		frame[2] = (byte)type;
+		frame[3] = (byte)func;
+		if (payloadLength > 0){
+			System.arraycopy(payload, 0, frame, 4, payloadLength);
+		}
+		frame[frame.length - 1] = (byte)checksum(frame, 1, frame.length - 2);
+		return frame;
+	}
+
+	public static String functionName(int func){
+		switch (func){
+			case FUNC_APPLICATION_COMMAND_HANDLER: return "APPLICATION_COMMAND_HANDLER";
+			case FUNC_SERIAL_API_GET_INIT_DATA:    return "SERIAL_API_GET_INIT_DATA";
+			case FUNC_SERIAL_API_APPL_NODE_INFO:   return "SERIAL_API_APPL_NODE_INFORMATION";
+			case FUNC_GET_CONTROLLER_CAPABILITIES: return "GET_CONTROLLER_CAPABILITIES";
+			case FUNC_SERIAL_API_SET_TIMEOUTS:     return "SERIAL_API_SET_TIMEOUTS";
+			case FUNC_SERIAL_API_GET_CAPABILITIES: return "SERIAL_API_GET_CAPABILITIES";
+			case FUNC_SEND_DATA:                   return "SEND_DATA";
+			case FUNC_GET_VERSION:                 return "GET_VERSION";
+			case FUNC_MEMORY_GET_ID:               return "MEMORY_GET_ID";
+			case FUNC_GET_NODE_PROTOCOL_INFO:      return "GET_NODE_PROTOCOL_INFO";
+			case FUNC_SET_DEFAULT:                 return "SET_DEFAULT";
+			case FUNC_APPLICATION_UPDATE:          return "APPLICATION_UPDATE";
+			case FUNC_ADD_NODE_TO_NETWORK:         return "ADD_NODE_TO_NETWORK";
+			case FUNC_REMOVE_NODE_FROM_NETWORK:    return "REMOVE_NODE_FROM_NETWORK";
+			case FUNC_GET_SUC_NODE_ID:             return "GET_SUC_NODE_ID";
+			case FUNC_REQUEST_NODE_INFO:           return "REQUEST_NODE_INFO";
+			default:                               return "FUNC_0x"+Integer.toHexString(func).toUpperCase();
+		}
+	}
+
+	/**
+	 * One line description of a frame, e.g. "SOF REQ SEND_DATA 01 05 00 13 08 00 E1".
+	 */
+	public static String describe(byte[] frame, int off, int len){
+		if (len <= 0){
+			return "";
+		}
+		int first = frame[off] & 0xFF;
+		if (len == 1){
+			switch (first){
+				case ACK: return "ACK";
+				case NAK: return "NAK";
+				case CAN: return "CAN";
+				default:  return "??? "+toHex(frame, off, len);
+			}
+		}
+		if (first != SOF || len < 5){
+			return "??? "+toHex(frame, off, len);
+		}
+		StringBuilder sb = new StringBuilder();
+		sb.append("SOF ");
+		sb.append((frame[off + 2] & 0xFF) == TYPE_RESPONSE ? "RES " : "REQ ");
+		sb.append(functionName(frame[off + 3] & 0xFF));
+		if (checksum(frame, off + 1, len - 2) != (frame[off + len - 1] & 0xFF)){
+			sb.append(" [CHECKSUM ERROR]");
+		}
+		sb.append("  ").append(toHex(frame, off, len));
+		return sb.toString();
+	}
+
+	public static String toHex(byte[] data, int off, int len){
+		StringBuilder sb = new StringBuilder(len * 3);
+		for (int i = off; i < off + len; i++){
+			if (i > off){
+				sb.append(' ');
+			}
+			int b = data[i] & 0xFF;
+			if (b < 0x10){
+				sb.append('0');
+			}
+			sb.append(Integer.toHexString(b).toUpperCase());
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,146 @@
+package de.smahoo.jwave.console.io;
+
+import java.util.StringTokenizer;
+
+/**
+ * Options of a serial connection, parsed from a connect option like
+ * <code>baud=115200,timeoutMs=100,threshold=1,rxBuffer=16384,readChunk=1024,txBatch=64</code>.
+ */
+public class SerialOptions {
+
+	private int baudrate = 115200;
+	private int receiveTimeoutMs = 100;
+	private int receiveThreshold = 1;
+	private int rxBuffer = 16 * 1024;
+	private int readChunk = 1024;
+	private int txBatch = 64;
+
+	/**
+	 * True if the token is a list of serial options rather than a port or keyword.
+	 */
+	public static boolean isOptions(String token){
+		return token != null && token.indexOf('=') > 0;
+	}
+
+	public static SerialOptions parse(String options) throws IllegalArgumentException {
+		SerialOptions result = new SerialOptions();
+		StringTokenizer tok = new StringTokenizer(options, ",");
+		while (tok.hasMoreTokens()){
+			String option = tok.nextToken().trim();
+			int idx = option.indexOf('=');
+			if (idx <= 0){
+				throw new IllegalArgumentException("invalid serial option ("+option+")");
+			}
+			String key = option.substring(0, idx).trim();
+			String value = option.substring(idx + 1).trim();
+			try {
+				if ("baud".equalsIgnoreCase(key)){
+					result.setBaudrate(Integer.parseInt(value));
+				} else if ("timeoutMs".equalsIgnoreCase(key)){
+					result.setReceiveTimeoutMs(Integer.parseInt(value));
+				} else if ("threshold".equalsIgnoreCase(key)){
+					result.setReceiveThreshold(Integer.parseInt(value));
+				} else if ("rxBuffer".equalsIgnoreCase(key)){
+					result.setRxBuffer(Integer.parseInt(value));
+				} else if ("readChunk".equalsIgnoreCase(key)){
+					result.setReadChunk(Integer.parseInt(value));
+				} else if ("txBatch".equalsIgnoreCase(key)){
+					result.setTxBatch(Integer.parseInt(value));
+				} else {
+					throw new IllegalArgumentException("unknown serial option ("+key+")");
+				}
+			} catch (NumberFormatException exc){
+				throw new IllegalArgumentException("invalid value for serial option "+key+" ("+value+")");
+			}
+		}
+		return result;
+	}
+
+	public int getBaudrate(){
+		return baudrate;
+	}
+
+	public void setBaudrate(int baudrate){
+		if (baudrate <= 0){
+			throw new IllegalArgumentException("baud must be positive");
+		}
+		this.baudrate = baudrate;
+	}
+
+	/**
+	 * How long a read of the port blocks without data; only bounds how fast
+	 * the reader thread notices that it was closed.
+	 */
+	public int getReceiveTimeoutMs(){
+		return receiveTimeoutMs;
+	}
+
+	public void setReceiveTimeoutMs(int receiveTimeoutMs){
+		if (receiveTimeoutMs <= 0){
+			throw new IllegalArgumentException("timeoutMs must be positive");
+		}
+		this.receiveTimeoutMs = receiveTimeoutMs;
+	}
+
+	/**
+	 * Bytes a read of the port waits for (within the timeout), 0 to leave the driver default.
+	 */
+	public int getReceiveThreshold(){
+		return receiveThreshold;
+	}
+
+	public void setReceiveThreshold(int receiveThreshold){
+		if (receiveThreshold < 0){
+			throw new IllegalArgumentException("threshold must not be negative");
+		}
+		this.receiveThreshold = receiveThreshold;
+	}
+
+	/**
+	 * Size of the buffer between the reader thread and the controller.
+	 */
+	public int getRxBuffer(){
+		return rxBuffer;
+	}
+
+	public void setRxBuffer(int rxBuffer){
+		if (rxBuffer < 256){
+			throw new IllegalArgumentException("rxBuffer must be at least 256");
+		}
+		this.rxBuffer = rxBuffer;
+	}
+
+	/**
+	 * Most bytes taken from the port by one read.
+	 */
+	public int getReadChunk(){
+		return readChunk;
+	}
+
+	public void setReadChunk(int readChunk){
+		if (readChunk <= 0){
+			throw new IllegalArgumentException("readChunk must be positive");
+		}
+		this.readChunk = readChunk;
+	}
+
+	/**
+	 * Bytes collected before they are written to the port, 0 writes every
+	 * call through. A complete serial API frame is always written at once.
+	 */
+	public int getTxBatch(){
+		return txBatch;
+	}
+
+	public void setTxBatch(int txBatch){
+		if (txBatch < 0){
+			throw new IllegalArgumentException("txBatch must not be negative");
+		}
+		this.txBatch = txBatch;
+	}
+
+	@Override
+	public String toString(){
+		return "baud="+baudrate+",timeoutMs="+receiveTimeoutMs+",threshold="+receiveThreshold+",rxBuffer="+rxBuffer+",readChunk="+readChunk+",txBatch="+txBatch;
+	}
+}
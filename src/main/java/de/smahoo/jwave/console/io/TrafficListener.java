@@ -0,0 +1,15 @@
+package de.smahoo.jwave.console.io;
+
+/**
+ * Receives the serial frames seen by a {@link TrafficTap}. The frame buffer
+ * is reused by the tap, implementations have to copy what they keep.
+ */
+public interface TrafficListener {
+
+	/** bytes sent by the controller stick, read by the host */
+	int DIRECTION_RX = 0;
+	/** bytes written by the host to the controller stick */
+	int DIRECTION_TX = 1;
+
+	void onFrame(int direction, byte[] frame, int off, int len, long timestampNanos);
+}
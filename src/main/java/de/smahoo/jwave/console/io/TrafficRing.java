@@ -0,0 +1,168 @@
+package de.smahoo.jwave.console.io;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the last frames seen by a {@link TrafficTap} in fixed-size slots of
+ * one off-heap buffer, plus per-direction byte, frame and rate counters.
+ * Recording a frame copies it into its slot and allocates nothing, so the
+ * ring can stay registered all the time.
+ */
+public class TrafficRing implements TrafficListener {
+
+	public static final int DEFAULT_SLOTS = 1024;
+
+	private static final int MAX_FRAME = 0xFF + 2;
+	// direction (1) | length (2) | timestamp (8) | frame
+	private static final int SLOT_SIZE = 11 + MAX_FRAME;
+
+	private static final int TYPE_SOF   = 0;
+	private static final int TYPE_ACK   = 1;
+	private static final int TYPE_NAK   = 2;
+	private static final int TYPE_CAN   = 3;
+	private static final int TYPE_OTHER = 4;
+	private static final String[] TYPE_NAMES = {"SOF", "ACK", "NAK", "CAN", "other"};
+
+	private final ByteBuffer slots;
+	private final int slotCount;
+	private long sequence = 0;
+
+	private final long[] bytes = new long[2];
+	private final long[] frames = new long[2];
+	private final long[][] frameTypes = new long[2][TYPE_NAMES.length];
+	private final RateMeter[] byteRates = {new RateMeter(), new RateMeter()};
+	private final RateMeter[] frameRates = {new RateMeter(), new RateMeter()};
+
+	public TrafficRing(){
+		this(DEFAULT_SLOTS);
+	}
+
+	public TrafficRing(int slotCount){
+		this.slotCount = slotCount;
+		this.slots = ByteBuffer.allocateDirect(slotCount * SLOT_SIZE);
+	}
+
+	public synchronized void onFrame(int direction, byte[] frame, int off, int len, long timestampNanos) {
+		int stored = Math.min(len, MAX_FRAME);
+		int base = (int)(sequence % slotCount) * SLOT_SIZE;
+		slots.put(base, (byte)direction);
+		slots.putShort(base + 1, (short)stored);
+		slots.putLong(base + 3, timestampNanos);
+		for (int i = 0; i < stored; i++){
+			slots.put(base + 11 + i, frame[off + i]);
+		}
+		sequence++;
+
+		bytes[direction] += len;
+		frames[direction]++;
+		frameTypes[direction][typeOf(frame, off, len)]++;
+		byteRates[direction].add(len, timestampNanos);
+		frameRates[direction].add(1, timestampNanos);
+	}
+
+	/**
+	 * Number of frames recorded since the ring was created.
+	 */
+	public synchronized long getSequence(){
+		return sequence;
+	}
+
+	/**
+	 * Decodes the frames with sequence numbers from (inclusive) up to the
+	 * current sequence, at most the last slotCount of them.
+	 */
+	public List<String> format(long from){
+		return format(from, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Decodes the frames with sequence numbers from (inclusive) to (exclusive)
+	 * that are still in the ring. Only copying the slots holds the lock that
+	 * {@link #onFrame} needs; decoding and formatting happen outside of it.
+	 */
+	public List<String> format(long from, long to){
+		byte[] copy;
+		int count;
+		synchronized (this){
+			long end = Math.min(to, sequence);
+			long start = Math.max(from, Math.max(0, sequence - slotCount));
+			count = (int)Math.max(0, end - start);
+			copy = new byte[count * SLOT_SIZE];
+			// the slots of start .. end-1 are at most two runs of the buffer
+			int first = (int)(start % slotCount);
+			int run = Math.min(count, slotCount - first);
+			ByteBuffer src = slots.duplicate();
+			src.position(first * SLOT_SIZE);
+			src.get(copy, 0, run * SLOT_SIZE);
+			if (run < count){
+				src.position(0);
+				src.get(copy, run * SLOT_SIZE, (count - run) * SLOT_SIZE);
+			}
+		}
+		ByteBuffer copied = ByteBuffer.wrap(copy);
+		List<String> lines = new ArrayList<String>(count);
+		long nowNanos = System.nanoTime();
+		long nowMillis = System.currentTimeMillis();
+		for (int i = 0; i < count; i++){
+			int base = i * SLOT_SIZE;
+			int direction = copied.get(base);
+			int len = copied.getShort(base + 1);
+			long timestamp = copied.getLong(base + 3);
+			long millis = nowMillis - (nowNanos - timestamp) / 1000000L;
+			lines.add(String.format("%tT.%<tL %s %s", millis, direction == DIRECTION_RX ? "<<" : ">>",
+					SerialFrames.describe(copy, base + 11, len)));
+		}
+		return lines;
+	}
+
+	/**
+	 * The last n frames.
+	 */
+	public List<String> formatLast(int n){
+		return format(Math.max(0, getSequence() - n));
+	}
+
+	public String getStatistics(){
+		long now = System.nanoTime();
+		long[] byteCounts;
+		long[] frameCounts;
+		long[][] typeCounts = new long[2][];
+		double[] byteRate = new double[2];
+		double[] frameRate = new double[2];
+		// copy the counters, format without holding the lock of onFrame
+		synchronized (this){
+			byteCounts = bytes.clone();
+			frameCounts = frames.clone();
+			for (int direction = 0; direction < 2; direction++){
+				typeCounts[direction] = frameTypes[direction].clone();
+				byteRate[direction] = byteRates[direction].getRate(now);
+				frameRate[direction] = frameRates[direction].getRate(now);
+			}
+		}
+		StringBuilder sb = new StringBuilder();
+		sb.append("                     RX (stick -> host)      TX (host -> stick)").append("\r\n");
+		sb.append(String.format("  bytes            %20d    %20d", byteCounts[DIRECTION_RX], byteCounts[DIRECTION_TX])).append("\r\n");
+		sb.append(String.format("  frames           %20d    %20d", frameCounts[DIRECTION_RX], frameCounts[DIRECTION_TX])).append("\r\n");
+		for (int type = 0; type < TYPE_NAMES.length; type++){
+			sb.append(String.format("    %-14s %20d    %20d", TYPE_NAMES[type], typeCounts[DIRECTION_RX][type], typeCounts[DIRECTION_TX][type])).append("\r\n");
+		}
+		sb.append(String.format("  bytes/s          %20.1f    %20.1f", byteRate[DIRECTION_RX], byteRate[DIRECTION_TX])).append("\r\n");
+		sb.append(String.format("  frames/s         %20.1f    %20.1f", frameRate[DIRECTION_RX], frameRate[DIRECTION_TX]));
+		return sb.toString();
+	}
+
+	private static int typeOf(byte[] frame, int off, int len){
+		if (len == 0){
+			return TYPE_OTHER;
+		}
+		switch (frame[off] & 0xFF){
+			case SerialFrames.SOF: return len > 1 ? TYPE_SOF : TYPE_OTHER;
+			case SerialFrames.ACK: return TYPE_ACK;
+			case SerialFrames.NAK: return TYPE_NAK;
+			case SerialFrames.CAN: return TYPE_CAN;
+			default:               return TYPE_OTHER;
+		}
+	}
+}
@@ -0,0 +1,140 @@
+package de.smahoo.jwave.console.io;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Sits between the serial port streams and the controller. Bytes pass
+ * through unchanged; per direction they are assembled into serial API frames
+ * (SOF frames, ACK, NAK, CAN) in a preallocated buffer and handed to the
+ * registered listeners.
+ */
+public class TrafficTap {
+
+	private final List<TrafficListener> listeners = new CopyOnWriteArrayList<TrafficListener>();
+	private final FrameAssembler rx = new FrameAssembler(TrafficListener.DIRECTION_RX);
+	private final FrameAssembler tx = new FrameAssembler(TrafficListener.DIRECTION_TX);
+
+	public void addListener(TrafficListener listener){
+		listeners.add(listener);
+	}
+
+	public void removeListener(TrafficListener listener){
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Wraps the stream the controller reads from.
+	 */
+	public InputStream wrap(InputStream in){
+		rx.reset();
+		return new FilterInputStream(in) {
+			@Override
+			public int read() throws IOException {
+				int b = super.read();
+				if (b >= 0){
+					rx.add(b);
+				}
+				return b;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				int n = super.read(b, off, len);
+				if (n > 0){
+					rx.add(b, off, n);
+				}
+				return n;
+			}
+		};
+	}
+
+	/**
+	 * Wraps the stream the controller writes to.
+	 */
+	public OutputStream wrap(OutputStream out){
+		tx.reset();
+		return new FilterOutputStream(out) {
+			@Override
+			public void write(int b) throws IOException {
+				out.write(b);
+				tx.add(b & 0xFF);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				out.write(b, off, len);
+				tx.add(b, off, len);
+			}
+		};
+	}
+
+	private void fireFrame(int direction, byte[] frame, int len){
+		if (listeners.isEmpty()){
+			return;
+		}
+		long now = System.nanoTime();
+		for (TrafficListener listener : listeners){
+			listener.onFrame(direction, frame, 0, len, now);
+		}
+	}
+
+	/**
+	 * Splits one direction of the byte stream into frames.
+	 */
+	private class FrameAssembler {
+
+		private final int direction;
+		private final byte[] frame = new byte[0xFF + 2];
+		private int pos = 0;
+		private int expected = 0;
+
+		FrameAssembler(int direction){
+			this.direction = direction;
+		}
+
+		synchronized void reset(){
+			pos = 0;
+			expected = 0;
+		}
+
+		synchronized void add(byte[] b, int off, int len){
+			for (int i = off; i < off + len; i++){
+				add(b[i] & 0xFF);
+			}
+		}
+
+		synchronized void add(int b){
+			if (pos == 0){
+				frame[pos++] = (byte)b;
+				if (b != SerialFrames.SOF){
+					// ACK, NAK, CAN or a stray byte
+					complete();
+				}
+				return;
+			}
+			frame[pos++] = (byte)b;
+			if (pos == 2){
+				expected = b + 2;
+				if (b == 0){
+					complete();
+				}
+				return;
+			}
+			if (pos == expected){
+				complete();
+			}
+		}
+
+		private void complete(){
+			fireFrame(direction, frame, pos);
+			pos = 0;
+			expected = 0;
+		}
+	}
+}
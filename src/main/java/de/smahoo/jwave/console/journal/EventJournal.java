@@ -0,0 +1,145 @@
+package de.smahoo.jwave.console.journal;
+
+import de.smahoo.jwave.console.event.EventConsumer;
+import de.smahoo.jwave.console.io.TrafficListener;
+import de.smahoo.jwave.console.log.Log;
+import de.smahoo.jwave.event.JWaveEvent;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Append-only binary journal of serial frames and controller events. The
+ * file is written through memory-mapped segments, so recording a frame or
+ * an event is a copy into the mapped buffer; a new segment is only mapped
+ * when the current one is full.
+ *
+ * <pre>
+ * header : magic "JWJ1" | version (int) | start time millis (long)
+ * record : type (byte) | nanos since start (long) | length (int) | payload
+ * </pre>
+ *
+ * A record type of 0 marks the end of the written data.
+ */
+public class EventJournal implements TrafficListener, EventConsumer {
+
+	private static final Log LOG = Log.get("journal");
+
+	public static final int MAGIC = 0x4A574A31;	// "JWJ1"
+	public static final int VERSION = 1;
+	public static final int HEADER_SIZE = 16;
+	public static final int RECORD_HEADER_SIZE = 13;
+
+	public static final byte RECORD_END   = 0;
+	public static final byte RECORD_RX    = 1;
+	public static final byte RECORD_TX    = 2;
+	public static final byte RECORD_EVENT = 3;
+
+	static final Charset CHARSET = Charset.forName("UTF-8");
+
+	private static final long SEGMENT_SIZE = 16L * 1024 * 1024;
+	private static final int MAX_EVENT_LENGTH = 4096;
+
+	private final File file;
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	private final long startNanos;
+	private MappedByteBuffer segment;
+	private long segmentStart;
+	private long records = 0;
+	private boolean closed = false;
+
+	public EventJournal(File file) throws IOException {
+		this.file = file;
+		this.raf = new RandomAccessFile(file, "rw");
+		this.channel = raf.getChannel();
+		raf.setLength(0);
+		this.startNanos = System.nanoTime();
+		segmentStart = 0;
+		segment = channel.map(FileChannel.MapMode.READ_WRITE, segmentStart, SEGMENT_SIZE);
+		segment.putInt(MAGIC);
+		segment.putInt(VERSION);
+		segment.putLong(System.currentTimeMillis());
+	}
+
+	public File getFile(){
+		return file;
+	}
+
+	public synchronized long getRecords(){
+		return records;
+	}
+
+	public synchronized long getSize(){
+		return segmentStart + segment.position();
+	}
+
+	public void onFrame(int direction, byte[] frame, int off, int len, long timestampNanos) {
+		append(direction == TrafficListener.DIRECTION_RX ? RECORD_RX : RECORD_TX, timestampNanos, frame, off, len);
+	}
+
+	public void onEvent(JWaveEvent event, long receivedMillis, long receivedNanos) {
+		byte[] text = describe(event).getBytes(CHARSET);
+		append(RECORD_EVENT, receivedNanos, text, 0, Math.min(text.length, MAX_EVENT_LENGTH));
+	}
+
+	protected String describe(JWaveEvent event){
+		return event.getEventType()+" "+event.getClass().getSimpleName()+" "+event;
+	}
+
+	public synchronized void append(byte type, long timestampNanos, byte[] data, int off, int len){
+		if (closed){
+			return;
+		}
+		try {
+			// keep room for the record and the end marker
+			if (segment.remaining() < RECORD_HEADER_SIZE + len + 1){
+				remap();
+			}
+		} catch (IOException exc){
+			LOG.error("Journal {} stopped ({})", file.getName(), exc.getMessage());
+			closeQuietly();
+			return;
+		}
+		segment.put(type);
+		segment.putLong(timestampNanos - startNanos);
+		segment.putInt(len);
+		segment.put(data, off, len);
+		records++;
+	}
+
+	private void remap() throws IOException {
+		segment.force();
+		segmentStart += segment.position();
+		segment = channel.map(FileChannel.MapMode.READ_WRITE, segmentStart, SEGMENT_SIZE);
+	}
+
+	public synchronized void close() throws IOException {
+		if (closed){
+			return;
+		}
+		closed = true;
+		long end = segmentStart + segment.position();
+		segment.put(RECORD_END);
+		segment.force();
+		try {
+			channel.truncate(end + 1);
+		} catch (IOException exc){
+			// some platforms refuse to truncate mapped files, the end marker is enough
+		}
+		channel.close();
+		raf.close();
+	}
+
+	private void closeQuietly(){
+		try {
+			close();
+		} catch (IOException exc){
+			// already reported
+		}
+	}
+}
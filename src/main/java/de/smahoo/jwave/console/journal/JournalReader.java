@@ -0,0 +1,106 @@
+package de.smahoo.jwave.console.journal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Sequential reader of an {@link EventJournal} file. The record fields are
+ * valid until the next call of {@link #next()}.
+ */
+public class JournalReader {
+
+	private final RandomAccessFile raf;
+	private final MappedByteBuffer buffer;
+	private final long startMillis;
+
+	private byte type;
+	private long nanos;
+	private byte[] data = new byte[256];
+	private int length;
+
+	public JournalReader(File file) throws IOException {
+		raf = new RandomAccessFile(file, "r");
+		FileChannel channel = raf.getChannel();
+		if (channel.size() < EventJournal.HEADER_SIZE){
+			raf.close();
+			throw new IOException("file is too small to be a journal");
+		}
+		buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		if (buffer.getInt() != EventJournal.MAGIC){
+			raf.close();
+			throw new IOException("not a journal file");
+		}
+		int version = buffer.getInt();
+		if (version != EventJournal.VERSION){
+			raf.close();
+			throw new IOException("unsupported journal version "+version);
+		}
+		startMillis = buffer.getLong();
+	}
+
+	public long getStartMillis(){
+		return startMillis;
+	}
+
+	/**
+	 * Moves to the next record. Returns false at the end of the journal.
+	 */
+	public boolean next(){
+		if (buffer.remaining() < EventJournal.RECORD_HEADER_SIZE){
+			return false;
+		}
+		try {
+			type = buffer.get();
+			if (type == EventJournal.RECORD_END){
+				return false;
+			}
+			nanos = buffer.getLong();
+			length = buffer.getInt();
+			if (length < 0 || length > buffer.remaining()){
+				return false;
+			}
+			if (length > data.length){
+				data = new byte[Math.max(length, data.length * 2)];
+			}
+			buffer.get(data, 0, length);
+			return true;
+		} catch (BufferUnderflowException exc){
+			return false;
+		}
+	}
+
+	public byte getType(){
+		return type;
+	}
+
+	/**
+	 * Nanoseconds since the journal was started.
+	 */
+	public long getNanos(){
+		return nanos;
+	}
+
+	public byte[] getData(){
+		return data;
+	}
+
+	public int getLength(){
+		return length;
+	}
+
+	public String getText(){
+		return new String(data, 0, length, EventJournal.CHARSET);
+	}
+
+	public void close(){
+		try {
+			raf.close();
+		} catch (IOException exc){
+			// nothing to do
+		}
+	}
+}
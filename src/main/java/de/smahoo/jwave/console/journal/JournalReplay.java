@@ -0,0 +1,123 @@
+package de.smahoo.jwave.console.journal;
+
+import de.smahoo.jwave.console.io.BytePipe;
+import de.smahoo.jwave.console.log.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Plays the frames the controller stick sent in a recorded session back as
+ * an input stream, with the recorded timing divided by the given speed
+ * factor (0 = as fast as possible). What the host writes is counted and
+ * discarded.
+ */
+public class JournalReplay {
+
+	private static final Log LOG = Log.get("journal");
+
+	private final File file;
+	private final double speed;
+	private final BytePipe pipe = new BytePipe();
+	private final AtomicLong hostBytes = new AtomicLong();
+	private final OutputStream hostOut = new OutputStream() {
+		@Override
+		public void write(int b) {
+			hostBytes.incrementAndGet();
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			hostBytes.addAndGet(len);
+		}
+	};
+
+	private Thread thread = null;
+	private volatile boolean running = false;
+	private volatile long frames = 0;
+	private volatile long events = 0;
+
+	public JournalReplay(File file, double speed){
+		this.file = file;
+		this.speed = speed;
+	}
+
+	public InputStream getInputStream(){
+		return pipe.getInputStream();
+	}
+
+	public OutputStream getOutputStream(){
+		return hostOut;
+	}
+
+	/**
+	 * Opens the journal and starts feeding it. Fails right away if the file
+	 * is not a readable journal.
+	 */
+	public synchronized void start() throws IOException {
+		final JournalReader reader = new JournalReader(file);
+		running = true;
+		thread = new Thread(new Runnable() {
+			public void run() {
+				replay(reader);
+			}
+		}, "jwave-replay");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public boolean isRunning(){
+		return running;
+	}
+
+	public synchronized void close(){
+		running = false;
+		if (thread != null){
+			thread.interrupt();
+			thread = null;
+		}
+		pipe.close();
+	}
+
+	private void replay(JournalReader reader){
+		long startNanos = System.nanoTime();
+		long startMillis = System.currentTimeMillis();
+		try {
+			OutputStream out = pipe.getOutputStream();
+			while (running && reader.next()){
+				if (reader.getType() == EventJournal.RECORD_EVENT){
+					events++;
+					continue;
+				}
+				if (reader.getType() != EventJournal.RECORD_RX){
+					continue;
+				}
+				if (speed > 0){
+					long due = startNanos + (long)(reader.getNanos() / speed);
+					long wait = due - System.nanoTime();
+					if (wait > 0){
+						Thread.sleep(wait / 1000000, (int)(wait % 1000000));
+					}
+				}
+				out.write(reader.getData(), 0, reader.getLength());
+				frames++;
+			}
+			if (running){
+				LOG.info("Replay of {} finished ({} frames, {} recorded events, {} ms)", file.getName(), frames, events,
+						System.currentTimeMillis() - startMillis);
+			}
+		} catch (InterruptedException exc){
+			// replay was stopped
+		} catch (IOException exc){
+			if (running){
+				LOG.warn("Replay of {} stopped ({})", file.getName(), exc.getMessage());
+			}
+		} finally {
+			reader.close();
+			running = false;
+		}
+	}
+}
@@ -0,0 +1,150 @@
+package de.smahoo.jwave.console.log;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Logger of one subsystem of the console ("io", "send", "history", ...).
+ * Messages take their arguments as parameters, "{}" in the message is
+ * replaced by the next argument:
+ * <pre>
+ *   LOG.warn("{}IO-ERROR - {}", prefix, message);
+ * </pre>
+ * A disabled level costs one comparison, nothing is formatted. Enabled
+ * messages are handed to the {@link LogWriter}, which formats and writes
+ * them on its own thread, so the arguments must not change after the call.
+ * <p>
+ * Every subsystem logs at the default level unless a level was set for it
+ * ('set log &lt;level&gt; [subsystem]').
+ */
+public final class Log {
+
+	public static final String LEVEL_PROPERTY = "jwave.console.logLevel";
+	public static final String FORMAT_PROPERTY = "jwave.console.logFormat";
+	public static final String FILE_PROPERTY = "jwave.console.logFile";
+	public static final LogLevel DEFAULT_LEVEL = LogLevel.INFO;
+
+	private static final Map<String, Log> logs = new ConcurrentHashMap<String, Log>();
+	private static final LogWriter writer = new LogWriter(Integer.getInteger(LogWriter.CAPACITY_PROPERTY, LogWriter.DEFAULT_CAPACITY));
+	private static volatile LogLevel defaultLevel = DEFAULT_LEVEL;
+
+	static {
+		LogLevel level = LogLevel.parse(System.getProperty(LEVEL_PROPERTY, DEFAULT_LEVEL.name()));
+		if (level != null){
+			defaultLevel = level;
+		}
+		writer.setJson("json".equalsIgnoreCase(System.getProperty(FORMAT_PROPERTY)));
+		String file = System.getProperty(FILE_PROPERTY);
+		if (file != null){
+			try {
+				writer.setFile(file);
+			} catch (Exception exc){
+				System.out.println("Unable to open log file '"+file+"' ("+exc.getMessage()+"), logging to the console");
+			}
+		}
+	}
+
+	private final String name;
+	// level set for this subsystem, null for the default level
+	private volatile LogLevel level = null;
+	private volatile int threshold;
+
+	private Log(String name){
+		this.name = name;
+		this.threshold = defaultLevel.ordinal();
+	}
+
+	public static Log get(String name){
+		Log log = logs.get(name);
+		if (log == null){
+			synchronized (logs){
+				log = logs.get(name);
+				if (log == null){
+					log = new Log(name);
+					logs.put(name, log);
+				}
+			}
+		}
+		return log;
+	}
+
+	/**
+	 * Sets the default level and drops the levels set for single subsystems.
+	 */
+	public static void setLevel(LogLevel level){
+		synchronized (logs){
+			defaultLevel = level;
+			for (Log log : logs.values()){
+				log.level = null;
+				log.threshold = level.ordinal();
+			}
+		}
+	}
+
+	public static void setLevel(String name, LogLevel level){
+		synchronized (logs){
+			Log log = get(name);
+			log.level = level;
+			log.threshold = level.ordinal();
+		}
+	}
+
+	public static LogLevel getDefaultLevel(){
+		return defaultLevel;
+	}
+
+	public static LogWriter getWriter(){
+		return writer;
+	}
+
+	/**
+	 * Level per subsystem, ordered by name.
+	 */
+	public static Map<String, LogLevel> getLevels(){
+		Map<String, LogLevel> levels = new TreeMap<String, LogLevel>();
+		for (Log log : logs.values()){
+			levels.put(log.name, log.getLevel());
+		}
+		return levels;
+	}
+
+	public String getName(){
+		return name;
+	}
+
+	public LogLevel getLevel(){
+		LogLevel current = level;
+		return current == null ? defaultLevel : current;
+	}
+
+	public boolean isEnabled(LogLevel level){
+		return level != LogLevel.OFF && level.ordinal() >= threshold;
+	}
+
+	public void log(LogLevel level, String message, Object... args){
+		if (isEnabled(level)){
+			writer.append(level, name, message, args);
+		}
+	}
+
+	public void trace(String message, Object... args){
+		log(LogLevel.TRACE, message, args);
+	}
+
+	public void debug(String message, Object... args){
+		log(LogLevel.DEBUG, message, args);
+	}
+
+	public void info(String message, Object... args){
+		log(LogLevel.INFO, message, args);
+	}
+
+	public void warn(String message, Object... args){
+		log(LogLevel.WARN, message, args);
+	}
+
+	public void error(String message, Object... args){
+		log(LogLevel.ERROR, message, args);
+	}
+}
@@ -0,0 +1,24 @@
+package de.smahoo.jwave.console.log;
+
+/**
+ * Levels of the console log, from the most verbose to none at all.
+ */
+public enum LogLevel {
+
+	TRACE,
+	DEBUG,
+	INFO,
+	WARN,
+	ERROR,
+	/** nothing is logged */
+	OFF;
+
+	public static LogLevel parse(String value){
+		for (LogLevel level : values()){
+			if (level.name().equalsIgnoreCase(value)){
+				return level;
+			}
+		}
+		return null;
+	}
+}
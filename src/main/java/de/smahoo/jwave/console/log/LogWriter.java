@@ -0,0 +1,370 @@
+package de.smahoo.jwave.console.log;
+
+import de.smahoo.jwave.console.http.Json;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes log messages on the thread jwave-log. Loggers put their messages
+ * into a ring of preallocated slots and return; the writer takes all
+ * waiting messages at once, formats them into one byte buffer and writes
+ * and flushes it with a single call. If the ring is full the message is
+ * dropped and counted, a logger never waits for the console or the disk.
+ * <p>
+ * Lines are plain text (time, level, subsystem, message) or JSON objects,
+ * one per line. They go to the console unless a log file is set.
+ */
+public class LogWriter implements Runnable {
+
+	public static final String CAPACITY_PROPERTY = "jwave.console.logBuffer";
+	public static final int DEFAULT_CAPACITY = 4096;
+
+	private static final int BUFFER_BYTES = 64 * 1024;
+	private static final long CLOSE_TIMEOUT_MS = 2000;
+
+	private final int capacity;
+	private final long[] times;
+	private final LogLevel[] levels;
+	private final String[] names;
+	private final String[] threads;
+	private final String[] messages;
+	private final Object[][] args;
+	private int head = 0;
+	private int count = 0;
+	private boolean closed = false;
+	private Thread thread = null;
+
+	// used by the writer thread only
+	private final StringBuilder line = new StringBuilder(256);
+	private final StringBuilder text = new StringBuilder(256);
+	private final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_BYTES);
+	private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	private final TimeZone timeZone = TimeZone.getDefault();
+
+	private volatile boolean json = false;
+	private OutputStream file = null;
+	private String filePath = null;
+
+	private long logged = 0;
+	private long dropped = 0;
+	private volatile long written = 0;
+	private volatile long batches = 0;
+	private volatile long writtenBytes = 0;
+	private volatile int largestBatch = 0;
+	private volatile long writeErrors = 0;
+
+	public LogWriter(int capacity){
+		this.capacity = capacity;
+		times = new long[capacity];
+		levels = new LogLevel[capacity];
+		names = new String[capacity];
+		threads = new String[capacity];
+		messages = new String[capacity];
+		args = new Object[capacity][];
+	}
+
+	/**
+	 * Queues a message, false if it was dropped because the ring is full.
+	 */
+	boolean append(LogLevel level, String name, String message, Object[] messageArgs){
+		long now = System.currentTimeMillis();
+		String threadName = Thread.currentThread().getName();
+		synchronized (this){
+			if (closed || count == capacity){
+				dropped++;
+				return false;
+			}
+			int slot = (head + count) % capacity;
+			times[slot] = now;
+			levels[slot] = level;
+			names[slot] = name;
+			threads[slot] = threadName;
+			messages[slot] = message;
+			args[slot] = messageArgs;
+			count++;
+			logged++;
+			if (thread == null){
+				thread = new Thread(this, "jwave-log");
+				thread.setDaemon(true);
+				thread.start();
+			} else if (count == 1){
+				notifyAll();
+			}
+			return true;
+		}
+	}
+
+	public void run() {
+		while (true){
+			int start;
+			int n;
+			synchronized (this){
+				while (count == 0 && !closed){
+					try {
+						wait();
+					} catch (InterruptedException exc){
+						return;
+					}
+				}
+				if (count == 0){
+					return;
+				}
+				start = head;
+				n = count;
+			}
+			// the slots start .. start+n-1 belong to this thread until head moves
+			write(start, n);
+			synchronized (this){
+				head = (head + n) % capacity;
+				count -= n;
+				notifyAll();
+			}
+		}
+	}
+
+	private synchronized OutputStream getOutput(){
+		return file != null ? file : System.out;
+	}
+
+	private void write(int start, int n){
+		OutputStream out = getOutput();
+		try {
+			for (int i = 0; i < n; i++){
+				int slot = (start + i) % capacity;
+				line.setLength(0);
+				if (json){
+					formatJson(slot);
+				} else {
+					formatText(slot);
+				}
+				line.append("\r\n");
+				encode(out);
+				args[slot] = null;
+				messages[slot] = null;
+			}
+			drain(out);
+			out.flush();
+			written += n;
+			batches++;
+			largestBatch = Math.max(largestBatch, n);
+		} catch (IOException exc){
+			writeErrors++;
+			bytes.clear();
+		}
+	}
+
+	private void encode(OutputStream out) throws IOException {
+		CharBuffer chars = CharBuffer.wrap(line);
+		encoder.reset();
+		while (encoder.encode(chars, bytes, true) == CoderResult.OVERFLOW){
+			drain(out);
+		}
+	}
+
+	private void drain(OutputStream out) throws IOException {
+		if (bytes.position() > 0){
+			out.write(bytes.array(), 0, bytes.position());
+			writtenBytes += bytes.position();
+			bytes.clear();
+		}
+	}
+
+	private void formatText(int slot){
+		appendTime(times[slot]);
+		line.append(' ').append(levels[slot].name());
+		for (int i = levels[slot].name().length(); i < 5; i++){
+			line.append(' ');
+		}
+		line.append(" [").append(names[slot]).append("] ");
+		format(line, messages[slot], args[slot]);
+	}
+
+	private void formatJson(int slot){
+		text.setLength(0);
+		format(text, messages[slot], args[slot]);
+		line.append("{\"time\":").append(times[slot]);
+		line.append(",\"level\":\"").append(levels[slot].name()).append('"');
+		line.append(",\"log\":");
+		Json.write(line, names[slot]);
+		line.append(",\"thread\":");
+		Json.write(line, threads[slot]);
+		line.append(",\"message\":");
+		Json.write(line, text.toString());
+		Object[] a = args[slot];
+		if (a != null && a.length > 0 && a[a.length - 1] instanceof Throwable){
+			line.append(",\"error\":");
+			Json.write(line, a[a.length - 1].toString());
+		}
+		line.append('}');
+	}
+
+	// HH:mm:ss.SSS without a formatter
+	private void appendTime(long millis){
+		long local = millis + timeZone.getOffset(millis);
+		long ms = Math.floorMod(local, TimeUnit.DAYS.toMillis(1));
+		appendDigits((int)(ms / 3600000), 2);
+		line.append(':');
+		appendDigits((int)(ms / 60000 % 60), 2);
+		line.append(':');
+		appendDigits((int)(ms / 1000 % 60), 2);
+		line.append('.');
+		appendDigits((int)(ms % 1000), 3);
+	}
+
+	private void appendDigits(int value, int digits){
+		if (digits == 3 && value < 100){
+			line.append('0');
+		}
+		if (value < 10){
+			line.append('0');
+		}
+		line.append(value);
+	}
+
+	/**
+	 * Replaces each "{}" by the next argument. A throwable left over after the
+	 * last "{}" is appended in parentheses.
+	 */
+	static void format(StringBuilder sb, String message, Object[] args){
+		int next = 0;
+		int pos = 0;
+		if (args != null){
+			while (next < args.length){
+				int idx = message.indexOf("{}", pos);
+				if (idx < 0){
+					break;
+				}
+				sb.append(message, pos, idx).append(args[next++]);
+				pos = idx + 2;
+			}
+		}
+		sb.append(message, pos, message.length());
+		if (args != null && next < args.length && args[args.length - 1] instanceof Throwable){
+			sb.append(" (").append(args[args.length - 1]).append(')');
+		}
+	}
+
+	public void setJson(boolean json){
+		this.json = json;
+	}
+
+	public boolean isJson(){
+		return json;
+	}
+
+	/**
+	 * Appends the log to the file, null logs to the console again.
+	 */
+	public void setFile(String path) throws IOException {
+		OutputStream newFile = path == null ? null : new FileOutputStream(path, true);
+		OutputStream oldFile;
+		synchronized (this){
+			oldFile = file;
+			file = newFile;
+			filePath = path;
+		}
+		if (oldFile != null){
+			// messages of a running batch may still go to the old file
+			flush();
+			oldFile.close();
+		}
+	}
+
+	public synchronized String getFile(){
+		return filePath;
+	}
+
+	/**
+	 * Waits until the queued messages are written.
+	 */
+	public void flush(){
+		long deadline = System.currentTimeMillis() + CLOSE_TIMEOUT_MS;
+		synchronized (this){
+			while (count > 0 && thread != null && thread.isAlive()){
+				long wait = deadline - System.currentTimeMillis();
+				if (wait <= 0){
+					return;
+				}
+				try {
+					wait(wait);
+				} catch (InterruptedException exc){
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes the queued messages and stops the thread.
+	 */
+	public void close(){
+		flush();
+		Thread writerThread;
+		synchronized (this){
+			closed = true;
+			notifyAll();
+			writerThread = thread;
+		}
+		if (writerThread != null){
+			try {
+				writerThread.join(CLOSE_TIMEOUT_MS);
+			} catch (InterruptedException exc){
+				Thread.currentThread().interrupt();
+			}
+		}
+		synchronized (this){
+			if (file != null){
+				try {
+					file.close();
+				} catch (IOException exc){
+					// nothing left to log it to
+				}
+				file = null;
+				filePath = null;
+			}
+		}
+	}
+
+	public String getStatistics(){
+		long loggedNow;
+		long droppedNow;
+		int queued;
+		synchronized (this){
+			loggedNow = logged;
+			droppedNow = dropped;
+			queued = count;
+		}
+		StringBuilder sb = new StringBuilder();
+		sb.append("--------------------------------------------------").append("\r\n");
+		sb.append("                  Log").append("\r\n");
+		sb.append("--------------------------------------------------").append("\r\n");
+		sb.append("             default level = ").append(Log.getDefaultLevel()).append("\r\n");
+		sb.append("                    format = ").append(json ? "json" : "text").append("\r\n");
+		sb.append("                    output = ").append(getFile() == null ? "console" : getFile()).append("\r\n");
+		sb.append("                    logged = ").append(loggedNow).append("\r\n");
+		sb.append("                   written = ").append(written).append(" (").append(writtenBytes).append(" bytes)").append("\r\n");
+		sb.append("                   batches = ").append(batches).append(batches == 0 ? "" : String.format(" (%.1f lines per write, largest %d)", written / (double)batches, largestBatch)).append("\r\n");
+		sb.append("                    queued = ").append(queued).append(" of ").append(capacity).append("\r\n");
+		sb.append("                   dropped = ").append(droppedNow).append("\r\n");
+		sb.append("              write errors = ").append(writeErrors).append("\r\n");
+		for (Map.Entry<String, LogLevel> entry : Log.getLevels().entrySet()){
+			sb.append(String.format("%26s = %s", "level "+entry.getKey(), entry.getValue())).append("\r\n");
+		}
+		sb.append("--------------------------------------------------");
+		return sb.toString();
+	}
+}
@@ -0,0 +1,436 @@
+package de.smahoo.jwave.console.poll;
+
+import de.smahoo.jwave.cmd.JWaveCommand;
+import de.smahoo.jwave.cmd.JWaveNodeCommand;
+import de.smahoo.jwave.console.cmd.SendTemplate;
+import de.smahoo.jwave.console.history.ReportDecoder;
+import de.smahoo.jwave.console.sched.ReplyTracker;
+import de.smahoo.jwave.console.sched.SendCallback;
+import de.smahoo.jwave.console.sched.SendPriority;
+import de.smahoo.jwave.console.sched.SendResult;
+import de.smahoo.jwave.console.sched.SendScheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+/**
+ * Periodic polls of one controller ('poll ... every ...'). Every schedule
+ * polls one node; its due times live in a {@link TimingWheel}, so thousands
+ * of schedules cost one thread and O(1) per insert and cancel. The first
+ * poll of a schedule is placed at a random point of its interval and every
+ * further one is moved by up to {@link #JITTER_PERCENT} percent of the
+ * interval, so schedules created together do not fire in lockstep.
+ * <p>
+ * Polls go through the {@link SendScheduler} with low priority. A GET is
+ * sent through the {@link ReplyTracker}, so a poll ends with the node's
+ * report (or after at most {@link ReplyTracker#DEFAULT_TIMEOUT_MS}, and never
+ * later than its interval). When more
+ * than {@link #DEEP_QUEUE} sends are waiting there, due polls are postponed
+ * and the postponement doubles (up to {@link #MAX_BACKOFF} intervals) until
+ * the queue is shallow again. A poll whose previous GET has not finished yet
+ * is skipped. The latest result of every schedule, with the decoded report,
+ * is kept and handed to the registered {@link PollListener}s.
+ */
+public class PollEngine implements Runnable {
+
+	public static final long MIN_INTERVAL_MS = 1000;
+	public static final int JITTER_PERCENT = 10;
+	public static final int DEEP_QUEUE = 32;
+	public static final int MAX_BACKOFF = 8;
+
+	private static final long TICK_MS = 50;
+	private static final int WHEEL_SLOTS = 512;
+	private static final AtomicInteger nextId = new AtomicInteger(1);
+
+	private final String name;
+	private final SendScheduler scheduler;
+	private final ReplyTracker replies;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition changed = lock.newCondition();
+	private final TimingWheel<Schedule> wheel;
+	private final Map<Integer, Schedule> schedules = new TreeMap<Integer, Schedule>();
+	private final List<PollListener> listeners = new CopyOnWriteArrayList<PollListener>();
+
+	private long fired = 0;
+	private long skipped = 0;
+	private long postponed = 0;
+	private long rejected = 0;
+
+	private Thread thread = null;
+	private volatile boolean running = false;
+
+	public PollEngine(String name, SendScheduler scheduler, ReplyTracker replies){
+		this.name = name;
+		this.scheduler = scheduler;
+		this.replies = replies;
+		wheel = new TimingWheel<Schedule>(TimeUnit.MILLISECONDS.toNanos(TICK_MS), WHEEL_SLOTS, System.nanoTime());
+	}
+
+	public void addListener(PollListener listener){
+		listeners.add(listener);
+	}
+
+	public void removeListener(PollListener listener){
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Polls the template's node every intervalMs (at least {@link #MIN_INTERVAL_MS})
+	 * until the schedule is cancelled. Returns the id of the schedule.
+	 *
+	 * @param command short description for listings, e.g. class and command name
+	 */
+	public int add(SendTemplate template, String command, long intervalMs){
+		if (intervalMs < MIN_INTERVAL_MS){
+			throw new IllegalArgumentException("interval must be at least "+MIN_INTERVAL_MS+" ms");
+		}
+		Schedule schedule = new Schedule(nextId.getAndIncrement(), template.withPriority(SendPriority.LOW), command, TimeUnit.MILLISECONDS.toNanos(intervalMs));
+		lock.lock();
+		try {
+			long now = System.nanoTime();
+			schedule.timeout = wheel.schedule(schedule, ThreadLocalRandom.current().nextLong(schedule.intervalNanos), now);
+			schedules.put(schedule.id, schedule);
+			start();
+			changed.signal();
+		} finally {
+			lock.unlock();
+		}
+		return schedule.id;
+	}
+
+	/**
+	 * Stops a schedule. Returns false if there is none with that id.
+	 */
+	public boolean cancel(int id){
+		lock.lock();
+		try {
+			Schedule schedule = schedules.remove(id);
+			if (schedule == null){
+				return false;
+			}
+			schedule.cancelled = true;
+			wheel.cancel(schedule.timeout);
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Stops all schedules, returns how many there were.
+	 */
+	public int cancelAll(){
+		lock.lock();
+		try {
+			int count = schedules.size();
+			for (Schedule schedule : schedules.values()){
+				schedule.cancelled = true;
+				wheel.cancel(schedule.timeout);
+			}
+			schedules.clear();
+			return count;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int size(){
+		lock.lock();
+		try {
+			return schedules.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Latest results of all schedules of the node, in schedule order.
+	 * Schedules that did not finish a poll yet are left out.
+	 */
+	public List<PollResult> getLatest(int nodeId){
+		List<PollResult> results = new ArrayList<PollResult>();
+		lock.lock();
+		try {
+			for (Schedule schedule : schedules.values()){
+				if (schedule.template.getNodeId() == nodeId && schedule.latest != null){
+					results.add(schedule.latest);
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+		return results;
+	}
+
+	private void start(){
+		if (running){
+			return;
+		}
+		running = true;
+		thread = new Thread(this, "jwave-poll-"+name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public void close(){
+		lock.lock();
+		try {
+			running = false;
+			if (thread != null){
+				thread.interrupt();
+				thread = null;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void run() {
+		List<Schedule> due = new ArrayList<Schedule>();
+		while (running){
+			lock.lock();
+			try {
+				long now = System.nanoTime();
+				wheel.advance(now, due);
+				if (due.isEmpty()){
+					if (wheel.size() == 0){
+						changed.await();
+					} else {
+						changed.awaitNanos(wheel.nanosToNextTick(now));
+					}
+					continue;
+				}
+			} catch (InterruptedException exc){
+				break;
+			} finally {
+				lock.unlock();
+			}
+			fire(due);
+			due.clear();
+		}
+	}
+
+	private void fire(List<Schedule> due){
+		boolean deep = scheduler.getQueued() > DEEP_QUEUE;
+		List<Schedule> submit = new ArrayList<Schedule>();
+		lock.lock();
+		try {
+			long now = System.nanoTime();
+			for (Schedule schedule : due){
+				if (schedule.cancelled){
+					continue;
+				}
+				if (deep){
+					postponed++;
+					schedule.backoff = Math.min(schedule.backoff * 2, MAX_BACKOFF);
+					reschedule(schedule, schedule.intervalNanos * schedule.backoff, now);
+					continue;
+				}
+				schedule.backoff = 1;
+				reschedule(schedule, schedule.intervalNanos, now);
+				if (schedule.pending){
+					skipped++;
+					continue;
+				}
+				schedule.pending = true;
+				fired++;
+				schedule.polls++;
+				submit.add(schedule);
+			}
+		} finally {
+			lock.unlock();
+		}
+		for (Schedule schedule : submit){
+			schedule.poll();
+		}
+	}
+
+	private void reschedule(Schedule schedule, long delayNanos, long now){
+		long jitter = schedule.intervalNanos * JITTER_PERCENT / 100;
+		if (jitter > 0){
+			delayNanos += ThreadLocalRandom.current().nextLong(-jitter, jitter + 1);
+		}
+		schedule.timeout = wheel.schedule(schedule, delayNanos, now);
+	}
+
+	public String getStatistics(){
+		lock.lock();
+		try {
+			StringBuilder sb = new StringBuilder();
+			sb.append("--------------------------------------------------------------------------------------").append("\r\n");
+			sb.append("                  Polls").append("\r\n");
+			sb.append("--------------------------------------------------------------------------------------").append("\r\n");
+			sb.append("                 schedules = ").append(schedules.size()).append("\r\n");
+			sb.append("                     fired = ").append(fired).append("\r\n");
+			sb.append("   skipped (previous open) = ").append(skipped).append("\r\n");
+			sb.append("    postponed (deep queue) = ").append(postponed).append("\r\n");
+			sb.append("     rejected (queue full) = ").append(rejected).append("\r\n");
+			int backedOff = 0;
+			for (Schedule schedule : schedules.values()){
+				if (schedule.backoff > 1){
+					backedOff++;
+				}
+			}
+			sb.append("      backed off schedules = ").append(backedOff).append("\r\n");
+			if (!schedules.isEmpty()){
+				long nowMillis = System.currentTimeMillis();
+				sb.append("--------------------------------------------------------------------------------------").append("\r\n");
+				sb.append(String.format("  %5s %6s  %-32s %8s %7s %10s %8s  %s", "id", "node", "command", "every", "polls", "latency", "age", "last")).append("\r\n");
+				sb.append("--------------------------------------------------------------------------------------").append("\r\n");
+				for (Schedule schedule : schedules.values()){
+					PollResult latest = schedule.latest;
+					sb.append(String.format("  %5d %6d  %-32s %8s %7d %10s %8s  %s", schedule.id, schedule.template.getNodeId(), schedule.command,
+							formatInterval(TimeUnit.NANOSECONDS.toMillis(schedule.intervalNanos)), schedule.polls,
+							latest == null ? "" : String.format("%.1f ms", latest.getLatencyNanos() / 1000000.0),
+							latest == null ? "" : formatInterval(nowMillis - latest.getTimeMillis()),
+							latest == null ? "-" : latest.getOutcome())).append("\r\n");
+				}
+			}
+			sb.append("--------------------------------------------------------------------------------------");
+			return sb.toString();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Parses an interval like <code>500ms</code>, <code>30s</code>,
+	 * <code>5m</code> or <code>1h</code>; a plain number means seconds.
+	 */
+	public static long parseInterval(String value) throws IllegalArgumentException {
+		String v = value.trim().toLowerCase();
+		long unit = 1000;
+		if (v.endsWith("ms")){
+			unit = 1;
+			v = v.substring(0, v.length() - 2);
+		} else if (v.endsWith("s")){
+			v = v.substring(0, v.length() - 1);
+		} else if (v.endsWith("m")){
+			unit = 60000;
+			v = v.substring(0, v.length() - 1);
+		} else if (v.endsWith("h")){
+			unit = 3600000;
+			v = v.substring(0, v.length() - 1);
+		}
+		try {
+			long amount = Long.parseLong(v);
+			if (amount <= 0){
+				throw new IllegalArgumentException("interval must be positive");
+			}
+			return amount * unit;
+		} catch (NumberFormatException exc){
+			throw new IllegalArgumentException("invalid interval '"+value+"' (e.g. 500ms, 30s, 5m, 1h)");
+		}
+	}
+
+	public static String formatInterval(long millis){
+		if (millis % 3600000 == 0 && millis > 0){
+			return (millis / 3600000)+"h";
+		}
+		if (millis % 60000 == 0 && millis > 0){
+			return (millis / 60000)+"m";
+		}
+		if (millis % 1000 == 0 || millis >= 10000){
+			return (millis / 1000)+"s";
+		}
+		return millis+"ms";
+	}
+
+	private class Schedule implements SendCallback {
+
+		private final int id;
+		private final SendTemplate template;
+		private final String command;
+		private final long intervalNanos;
+		// report answering the polled GET, null if the command has none
+		private final JWaveCommand report;
+		private volatile SendResult sendResult = null;
+		private TimingWheel.Timeout<Schedule> timeout;
+		private boolean cancelled = false;
+		private boolean pending = false;
+		private int backoff = 1;
+		private long polls = 0;
+		private volatile PollResult latest = null;
+
+		Schedule(int id, SendTemplate template, String command, long intervalNanos){
+			this.id = id;
+			this.template = template;
+			this.command = command;
+			this.intervalNanos = intervalNanos;
+			this.report = ReplyTracker.getReport(template.getCommand());
+		}
+
+		void poll(){
+			if (report == null){
+				if (!scheduler.submit(template, this)){
+					rejected();
+				}
+				return;
+			}
+			sendResult = null;
+			final long start = System.nanoTime();
+			long timeoutMs = Math.min(ReplyTracker.DEFAULT_TIMEOUT_MS, TimeUnit.NANOSECONDS.toMillis(intervalNanos));
+			replies.sendAndAwait(template, report, timeoutMs, this).whenComplete(new BiConsumer<JWaveNodeCommand, Throwable>() {
+				public void accept(JWaveNodeCommand reply, Throwable failure) {
+					if (failure instanceof RejectedExecutionException){
+						// the send queue was full
+						rejected();
+						return;
+					}
+					SendResult result = sendResult;
+					if (reply != null){
+						result = SendResult.ACKNOWLEDGED;
+					} else if (result == null){
+						result = SendResult.TIMED_OUT;
+					}
+					finish(new PollResult(id, name, template.getNodeId(), command, result, true,
+							reply == null ? null : ReplyTracker.describe(reply),
+							reply == null ? null : ReportDecoder.decode(reply),
+							System.nanoTime() - start, System.currentTimeMillis()));
+				}
+			});
+		}
+
+		private void rejected(){
+			lock.lock();
+			try {
+				PollEngine.this.rejected++;
+				pending = false;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		public void onResult(SendTemplate sent, SendResult result, long latencyNanos) {
+			if (report != null){
+				// the poll ends with the report, see poll()
+				sendResult = result;
+				return;
+			}
+			finish(new PollResult(id, name, sent.getNodeId(), command, result, false, null, null, latencyNanos, System.currentTimeMillis()));
+		}
+
+		private void finish(PollResult pollResult){
+			lock.lock();
+			try {
+				pending = false;
+				latest = pollResult;
+			} finally {
+				lock.unlock();
+			}
+			for (PollListener listener : listeners){
+				listener.onPollResult(pollResult);
+			}
+		}
+	}
+}
@@ -0,0 +1,10 @@
+package de.smahoo.jwave.console.poll;
+
+/**
+ * Told about every finished poll. Called on the scheduler, serial receive,
+ * event bus or reply timeout thread, so implementations must return quickly.
+ */
+public interface PollListener {
+
+	void onPollResult(PollResult result);
+}
@@ -0,0 +1,120 @@
+package de.smahoo.jwave.console.poll;
+
+import de.smahoo.jwave.console.history.ReportDecoder;
+import de.smahoo.jwave.console.sched.SendResult;
+
+/**
+ * Outcome of one poll: how the GET went on the air, the report the node
+ * answered with and how long it took. Polls of a command without a report
+ * (or whose report did not come in time) have no reply.
+ */
+public class PollResult {
+
+	private final int scheduleId;
+	private final String controllerName;
+	private final int nodeId;
+	private final String command;
+	private final SendResult result;
+	private final boolean replyExpected;
+	private final String reply;
+	private final ReportDecoder.Reading reading;
+	private final long latencyNanos;
+	private final long timeMillis;
+
+	public PollResult(int scheduleId, String controllerName, int nodeId, String command, SendResult result,
+			boolean replyExpected, String reply, ReportDecoder.Reading reading, long latencyNanos, long timeMillis){
+		this.scheduleId = scheduleId;
+		this.controllerName = controllerName;
+		this.nodeId = nodeId;
+		this.command = command;
+		this.result = result;
+		this.replyExpected = replyExpected;
+		this.reply = reply;
+		this.reading = reading;
+		this.latencyNanos = latencyNanos;
+		this.timeMillis = timeMillis;
+	}
+
+	public int getScheduleId(){
+		return scheduleId;
+	}
+
+	/**
+	 * Name of the controller the node belongs to.
+	 */
+	public String getControllerName(){
+		return controllerName;
+	}
+
+	public int getNodeId(){
+		return nodeId;
+	}
+
+	/**
+	 * Command class and command, e.g. <code>COMMAND_CLASS_METER METER_GET</code>.
+	 */
+	public String getCommand(){
+		return command;
+	}
+
+	/**
+	 * How the GET went on the air.
+	 */
+	public SendResult getResult(){
+		return result;
+	}
+
+	/**
+	 * True if the polled command is a GET whose report was waited for.
+	 */
+	public boolean isReplyExpected(){
+		return replyExpected;
+	}
+
+	/**
+	 * The report, e.g. "COMMAND_CLASS_METER METER_REPORT 33 100 0 0 18 52",
+	 * null if none was received.
+	 */
+	public String getReply(){
+		return reply;
+	}
+
+	/**
+	 * Value of a meter, sensor or battery report, null for other reports
+	 * or if there was no reply.
+	 */
+	public ReportDecoder.Reading getReading(){
+		return reading;
+	}
+
+	/**
+	 * Time from submitting the GET to the report, or to the end of the send
+	 * if there was no reply.
+	 */
+	public long getLatencyNanos(){
+		return latencyNanos;
+	}
+
+	public long getTimeMillis(){
+		return timeMillis;
+	}
+
+	/**
+	 * Short description of the outcome: the decoded value, else the reply,
+	 * else the send result.
+	 */
+	public String getOutcome(){
+		if (reading != null){
+			return ReportDecoder.describe(reading.getChannel())+" "+ReportDecoder.format(reading.getValue());
+		}
+		if (reply != null){
+			return reply;
+		}
+		return replyExpected && result == SendResult.ACKNOWLEDGED ? "no reply" : result.getLabel();
+	}
+
+	@Override
+	public String toString(){
+		return String.format("poll #%d node %d %s: %s (%.1f ms)", scheduleId, nodeId, command, getOutcome(), latencyNanos / 1000000.0);
+	}
+}
@@ -0,0 +1,156 @@
+package de.smahoo.jwave.console.poll;
+
+import java.util.List;
+
+/**
+ * Hashed timing wheel: a ring of slots, one per tick, each holding a doubly
+ * linked list of the timeouts that end in a tick mapping to that slot.
+ * Scheduling and cancelling are O(1) regardless of how many timeouts are
+ * pending; advancing the wheel only walks the slots of the elapsed ticks.
+ * Timeouts further away than one revolution stay in their slot until the
+ * wheel has come round often enough.
+ * <p>
+ * Not thread safe, the owner synchronizes.
+ */
+public class TimingWheel<T> {
+
+	/**
+	 * Handle of a scheduled item.
+	 */
+	public static final class Timeout<T> {
+
+		private final T item;
+		private final long deadlineTick;
+		private final int slot;
+		private Timeout<T> prev = null;
+		private Timeout<T> next = null;
+		private boolean linked = false;
+
+		private Timeout(T item, long deadlineTick, int slot){
+			this.item = item;
+			this.deadlineTick = deadlineTick;
+			this.slot = slot;
+		}
+
+		public T getItem(){
+			return item;
+		}
+
+		/**
+		 * True until the timeout expired or was cancelled.
+		 */
+		public boolean isPending(){
+			return linked;
+		}
+	}
+
+	private final long tickNanos;
+	private final int mask;
+	private final Timeout<T>[] heads;
+	private final long startNanos;
+	private long currentTick = 0;
+	private int size = 0;
+
+	/**
+	 * @param tickNanos resolution of the wheel
+	 * @param slots number of slots, rounded up to a power of two
+	 */
+	@SuppressWarnings("unchecked")
+	public TimingWheel(long tickNanos, int slots, long startNanos){
+		if (tickNanos <= 0 || slots <= 0){
+			throw new IllegalArgumentException("tick and slots must be positive");
+		}
+		int n = Integer.highestOneBit(slots);
+		if (n < slots){
+			n <<= 1;
+		}
+		this.tickNanos = tickNanos;
+		this.mask = n - 1;
+		this.heads = new Timeout[n];
+		this.startNanos = startNanos;
+	}
+
+	/**
+	 * Schedules the item to expire delayNanos after nowNanos, at the earliest
+	 * with the next tick.
+	 */
+	public Timeout<T> schedule(T item, long delayNanos, long nowNanos){
+		long deadlineTick = (nowNanos + Math.max(0, delayNanos) - startNanos + tickNanos - 1) / tickNanos;
+		if (deadlineTick <= currentTick){
+			deadlineTick = currentTick + 1;
+		}
+		int slot = (int)(deadlineTick & mask);
+		Timeout<T> timeout = new Timeout<T>(item, deadlineTick, slot);
+		timeout.next = heads[slot];
+		if (heads[slot] != null){
+			heads[slot].prev = timeout;
+		}
+		heads[slot] = timeout;
+		timeout.linked = true;
+		size++;
+		return timeout;
+	}
+
+	/**
+	 * Removes the timeout from the wheel. Returns false if it already expired
+	 * or was cancelled before.
+	 */
+	public boolean cancel(Timeout<T> timeout){
+		if (!timeout.linked){
+			return false;
+		}
+		unlink(timeout);
+		return true;
+	}
+
+	/**
+	 * Moves the wheel forward to nowNanos and adds the items of all timeouts
+	 * that expired on the way to the list, earliest tick first.
+	 */
+	public void advance(long nowNanos, List<T> expired){
+		long targetTick = (nowNanos - startNanos) / tickNanos;
+		while (currentTick < targetTick){
+			currentTick++;
+			if (size == 0){
+				// nothing to expire, skip the empty revolutions
+				currentTick = targetTick;
+				break;
+			}
+			Timeout<T> timeout = heads[(int)(currentTick & mask)];
+			while (timeout != null){
+				Timeout<T> next = timeout.next;
+				if (timeout.deadlineTick <= currentTick){
+					unlink(timeout);
+					expired.add(timeout.item);
+				}
+				timeout = next;
+			}
+		}
+	}
+
+	/**
+	 * Time until the next tick is due.
+	 */
+	public long nanosToNextTick(long nowNanos){
+		return Math.max(0, startNanos + (currentTick + 1) * tickNanos - nowNanos);
+	}
+
+	public int size(){
+		return size;
+	}
+
+	private void unlink(Timeout<T> timeout){
+		if (timeout.prev != null){
+			timeout.prev.next = timeout.next;
+		} else {
+			heads[timeout.slot] = timeout.next;
+		}
+		if (timeout.next != null){
+			timeout.next.prev = timeout.prev;
+		}
+		timeout.prev = null;
+		timeout.next = null;
+		timeout.linked = false;
+		size--;
+	}
+}
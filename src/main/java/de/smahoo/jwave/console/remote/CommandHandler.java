@@ -0,0 +1,10 @@
+package de.smahoo.jwave.console.remote;
+
+/**
+ * Executes one line of the console command language on behalf of a remote
+ * client. Whatever the command prints goes back to that client.
+ */
+public interface CommandHandler {
+
+	void execute(String line);
+}
@@ -0,0 +1,456 @@
+package de.smahoo.jwave.console.remote;
+
+import de.smahoo.jwave.console.event.EventBus;
+import de.smahoo.jwave.console.event.EventConsumer;
+import de.smahoo.jwave.console.log.Log;
+import de.smahoo.jwave.event.JWaveEvent;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * TCP listener that lets several operators and scripts share one console.
+ * A single thread multiplexes all connections with a {@link Selector};
+ * clients send lines of the console command language and get back what the
+ * command printed, followed by a prompt. Each client's commands are
+ * executed in order on a command thread of their own, so a slow command
+ * neither blocks the network side nor the commands of other clients. Clients that typed 'events on' additionally get
+ * every controller event as a line starting with 'event'.
+ * <p>
+ * All output goes through a bounded queue per client and non-blocking
+ * writes. When a client does not keep up, its messages are dropped and
+ * counted; when it sends more commands than it reads answers for, the
+ * server stops reading from it until its commands are done.
+ */
+public class CommandServer implements Runnable {
+
+	private static final Log LOG = Log.get("remote");
+
+	public static final int DEFAULT_MAX_QUEUED_BYTES = 256 * 1024;
+	public static final int MAX_CLIENTS = 64;
+	public static final String PROMPT = "jwave> ";
+
+	private static final int MAX_LINE_LENGTH = 4096;
+	private static final int MAX_PENDING_COMMANDS = 32;
+
+	private volatile InetSocketAddress address;
+	private final CommandHandler handler;
+	private final int maxQueuedBytes;
+
+	private final Map<Integer, RemoteClient> clients = new ConcurrentHashMap<Integer, RemoteClient>();
+	private final Queue<RemoteClient> interestUpdates = new ConcurrentLinkedQueue<RemoteClient>();
+	private final Map<EventBus, EventBus.Subscription> subscriptions = new ConcurrentHashMap<EventBus, EventBus.Subscription>();
+	private final ExecutorService commandExecutor;
+
+	private final AtomicLong accepted = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong executed = new AtomicLong();
+	private final AtomicLong eventsStreamed = new AtomicLong();
+	private final AtomicLong eventsDropped = new AtomicLong();
+
+	private Selector selector = null;
+	private ServerSocketChannel serverChannel = null;
+	private Thread thread = null;
+	private volatile boolean running = false;
+	private int nextClientId = 1;
+
+	public CommandServer(InetSocketAddress address, CommandHandler handler){
+		this(address, handler, DEFAULT_MAX_QUEUED_BYTES);
+	}
+
+	public CommandServer(InetSocketAddress address, CommandHandler handler, int maxQueuedBytes){
+		this.address = address;
+		this.handler = handler;
+		this.maxQueuedBytes = maxQueuedBytes;
+		this.commandExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "jwave-remote-cmd-"+count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Address the server listens on, with the actual port once it is started.
+	 */
+	public InetSocketAddress getAddress(){
+		return address;
+	}
+
+	public boolean isRunning(){
+		return running;
+	}
+
+	/**
+	 * Binds the listening socket and starts the selector thread. Fails right
+	 * away if the address can not be bound.
+	 */
+	public synchronized void start() throws IOException {
+		OutputCapture.install();
+		selector = Selector.open();
+		try {
+			serverChannel = ServerSocketChannel.open();
+			serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, Boolean.TRUE);
+			serverChannel.bind(address);
+			address = (InetSocketAddress)serverChannel.getLocalAddress();
+			serverChannel.configureBlocking(false);
+			serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		} catch (IOException exc){
+			if (serverChannel != null){
+				serverChannel.close();
+			}
+			selector.close();
+			throw exc;
+		}
+		running = true;
+		thread = new Thread(this, "jwave-remote-server");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public synchronized void stop(){
+		running = false;
+		for (Map.Entry<EventBus, EventBus.Subscription> entry : subscriptions.entrySet()){
+			entry.getKey().unsubscribe(entry.getValue());
+		}
+		subscriptions.clear();
+		commandExecutor.shutdownNow();
+		if (selector != null){
+			selector.wakeup();
+		}
+		if (thread != null){
+			try {
+				thread.join(2000);
+			} catch (InterruptedException exc){
+				Thread.currentThread().interrupt();
+			}
+			thread = null;
+		}
+	}
+
+	/**
+	 * Streams the events of the bus to all clients that asked for events.
+	 * The controller name is part of every event line.
+	 */
+	public void attach(final String controllerName, EventBus bus){
+		if (!running || subscriptions.containsKey(bus)){
+			return;
+		}
+		EventBus.Subscription subscription = bus.subscribe("remote-"+controllerName, new EventConsumer() {
+			public void onEvent(JWaveEvent event, long receivedMillis, long receivedNanos) {
+				streamEvent(controllerName, event);
+			}
+		});
+		subscriptions.put(bus, subscription);
+	}
+
+	private void streamEvent(String controllerName, JWaveEvent event){
+		byte[] line = null;
+		for (RemoteClient client : clients.values()){
+			if (!client.isStreamingEvents()){
+				continue;
+			}
+			if (line == null){
+				line = ("event "+controllerName+" "+event.getEventType()+" "+event.getClass().getSimpleName()+" "+event+"\r\n").getBytes(RemoteClient.CHARSET);
+			}
+			if (client.offer(line)){
+				eventsStreamed.incrementAndGet();
+				requestInterestUpdate(client);
+			} else {
+				eventsDropped.incrementAndGet();
+			}
+		}
+	}
+
+	public void run() {
+		try {
+			while (running){
+				selector.select();
+				RemoteClient update;
+				while ((update = interestUpdates.poll()) != null){
+					updateInterest(update);
+				}
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()){
+					SelectionKey key = keys.next();
+					keys.remove();
+					handleKey(key);
+				}
+			}
+		} catch (IOException exc){
+			if (running){
+				LOG.error("Remote command server stopped ({})", exc.getMessage());
+			}
+		} finally {
+			running = false;
+			for (RemoteClient client : clients.values()){
+				client.close();
+			}
+			clients.clear();
+			try {
+				serverChannel.close();
+				selector.close();
+			} catch (IOException exc){
+				// nothing to do
+			}
+		}
+	}
+
+	private void handleKey(SelectionKey key){
+		if (!key.isValid()){
+			return;
+		}
+		if (key.isAcceptable()){
+			accept();
+			return;
+		}
+		RemoteClient client = (RemoteClient)key.attachment();
+		try {
+			if (key.isReadable()){
+				read(client);
+			}
+			if (key.isValid() && key.isWritable()){
+				if (client.flush()){
+					updateInterest(client);
+				}
+			}
+		} catch (IOException exc){
+			disconnect(client);
+		}
+	}
+
+	private void accept(){
+		SocketChannel channel;
+		try {
+			channel = serverChannel.accept();
+			if (channel == null){
+				return;
+			}
+		} catch (IOException exc){
+			return;
+		}
+		try {
+			if (clients.size() >= MAX_CLIENTS){
+				rejected.incrementAndGet();
+				channel.close();
+				return;
+			}
+			channel.configureBlocking(false);
+			channel.setOption(StandardSocketOptions.TCP_NODELAY, Boolean.TRUE);
+			RemoteClient client = new RemoteClient(nextClientId++, channel, MAX_LINE_LENGTH, maxQueuedBytes);
+			client.setKey(channel.register(selector, SelectionKey.OP_READ, client));
+			clients.put(client.getId(), client);
+			accepted.incrementAndGet();
+			client.offer(("Connected to JWave console as client "+client.getId()+" (type 'quit' to disconnect)\r\n"+PROMPT).getBytes(RemoteClient.CHARSET));
+			updateInterest(client);
+		} catch (IOException exc){
+			try {
+				channel.close();
+			} catch (IOException closeExc){
+				// nothing to do
+			}
+		}
+	}
+
+	private void read(RemoteClient client) throws IOException {
+		if (client.getChannel().read(client.input) < 0){
+			disconnect(client);
+			return;
+		}
+		processLines(client);
+	}
+
+	/**
+	 * Hands the complete lines in the client's input buffer to the command
+	 * thread, as long as the client has not too many commands pending.
+	 */
+	private void processLines(RemoteClient client){
+		ByteBuffer input = client.input;
+		byte[] data = input.array();
+		int lineStart = 0;
+		for (int i = 0; i < input.position(); i++){
+			if (data[i] != '\n'){
+				continue;
+			}
+			String line = new String(data, lineStart, i - lineStart, RemoteClient.CHARSET).trim();
+			lineStart = i + 1;
+			handleLine(client, line);
+			if (client.isClosing() || client.pendingCommands.get() >= MAX_PENDING_COMMANDS){
+				break;
+			}
+		}
+		input.flip();
+		input.position(lineStart);
+		input.compact();
+		if (!input.hasRemaining()){
+			input.clear();
+			client.offer(("ERROR: line longer than "+MAX_LINE_LENGTH+" characters\r\n"+PROMPT).getBytes(RemoteClient.CHARSET));
+		}
+		updateInterest(client);
+	}
+
+	private void handleLine(final RemoteClient client, final String line){
+		if (line.length() == 0){
+			client.offer(PROMPT.getBytes(RemoteClient.CHARSET));
+			return;
+		}
+		client.commandReceived();
+		client.pendingCommands.incrementAndGet();
+		client.commandLines.add(line);
+		executeLines(client);
+	}
+
+	/**
+	 * Starts a task that runs the queued lines of the client, unless one is
+	 * already running. At most one task per client runs at a time.
+	 */
+	private void executeLines(final RemoteClient client){
+		if (!client.executing.compareAndSet(false, true)){
+			return;
+		}
+		try {
+			commandExecutor.execute(new Runnable() {
+				public void run() {
+					String line;
+					while ((line = client.commandLines.poll()) != null){
+						execute(client, line);
+					}
+					client.executing.set(false);
+					if (!client.commandLines.isEmpty()){
+						// a line arrived after the queue was found empty
+						executeLines(client);
+					}
+				}
+			});
+		} catch (RuntimeException exc){
+			// server stopped
+			client.executing.set(false);
+			while (client.commandLines.poll() != null){
+				client.pendingCommands.decrementAndGet();
+			}
+		}
+	}
+
+	private void execute(RemoteClient client, String line){
+		// client commands run in order with the console commands sent before them
+		if ("quit".equalsIgnoreCase(line) || "exit".equalsIgnoreCase(line)){
+			client.offer("bye\r\n".getBytes(RemoteClient.CHARSET));
+			client.closeWhenFlushed();
+			client.pendingCommands.decrementAndGet();
+			requestInterestUpdate(client);
+			return;
+		}
+		if ("events on".equalsIgnoreCase(line) || "events off".equalsIgnoreCase(line)){
+			client.setStreamingEvents(line.toLowerCase().endsWith("on"));
+			client.offer(("Event streaming is "+(client.isStreamingEvents() ? "on" : "off")+"\r\n"+PROMPT).getBytes(RemoteClient.CHARSET));
+			client.pendingCommands.decrementAndGet();
+			requestInterestUpdate(client);
+			return;
+		}
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		OutputCapture.capture(output);
+		try {
+			handler.execute(line);
+		} catch (Exception exc){
+			System.out.println("Error while executing '"+line+"' ("+exc.getMessage()+")");
+		} finally {
+			System.out.flush();
+			OutputCapture.release();
+		}
+		executed.incrementAndGet();
+		byte[] prompt = PROMPT.getBytes(RemoteClient.CHARSET);
+		output.write(prompt, 0, prompt.length);
+		client.offerResponse(output.toByteArray());
+		client.pendingCommands.decrementAndGet();
+		requestInterestUpdate(client);
+	}
+
+	private void requestInterestUpdate(RemoteClient client){
+		interestUpdates.add(client);
+		Selector s = selector;
+		if (s != null){
+			s.wakeup();
+		}
+	}
+
+	/**
+	 * Called on the selector thread only.
+	 */
+	private void updateInterest(RemoteClient client){
+		SelectionKey key = client.getKey();
+		if (key == null || !key.isValid()){
+			return;
+		}
+		boolean hasOutput = client.hasOutput();
+		if (client.isClosing() && !hasOutput){
+			disconnect(client);
+			return;
+		}
+		boolean readable = !client.isClosing() && client.pendingCommands.get() < MAX_PENDING_COMMANDS;
+		boolean wasReadable = (key.interestOps() & SelectionKey.OP_READ) != 0;
+		key.interestOps((readable ? SelectionKey.OP_READ : 0) | (hasOutput ? SelectionKey.OP_WRITE : 0));
+		if (readable && !wasReadable && client.input.position() > 0){
+			// lines that arrived while the client was paused
+			processLines(client);
+		}
+	}
+
+	private void disconnect(RemoteClient client){
+		clients.remove(client.getId());
+		client.close();
+	}
+
+	public List<RemoteClient> getClients(){
+		return new ArrayList<RemoteClient>(new TreeMap<Integer, RemoteClient>(clients).values());
+	}
+
+	public String getStatistics(){
+		SimpleDateFormat format = new SimpleDateFormat("HH:mm:ss");
+		StringBuilder sb = new StringBuilder();
+		sb.append("--------------------------------------------------").append("\r\n");
+		sb.append("                Remote Clients").append("\r\n");
+		sb.append("--------------------------------------------------").append("\r\n");
+		sb.append("                 listening = ").append(address).append("\r\n");
+		sb.append("       accepted / rejected = ").append(accepted.get()).append(" / ").append(rejected.get()).append("\r\n");
+		sb.append("         executed commands = ").append(executed.get()).append("\r\n");
+		sb.append("   streamed/dropped events = ").append(eventsStreamed.get()).append(" / ").append(eventsDropped.get()).append("\r\n");
+		for (RemoteClient client : getClients()){
+			sb.append("\r\n");
+			sb.append("  client ").append(client.getId()).append(" ").append(client.getAddress()).append("\r\n");
+			sb.append("           connected since = ").append(format.format(new Date(client.getConnectedMillis()))).append("\r\n");
+			sb.append("                  commands = ").append(client.getCommands()).append("\r\n");
+			sb.append("                    events = ").append(client.isStreamingEvents() ? "on" : "off").append("\r\n");
+			sb.append("              queued bytes = ").append(client.getQueuedBytes()).append(" / ").append(client.getMaxQueuedBytes()).append("\r\n");
+			sb.append("            high watermark = ").append(client.getHighWatermark()).append("\r\n");
+			sb.append("                bytes sent = ").append(client.getBytesSent()).append("\r\n");
+			sb.append("          dropped messages = ").append(client.getDroppedMessages()).append("\r\n");
+		}
+		sb.append("--------------------------------------------------");
+		return sb.toString();
+	}
+}
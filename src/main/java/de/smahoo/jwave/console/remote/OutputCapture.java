@@ -0,0 +1,69 @@
+package de.smahoo.jwave.console.remote;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Replaces {@link System#out} with a stream that writes to a per-thread
+ * target while one is set and to the original console otherwise. This lets
+ * remote clients run the existing commands, which all report through
+ * <code>System.out</code>, and get exactly their own output back.
+ */
+public class OutputCapture extends OutputStream {
+
+	private static final ThreadLocal<OutputStream> TARGET = new ThreadLocal<OutputStream>();
+	private static boolean installed = false;
+
+	private final OutputStream console;
+
+	private OutputCapture(OutputStream console){
+		this.console = console;
+	}
+
+	public static synchronized void install(){
+		if (installed){
+			return;
+		}
+		try {
+			// UTF-8, so captured output can be decoded without knowing the platform charset
+			System.setOut(new PrintStream(new OutputCapture(System.out), true, "UTF-8"));
+		} catch (UnsupportedEncodingException exc){
+			System.setOut(new PrintStream(new OutputCapture(System.out), true));
+		}
+		installed = true;
+	}
+
+	/**
+	 * Sends everything the current thread prints to the target until
+	 * {@link #release()} is called.
+	 */
+	public static void capture(OutputStream target){
+		TARGET.set(target);
+	}
+
+	public static void release(){
+		TARGET.remove();
+	}
+
+	private OutputStream target(){
+		OutputStream target = TARGET.get();
+		return target == null ? console : target;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		target().write(b);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		target().write(b, off, len);
+	}
+
+	@Override
+	public void flush() throws IOException {
+		target().flush();
+	}
+}
@@ -0,0 +1,220 @@
+package de.smahoo.jwave.console.remote;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * State of one connection to the {@link CommandServer}: the partial input
+ * line and a bounded queue of output waiting for the socket to become
+ * writable. Output that does not fit is dropped and counted, so a client
+ * that does not read can never make the console wait for it.
+ */
+public class RemoteClient {
+
+	static final Charset CHARSET = Charset.forName("ISO-8859-1");
+
+	private final int id;
+	private final SocketChannel channel;
+	private final String address;
+	private final long connectedMillis = System.currentTimeMillis();
+	private final int maxQueuedBytes;
+	private SelectionKey key = null;
+
+	final ByteBuffer input;
+	final AtomicInteger pendingCommands = new AtomicInteger();
+	// command lines of this client in the order they arrived, run by one task at a time
+	final Queue<String> commandLines = new ConcurrentLinkedQueue<String>();
+	final AtomicBoolean executing = new AtomicBoolean();
+
+	private final ArrayDeque<ByteBuffer> output = new ArrayDeque<ByteBuffer>();
+	private int queuedBytes = 0;
+	private int highWatermark = 0;
+	private long droppedMessages = 0;
+	private long droppedSinceNotice = 0;
+
+	private final AtomicLong commands = new AtomicLong();
+	private final AtomicLong bytesSent = new AtomicLong();
+	private volatile boolean events = false;
+	private volatile boolean closing = false;
+
+	RemoteClient(int id, SocketChannel channel, int maxLineLength, int maxQueuedBytes){
+		this.id = id;
+		this.channel = channel;
+		this.input = ByteBuffer.allocate(maxLineLength);
+		this.maxQueuedBytes = maxQueuedBytes;
+		String remote;
+		try {
+			remote = String.valueOf(channel.getRemoteAddress());
+		} catch (IOException exc){
+			remote = "?";
+		}
+		this.address = remote;
+	}
+
+	public int getId(){
+		return id;
+	}
+
+	public String getAddress(){
+		return address;
+	}
+
+	public long getConnectedMillis(){
+		return connectedMillis;
+	}
+
+	SocketChannel getChannel(){
+		return channel;
+	}
+
+	SelectionKey getKey(){
+		return key;
+	}
+
+	void setKey(SelectionKey key){
+		this.key = key;
+	}
+
+	public boolean isStreamingEvents(){
+		return events;
+	}
+
+	void setStreamingEvents(boolean events){
+		this.events = events;
+	}
+
+	boolean isClosing(){
+		return closing;
+	}
+
+	/**
+	 * Closes the connection once everything queued so far is written.
+	 */
+	void closeWhenFlushed(){
+		closing = true;
+	}
+
+	void commandReceived(){
+		commands.incrementAndGet();
+	}
+
+	public long getCommands(){
+		return commands.get();
+	}
+
+	public long getBytesSent(){
+		return bytesSent.get();
+	}
+
+	public synchronized int getQueuedBytes(){
+		return queuedBytes;
+	}
+
+	public synchronized int getHighWatermark(){
+		return highWatermark;
+	}
+
+	public int getMaxQueuedBytes(){
+		return maxQueuedBytes;
+	}
+
+	public synchronized long getDroppedMessages(){
+		return droppedMessages;
+	}
+
+	/**
+	 * Queues a message for the client. Returns false if it was dropped
+	 * because the client's buffer is full.
+	 */
+	synchronized boolean offer(byte[] message){
+		if (closing){
+			return false;
+		}
+		if (queuedBytes + message.length > maxQueuedBytes){
+			droppedMessages++;
+			droppedSinceNotice++;
+			return false;
+		}
+		if (droppedSinceNotice > 0){
+			byte[] notice = ("... "+droppedSinceNotice+" messages dropped\r\n").getBytes(CHARSET);
+			output.add(ByteBuffer.wrap(notice));
+			queuedBytes += notice.length;
+			droppedSinceNotice = 0;
+		}
+		output.add(ByteBuffer.wrap(message));
+		queuedBytes += message.length;
+		if (queuedBytes > highWatermark){
+			highWatermark = queuedBytes;
+		}
+		return true;
+	}
+
+	/**
+	 * Queues the output of a command. Unlike events, a response that does
+	 * not fit is cut to the free space instead of being dropped as a whole.
+	 */
+	synchronized boolean offerResponse(byte[] response){
+		if (closing){
+			return false;
+		}
+		if (queuedBytes + response.length <= maxQueuedBytes){
+			return offer(response);
+		}
+		byte[] notice = ("\r\n... output truncated ("+response.length+" bytes)\r\n"+CommandServer.PROMPT).getBytes(CHARSET);
+		int free = maxQueuedBytes - queuedBytes - notice.length;
+		if (free <= 0){
+			droppedMessages++;
+			droppedSinceNotice++;
+			return false;
+		}
+		byte[] truncated = new byte[free + notice.length];
+		System.arraycopy(response, 0, truncated, 0, free);
+		System.arraycopy(notice, 0, truncated, free, notice.length);
+		return offer(truncated);
+	}
+
+	synchronized boolean hasOutput(){
+		return !output.isEmpty();
+	}
+
+	/**
+	 * Writes as much of the queued output as the socket takes without
+	 * blocking. Returns true if the queue is empty afterwards.
+	 */
+	synchronized boolean flush() throws IOException {
+		while (!output.isEmpty()){
+			ByteBuffer buffer = output.peek();
+			int written = channel.write(buffer);
+			queuedBytes -= written;
+			bytesSent.addAndGet(written);
+			if (buffer.hasRemaining()){
+				return false;
+			}
+			output.poll();
+		}
+		return true;
+	}
+
+	synchronized void close(){
+		closing = true;
+		output.clear();
+		queuedBytes = 0;
+		if (key != null){
+			key.cancel();
+		}
+		try {
+			channel.close();
+		} catch (IOException exc){
+			// nothing to do
+		}
+	}
+}
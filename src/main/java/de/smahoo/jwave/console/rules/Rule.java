@@ -0,0 +1,169 @@
+package de.smahoo.jwave.console.rules;
+
+import de.smahoo.jwave.cmd.JWaveNodeCommand;
+import de.smahoo.jwave.console.cmd.SendTemplate;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 'rule when &lt;node&gt; &lt;class&gt; &lt;cmd&gt; [&lt;param&gt; &lt;op&gt; &lt;value&gt;] then send ...':
+ * a command of a node, an optional condition on one of its parameters and
+ * the resolved command sent when both match.
+ */
+public class Rule {
+
+	/**
+	 * Comparison of a parameter value with the rule's value.
+	 */
+	public enum Operator {
+
+		EQ("=="), NE("!="), LT("<"), LE("<="), GT(">"), GE(">=");
+
+		private final String symbol;
+
+		Operator(String symbol){
+			this.symbol = symbol;
+		}
+
+		public String getSymbol(){
+			return symbol;
+		}
+
+		/**
+		 * The operator written as symbol (also "=" for "=="), null if there is none.
+		 */
+		public static Operator parse(String symbol){
+			if ("=".equals(symbol)){
+				return EQ;
+			}
+			for (Operator op : values()){
+				if (op.symbol.equals(symbol)){
+					return op;
+				}
+			}
+			return null;
+		}
+
+		boolean test(int left, int right){
+			switch (this){
+				case EQ: return left == right;
+				case NE: return left != right;
+				case LT: return left < right;
+				case LE: return left <= right;
+				case GT: return left > right;
+				default: return left >= right;
+			}
+		}
+	}
+
+	private final String id;
+	private final String controllerName;
+	private final int nodeId;
+	private final int commandClassKey;
+	private final int commandKey;
+	private final int paramIndex;
+	private final Operator operator;
+	private final int value;
+	private final SendTemplate action;
+	private final String source;
+
+	private final AtomicLong fired = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private volatile long lastFiredMillis = 0;
+
+	/**
+	 * @param controllerName controller of the triggering node, as attached to the {@link RuleEngine}
+	 * @param paramIndex parameter the condition tests, -1 for no condition
+	 * @param source the rule as typed (without 'rule &lt;id&gt;'), used to persist it
+	 */
+	public Rule(String id, String controllerName, int nodeId, int commandClassKey, int commandKey, int paramIndex, Operator operator, int value, SendTemplate action, String source){
+		this.id = id;
+		this.controllerName = controllerName;
+		this.nodeId = nodeId;
+		this.commandClassKey = commandClassKey;
+		this.commandKey = commandKey;
+		this.paramIndex = paramIndex;
+		this.operator = operator;
+		this.value = value;
+		this.action = action;
+		this.source = source;
+	}
+
+	public String getId(){
+		return id;
+	}
+
+	/**
+	 * Controller of the triggering node.
+	 */
+	public String getControllerName(){
+		return controllerName;
+	}
+
+	public int getNodeId(){
+		return nodeId;
+	}
+
+	public int getCommandClassKey(){
+		return commandClassKey;
+	}
+
+	public int getCommandKey(){
+		return commandKey;
+	}
+
+	public SendTemplate getAction(){
+		return action;
+	}
+
+	public String getSource(){
+		return source;
+	}
+
+	public long getFired(){
+		return fired.get();
+	}
+
+	/**
+	 * Times the action could not be queued.
+	 */
+	public long getRejected(){
+		return rejected.get();
+	}
+
+	public long getLastFiredMillis(){
+		return lastFiredMillis;
+	}
+
+	/**
+	 * True if the command (of the rule's node and class) triggers the rule.
+	 */
+	boolean matches(JWaveNodeCommand nodeCmd){
+		if (nodeCmd.getCommand() == null || nodeCmd.getCommand().getKey() != commandKey){
+			return false;
+		}
+		if (paramIndex < 0){
+			return true;
+		}
+		try {
+			return operator.test(nodeCmd.getParamValue(paramIndex), value);
+		} catch (Exception exc){
+			// the command has no such parameter
+			return false;
+		}
+	}
+
+	void fired(boolean queued, long nowMillis){
+		if (queued){
+			fired.incrementAndGet();
+			lastFiredMillis = nowMillis;
+		} else {
+			rejected.incrementAndGet();
+		}
+	}
+
+	@Override
+	public String toString(){
+		return source;
+	}
+}
@@ -0,0 +1,15 @@
+package de.smahoo.jwave.console.rules;
+
+import de.smahoo.jwave.console.cmd.SendTemplate;
+
+/**
+ * Carries out the action of a matching rule. Called on the event thread of
+ * the triggering controller, so implementations must return quickly.
+ */
+public interface RuleAction {
+
+	/**
+	 * @return false if the command could not be queued
+	 */
+	boolean send(SendTemplate template);
+}
@@ -0,0 +1,156 @@
+package de.smahoo.jwave.console.rules;
+
+import de.smahoo.jwave.cmd.JWaveNodeCommand;
+import de.smahoo.jwave.console.event.EventBus;
+import de.smahoo.jwave.console.event.EventConsumer;
+import de.smahoo.jwave.event.JWaveEvent;
+import de.smahoo.jwave.event.JWaveNodeDataEvent;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs rules against the data events of every attached controller. The
+ * rules are indexed by controller and (node id, command class key), so an
+ * event costs one lookup however many rules exist; only the few rules of
+ * that node and class are tested. The index is rebuilt on every change and
+ * swapped in as a whole, so the event threads read it without locking.
+ */
+public class RuleEngine {
+
+	private final RuleAction action;
+	private final Map<String, Rule> rules = new TreeMap<String, Rule>();
+	private final Map<EventBus, EventBus.Subscription> subscriptions = new ConcurrentHashMap<EventBus, EventBus.Subscription>();
+	private volatile Map<String, Map<Integer, Rule[]>> index = new HashMap<String, Map<Integer, Rule[]>>();
+
+	private final AtomicLong events = new AtomicLong();
+	private final AtomicLong matched = new AtomicLong();
+	private final AtomicLong fired = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+
+	public RuleEngine(RuleAction action){
+		this.action = action;
+	}
+
+	/**
+	 * Tests the data events of the bus against the rules of the named controller.
+	 */
+	public void attach(final String controllerName, EventBus bus){
+		if (subscriptions.containsKey(bus)){
+			return;
+		}
+		EventBus.Subscription subscription = bus.subscribe("rules-"+controllerName, new EventConsumer() {
+			public void onEvent(JWaveEvent event, long receivedMillis, long receivedNanos) {
+				handleEvent(controllerName, event, receivedMillis);
+			}
+		});
+		subscriptions.put(bus, subscription);
+	}
+
+	private static int key(int nodeId, int commandClassKey){
+		return (nodeId << 8) | (commandClassKey & 0xFF);
+	}
+
+	void handleEvent(String controllerName, JWaveEvent event, long receivedMillis){
+		if (!(event instanceof JWaveNodeDataEvent)){
+			return;
+		}
+		JWaveNodeDataEvent dataEvent = (JWaveNodeDataEvent)event;
+		JWaveNodeCommand nodeCmd = dataEvent.getCommand();
+		if (dataEvent.getNode() == null || nodeCmd == null || nodeCmd.getCommandClass() == null){
+			return;
+		}
+		events.incrementAndGet();
+		Map<Integer, Rule[]> controllerRules = index.get(controllerName);
+		if (controllerRules == null){
+			return;
+		}
+		Rule[] candidates = controllerRules.get(key(dataEvent.getNode().getNodeId(), nodeCmd.getCommandClass().getKey()));
+		if (candidates == null){
+			return;
+		}
+		for (Rule rule : candidates){
+			if (!rule.matches(nodeCmd)){
+				continue;
+			}
+			matched.incrementAndGet();
+			boolean queued = action.send(rule.getAction());
+			rule.fired(queued, receivedMillis);
+			if (queued){
+				fired.incrementAndGet();
+			} else {
+				rejected.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Adds the rule, replacing one with the same id.
+	 */
+	public synchronized void add(Rule rule){
+		rules.put(rule.getId(), rule);
+		rebuild();
+	}
+
+	public synchronized Rule remove(String id){
+		Rule rule = rules.remove(id);
+		if (rule != null){
+			rebuild();
+		}
+		return rule;
+	}
+
+	public synchronized Collection<Rule> getRules(){
+		return new ArrayList<Rule>(rules.values());
+	}
+
+	public synchronized Rule getRule(String id){
+		return rules.get(id);
+	}
+
+	private void rebuild(){
+		Map<String, Map<Integer, Rule[]>> newIndex = new HashMap<String, Map<Integer, Rule[]>>();
+		for (Rule rule : rules.values()){
+			Map<Integer, Rule[]> controllerRules = newIndex.get(rule.getControllerName());
+			if (controllerRules == null){
+				controllerRules = new HashMap<Integer, Rule[]>();
+				newIndex.put(rule.getControllerName(), controllerRules);
+			}
+			Integer key = key(rule.getNodeId(), rule.getCommandClassKey());
+			Rule[] existing = controllerRules.get(key);
+			Rule[] extended = new Rule[existing == null ? 1 : existing.length + 1];
+			if (existing != null){
+				System.arraycopy(existing, 0, extended, 0, existing.length);
+			}
+			extended[extended.length - 1] = rule;
+			controllerRules.put(key, extended);
+		}
+		index = newIndex;
+	}
+
+	public void close(){
+		for (Map.Entry<EventBus, EventBus.Subscription> entry : subscriptions.entrySet()){
+			entry.getKey().unsubscribe(entry.getValue());
+		}
+		subscriptions.clear();
+	}
+
+	public synchronized String getStatistics(){
+		StringBuilder sb = new StringBuilder();
+		sb.append("--------------------------------------------------").append("\r\n");
+		sb.append("                  Rules").append("\r\n");
+		sb.append("--------------------------------------------------").append("\r\n");
+		sb.append("                     rules = ").append(rules.size()).append("\r\n");
+		sb.append("               data events = ").append(events.get()).append("\r\n");
+		sb.append("             matched rules = ").append(matched.get()).append("\r\n");
+		sb.append("              actions sent = ").append(fired.get()).append("\r\n");
+		sb.append("        actions not queued = ").append(rejected.get()).append("\r\n");
+		sb.append("--------------------------------------------------");
+		return sb.toString();
+	}
+}
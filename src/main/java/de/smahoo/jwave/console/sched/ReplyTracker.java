@@ -0,0 +1,263 @@
+package de.smahoo.jwave.console.sched;
+
+import de.smahoo.jwave.cmd.JWaveCommand;
+import de.smahoo.jwave.cmd.JWaveCommandClass;
+import de.smahoo.jwave.cmd.JWaveNodeCommand;
+import de.smahoo.jwave.console.cmd.SendTemplate;
+import de.smahoo.jwave.console.event.EventConsumer;
+import de.smahoo.jwave.console.stats.LatencyHistogram;
+import de.smahoo.jwave.event.JWaveEvent;
+import de.smahoo.jwave.event.JWaveNodeDataEvent;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Matches GETs with their REPORTs. {@link #sendAndAwait} registers the
+ * expected report under (node, command class, report command) before the
+ * GET is submitted to the {@link SendScheduler}; the future is completed by
+ * the first matching data event of the node, or exceptionally when the send
+ * fails or no report came within the timeout. Several requests for the same
+ * key are answered in the order they were made.
+ * <p>
+ * Subscribed to the session's event bus; timeouts run on the thread
+ * <code>jwave-replies-&lt;name&gt;</code>.
+ */
+public class ReplyTracker implements EventConsumer {
+
+	public static final long DEFAULT_TIMEOUT_MS = 10000;
+
+	private static final String GET_SUFFIX = "_GET";
+	private static final String REPORT_SUFFIX = "_REPORT";
+
+	private final SendScheduler scheduler;
+	private final ConcurrentHashMap<Long, Queue<Pending>> outstanding = new ConcurrentHashMap<Long, Queue<Pending>>();
+	private final ScheduledThreadPoolExecutor timer;
+
+	private final AtomicInteger waiting = new AtomicInteger();
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong replies = new AtomicLong();
+	private final AtomicLong timeouts = new AtomicLong();
+	private final AtomicLong sendFailures = new AtomicLong();
+	private final AtomicLong unsolicited = new AtomicLong();
+	private final LatencyHistogram latency = new LatencyHistogram();
+
+	public ReplyTracker(final String name, SendScheduler scheduler){
+		this.scheduler = scheduler;
+		timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "jwave-replies-"+name);
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		timer.setRemoveOnCancelPolicy(true);
+	}
+
+	/**
+	 * The REPORT answering a GET: the command named like the GET with
+	 * _REPORT instead of _GET, else the command following the GET. Null if
+	 * the command is not a GET or its class has no such report.
+	 */
+	public static JWaveCommand getReport(JWaveCommand get){
+		String name = get.getName();
+		JWaveCommandClass cmdClass = get.getCommandClass();
+		if (name == null || cmdClass == null || !name.toUpperCase().endsWith(GET_SUFFIX)){
+			return null;
+		}
+		JWaveCommand report = cmdClass.getCommand(name.substring(0, name.length() - GET_SUFFIX.length())+REPORT_SUFFIX);
+		if (report == null){
+			report = cmdClass.getCommand(get.getKey() + 1);
+		}
+		return report;
+	}
+
+	private static long key(int nodeId, int classKey, int commandKey){
+		return ((long)nodeId << 16) | ((classKey & 0xFF) << 8) | (commandKey & 0xFF);
+	}
+
+	/**
+	 * Submits the GET and returns the future of its report.
+	 *
+	 * @param report command expected back, see {@link #getReport(JWaveCommand)}
+	 * @param timeoutMs time from now until the future fails with a {@link TimeoutException}
+	 */
+	public CompletableFuture<JWaveNodeCommand> sendAndAwait(SendTemplate template, JWaveCommand report, long timeoutMs){
+		return sendAndAwait(template, report, timeoutMs, null);
+	}
+
+	/**
+	 * Like {@link #sendAndAwait(SendTemplate, JWaveCommand, long)}; the
+	 * callback (may be null) is told how the GET went on the air before a
+	 * failed send fails the future.
+	 */
+	public CompletableFuture<JWaveNodeCommand> sendAndAwait(SendTemplate template, JWaveCommand report, long timeoutMs, final SendCallback callback){
+		final Pending pending = new Pending(key(template.getNodeId(), report.getCommandClass().getKey(), report.getKey()));
+		requests.incrementAndGet();
+		Queue<Pending> queue = outstanding.get(pending.key);
+		if (queue == null){
+			queue = new ConcurrentLinkedQueue<Pending>();
+			Queue<Pending> existing = outstanding.putIfAbsent(pending.key, queue);
+			if (existing != null){
+				queue = existing;
+			}
+		}
+		waiting.incrementAndGet();
+		queue.add(pending);
+		pending.timeout = timer.schedule(new Runnable() {
+			public void run() {
+				if (pending.fail(new TimeoutException("no report within the timeout"))){
+					timeouts.incrementAndGet();
+				}
+			}
+		}, timeoutMs, TimeUnit.MILLISECONDS);
+		try {
+			boolean queued = scheduler.submit(template, 0, new SendCallback() {
+				public void onResult(SendTemplate template, SendResult result, long latencyNanos) {
+					if (callback != null){
+						callback.onResult(template, result, latencyNanos);
+					}
+					if (result != SendResult.ACKNOWLEDGED && pending.fail(new IOException("send "+result.getLabel()))){
+						sendFailures.incrementAndGet();
+					}
+				}
+			});
+			if (!queued && pending.fail(new RejectedExecutionException("send queue is full"))){
+				sendFailures.incrementAndGet();
+			}
+		} catch (InterruptedException exc){
+			Thread.currentThread().interrupt();
+			pending.fail(exc);
+		}
+		return pending.future;
+	}
+
+	public void onEvent(JWaveEvent event, long receivedMillis, long receivedNanos) {
+		if (!(event instanceof JWaveNodeDataEvent)){
+			return;
+		}
+		JWaveNodeDataEvent dataEvent = (JWaveNodeDataEvent)event;
+		JWaveNodeCommand nodeCmd = dataEvent.getCommand();
+		if (dataEvent.getNode() == null || nodeCmd == null || nodeCmd.getCommandClass() == null || nodeCmd.getCommand() == null){
+			return;
+		}
+		Queue<Pending> queue = outstanding.get(key(dataEvent.getNode().getNodeId(), nodeCmd.getCommandClass().getKey(), nodeCmd.getCommand().getKey()));
+		if (queue != null){
+			Pending pending;
+			while ((pending = queue.poll()) != null){
+				if (pending.complete(nodeCmd, receivedNanos)){
+					replies.incrementAndGet();
+					return;
+				}
+			}
+		}
+		unsolicited.incrementAndGet();
+	}
+
+	/**
+	 * Number of requests still waiting for their report.
+	 */
+	public int getOutstanding(){
+		return waiting.get();
+	}
+
+	/**
+	 * Fails all outstanding requests and stops the timeout thread.
+	 */
+	public void close(){
+		for (Queue<Pending> queue : outstanding.values()){
+			Pending pending;
+			while ((pending = queue.poll()) != null){
+				pending.fail(new IOException("controller closed"));
+			}
+		}
+		timer.shutdownNow();
+	}
+
+	/**
+	 * One line description of a report, e.g. "SWITCH_BINARY SWITCH_BINARY_REPORT 255".
+	 */
+	public static String describe(JWaveNodeCommand nodeCmd){
+		StringBuilder sb = new StringBuilder();
+		sb.append(nodeCmd.getCommandClass() == null ? "?" : nodeCmd.getCommandClass().getName());
+		sb.append(" ").append(nodeCmd.getCommand() == null ? "?" : nodeCmd.getCommand().getName());
+		// the node command does not tell its parameter count, read until the first missing one
+		for (int i = 0; i < 64; i++){
+			try {
+				sb.append(" ").append(nodeCmd.getParamValue(i));
+			} catch (Exception exc){
+				sb.setLength(sb.length() - 1);
+				break;
+			}
+		}
+		return sb.toString();
+	}
+
+	public String getStatistics(){
+		StringBuilder sb = new StringBuilder();
+		sb.append("--------------------------------------------------").append("\r\n");
+		sb.append("                  Replies").append("\r\n");
+		sb.append("--------------------------------------------------").append("\r\n");
+		sb.append("                  requests = ").append(requests.get()).append("\r\n");
+		sb.append("               outstanding = ").append(waiting.get()).append("\r\n");
+		sb.append("                   replies = ").append(replies.get()).append("\r\n");
+		sb.append("                  timeouts = ").append(timeouts.get()).append("\r\n");
+		sb.append("             send failures = ").append(sendFailures.get()).append("\r\n");
+		sb.append("       unsolicited reports = ").append(unsolicited.get()).append("\r\n");
+		sb.append(String.format("     reply p50 / p99 / max = %.1f / %.1f / %.1f ms", latency.getPercentile(50) / 1000.0, latency.getPercentile(99) / 1000.0, latency.getMax() / 1000.0)).append("\r\n");
+		sb.append("--------------------------------------------------");
+		return sb.toString();
+	}
+
+	private class Pending {
+
+		final long key;
+		final long startNanos = System.nanoTime();
+		final CompletableFuture<JWaveNodeCommand> future = new CompletableFuture<JWaveNodeCommand>();
+		volatile ScheduledFuture<?> timeout = null;
+
+		Pending(long key){
+			this.key = key;
+		}
+
+		boolean complete(JWaveNodeCommand nodeCmd, long receivedNanos){
+			if (!future.complete(nodeCmd)){
+				return false;
+			}
+			finished();
+			latency.record((receivedNanos - startNanos) / 1000);
+			return true;
+		}
+
+		boolean fail(Throwable cause){
+			if (!future.completeExceptionally(cause)){
+				return false;
+			}
+			finished();
+			Queue<Pending> queue = outstanding.get(key);
+			if (queue != null){
+				queue.remove(this);
+			}
+			return true;
+		}
+
+		private void finished(){
+			waiting.decrementAndGet();
+			ScheduledFuture<?> t = timeout;
+			if (t != null){
+				t.cancel(false);
+			}
+		}
+	}
+}
@@ -0,0 +1,15 @@
+package de.smahoo.jwave.console.sched;
+
+import de.smahoo.jwave.console.cmd.SendTemplate;
+
+/**
+ * Told once per submitted command how it ended. Called on the scheduler or
+ * serial receive thread, so implementations must return quickly.
+ */
+public interface SendCallback {
+
+	/**
+	 * @param latencyNanos time from submitting the command to the result
+	 */
+	void onResult(SendTemplate template, SendResult result, long latencyNanos);
+}
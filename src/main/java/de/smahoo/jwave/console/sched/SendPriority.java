@@ -0,0 +1,34 @@
+package de.smahoo.jwave.console.sched;
+
+/**
+ * Priority class of a send. The scheduler always dispatches the highest
+ * class that has a command for a node with a free in-flight slot.
+ */
+public enum SendPriority {
+
+	/** urgent commands (e.g. alarms, user actions that must not wait) */
+	HIGH("high"),
+	/** default for commands typed at the console */
+	NORMAL("normal"),
+	/** bulk traffic (e.g. polling, configuration runs) */
+	LOW("low");
+
+	private final String label;
+
+	SendPriority(String label){
+		this.label = label;
+	}
+
+	public String getLabel(){
+		return label;
+	}
+
+	public static SendPriority parse(String value){
+		for (SendPriority priority : values()){
+			if (priority.label.equalsIgnoreCase(value) || priority.name().equalsIgnoreCase(value)){
+				return priority;
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,28 @@
+package de.smahoo.jwave.console.sched;
+
+/**
+ * How a scheduled send ended.
+ */
+public enum SendResult {
+
+	/** the stick reported a successful transmission */
+	ACKNOWLEDGED("ok"),
+	/** the stick reported that the node did not acknowledge */
+	FAILED("failed"),
+	/** no transmit callback within the in-flight timeout */
+	TIMED_OUT("timeout"),
+	/** the controller did not accept the command */
+	DISPATCH_FAILED("not sent"),
+	/** replaced by a newer SET before it was sent */
+	SUPERSEDED("superseded");
+
+	private final String label;
+
+	SendResult(String label){
+		this.label = label;
+	}
+
+	public String getLabel(){
+		return label;
+	}
+}
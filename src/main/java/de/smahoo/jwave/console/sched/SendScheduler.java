@@ -0,0 +1,632 @@
+package de.smahoo.jwave.console.sched;
+
+import de.smahoo.jwave.cmd.JWaveCommand;
+import de.smahoo.jwave.console.cmd.SendTemplate;
+import de.smahoo.jwave.console.stats.LatencyHistogram;
+import de.smahoo.jwave.console.stats.SendListener;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Stage between the send commands of the console and
+ * {@link de.smahoo.jwave.node.JWaveNode#sendData}. Commands wait in one
+ * queue per node and priority class and are handed to the controller by a
+ * dispatcher thread, highest priority first and round robin over the nodes
+ * within a priority. Only a limited number of sends may be on the air per
+ * node and in total; a slot is freed when the send statistics see the
+ * transmit callback on the serial line (or after {@link #IN_FLIGHT_TIMEOUT_MS}).
+ * <p>
+ * A SET that is still queued is replaced by a newer SET of the same node,
+ * command class and command (for classes whose first parameter selects what
+ * is set, the first parameter is part of that key), so a burst of e.g.
+ * dimmer levels only sends the latest one. Association classes are never
+ * coalesced because their SETs add up.
+ * <p>
+ * Whoever needs to know how a command ended passes a {@link SendCallback}.
+ * <p>
+ * While the link to the controller is down the scheduler is paused
+ * ({@link #pause(int)}): nothing is dispatched, commands that were on the
+ * air are put back in front of their queue and new commands are held, up
+ * to a limit, until {@link #resume()} sends them in order.
+ *
+ * @see de.smahoo.jwave.console.stats.SendStatistics
+ */
+public class SendScheduler implements SendListener, Runnable {
+
+	public static final int DEFAULT_NODE_LIMIT = 1;
+	public static final int DEFAULT_TOTAL_LIMIT = 2;
+	public static final int DEFAULT_CAPACITY = 4096;
+	public static final long IN_FLIGHT_TIMEOUT_MS = 5000;
+
+	private static final int MAX_NODES = 256;
+	private static final long IDLE_WAIT_MS = 100;
+	private static final int PRIORITIES = SendPriority.values().length;
+
+	// classes whose first SET parameter selects the value that is set
+	private static final int[] INDEXED_CLASSES = {0x2C, 0x2D, 0x43, 0x63, 0x70};
+	// classes whose SETs are cumulative
+	private static final int[] CUMULATIVE_CLASSES = {0x85, 0x8E};
+
+	/**
+	 * Hands a command to the controller. Returns false (after reporting the
+	 * reason) if that failed.
+	 */
+	public interface Dispatcher {
+
+		boolean dispatch(SendTemplate template);
+	}
+
+	private final String name;
+	private final Dispatcher dispatcher;
+	private final int capacity;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition changed = lock.newCondition();
+	private final Condition notFull = lock.newCondition();
+	private final NodeQueue[] nodes = new NodeQueue[MAX_NODES];
+	private final ArrayDeque<NodeQueue>[] ready;
+
+	private int nodeLimit = DEFAULT_NODE_LIMIT;
+	private int totalLimit = DEFAULT_TOTAL_LIMIT;
+	private int queued = 0;
+	private int inFlight = 0;
+	private long lastExpiryCheck = 0;
+	private boolean paused = false;
+	private int pausedCapacity = 0;
+
+	private final int[] queuedByPriority = new int[PRIORITIES];
+	private final long[] submitted = new long[PRIORITIES];
+	private final long[] coalesced = new long[PRIORITIES];
+	private final long[] dispatched = new long[PRIORITIES];
+	private final LatencyHistogram[] waitTime = new LatencyHistogram[PRIORITIES];
+	private long rejected = 0;
+	private long failed = 0;
+	private long completed = 0;
+	private long expired = 0;
+	private int highWatermark = 0;
+	private long replayed = 0;
+	private long rejectedPaused = 0;
+
+	private Thread thread = null;
+	private volatile boolean running = false;
+
+	public SendScheduler(String name, Dispatcher dispatcher){
+		this(name, dispatcher, DEFAULT_CAPACITY);
+	}
+
+	@SuppressWarnings("unchecked")
+	public SendScheduler(String name, Dispatcher dispatcher, int capacity){
+		if (capacity <= 0){
+			throw new IllegalArgumentException("capacity must be positive");
+		}
+		this.name = name;
+		this.dispatcher = dispatcher;
+		this.capacity = capacity;
+		ready = new ArrayDeque[PRIORITIES];
+		for (int p = 0; p < PRIORITIES; p++){
+			ready[p] = new ArrayDeque<NodeQueue>();
+			waitTime[p] = new LatencyHistogram();
+		}
+	}
+
+	public synchronized void start(){
+		if (running){
+			return;
+		}
+		running = true;
+		thread = new Thread(this, "jwave-sched-"+name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public synchronized void close(){
+		running = false;
+		if (thread != null){
+			thread.interrupt();
+			thread = null;
+		}
+	}
+
+	public void setLimits(int perNode, int total){
+		if (perNode <= 0 || total <= 0){
+			throw new IllegalArgumentException("limits must be positive");
+		}
+		lock.lock();
+		try {
+			nodeLimit = perNode;
+			totalLimit = total;
+			changed.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int getNodeLimit(){
+		lock.lock();
+		try {
+			return nodeLimit;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int getTotalLimit(){
+		lock.lock();
+		try {
+			return totalLimit;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Queues the command. Returns false if the queue is full.
+	 */
+	public boolean submit(SendTemplate template){
+		return submit(template, null);
+	}
+
+	/**
+	 * Queues the command without waiting. Returns false if the queue is full;
+	 * the callback (may be null) is only called for commands that were queued.
+	 */
+	public boolean submit(SendTemplate template, SendCallback callback){
+		try {
+			return submit(template, 0, callback);
+		} catch (InterruptedException exc){
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	/**
+	 * Queues the command, waiting up to the timeout for room in the queue.
+	 * Returns false if the queue stayed full or the scheduler is closed; the
+	 * callback (may be null) is only called for commands that were queued.
+	 */
+	public boolean submit(SendTemplate template, long timeoutMs, SendCallback callback) throws InterruptedException {
+		int nodeId = template.getNodeId();
+		if (nodeId < 0 || nodeId >= MAX_NODES){
+			return false;
+		}
+		int p = template.getPriority().ordinal();
+		long key = coalesceKey(template);
+		long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+		Entry superseded = null;
+		lock.lock();
+		try {
+			if (!running){
+				return false;
+			}
+			NodeQueue node = nodes[nodeId];
+			if (node == null){
+				node = new NodeQueue();
+				nodes[nodeId] = node;
+			}
+			if (key >= 0){
+				Entry existing = node.latestSet.get(key);
+				if (existing != null){
+					coalesced[existing.priority]++;
+					superseded = existing.copy();
+					if (existing.priority == p){
+						// latest value, but keeps its place in the queue
+						existing.template = template;
+						existing.callback = callback;
+						existing.submittedNanos = System.nanoTime();
+						submitted[p]++;
+						return true;
+					}
+					existing.cancelled = true;
+					node.latestSet.remove(key);
+					queued--;
+					queuedByPriority[existing.priority]--;
+					notFull.signal();
+				}
+			}
+			while (queued >= (paused ? pausedCapacity : capacity)){
+				if (remaining <= 0 || !running){
+					rejected++;
+					if (paused){
+						rejectedPaused++;
+					}
+					return false;
+				}
+				remaining = notFull.awaitNanos(remaining);
+			}
+			Entry entry = new Entry(template, callback, key, p, System.nanoTime());
+			node.pending[p].add(entry);
+			if (key >= 0){
+				node.latestSet.put(key, entry);
+			}
+			queued++;
+			queuedByPriority[p]++;
+			submitted[p]++;
+			if (queued > highWatermark){
+				highWatermark = queued;
+			}
+			if (!node.inReady[p]){
+				node.inReady[p] = true;
+				ready[p].add(node);
+			}
+			changed.signal();
+			return true;
+		} finally {
+			lock.unlock();
+			if (superseded != null){
+				superseded.finish(SendResult.SUPERSEDED, System.nanoTime());
+			}
+		}
+	}
+
+	/**
+	 * Stops dispatching until {@link #resume()}. Commands on the air are
+	 * queued again in front of their node's queue (a newer queued SET
+	 * supersedes them); while paused at most maxQueued commands are held.
+	 */
+	public void pause(int maxQueued){
+		List<Entry> superseded = new ArrayList<Entry>();
+		lock.lock();
+		try {
+			paused = true;
+			pausedCapacity = Math.min(capacity, Math.max(maxQueued, 1));
+			for (NodeQueue node : nodes){
+				if (node == null){
+					continue;
+				}
+				while (!node.inFlight.isEmpty()){
+					Entry entry = node.inFlight.pollLast();
+					inFlight--;
+					if (entry.key >= 0 && node.latestSet.containsKey(entry.key)){
+						superseded.add(entry);
+						continue;
+					}
+					if (entry.key >= 0){
+						node.latestSet.put(entry.key, entry);
+					}
+					node.pending[entry.priority].addFirst(entry);
+					queued++;
+					queuedByPriority[entry.priority]++;
+					replayed++;
+					if (!node.inReady[entry.priority]){
+						node.inReady[entry.priority] = true;
+						ready[entry.priority].add(node);
+					}
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+		long now = System.nanoTime();
+		for (Entry entry : superseded){
+			entry.finish(SendResult.SUPERSEDED, now);
+		}
+	}
+
+	/**
+	 * Sends the held commands and goes on dispatching.
+	 */
+	public void resume(){
+		lock.lock();
+		try {
+			paused = false;
+			changed.signal();
+			notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public boolean isPaused(){
+		lock.lock();
+		try {
+			return paused;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void onSendCompleted(int nodeId, int cmdClass, boolean acknowledged) {
+		if (nodeId < 0 || nodeId >= MAX_NODES){
+			return;
+		}
+		Entry entry;
+		lock.lock();
+		try {
+			NodeQueue node = nodes[nodeId];
+			if (node == null || node.inFlight.isEmpty()){
+				// not sent by the scheduler
+				return;
+			}
+			entry = node.inFlight.poll();
+			inFlight--;
+			completed++;
+			changed.signal();
+		} finally {
+			lock.unlock();
+		}
+		entry.finish(acknowledged ? SendResult.ACKNOWLEDGED : SendResult.FAILED, System.nanoTime());
+	}
+
+	public void run() {
+		try {
+			while (running){
+				Entry entry = null;
+				List<Entry> expiredEntries = null;
+				lock.lock();
+				try {
+					long now = System.nanoTime();
+					expiredEntries = expireInFlight(now);
+					entry = next();
+					if (entry == null){
+						if (expiredEntries == null){
+							changed.await(IDLE_WAIT_MS, TimeUnit.MILLISECONDS);
+						}
+						continue;
+					}
+					NodeQueue node = nodes[entry.template.getNodeId()];
+					if (entry.key >= 0 && node.latestSet.get(entry.key) == entry){
+						node.latestSet.remove(entry.key);
+					}
+					queued--;
+					queuedByPriority[entry.priority]--;
+					entry.dispatchedNanos = now;
+					node.inFlight.add(entry);
+					inFlight++;
+					dispatched[entry.priority]++;
+					waitTime[entry.priority].record((now - entry.queuedNanos) / 1000);
+					notFull.signal();
+				} finally {
+					lock.unlock();
+					if (expiredEntries != null){
+						long now = System.nanoTime();
+						for (Entry expiredEntry : expiredEntries){
+							expiredEntry.finish(SendResult.TIMED_OUT, now);
+						}
+					}
+				}
+				if (entry == null){
+					continue;
+				}
+				boolean ok;
+				try {
+					ok = dispatcher.dispatch(entry.template);
+				} catch (RuntimeException exc){
+					ok = false;
+				}
+				if (!ok){
+					release(entry);
+				}
+			}
+		} catch (InterruptedException exc){
+			// scheduler was closed
+		}
+		lock.lock();
+		try {
+			notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Takes the next command that may be sent, or null. Called with the lock held.
+	 */
+	private Entry next(){
+		if (paused || inFlight >= totalLimit){
+			return null;
+		}
+		for (int p = 0; p < PRIORITIES; p++){
+			ArrayDeque<NodeQueue> queue = ready[p];
+			for (int n = queue.size(); n > 0; n--){
+				NodeQueue node = queue.poll();
+				Entry entry = node.poll(p);
+				if (entry == null){
+					node.inReady[p] = false;
+					continue;
+				}
+				if (node.inFlight.size() >= nodeLimit){
+					node.pending[p].addFirst(entry);
+					queue.add(node);
+					continue;
+				}
+				if (node.pending[p].isEmpty()){
+					node.inReady[p] = false;
+				} else {
+					queue.add(node);
+				}
+				return entry;
+			}
+		}
+		return null;
+	}
+
+	private void release(Entry entry){
+		lock.lock();
+		try {
+			failed++;
+			NodeQueue node = nodes[entry.template.getNodeId()];
+			if (node.inFlight.remove(entry)){
+				inFlight--;
+			}
+			changed.signal();
+		} finally {
+			lock.unlock();
+		}
+		entry.finish(SendResult.DISPATCH_FAILED, System.nanoTime());
+	}
+
+	/**
+	 * Frees slots of sends whose callback never showed up and returns them
+	 * (null if there are none). Called with the lock held.
+	 */
+	private List<Entry> expireInFlight(long now){
+		if (inFlight == 0 || now - lastExpiryCheck < TimeUnit.MILLISECONDS.toNanos(IDLE_WAIT_MS)){
+			return null;
+		}
+		lastExpiryCheck = now;
+		long timeout = TimeUnit.MILLISECONDS.toNanos(IN_FLIGHT_TIMEOUT_MS);
+		List<Entry> expiredEntries = null;
+		for (NodeQueue node : nodes){
+			if (node == null){
+				continue;
+			}
+			while (!node.inFlight.isEmpty() && now - node.inFlight.peek().dispatchedNanos > timeout){
+				if (expiredEntries == null){
+					expiredEntries = new ArrayList<Entry>();
+				}
+				expiredEntries.add(node.inFlight.poll());
+				inFlight--;
+				expired++;
+			}
+		}
+		return expiredEntries;
+	}
+
+	/**
+	 * Key under which SETs replace each other, -1 if the command is never coalesced.
+	 */
+	static long coalesceKey(SendTemplate template){
+		JWaveCommand command = template.getCommand();
+		int classKey = template.getCommandClassKey();
+		if (classKey < 0 || command == null || command.getName() == null || !command.getName().toUpperCase().endsWith("SET")){
+			return -1;
+		}
+		if (contains(CUMULATIVE_CLASSES, classKey)){
+			return -1;
+		}
+		long key = ((long)classKey & 0xFFFF) << 40 | ((long)command.getKey() & 0xFF) << 32;
+		if (contains(INDEXED_CLASSES, classKey) && template.getParamCount() > 0){
+			key |= template.getParam(0) & 0xFFFFFFFFL;
+		}
+		return key;
+	}
+
+	private static boolean contains(int[] values, int value){
+		for (int v : values){
+			if (v == value){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public int getQueued(){
+		lock.lock();
+		try {
+			return queued;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int getInFlight(){
+		lock.lock();
+		try {
+			return inFlight;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public String getStatistics(){
+		lock.lock();
+		try {
+			StringBuilder sb = new StringBuilder();
+			sb.append("--------------------------------------------------").append("\r\n");
+			sb.append("                  Send Queue").append("\r\n");
+			sb.append("--------------------------------------------------").append("\r\n");
+			sb.append("          in-flight limits = ").append(nodeLimit).append(" per node, ").append(totalLimit).append(" total").append("\r\n");
+			sb.append("                 in flight = ").append(inFlight).append("\r\n");
+			sb.append("                    queued = ").append(queued).append(" / ").append(capacity).append("\r\n");
+			sb.append("            high watermark = ").append(highWatermark).append("\r\n");
+			sb.append("      completed on the air = ").append(completed).append("\r\n");
+			sb.append("         expired in flight = ").append(expired).append("\r\n");
+			sb.append("     rejected (queue full) = ").append(rejected).append("\r\n");
+			sb.append("         dispatch failures = ").append(failed).append("\r\n");
+			sb.append("                    paused = ").append(paused ? "yes (link down, holding up to "+pausedCapacity+")" : "no").append("\r\n");
+			sb.append("  replayed after link loss = ").append(replayed).append("\r\n");
+			sb.append("  rejected while link down = ").append(rejectedPaused).append("\r\n");
+			for (SendPriority priority : SendPriority.values()){
+				int p = priority.ordinal();
+				LatencyHistogram wait = waitTime[p];
+				sb.append("\r\n");
+				sb.append("  priority ").append(priority.getLabel()).append("\r\n");
+				sb.append("                    queued = ").append(queuedByPriority[p]).append("\r\n");
+				sb.append("                 submitted = ").append(submitted[p]).append("\r\n");
+				sb.append("                 coalesced = ").append(coalesced[p]).append("\r\n");
+				sb.append("                dispatched = ").append(dispatched[p]).append("\r\n");
+				sb.append(String.format("      queue wait p50 / p99 = %.1f / %.1f ms", wait.getPercentile(50) / 1000.0, wait.getPercentile(99) / 1000.0)).append("\r\n");
+			}
+			sb.append("--------------------------------------------------");
+			return sb.toString();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private static class Entry {
+
+		private SendTemplate template;
+		private SendCallback callback;
+		private final long key;
+		private final int priority;
+		private final long queuedNanos;
+		private long submittedNanos;
+		private long dispatchedNanos = 0;
+		private boolean cancelled = false;
+
+		Entry(SendTemplate template, SendCallback callback, long key, int priority, long queuedNanos){
+			this.template = template;
+			this.callback = callback;
+			this.key = key;
+			this.priority = priority;
+			this.queuedNanos = queuedNanos;
+			this.submittedNanos = queuedNanos;
+		}
+
+		Entry copy(){
+			Entry entry = new Entry(template, callback, key, priority, queuedNanos);
+			entry.submittedNanos = submittedNanos;
+			return entry;
+		}
+
+		void finish(SendResult result, long now){
+			if (callback != null){
+				callback.onResult(template, result, now - submittedNanos);
+			}
+		}
+	}
+
+	private static class NodeQueue {
+
+		private final ArrayDeque<Entry>[] pending;
+		private final boolean[] inReady = new boolean[PRIORITIES];
+		private final Map<Long, Entry> latestSet = new HashMap<Long, Entry>();
+		private final ArrayDeque<Entry> inFlight = new ArrayDeque<Entry>();
+
+		@SuppressWarnings("unchecked")
+		NodeQueue(){
+			pending = new ArrayDeque[PRIORITIES];
+			for (int p = 0; p < PRIORITIES; p++){
+				pending[p] = new ArrayDeque<Entry>();
+			}
+		}
+
+		Entry poll(int priority){
+			Entry entry;
+			while ((entry = pending[priority].poll()) != null){
+				if (!entry.cancelled){
+					return entry;
+				}
+			}
+			return null;
+		}
+	}
+}
@@ -0,0 +1,392 @@
+package de.smahoo.jwave.console.sim;
+
+import de.smahoo.jwave.console.io.BytePipe;
+import de.smahoo.jwave.console.io.SerialFrames;
+import de.smahoo.jwave.console.log.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process stand-in for a Z-Wave controller stick. The host side gets a
+ * stream pair that can be handed to {@link de.smahoo.jwave.JWaveController#init(InputStream, OutputStream)}
+ * exactly like the streams of a serial port. Frames are ACKed right away,
+ * answered with the serial API response and - after the configured radio
+ * latency - with the transmit callback and the node's report, if any.
+ */
+public class SimulatedController {
+
+	private static final Log LOG = Log.get("sim");
+
+	public static final int CONTROLLER_NODE_ID = 1;
+
+	private static final int MAX_FRAME_LENGTH = 0xFF;
+
+	private final SimulatorConfig config;
+	private final SimulatedNode[] nodes = new SimulatedNode[233];
+	private final Random random;
+
+	private final BytePipe toHost = new BytePipe();
+	private final BytePipe fromHost = new BytePipe();
+	private final OutputStream hostOut = toHost.getOutputStream();
+	private final InputStream simIn = fromHost.getInputStream();
+
+	private final ScheduledExecutorService radio;
+	private Thread receiver = null;
+	private volatile boolean running = false;
+
+	private final AtomicLong framesReceived = new AtomicLong();
+	private final AtomicLong framesSent = new AtomicLong();
+	private final AtomicLong framesLost = new AtomicLong();
+	private final AtomicLong checksumErrors = new AtomicLong();
+
+	public SimulatedController(SimulatorConfig config){
+		this.config = config;
+		this.random = new Random(config.getSeed());
+		nodes[CONTROLLER_NODE_ID] = SimulatedNode.createController(CONTROLLER_NODE_ID);
+		for (int i = 0; i < config.getNodes(); i++){
+			int nodeId = CONTROLLER_NODE_ID + 1 + i;
+			nodes[nodeId] = SimulatedNode.createSlave(nodeId);
+		}
+		radio = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "jwave-sim-radio");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Stream the host (the JWaveController) reads from.
+	 */
+	public InputStream getInputStream(){
+		return toHost.getInputStream();
+	}
+
+	/**
+	 * Stream the host (the JWaveController) writes to.
+	 */
+	public OutputStream getOutputStream(){
+		return fromHost.getOutputStream();
+	}
+
+	public SimulatorConfig getConfig(){
+		return config;
+	}
+
+	public synchronized void start(){
+		if (running){
+			return;
+		}
+		running = true;
+		receiver = new Thread(new Runnable() {
+			public void run() {
+				receiveLoop();
+			}
+		}, "jwave-sim-rx");
+		receiver.setDaemon(true);
+		receiver.start();
+	}
+
+	public synchronized void close(){
+		running = false;
+		radio.shutdownNow();
+		fromHost.close();
+		toHost.close();
+		if (receiver != null){
+			receiver.interrupt();
+			receiver = null;
+		}
+	}
+
+	public long getFramesReceived(){
+		return framesReceived.get();
+	}
+
+	public long getFramesSent(){
+		return framesSent.get();
+	}
+
+	public long getFramesLost(){
+		return framesLost.get();
+	}
+
+	public long getChecksumErrors(){
+		return checksumErrors.get();
+	}
+
+	private void receiveLoop(){
+		byte[] frame = new byte[MAX_FRAME_LENGTH + 2];
+		try {
+			while (running){
+				int b = simIn.read();
+				if (b < 0){
+					break;
+				}
+				if (b != SerialFrames.SOF){
+					// ACK / NAK / CAN of the host - nothing is retransmitted here
+					continue;
+				}
+				int len = simIn.read();
+				if (len < 3){
+					continue;
+				}
+				frame[0] = (byte)len;
+				int read = 0;
+				while (read < len){
+					int n = simIn.read(frame, 1 + read, len - read);
+					if (n < 0){
+						return;
+					}
+					read += n;
+				}
+				int checksum = frame[len] & 0xFF;
+				if (SerialFrames.checksum(frame, 0, len) != checksum){
+					checksumErrors.incrementAndGet();
+					writeByte(SerialFrames.NAK);
+					continue;
+				}
+				framesReceived.incrementAndGet();
+				writeByte(SerialFrames.ACK);
+				int type = frame[1] & 0xFF;
+				int func = frame[2] & 0xFF;
+				if (type == SerialFrames.TYPE_REQUEST){
+					handleRequest(func, frame, 3, len - 3);
+				}
+			}
+		} catch (IOException exc){
+			if (running){
+				LOG.warn("Simulator receive loop stopped ({})", exc.getMessage());
+			}
+		}
+	}
+
+	private void handleRequest(final int func, byte[] frame, int off, int len) throws IOException {
+		switch (func){
+			case SerialFrames.FUNC_SERIAL_API_GET_INIT_DATA:
+				respond(func, initData());
+				break;
+			case SerialFrames.FUNC_GET_CONTROLLER_CAPABILITIES:
+				respond(func, new byte[]{0x1C});
+				break;
+			case SerialFrames.FUNC_SERIAL_API_SET_TIMEOUTS:
+				respond(func, new byte[]{0x0F, 0x0A});
+				break;
+			case SerialFrames.FUNC_SERIAL_API_GET_CAPABILITIES:
+				respond(func, capabilities());
+				break;
+			case SerialFrames.FUNC_GET_VERSION:
+				respond(func, version());
+				break;
+			case SerialFrames.FUNC_MEMORY_GET_ID:
+				int homeId = config.getHomeId();
+				respond(func, new byte[]{(byte)(homeId >> 24), (byte)(homeId >> 16), (byte)(homeId >> 8), (byte)homeId, (byte)CONTROLLER_NODE_ID});
+				break;
+			case SerialFrames.FUNC_GET_SUC_NODE_ID:
+				respond(func, new byte[]{(byte)CONTROLLER_NODE_ID});
+				break;
+			case SerialFrames.FUNC_GET_NODE_PROTOCOL_INFO:
+				respond(func, protocolInfo(len > 0 ? frame[off] & 0xFF : 0));
+				break;
+			case SerialFrames.FUNC_REQUEST_NODE_INFO:
+				respond(func, new byte[]{0x01});
+				requestNodeInfo(len > 0 ? frame[off] & 0xFF : 0);
+				break;
+			case SerialFrames.FUNC_SEND_DATA:
+				respond(func, new byte[]{0x01});
+				sendData(frame, off, len);
+				break;
+			case SerialFrames.FUNC_SET_DEFAULT:
+				if (len > 0){
+					request(func, new byte[]{frame[off + len - 1]}, 0);
+				}
+				break;
+			case SerialFrames.FUNC_ADD_NODE_TO_NETWORK:
+			case SerialFrames.FUNC_REMOVE_NODE_FROM_NETWORK:
+				if (len > 1){
+					// LEARN_READY for start modes, DONE for the stop mode
+					int mode = frame[off] & 0x0F;
+					byte status = (byte)(mode == 0x05 ? 0x06 : 0x01);
+					request(func, new byte[]{frame[off + 1], status, 0x00, 0x00}, 0);
+				}
+				break;
+			default:
+				// SERIAL_API_APPL_NODE_INFO and anything unknown only get the ACK
+				break;
+		}
+	}
+
+	private void sendData(byte[] frame, int off, int len){
+		if (len < 4){
+			return;
+		}
+		final int nodeId = frame[off] & 0xFF;
+		int dataLen = frame[off + 1] & 0xFF;
+		if (dataLen + 4 > len){
+			return;
+		}
+		final byte callbackId = frame[off + 2 + dataLen + 1];
+		final SimulatedNode node = nodeId < nodes.length ? nodes[nodeId] : null;
+		final boolean lost = node == null || isLost();
+		final byte[] report = lost ? null : node.handleCommand(frame, off + 2, dataLen);
+		long delay = nextLatency();
+		if (lost){
+			framesLost.incrementAndGet();
+		}
+		request(SerialFrames.FUNC_SEND_DATA, new byte[]{callbackId,
+				(byte)(lost ? SerialFrames.TRANSMIT_COMPLETE_NO_ACK : SerialFrames.TRANSMIT_COMPLETE_OK)}, delay);
+		if (report != null){
+			byte[] payload = new byte[report.length + 3];
+			payload[0] = 0x00;
+			payload[1] = (byte)nodeId;
+			payload[2] = (byte)report.length;
+			System.arraycopy(report, 0, payload, 3, report.length);
+			request(SerialFrames.FUNC_APPLICATION_COMMAND_HANDLER, payload, delay + nextLatency());
+		}
+	}
+
+	private void requestNodeInfo(int nodeId){
+		SimulatedNode node = nodeId < nodes.length ? nodes[nodeId] : null;
+		if (node == null || isLost()){
+			framesLost.incrementAndGet();
+			request(SerialFrames.FUNC_APPLICATION_UPDATE, new byte[]{(byte)SerialFrames.UPDATE_STATE_NODE_INFO_REQ_FAILED, 0x00, 0x00}, nextLatency());
+			return;
+		}
+		int[] ccs = node.getCommandClasses();
+		byte[] payload = new byte[6 + ccs.length];
+		payload[0] = (byte)SerialFrames.UPDATE_STATE_NODE_INFO_RECEIVED;
+		payload[1] = (byte)nodeId;
+		payload[2] = (byte)(3 + ccs.length);
+		payload[3] = (byte)node.getBasicType();
+		payload[4] = (byte)node.getGenericType();
+		payload[5] = (byte)node.getSpecificType();
+		for (int i = 0; i < ccs.length; i++){
+			payload[6 + i] = (byte)ccs[i];
+		}
+		request(SerialFrames.FUNC_APPLICATION_UPDATE, payload, nextLatency());
+	}
+
+	private byte[] initData(){
+		byte[] payload = new byte[34];
+		payload[0] = 0x05;	// serial API version
+		payload[1] = 0x08;	// capabilities: SIS
+		payload[2] = 29;	// node bitmask length
+		for (int nodeId = 1; nodeId < nodes.length; nodeId++){
+			if (nodes[nodeId] != null){
+				int bit = nodeId - 1;
+				payload[3 + bit / 8] |= (byte)(1 << (bit % 8));
+			}
+		}
+		payload[32] = 0x05;	// chip type
+		payload[33] = 0x00;	// chip version
+		return payload;
+	}
+
+	private byte[] capabilities(){
+		byte[] payload = new byte[8 + 32];
+		payload[0] = 0x01;
+		payload[1] = 0x00;
+		payload[7] = 0x01;
+		int[] supported = {
+			SerialFrames.FUNC_SERIAL_API_GET_INIT_DATA, SerialFrames.FUNC_SERIAL_API_APPL_NODE_INFO,
+			SerialFrames.FUNC_GET_CONTROLLER_CAPABILITIES, SerialFrames.FUNC_SERIAL_API_SET_TIMEOUTS,
+			SerialFrames.FUNC_SERIAL_API_GET_CAPABILITIES, SerialFrames.FUNC_SEND_DATA,
+			SerialFrames.FUNC_GET_VERSION, SerialFrames.FUNC_MEMORY_GET_ID,
+			SerialFrames.FUNC_GET_NODE_PROTOCOL_INFO, SerialFrames.FUNC_SET_DEFAULT,
+			SerialFrames.FUNC_ADD_NODE_TO_NETWORK, SerialFrames.FUNC_REMOVE_NODE_FROM_NETWORK,
+			SerialFrames.FUNC_GET_SUC_NODE_ID, SerialFrames.FUNC_REQUEST_NODE_INFO
+		};
+		for (int func : supported){
+			int bit = func - 1;
+			payload[8 + bit / 8] |= (byte)(1 << (bit % 8));
+		}
+		return payload;
+	}
+
+	private byte[] version(){
+		byte[] text = "Z-Wave 4.05".getBytes();
+		byte[] payload = new byte[text.length + 2];
+		System.arraycopy(text, 0, payload, 0, text.length);
+		payload[text.length] = 0x00;
+		payload[text.length + 1] = 0x01;	// library type: static controller
+		return payload;
+	}
+
+	private byte[] protocolInfo(int nodeId){
+		SimulatedNode node = nodeId >= 0 && nodeId < nodes.length ? nodes[nodeId] : null;
+		if (node == null){
+			return new byte[6];
+		}
+		return new byte[]{(byte)0xD3, (byte)0x9C, 0x01, (byte)node.getBasicType(), (byte)node.getGenericType(), (byte)node.getSpecificType()};
+	}
+
+	private synchronized boolean isLost(){
+		return config.getLossPct() > 0 && random.nextDouble() * 100.0 < config.getLossPct();
+	}
+
+	/**
+	 * Latency of one radio hop, jittered by +/- 20 percent.
+	 */
+	private synchronized long nextLatency(){
+		int latency = config.getLatencyMs();
+		if (latency == 0){
+			return 0;
+		}
+		int jitter = latency / 5;
+		if (jitter == 0){
+			return latency;
+		}
+		return latency - jitter + random.nextInt(2 * jitter + 1);
+	}
+
+	private void respond(int func, byte[] payload) throws IOException {
+		writeFrame(SerialFrames.build(SerialFrames.TYPE_RESPONSE, func, payload));
+	}
+
+	private void request(final int func, final byte[] payload, long delayMs){
+		final byte[] frame = SerialFrames.build(SerialFrames.TYPE_REQUEST, func, payload);
+		if (delayMs <= 0){
+			try {
+				writeFrame(frame);
+			} catch (IOException exc){
+				// host side is gone
+			}
+			return;
+		}
+		try {
+			radio.schedule(new Runnable() {
+				public void run() {
+					try {
+						writeFrame(frame);
+					} catch (IOException exc){
+						// host side is gone
+					}
+				}
+			}, delayMs, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException exc){
+			// simulator was closed
+		}
+	}
+
+	private void writeByte(int b) throws IOException {
+		synchronized (hostOut){
+			hostOut.write(b);
+		}
+	}
+
+	private void writeFrame(byte[] frame) throws IOException {
+		synchronized (hostOut){
+			hostOut.write(frame);
+		}
+		framesSent.incrementAndGet();
+	}
+}
@@ -0,0 +1,152 @@
+package de.smahoo.jwave.console.sim;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A virtual node of the emulated controller. It keeps the last values set
+ * per command class and answers GETs with the matching REPORT.
+ */
+class SimulatedNode {
+
+	static final int CC_BASIC                 = 0x20;
+	static final int CC_SWITCH_BINARY         = 0x25;
+	static final int CC_SWITCH_MULTILEVEL     = 0x26;
+	static final int CC_SENSOR_MULTILEVEL     = 0x31;
+	static final int CC_METER                 = 0x32;
+	static final int CC_MANUFACTURER_SPECIFIC = 0x72;
+	static final int CC_BATTERY               = 0x80;
+	static final int CC_VERSION               = 0x86;
+
+	static final int BASIC_TYPE_STATIC_CONTROLLER = 0x02;
+	static final int BASIC_TYPE_SLAVE             = 0x03;
+	static final int BASIC_TYPE_ROUTING_SLAVE     = 0x04;
+
+	/** generic type, specific type, command classes */
+	private static final int[][] PROFILES = {
+		{0x10, 0x01, CC_BASIC, CC_SWITCH_BINARY, CC_MANUFACTURER_SPECIFIC, CC_VERSION},
+		{0x11, 0x01, CC_BASIC, CC_SWITCH_MULTILEVEL, CC_MANUFACTURER_SPECIFIC, CC_VERSION},
+		{0x21, 0x01, CC_BASIC, CC_SENSOR_MULTILEVEL, CC_BATTERY, CC_MANUFACTURER_SPECIFIC, CC_VERSION},
+		{0x31, 0x01, CC_BASIC, CC_METER, CC_SWITCH_BINARY, CC_MANUFACTURER_SPECIFIC, CC_VERSION}
+	};
+
+	private final int nodeId;
+	private final int basicType;
+	private final int genericType;
+	private final int specificType;
+	private final int[] commandClasses;
+	private final Map<Integer, byte[]> values = new HashMap<Integer, byte[]>();
+
+	SimulatedNode(int nodeId, int basicType, int genericType, int specificType, int[] commandClasses){
+		this.nodeId = nodeId;
+		this.basicType = basicType;
+		this.genericType = genericType;
+		this.specificType = specificType;
+		this.commandClasses = commandClasses;
+	}
+
+	static SimulatedNode createController(int nodeId){
+		return new SimulatedNode(nodeId, BASIC_TYPE_STATIC_CONTROLLER, 0x02, 0x01, new int[0]);
+	}
+
+	static SimulatedNode createSlave(int nodeId){
+		int[] profile = PROFILES[(nodeId - 2) % PROFILES.length];
+		int[] ccs = new int[profile.length - 2];
+		System.arraycopy(profile, 2, ccs, 0, ccs.length);
+		return new SimulatedNode(nodeId, BASIC_TYPE_ROUTING_SLAVE, profile[0], profile[1], ccs);
+	}
+
+	int getNodeId(){
+		return nodeId;
+	}
+
+	int getBasicType(){
+		return basicType;
+	}
+
+	int getGenericType(){
+		return genericType;
+	}
+
+	int getSpecificType(){
+		return specificType;
+	}
+
+	int[] getCommandClasses(){
+		return commandClasses;
+	}
+
+	boolean supports(int cmdClass){
+		for (int cc : commandClasses){
+			if (cc == cmdClass){
+				return true;
+			}
+		}
+		return cmdClass == CC_BASIC;
+	}
+
+	/**
+	 * Applies an application command and returns the report the node sends
+	 * back (class, command, params), or null if the command has no answer.
+	 */
+	synchronized byte[] handleCommand(byte[] data, int off, int len){
+		if (len < 2){
+			return null;
+		}
+		int cmdClass = data[off] & 0xFF;
+		int cmd = data[off + 1] & 0xFF;
+		if (!supports(cmdClass)){
+			return null;
+		}
+		switch (cmdClass){
+			case CC_MANUFACTURER_SPECIFIC:
+				if (cmd == 0x04){
+					return new byte[]{(byte)cmdClass, 0x05, 0x00, 0x00, 0x00, (byte)genericType, 0x00, (byte)nodeId};
+				}
+				return null;
+			case CC_VERSION:
+				if (cmd == 0x11){
+					return new byte[]{(byte)cmdClass, 0x12, 0x03, 0x04, 0x05, 0x01, 0x00};
+				}
+				return null;
+			case CC_BATTERY:
+				if (cmd == 0x02){
+					return new byte[]{(byte)cmdClass, 0x03, (byte)(100 - nodeId % 40)};
+				}
+				return null;
+			case CC_SENSOR_MULTILEVEL:
+				if (cmd == 0x04){
+					int value = 200 + (int)(System.nanoTime() % 50);
+					return new byte[]{(byte)cmdClass, 0x05, 0x01, 0x22, (byte)(value >> 8), (byte)value};
+				}
+				return null;
+			case CC_METER:
+				if (cmd == 0x01){
+					int value = (int)(System.currentTimeMillis() / 1000 % 1000000);
+					return new byte[]{(byte)cmdClass, 0x02, 0x01, 0x74,
+							(byte)(value >> 24), (byte)(value >> 16), (byte)(value >> 8), (byte)value};
+				}
+				return null;
+			default:
+				// BASIC / SWITCH_BINARY / SWITCH_MULTILEVEL: SET = 0x01, GET = 0x02, REPORT = 0x03
+				if (cmd == 0x01){
+					byte[] params = new byte[len - 2];
+					System.arraycopy(data, off + 2, params, 0, params.length);
+					values.put(cmdClass, params);
+					return null;
+				}
+				if (cmd == 0x02){
+					byte[] params = values.get(cmdClass);
+					if (params == null || params.length == 0){
+						params = new byte[]{0x00};
+					}
+					byte[] report = new byte[2 + params.length];
+					report[0] = (byte)cmdClass;
+					report[1] = 0x03;
+					System.arraycopy(params, 0, report, 2, params.length);
+					return report;
+				}
+				return null;
+		}
+	}
+}
@@ -0,0 +1,117 @@
+package de.smahoo.jwave.console.sim;
+
+import java.util.StringTokenizer;
+
+/**
+ * Options of the emulated controller stick, parsed from a port name like
+ * <code>sim:nodes=20,latencyMs=40,lossPct=2</code>.
+ */
+public class SimulatorConfig {
+
+	public static final String PORT_PREFIX = "sim";
+
+	private int nodes = 5;
+	private int latencyMs = 20;
+	private double lossPct = 0.0;
+	private int homeId = 0xC0FFEE01;
+	private long seed = System.nanoTime();
+
+	public static boolean isSimulatorPort(String port){
+		if (port == null){
+			return false;
+		}
+		return PORT_PREFIX.equalsIgnoreCase(port) || port.toLowerCase().startsWith(PORT_PREFIX + ":");
+	}
+
+	public static SimulatorConfig parse(String port) throws IllegalArgumentException {
+		SimulatorConfig config = new SimulatorConfig();
+		if (!isSimulatorPort(port)){
+			throw new IllegalArgumentException("not a simulator port ("+port+")");
+		}
+		if (port.length() <= PORT_PREFIX.length() + 1){
+			return config;
+		}
+		StringTokenizer tok = new StringTokenizer(port.substring(PORT_PREFIX.length() + 1), ",");
+		while (tok.hasMoreTokens()){
+			String option = tok.nextToken().trim();
+			int idx = option.indexOf('=');
+			if (idx <= 0){
+				throw new IllegalArgumentException("invalid simulator option ("+option+")");
+			}
+			String key = option.substring(0, idx).trim();
+			String value = option.substring(idx + 1).trim();
+			try {
+				if ("nodes".equalsIgnoreCase(key)){
+					config.setNodes(Integer.parseInt(value));
+				} else if ("latencyMs".equalsIgnoreCase(key)){
+					config.setLatencyMs(Integer.parseInt(value));
+				} else if ("lossPct".equalsIgnoreCase(key)){
+					config.setLossPct(Double.parseDouble(value));
+				} else if ("homeId".equalsIgnoreCase(key)){
+					config.setHomeId((int)Long.parseLong(value.replace("0x", ""), 16));
+				} else if ("seed".equalsIgnoreCase(key)){
+					config.setSeed(Long.parseLong(value));
+				} else {
+					throw new IllegalArgumentException("unknown simulator option ("+key+")");
+				}
+			} catch (NumberFormatException exc){
+				throw new IllegalArgumentException("invalid value for simulator option "+key+" ("+value+")");
+			}
+		}
+		return config;
+	}
+
+	public int getNodes(){
+		return nodes;
+	}
+
+	public void setNodes(int nodes){
+		if (nodes < 0 || nodes > 231){
+			throw new IllegalArgumentException("nodes must be between 0 and 231");
+		}
+		this.nodes = nodes;
+	}
+
+	public int getLatencyMs(){
+		return latencyMs;
+	}
+
+	public void setLatencyMs(int latencyMs){
+		if (latencyMs < 0){
+			throw new IllegalArgumentException("latencyMs must not be negative");
+		}
+		this.latencyMs = latencyMs;
+	}
+
+	public double getLossPct(){
+		return lossPct;
+	}
+
+	public void setLossPct(double lossPct){
+		if (lossPct < 0 || lossPct > 100){
+			throw new IllegalArgumentException("lossPct must be between 0 and 100");
+		}
+		this.lossPct = lossPct;
+	}
+
+	public int getHomeId(){
+		return homeId;
+	}
+
+	public void setHomeId(int homeId){
+		this.homeId = homeId;
+	}
+
+	public long getSeed(){
+		return seed;
+	}
+
+	public void setSeed(long seed){
+		this.seed = seed;
+	}
+
+	@Override
+	public String toString(){
+		return PORT_PREFIX+":nodes="+nodes+",latencyMs="+latencyMs+",lossPct="+lossPct;
+	}
+}
@@ -0,0 +1,135 @@
+package de.smahoo.jwave.console.state;
+
+import de.smahoo.jwave.cmd.JWaveCommandClass;
+import de.smahoo.jwave.node.JWaveNode;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Immutable picture of a node: what the controller knows about it plus the
+ * latest report per command class. Every change produces a new instance
+ * with a higher version, so readers never see a half updated node.
+ */
+public class NodeState {
+
+	private final int nodeId;
+	private final int deviceTypeKey;
+	private final String deviceTypeName;
+	private final int manufacturerId;
+	private final int productTypeId;
+	private final int productId;
+	private final List<String> commandClasses;
+	private final Map<Integer, String> reports;
+	private final String lastReport;
+	private final long lastSeenMillis;
+	private final long version;
+
+	private NodeState(int nodeId, int deviceTypeKey, String deviceTypeName, int manufacturerId, int productTypeId, int productId, List<String> commandClasses, Map<Integer, String> reports, String lastReport, long lastSeenMillis, long version){
+		this.nodeId = nodeId;
+		this.deviceTypeKey = deviceTypeKey;
+		this.deviceTypeName = deviceTypeName;
+		this.manufacturerId = manufacturerId;
+		this.productTypeId = productTypeId;
+		this.productId = productId;
+		this.commandClasses = commandClasses;
+		this.reports = reports;
+		this.lastReport = lastReport;
+		this.lastSeenMillis = lastSeenMillis;
+		this.version = version;
+	}
+
+	/**
+	 * Reads the node; keeps reports and last seen time of the previous state (may be null).
+	 */
+	static NodeState of(JWaveNode node, NodeState previous, long version){
+		List<String> classes = new ArrayList<String>();
+		if (node.getCommandClasses() != null){
+			for (JWaveCommandClass cc : node.getCommandClasses()){
+				classes.add("0x"+Integer.toHexString(cc.getKey())+" "+cc.getName());
+			}
+		}
+		return new NodeState(node.getNodeId(),
+				node.getGenericDeviceType() == null ? 0 : node.getGenericDeviceType().getKey(),
+				node.getGenericDeviceType() == null ? "unknown" : node.getGenericDeviceType().getName(),
+				node.getManufactureId(), node.getProductTypeId(), node.getProductId(),
+				Collections.unmodifiableList(classes),
+				previous == null ? Collections.<Integer, String>emptyMap() : previous.reports,
+				previous == null ? null : previous.lastReport,
+				previous == null ? 0 : previous.lastSeenMillis, version);
+	}
+
+	NodeState withReport(int commandClassKey, String report, long timeMillis, long version){
+		Map<Integer, String> newReports = new TreeMap<Integer, String>(reports);
+		newReports.put(commandClassKey, report);
+		return new NodeState(nodeId, deviceTypeKey, deviceTypeName, manufacturerId, productTypeId, productId, commandClasses, Collections.unmodifiableMap(newReports), report, timeMillis, version);
+	}
+
+	/**
+	 * True if both states show the same device, command classes and reports.
+	 */
+	boolean describesSameNode(NodeState other){
+		return nodeId == other.nodeId && deviceTypeKey == other.deviceTypeKey && deviceTypeName.equals(other.deviceTypeName)
+				&& manufacturerId == other.manufacturerId && productTypeId == other.productTypeId && productId == other.productId
+				&& commandClasses.equals(other.commandClasses) && reports.equals(other.reports) && lastSeenMillis == other.lastSeenMillis;
+	}
+
+	public int getNodeId(){
+		return nodeId;
+	}
+
+	public int getDeviceTypeKey(){
+		return deviceTypeKey;
+	}
+
+	public String getDeviceTypeName(){
+		return deviceTypeName;
+	}
+
+	public int getManufacturerId(){
+		return manufacturerId;
+	}
+
+	public int getProductTypeId(){
+		return productTypeId;
+	}
+
+	public int getProductId(){
+		return productId;
+	}
+
+	/**
+	 * Command classes as "0x25 COMMAND_CLASS_SWITCH_BINARY".
+	 */
+	public List<String> getCommandClasses(){
+		return commandClasses;
+	}
+
+	/**
+	 * Latest report per command class key, e.g. "SWITCH_BINARY SWITCH_BINARY_REPORT 255".
+	 */
+	public Map<Integer, String> getReports(){
+		return reports;
+	}
+
+	/**
+	 * The latest report of any command class, null if the node did not report yet.
+	 */
+	public String getLastReport(){
+		return lastReport;
+	}
+
+	/**
+	 * Time of the latest report, 0 if the node did not report yet.
+	 */
+	public long getLastSeenMillis(){
+		return lastSeenMillis;
+	}
+
+	public long getVersion(){
+		return version;
+	}
+}
@@ -0,0 +1,144 @@
+package de.smahoo.jwave.console.state;
+
+import de.smahoo.jwave.JWaveController;
+import de.smahoo.jwave.cmd.JWaveNodeCommand;
+import de.smahoo.jwave.console.event.EventConsumer;
+import de.smahoo.jwave.console.sched.ReplyTracker;
+import de.smahoo.jwave.event.JWaveEvent;
+import de.smahoo.jwave.event.JWaveNodeDataEvent;
+import de.smahoo.jwave.event.JWaveNodeEvent;
+import de.smahoo.jwave.node.JWaveNode;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Node states of one controller keyed by node id, kept up to date from the
+ * controller's events on the event bus thread. Readers (print nodes, watch
+ * nodes) take the states from a concurrent map and never touch the
+ * controller, so inspecting the network does not contend with it. Only
+ * changes without an event, like loading a node configuration, need a
+ * {@link #reload()}.
+ */
+public class NodeStateCache implements EventConsumer {
+
+	private final JWaveController controller;
+	private final Map<Integer, NodeState> nodes = new ConcurrentHashMap<Integer, NodeState>();
+	private volatile long version = 0;
+
+	public NodeStateCache(JWaveController controller){
+		this.controller = controller;
+		reload();
+	}
+
+	/**
+	 * Reads all nodes of the controller again, e.g. after loading a node configuration.
+	 */
+	public synchronized void reload(){
+		Set<Integer> known = new HashSet<Integer>();
+		try {
+			for (JWaveNode node : controller.getNodes()){
+				known.add(node.getNodeId());
+				put(node);
+			}
+		} catch (RuntimeException exc){
+			// the controller changed its node list meanwhile, the next event corrects it
+		}
+		if (nodes.keySet().retainAll(known)){
+			version++;
+		}
+	}
+
+	public void onEvent(JWaveEvent event, long receivedMillis, long receivedNanos) {
+		if (event.getEventType() == null){
+			return;
+		}
+		switch (event.getEventType()){
+			case CNTRL_EVENT_INIT_COMPLETED:
+				reload();
+				break;
+			case NODE_EVENT_NODE_ADDED:
+				if (event instanceof JWaveNodeEvent){
+					update(((JWaveNodeEvent)event).getNode());
+				}
+				break;
+			case NODE_EVENT_NODE_REMOVED:
+				if (event instanceof JWaveNodeEvent){
+					remove(((JWaveNodeEvent)event).getNode());
+				}
+				break;
+			case NODE_EVENT_DATA_RECEIVED:
+				if (event instanceof JWaveNodeDataEvent){
+					report((JWaveNodeDataEvent)event, receivedMillis);
+				}
+				break;
+			default:
+				// other node events (e.g. node information) change what is known about one node
+				if (event instanceof JWaveNodeEvent){
+					update(((JWaveNodeEvent)event).getNode());
+				}
+				break;
+		}
+	}
+
+	private synchronized void update(JWaveNode node){
+		if (node != null){
+			put(node);
+		}
+	}
+
+	// a node that did not change keeps its state and version, so watchers skip it
+	private void put(JWaveNode node){
+		NodeState previous = nodes.get(node.getNodeId());
+		NodeState state = NodeState.of(node, previous, version + 1);
+		if (previous == null || !previous.describesSameNode(state)){
+			nodes.put(node.getNodeId(), state);
+			version++;
+		}
+	}
+
+	private synchronized void remove(JWaveNode node){
+		if (node != null && nodes.remove(node.getNodeId()) != null){
+			version++;
+		}
+	}
+
+	private synchronized void report(JWaveNodeDataEvent event, long receivedMillis){
+		JWaveNode node = event.getNode();
+		JWaveNodeCommand nodeCmd = event.getCommand();
+		if (node == null || nodeCmd == null || nodeCmd.getCommandClass() == null){
+			return;
+		}
+		// read the node again, a report like MANUFACTURER_SPECIFIC_REPORT or the node info
+		// of an interview changes what the controller knows about it
+		NodeState state = NodeState.of(node, nodes.get(node.getNodeId()), version + 1);
+		nodes.put(node.getNodeId(), state.withReport(nodeCmd.getCommandClass().getKey(), ReplyTracker.describe(nodeCmd), receivedMillis, ++version));
+	}
+
+	public NodeState get(int nodeId){
+		return nodes.get(nodeId);
+	}
+
+	/**
+	 * All nodes ordered by id.
+	 */
+	public List<NodeState> getNodes(){
+		return new ArrayList<NodeState>(new TreeMap<Integer, NodeState>(nodes).values());
+	}
+
+	public int size(){
+		return nodes.size();
+	}
+
+	/**
+	 * Grows with every change of any node.
+	 */
+	public long getVersion(){
+		return version;
+	}
+}
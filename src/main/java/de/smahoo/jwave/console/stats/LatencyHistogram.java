@@ -0,0 +1,107 @@
+package de.smahoo.jwave.console.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram with a fixed set of log-linear buckets: values below
+ * 16 get their own bucket, above that every power of two is split into 8
+ * buckets, so the relative error stays below 12.5 percent. Values are
+ * microseconds; anything above about 76 hours lands in the last bucket.
+ */
+public class LatencyHistogram {
+
+	private static final int LINEAR = 16;
+	private static final int SUB_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	private static final int MAX_EXPONENT = 38;
+	private static final int BUCKETS = LINEAR + (MAX_EXPONENT - 4 + 1) * SUB_BUCKETS;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	public void record(long valueMicros){
+		long value = Math.max(0, valueMicros);
+		buckets.incrementAndGet(indexOf(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+		long current = max.get();
+		while (value > current && !max.compareAndSet(current, value)){
+			current = max.get();
+		}
+	}
+
+	public long getCount(){
+		return count.get();
+	}
+
+	public long getMax(){
+		return max.get();
+	}
+
+	public double getMean(){
+		long n = count.get();
+		return n == 0 ? 0 : sum.get() / (double)n;
+	}
+
+	/**
+	 * Upper bound of the bucket that holds the given percentile (0..100).
+	 */
+	public long getPercentile(double percentile){
+		long n = 0;
+		long[] snapshot = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++){
+			snapshot[i] = buckets.get(i);
+			n += snapshot[i];
+		}
+		if (n == 0){
+			return 0;
+		}
+		long rank = (long)Math.ceil(percentile / 100.0 * n);
+		if (rank < 1){
+			rank = 1;
+		}
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++){
+			seen += snapshot[i];
+			if (seen >= rank){
+				return Math.min(upperBound(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	public void reset(){
+		for (int i = 0; i < BUCKETS; i++){
+			buckets.set(i, 0);
+		}
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+
+	static int indexOf(long value){
+		if (value < LINEAR){
+			return (int)value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		if (exponent > MAX_EXPONENT){
+			return BUCKETS - 1;
+		}
+		int sub = (int)((value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1));
+		return LINEAR + (exponent - 4) * SUB_BUCKETS + sub;
+	}
+
+	static long upperBound(int index){
+		if (index < LINEAR){
+			return index;
+		}
+		int exponent = (index - LINEAR) / SUB_BUCKETS + 4;
+		int sub = (index - LINEAR) % SUB_BUCKETS;
+		long base = 1L << exponent;
+		long width = base >>> SUB_BITS;
+		return base + (sub + 1) * width - 1;
+	}
+}
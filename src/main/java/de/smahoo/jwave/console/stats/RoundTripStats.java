@@ -0,0 +1,80 @@
+package de.smahoo.jwave.console.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and latency histograms of the commands sent to one node or of
+ * one command class.
+ */
+public class RoundTripStats {
+
+	private final LatencyHistogram ackLatency = new LatencyHistogram();
+	private final LatencyHistogram reportLatency = new LatencyHistogram();
+	private final AtomicLong sent = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong timedOut = new AtomicLong();
+	private final AtomicLong firstSendNanos = new AtomicLong();
+	private final AtomicLong lastSendNanos = new AtomicLong();
+
+	void sent(long nowNanos){
+		sent.incrementAndGet();
+		firstSendNanos.compareAndSet(0, nowNanos);
+		lastSendNanos.set(nowNanos);
+	}
+
+	void acknowledged(long latencyNanos){
+		ackLatency.record(latencyNanos / 1000);
+	}
+
+	void failed(long latencyNanos){
+		failed.incrementAndGet();
+		ackLatency.record(latencyNanos / 1000);
+	}
+
+	void timedOut(){
+		timedOut.incrementAndGet();
+	}
+
+	void reported(long latencyNanos){
+		reportLatency.record(latencyNanos / 1000);
+	}
+
+	/**
+	 * Transmit-complete latency (send request to callback), microseconds.
+	 */
+	public LatencyHistogram getAckLatency(){
+		return ackLatency;
+	}
+
+	/**
+	 * Time from a send to the next report of the same command class, microseconds.
+	 */
+	public LatencyHistogram getReportLatency(){
+		return reportLatency;
+	}
+
+	public long getSent(){
+		return sent.get();
+	}
+
+	public long getFailed(){
+		return failed.get();
+	}
+
+	public long getTimedOut(){
+		return timedOut.get();
+	}
+
+	/**
+	 * Sends per second between the first and the last send.
+	 */
+	public double getThroughput(){
+		long first = firstSendNanos.get();
+		long last = lastSendNanos.get();
+		long n = sent.get();
+		if (n < 2 || last <= first){
+			return 0;
+		}
+		return (n - 1) / ((last - first) / 1000000000.0);
+	}
+}
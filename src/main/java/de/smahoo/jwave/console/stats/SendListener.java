@@ -0,0 +1,11 @@
+package de.smahoo.jwave.console.stats;
+
+/**
+ * Told by {@link SendStatistics} when a send to a node is finished on the
+ * serial line: its transmit callback arrived, it timed out, or it did not
+ * ask for a callback at all.
+ */
+public interface SendListener {
+
+	void onSendCompleted(int nodeId, int cmdClass, boolean acknowledged);
+}
@@ -0,0 +1,210 @@
+package de.smahoo.jwave.console.stats;
+
+import de.smahoo.jwave.console.io.SerialFrames;
+import de.smahoo.jwave.console.io.TrafficListener;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Correlates the SEND_DATA requests the host writes with the transmit
+ * callbacks and reports the stick delivers, on the level of serial frames.
+ * This covers every send, whether the console or the library issued it.
+ * Pending sends live in arrays indexed by callback id, the results go into
+ * fixed-memory histograms per node and per command class.
+ */
+public class SendStatistics implements TrafficListener {
+
+	public static final long TIMEOUT_NANOS = 10L * 1000000000L;
+
+	private static final int MAX_NODES = 256;
+	private static final int MAX_CLASSES = 256;
+
+	// pending sends by callback id: start time (0 = free) and node << 8 | class
+	private final AtomicLongArray pendingStart = new AtomicLongArray(256);
+	private final AtomicIntegerArray pendingTarget = new AtomicIntegerArray(256);
+	// last send per node and class, for the report round trip
+	private final AtomicLongArray lastSend = new AtomicLongArray(MAX_NODES * MAX_CLASSES);
+
+	private final AtomicReferenceArray<RoundTripStats> nodes = new AtomicReferenceArray<RoundTripStats>(MAX_NODES);
+	private final AtomicReferenceArray<RoundTripStats> classes = new AtomicReferenceArray<RoundTripStats>(MAX_CLASSES);
+	private final RoundTripStats total = new RoundTripStats();
+	private final List<SendListener> listeners = new CopyOnWriteArrayList<SendListener>();
+
+	public void addListener(SendListener listener){
+		listeners.add(listener);
+	}
+
+	public void removeListener(SendListener listener){
+		listeners.remove(listener);
+	}
+
+	public void onFrame(int direction, byte[] frame, int off, int len, long timestampNanos) {
+		// SOF | LEN | TYPE | FUNC | payload | CHECKSUM
+		if (len < 6 || (frame[off] & 0xFF) != SerialFrames.SOF){
+			return;
+		}
+		int type = frame[off + 2] & 0xFF;
+		int func = frame[off + 3] & 0xFF;
+		if (type != SerialFrames.TYPE_REQUEST){
+			return;
+		}
+		int payload = off + 4;
+		int payloadLength = len - 5;
+		if (direction == DIRECTION_TX && func == SerialFrames.FUNC_SEND_DATA){
+			onSendRequest(frame, payload, payloadLength, timestampNanos);
+		} else if (direction == DIRECTION_RX && func == SerialFrames.FUNC_SEND_DATA){
+			onSendCallback(frame, payload, payloadLength, timestampNanos);
+		} else if (direction == DIRECTION_RX && func == SerialFrames.FUNC_APPLICATION_COMMAND_HANDLER){
+			onApplicationCommand(frame, payload, payloadLength, timestampNanos);
+		}
+	}
+
+	private void onSendRequest(byte[] frame, int payload, int payloadLength, long now){
+		// node | data length | data | tx options | callback id
+		if (payloadLength < 4){
+			return;
+		}
+		int nodeId = frame[payload] & 0xFF;
+		int dataLength = frame[payload + 1] & 0xFF;
+		if (dataLength < 1 || dataLength + 4 > payloadLength){
+			return;
+		}
+		int cmdClass = frame[payload + 2] & 0xFF;
+		int callbackId = frame[payload + 2 + dataLength + 1] & 0xFF;
+
+		getNode(nodeId).sent(now);
+		getClass(cmdClass).sent(now);
+		total.sent(now);
+		lastSend.set(nodeId * MAX_CLASSES + cmdClass, now);
+
+		if (callbackId == 0){
+			// no callback requested
+			completed(nodeId, cmdClass, true);
+			return;
+		}
+		long previous = pendingStart.getAndSet(callbackId, 0);
+		if (previous != 0){
+			// callback id reused before the callback arrived
+			timedOut(pendingTarget.get(callbackId));
+		}
+		pendingTarget.set(callbackId, nodeId << 8 | cmdClass);
+		pendingStart.set(callbackId, now);
+	}
+
+	private void onSendCallback(byte[] frame, int payload, int payloadLength, long now){
+		// callback id | tx status
+		if (payloadLength < 2){
+			return;
+		}
+		int callbackId = frame[payload] & 0xFF;
+		int status = frame[payload + 1] & 0xFF;
+		long start = pendingStart.getAndSet(callbackId, 0);
+		if (start == 0){
+			return;
+		}
+		int target = pendingTarget.get(callbackId);
+		long latency = now - start;
+		RoundTripStats node = getNode(target >>> 8);
+		RoundTripStats cmdClass = getClass(target & 0xFF);
+		if (status == SerialFrames.TRANSMIT_COMPLETE_OK){
+			node.acknowledged(latency);
+			cmdClass.acknowledged(latency);
+			total.acknowledged(latency);
+		} else {
+			node.failed(latency);
+			cmdClass.failed(latency);
+			total.failed(latency);
+		}
+		completed(target >>> 8, target & 0xFF, status == SerialFrames.TRANSMIT_COMPLETE_OK);
+	}
+
+	private void onApplicationCommand(byte[] frame, int payload, int payloadLength, long now){
+		// rx status | source node | length | command class | ...
+		if (payloadLength < 4){
+			return;
+		}
+		int nodeId = frame[payload + 1] & 0xFF;
+		int cmdClass = frame[payload + 3] & 0xFF;
+		int index = nodeId * MAX_CLASSES + cmdClass;
+		long start = lastSend.getAndSet(index, 0);
+		if (start == 0 || now - start > TIMEOUT_NANOS){
+			// unsolicited report
+			return;
+		}
+		long latency = now - start;
+		getNode(nodeId).reported(latency);
+		getClass(cmdClass).reported(latency);
+		total.reported(latency);
+	}
+
+	/**
+	 * Counts sends whose callback did not arrive within {@link #TIMEOUT_NANOS}.
+	 */
+	public void expirePending(){
+		long now = System.nanoTime();
+		for (int callbackId = 1; callbackId < 256; callbackId++){
+			long start = pendingStart.get(callbackId);
+			if (start != 0 && now - start > TIMEOUT_NANOS && pendingStart.compareAndSet(callbackId, start, 0)){
+				timedOut(pendingTarget.get(callbackId));
+			}
+		}
+	}
+
+	private void timedOut(int target){
+		getNode(target >>> 8).timedOut();
+		getClass(target & 0xFF).timedOut();
+		total.timedOut();
+		completed(target >>> 8, target & 0xFF, false);
+	}
+
+	private void completed(int nodeId, int cmdClass, boolean acknowledged){
+		for (SendListener listener : listeners){
+			listener.onSendCompleted(nodeId, cmdClass, acknowledged);
+		}
+	}
+
+	public RoundTripStats getTotal(){
+		return total;
+	}
+
+	/**
+	 * Statistics of the node, or null if nothing was sent to it yet.
+	 */
+	public RoundTripStats getNodeStats(int nodeId){
+		if (nodeId < 0 || nodeId >= MAX_NODES){
+			return null;
+		}
+		return nodes.get(nodeId);
+	}
+
+	/**
+	 * Statistics of the command class, or null if nothing of this class was sent yet.
+	 */
+	public RoundTripStats getClassStats(int cmdClass){
+		if (cmdClass < 0 || cmdClass >= MAX_CLASSES){
+			return null;
+		}
+		return classes.get(cmdClass);
+	}
+
+	private RoundTripStats getNode(int nodeId){
+		return getOrCreate(nodes, nodeId);
+	}
+
+	private RoundTripStats getClass(int cmdClass){
+		return getOrCreate(classes, cmdClass);
+	}
+
+	private static RoundTripStats getOrCreate(AtomicReferenceArray<RoundTripStats> array, int index){
+		RoundTripStats stats = array.get(index);
+		if (stats == null){
+			array.compareAndSet(index, null, new RoundTripStats());
+			stats = array.get(index);
+		}
+		return stats;
+	}
+}
@@ -0,0 +1,170 @@
+package de.smahoo.jwave.console.config;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ConfigJournalTest {
+
+	private File dir;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("config-journal").toFile();
+	}
+
+	@After
+	public void tearDown(){
+		File[] files = dir.listFiles();
+		if (files != null){
+			for (File file : files){
+				file.delete();
+			}
+		}
+		dir.delete();
+	}
+
+	private File journalFile(){
+		return new File(dir, "test.journal");
+	}
+
+	@Test
+	public void changesSurviveReopen() throws IOException {
+		ConfigJournal config = ConfigJournal.open(dir, "test");
+		config.put("group/a", "1,2,3");
+		config.put("set/autosave", "30000");
+		config.put("group/a", "4-7");
+		config.remove("set/autosave");
+		config.put("define/on", "send 2 SWITCH_BINARY SWITCH_BINARY_SET 255 \u00e4");
+		config.close();
+
+		config = ConfigJournal.open(dir, "test");
+		assertEquals("4-7", config.get("group/a"));
+		assertNull(config.get("set/autosave"));
+		assertEquals("send 2 SWITCH_BINARY SWITCH_BINARY_SET 255 \u00e4", config.get("define/on"));
+		assertEquals(1, config.getAll("group/").size());
+		assertEquals(5, config.getJournalRecords());
+		config.close();
+	}
+
+	@Test
+	public void unchangedValueIsNotJournaled() throws IOException {
+		ConfigJournal config = ConfigJournal.open(dir, "test");
+		config.put("node/2", "g=0x10");
+		long bytes = config.getJournalBytes();
+		config.put("node/2", "g=0x10");
+		config.remove("node/3");
+		assertEquals(bytes, config.getJournalBytes());
+		config.close();
+	}
+
+	@Test
+	public void compactionEmptiesTheJournal() throws IOException {
+		ConfigJournal config = ConfigJournal.open(dir, "test");
+		for (int i = 0; i < 100; i++){
+			config.put("node/"+(i % 10), "v"+i);
+		}
+		config.compact();
+		assertEquals(0, config.getJournalBytes());
+		config.put("node/10", "after");
+		config.close();
+
+		config = ConfigJournal.open(dir, "test");
+		assertEquals(11, config.getAll("node/").size());
+		assertEquals("v99", config.get("node/9"));
+		assertEquals("after", config.get("node/10"));
+		assertEquals(1, config.getJournalRecords());
+		config.close();
+	}
+
+	@Test
+	public void tornRecordIsTruncated() throws IOException {
+		ConfigJournal config = ConfigJournal.open(dir, "test");
+		config.put("a", "first");
+		long valid = config.getJournalBytes();
+		config.put("b", "second");
+		config.close();
+		cut(journalFile(), 3);
+
+		config = ConfigJournal.open(dir, "test");
+		assertEquals("first", config.get("a"));
+		assertNull(config.get("b"));
+		assertEquals(valid, journalFile().length());
+		// appends go after the last valid record
+		config.put("c", "third");
+		config.close();
+
+		config = ConfigJournal.open(dir, "test");
+		assertEquals("first", config.get("a"));
+		assertEquals("third", config.get("c"));
+		config.close();
+	}
+
+	@Test
+	public void corruptRecordEndsReplay() throws IOException {
+		ConfigJournal config = ConfigJournal.open(dir, "test");
+		config.put("a", "first");
+		long valid = config.getJournalBytes();
+		config.put("b", "second");
+		config.put("c", "third");
+		config.close();
+		// flip a byte of the value of the second record
+		RandomAccessFile file = new RandomAccessFile(journalFile(), "rw");
+		try {
+			file.seek(valid + 12);
+			int b = file.read();
+			file.seek(valid + 12);
+			file.write(b ^ 0xFF);
+		} finally {
+			file.close();
+		}
+
+		config = ConfigJournal.open(dir, "test");
+		assertEquals("first", config.get("a"));
+		assertNull(config.get("b"));
+		assertNull(config.get("c"));
+		assertEquals(valid, journalFile().length());
+		config.close();
+	}
+
+	@Test
+	public void interruptedCompactionIsFinished() throws IOException {
+		ConfigJournal config = ConfigJournal.open(dir, "test");
+		config.put("a", "1");
+		config.put("b", "2");
+		config.close();
+		// the console died after rotating the journal, before the snapshot was written
+		File old = new File(dir, "test.journal.old");
+		assertTrue(journalFile().renameTo(old));
+
+		config = ConfigJournal.open(dir, "test");
+		assertEquals("1", config.get("a"));
+		assertEquals("2", config.get("b"));
+		assertFalse(old.exists());
+		assertTrue(new File(dir, "test.snapshot").exists());
+		config.close();
+
+		config = ConfigJournal.open(dir, "test");
+		assertEquals("2", config.get("b"));
+		config.close();
+	}
+
+	private static void cut(File file, int bytes) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(raf.length() - bytes);
+		} finally {
+			raf.close();
+		}
+	}
+}
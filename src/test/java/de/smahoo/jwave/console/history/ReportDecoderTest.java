@@ -0,0 +1,89 @@
+package de.smahoo.jwave.console.history;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ReportDecoderTest {
+
+	private static final int SENSOR_BINARY = 0x30;
+	private static final int SENSOR_MULTILEVEL = 0x31;
+	private static final int METER = 0x32;
+	private static final int BATTERY = 0x80;
+
+	@Test
+	public void multilevelSensorValue(){
+		// temperature, precision 1, scale 0 (C), 2 bytes: 22.9
+		ReportDecoder.Reading reading = ReportDecoder.decode(SENSOR_MULTILEVEL, 0x05, new int[]{0x01, 0x22, 0x00, 0xE5});
+		assertEquals("31-t01-s0", reading.getChannel());
+		assertEquals(22900, reading.getValue());
+		// negative: -5.5
+		reading = ReportDecoder.decode(SENSOR_MULTILEVEL, 0x05, new int[]{0x01, 0x22, 0xFF, 0xC9});
+		assertEquals(-5500, reading.getValue());
+		// humidity, precision 0, scale 0, 1 byte: 45 %
+		reading = ReportDecoder.decode(SENSOR_MULTILEVEL, 0x05, new int[]{0x05, 0x01, 45});
+		assertEquals("31-t05-s0", reading.getChannel());
+		assertEquals(45000, reading.getValue());
+	}
+
+	@Test
+	public void meterScaleAndRateType(){
+		// electric, import, precision 2, scale 2 (W), 4 bytes: 123.45 W
+		ReportDecoder.Reading reading = ReportDecoder.decode(METER, 0x02, new int[]{0x21, 0x54, 0x00, 0x00, 0x30, 0x39});
+		assertEquals("32-m01-s2", reading.getChannel());
+		assertEquals(123450, reading.getValue());
+		// exported energy goes to its own series
+		reading = ReportDecoder.decode(METER, 0x02, new int[]{0x41, 0x54, 0x00, 0x00, 0x30, 0x39});
+		assertEquals("32-m01-s2-e", reading.getChannel());
+		// third scale bit of version 3
+		reading = ReportDecoder.decode(METER, 0x02, new int[]{0xA1, 0x54, 0x00, 0x00, 0x30, 0x39});
+		assertEquals("32-m01-s6", reading.getChannel());
+	}
+
+	@Test
+	public void precisionAboveThreeDigitsIsCut(){
+		// precision 4, 4 bytes: 1.2345
+		ReportDecoder.Reading reading = ReportDecoder.decode(SENSOR_MULTILEVEL, 0x05, new int[]{0x01, 0x84, 0x00, 0x00, 0x30, 0x39});
+		assertEquals(1234, reading.getValue());
+	}
+
+	@Test
+	public void binarySensorAndBattery(){
+		ReportDecoder.Reading reading = ReportDecoder.decode(SENSOR_BINARY, 0x03, new int[]{0xFF});
+		assertEquals("30-t00", reading.getChannel());
+		assertEquals(ReportDecoder.VALUE_SCALE, reading.getValue());
+		reading = ReportDecoder.decode(SENSOR_BINARY, 0x03, new int[]{0x00, 0x0C});
+		assertEquals("30-t0c", reading.getChannel());
+		assertEquals(0, reading.getValue());
+		assertEquals(87000, ReportDecoder.decode(BATTERY, 0x03, new int[]{87}).getValue());
+		// low battery warning
+		assertEquals(0, ReportDecoder.decode(BATTERY, 0x03, new int[]{0xFF}).getValue());
+	}
+
+	@Test
+	public void incompleteOrOtherCommandsAreNotDecoded(){
+		assertNull(ReportDecoder.decode(SENSOR_MULTILEVEL, 0x04, new int[]{0x01, 0x22, 0x00, 0xE5}));
+		// size 4, only 2 value bytes
+		assertNull(ReportDecoder.decode(SENSOR_MULTILEVEL, 0x05, new int[]{0x01, 0x24, 0x00, 0xE5}));
+		// size 3 is not a valid size
+		assertNull(ReportDecoder.decode(METER, 0x02, new int[]{0x21, 0x53, 0x00, 0x00, 0x30}));
+		assertNull(ReportDecoder.decode(BATTERY, 0x03, new int[0]));
+		assertNull(ReportDecoder.decode(0x25, 0x03, new int[]{0xFF}));
+	}
+
+	@Test
+	public void channelNames(){
+		assertEquals("temperature (C)", ReportDecoder.describe("31-t01-s0"));
+		assertEquals("electric (W) exported", ReportDecoder.describe("32-m01-s2-e"));
+		assertEquals("binary sensor type 12", ReportDecoder.describe("30-t0c"));
+		assertEquals("battery (%)", ReportDecoder.describe("80"));
+		assertTrue(ReportDecoder.isChannelOf("31-t01-s0", SENSOR_MULTILEVEL));
+		assertTrue(ReportDecoder.isChannelOf("80", BATTERY));
+		// series of the old layout are not read as channels
+		assertFalse(ReportDecoder.isChannelOf("31-p0", SENSOR_MULTILEVEL));
+		assertFalse(ReportDecoder.isChannelOf("32-m01-s2", SENSOR_MULTILEVEL));
+	}
+}
@@ -0,0 +1,118 @@
+package de.smahoo.jwave.console.history;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SegmentTest {
+
+	private File file;
+
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("segment", ".seg");
+	}
+
+	@After
+	public void tearDown(){
+		file.delete();
+	}
+
+	private static List<long[]> read(Segment segment, long from, long to){
+		final List<long[]> rows = new ArrayList<long[]>();
+		segment.read(from, to, new Segment.RowVisitor() {
+			public void visit(long[] row) {
+				rows.add(row.clone());
+			}
+		});
+		return rows;
+	}
+
+	@Test
+	public void extremeValuesRoundTrip() throws IOException {
+		long[][] rows = {
+				{1000, 0, -1},
+				{1001, Long.MAX_VALUE, Long.MIN_VALUE},
+				{1002, Long.MIN_VALUE, Long.MAX_VALUE},
+				{1003, -22900, 63},
+				{5000000000L, 22900, -64},
+		};
+		Segment segment = Segment.create(file, 3, 1024);
+		for (long[] row : rows){
+			assertTrue(segment.append(row));
+		}
+		List<long[]> read = read(segment, Long.MIN_VALUE, Long.MAX_VALUE);
+		assertEquals(rows.length, read.size());
+		for (int i = 0; i < rows.length; i++){
+			assertArrayEquals(rows[i], read.get(i));
+		}
+	}
+
+	@Test
+	public void smallDeltasTakeOneByte() throws IOException {
+		Segment segment = Segment.create(file, 2, 1024);
+		long value = 0;
+		for (int i = 0; i < 100; i++){
+			// zig-zag keeps -64..63 in one varint byte, whatever the sign
+			value += (i % 2 == 0) ? 63 : -64;
+			assertTrue(segment.append(new long[]{i, value}));
+		}
+		assertEquals(200, segment.getUsedBytes());
+	}
+
+	@Test
+	public void reopenedSegmentReadsTheSameRows() throws IOException {
+		Segment segment = Segment.create(file, 2, 256);
+		segment.append(new long[]{100, 5});
+		segment.append(new long[]{200, -7});
+		segment.append(new long[]{300, 1L << 40});
+		segment.force();
+
+		Segment reopened = Segment.open(file);
+		assertEquals(3, reopened.getCount());
+		assertEquals(100, reopened.getFirstTime());
+		assertEquals(300, reopened.getLastTime());
+		// appending goes on from the stored last values
+		assertTrue(reopened.append(new long[]{400, 0}));
+		List<long[]> read = read(Segment.open(file), 0, Long.MAX_VALUE);
+		assertEquals(4, read.size());
+		assertArrayEquals(new long[]{300, 1L << 40}, read.get(2));
+		assertArrayEquals(new long[]{400, 0}, read.get(3));
+	}
+
+	@Test
+	public void fullSegmentRefusesRows() throws IOException {
+		Segment segment = Segment.create(file, 2, 32);
+		int appended = 0;
+		while (segment.append(new long[]{appended * 1000L, Long.MIN_VALUE + appended})){
+			appended++;
+		}
+		assertTrue(appended > 0);
+		assertEquals(appended, segment.getCount());
+		assertFalse(segment.append(new long[]{appended * 1000L, 0}));
+		assertEquals(appended, read(segment, 0, Long.MAX_VALUE).size());
+	}
+
+	@Test
+	public void readReturnsTheTimeRange() throws IOException {
+		Segment segment = Segment.create(file, 2, 256);
+		for (int i = 0; i < 10; i++){
+			segment.append(new long[]{i * 10, i});
+		}
+		List<long[]> read = read(segment, 20, 50);
+		assertEquals(3, read.size());
+		assertEquals(20, read.get(0)[0]);
+		assertEquals(40, read.get(2)[0]);
+		assertEquals(0, read(segment, 100, 200).size());
+	}
+}
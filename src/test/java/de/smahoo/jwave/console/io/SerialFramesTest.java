@@ -0,0 +1,104 @@
+package de.smahoo.jwave.console.io;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SerialFramesTest {
+
+	private static byte[] bytes(int... values){
+		byte[] result = new byte[values.length];
+		for (int i = 0; i < values.length; i++){
+			result[i] = (byte)values[i];
+		}
+		return result;
+	}
+
+	@Test
+	public void buildWithoutPayloadMatchesKnownFrame(){
+		// GET_VERSION request as sent by every serial API host
+		byte[] frame = SerialFrames.build(SerialFrames.TYPE_REQUEST, SerialFrames.FUNC_GET_VERSION, null);
+		assertArrayEquals(bytes(0x01, 0x03, 0x00, 0x15, 0xE9), frame);
+	}
+
+	@Test
+	public void buildLaysOutPayloadAndChecksum(){
+		byte[] payload = bytes(0x02, 0x03, 0x20, 0x01, 0xFF);
+		byte[] frame = SerialFrames.build(SerialFrames.TYPE_REQUEST, SerialFrames.FUNC_SEND_DATA, payload);
+
+		assertEquals(payload.length + 5, frame.length);
+		assertEquals(SerialFrames.SOF, frame[0] & 0xFF);
+		assertEquals(payload.length + 3, frame[1] & 0xFF);
+		assertEquals(SerialFrames.TYPE_REQUEST, frame[2] & 0xFF);
+		assertEquals(SerialFrames.FUNC_SEND_DATA, frame[3] & 0xFF);
+		for (int i = 0; i < payload.length; i++){
+			assertEquals(payload[i], frame[4 + i]);
+		}
+		assertEquals(SerialFrames.checksum(frame, 1, frame.length - 2), frame[frame.length - 1] & 0xFF);
+	}
+
+	@Test
+	public void checksumMatchesKnownFrame(){
+		// SEND_DATA response "accepted"
+		byte[] frame = bytes(0x01, 0x04, 0x01, 0x13, 0x01, 0xE8);
+		assertEquals(0xE8, SerialFrames.checksum(frame, 1, frame.length - 2));
+		assertEquals(0xFF, SerialFrames.checksum(frame, 0, 0));
+	}
+
+	@Test
+	public void describesControlBytes(){
+		assertEquals("ACK", SerialFrames.describe(bytes(SerialFrames.ACK), 0, 1));
+		assertEquals("NAK", SerialFrames.describe(bytes(SerialFrames.NAK), 0, 1));
+		assertEquals("CAN", SerialFrames.describe(bytes(SerialFrames.CAN), 0, 1));
+		assertEquals("??? 7F", SerialFrames.describe(bytes(0x7F), 0, 1));
+		assertEquals("", SerialFrames.describe(new byte[0], 0, 0));
+	}
+
+	@Test
+	public void describesDataFrames(){
+		byte[] request = SerialFrames.build(SerialFrames.TYPE_REQUEST, SerialFrames.FUNC_GET_VERSION, null);
+		assertEquals("SOF REQ GET_VERSION  01 03 00 15 E9", SerialFrames.describe(request, 0, request.length));
+
+		byte[] response = bytes(0x01, 0x04, 0x01, 0x13, 0x01, 0xE8);
+		assertEquals("SOF RES SEND_DATA  01 04 01 13 01 E8", SerialFrames.describe(response, 0, response.length));
+	}
+
+	@Test
+	public void flagsChecksumErrors(){
+		byte[] frame = bytes(0x01, 0x04, 0x01, 0x13, 0x01, 0xE7);
+		String text = SerialFrames.describe(frame, 0, frame.length);
+		assertTrue(text, text.startsWith("SOF RES SEND_DATA [CHECKSUM ERROR]"));
+		assertTrue(text, text.endsWith("E7"));
+	}
+
+	@Test
+	public void describesGarbageAsUnknown(){
+		assertEquals("??? 01 03 00", SerialFrames.describe(bytes(0x01, 0x03, 0x00), 0, 3));
+		assertEquals("??? 06 06", SerialFrames.describe(bytes(0x06, 0x06), 0, 2));
+		assertEquals("??? 55 03 00 15 E9", SerialFrames.describe(bytes(0x55, 0x03, 0x00, 0x15, 0xE9), 0, 5));
+	}
+
+	@Test
+	public void describesFrameInsideLargerBuffer(){
+		byte[] buffer = bytes(0xAA, 0xBB, 0x01, 0x03, 0x00, 0x15, 0xE9, 0xCC);
+		assertEquals("SOF REQ GET_VERSION  01 03 00 15 E9", SerialFrames.describe(buffer, 2, 5));
+		assertEquals("ACK", SerialFrames.describe(bytes(0x00, SerialFrames.ACK), 1, 1));
+	}
+
+	@Test
+	public void namesUnknownFunctionsByValue(){
+		assertEquals("APPLICATION_COMMAND_HANDLER", SerialFrames.functionName(SerialFrames.FUNC_APPLICATION_COMMAND_HANDLER));
+		assertEquals("FUNC_0xA5", SerialFrames.functionName(0xA5));
+		assertFalse(SerialFrames.functionName(0x13).startsWith("FUNC_0x"));
+	}
+
+	@Test
+	public void formatsHexUppercaseAndPadded(){
+		assertEquals("00 0A FF", SerialFrames.toHex(bytes(0x00, 0x0A, 0xFF), 0, 3));
+		assertEquals("0A", SerialFrames.toHex(bytes(0x00, 0x0A, 0xFF), 1, 1));
+		assertEquals("", SerialFrames.toHex(new byte[0], 0, 0));
+	}
+}
@@ -0,0 +1,102 @@
+package de.smahoo.jwave.console.io;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class TrafficTapTest {
+
+	private TrafficTap tap;
+	private List<String> frames;
+
+	@Before
+	public void setUp(){
+		tap = new TrafficTap();
+		frames = new ArrayList<String>();
+		tap.addListener(new TrafficListener() {
+			@Override
+			public void onFrame(int direction, byte[] frame, int off, int len, long timestampNanos){
+				String dir = direction == TrafficListener.DIRECTION_RX ? "RX " : "TX ";
+				frames.add(dir + SerialFrames.toHex(frame, off, len));
+			}
+		});
+	}
+
+	private static byte[] concat(byte[]... parts){
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (byte[] part : parts){
+			out.write(part, 0, part.length);
+		}
+		return out.toByteArray();
+	}
+
+	@Test
+	public void splitsReadStreamIntoFrames() throws Exception {
+		byte[] request = SerialFrames.build(SerialFrames.TYPE_REQUEST, SerialFrames.FUNC_GET_VERSION, null);
+		byte[] response = SerialFrames.build(SerialFrames.TYPE_RESPONSE, SerialFrames.FUNC_SEND_DATA, new byte[]{0x01});
+		byte[] data = concat(new byte[]{SerialFrames.ACK}, request, new byte[]{SerialFrames.NAK}, response);
+
+		InputStream in = tap.wrap(new ByteArrayInputStream(data));
+		byte[] read = new byte[data.length];
+		int pos = 0;
+		int n;
+		// odd chunk sizes so that frames are split across reads
+		while ((n = in.read(read, pos, Math.min(3, read.length - pos))) > 0){
+			pos += n;
+		}
+
+		assertArrayEquals(data, read);
+		assertEquals(Arrays.asList(
+				"RX 06",
+				"RX 01 03 00 15 E9",
+				"RX 15",
+				"RX 01 04 01 13 01 E8"), frames);
+	}
+
+	@Test
+	public void splitsWrittenBytesIntoFrames() throws Exception {
+		ByteArrayOutputStream sink = new ByteArrayOutputStream();
+		OutputStream out = tap.wrap(sink);
+		byte[] request = SerialFrames.build(SerialFrames.TYPE_REQUEST, SerialFrames.FUNC_GET_VERSION, null);
+		for (byte b : request){
+			out.write(b);
+		}
+		out.write(SerialFrames.CAN);
+
+		assertArrayEquals(concat(request, new byte[]{SerialFrames.CAN}), sink.toByteArray());
+		assertEquals(Arrays.asList("TX 01 03 00 15 E9", "TX 18"), frames);
+	}
+
+	@Test
+	public void reportsStrayBytesAndEmptyLength() throws Exception {
+		byte[] data = {0x7F, SerialFrames.SOF, 0x00, SerialFrames.ACK};
+		InputStream in = tap.wrap(new ByteArrayInputStream(data));
+		while (in.read() >= 0){
+			// drain
+		}
+		assertEquals(Arrays.asList("RX 7F", "RX 01 00", "RX 06"), frames);
+	}
+
+	@Test
+	public void wrappingAgainDropsPartialFrame() throws Exception {
+		InputStream first = tap.wrap(new ByteArrayInputStream(new byte[]{SerialFrames.SOF, 0x03, 0x00}));
+		while (first.read() >= 0){
+			// drain
+		}
+		InputStream second = tap.wrap(new ByteArrayInputStream(new byte[]{SerialFrames.ACK}));
+		while (second.read() >= 0){
+			// drain
+		}
+		assertEquals(Arrays.asList("RX 06"), frames);
+	}
+}
@@ -0,0 +1,115 @@
+package de.smahoo.jwave.console.poll;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TimingWheelTest {
+
+	private static final long TICK = 1000000;
+
+	private static List<String> advance(TimingWheel<String> wheel, long nowNanos){
+		List<String> expired = new ArrayList<String>();
+		wheel.advance(nowNanos, expired);
+		return expired;
+	}
+
+	@Test
+	public void expiresWithTheTickOfItsDeadline(){
+		TimingWheel<String> wheel = new TimingWheel<String>(TICK, 8, 0);
+		wheel.schedule("a", 3 * TICK + TICK / 2, 0);
+		assertTrue(advance(wheel, 3 * TICK).isEmpty());
+		assertEquals(Arrays.asList("a"), advance(wheel, 4 * TICK));
+		assertEquals(0, wheel.size());
+	}
+
+	@Test
+	public void zeroDelayExpiresWithTheNextTick(){
+		TimingWheel<String> wheel = new TimingWheel<String>(TICK, 8, 0);
+		advance(wheel, 5 * TICK);
+		wheel.schedule("a", 0, 5 * TICK);
+		assertTrue(advance(wheel, 5 * TICK).isEmpty());
+		assertEquals(Arrays.asList("a"), advance(wheel, 6 * TICK));
+	}
+
+	@Test
+	public void timeoutsBeyondOneRevolutionWaitForTheirRound(){
+		// 8 slots: ticks 4, 12 and 20 share a slot
+		TimingWheel<String> wheel = new TimingWheel<String>(TICK, 8, 0);
+		wheel.schedule("r2", 20 * TICK, 0);
+		wheel.schedule("r0", 4 * TICK, 0);
+		wheel.schedule("r1", 12 * TICK, 0);
+		assertEquals(Arrays.asList("r0"), advance(wheel, 4 * TICK));
+		assertTrue(advance(wheel, 11 * TICK).isEmpty());
+		assertEquals(Arrays.asList("r1"), advance(wheel, 12 * TICK));
+		assertTrue(advance(wheel, 19 * TICK).isEmpty());
+		assertEquals(Arrays.asList("r2"), advance(wheel, 20 * TICK));
+		assertEquals(0, wheel.size());
+	}
+
+	@Test
+	public void advancingSeveralRevolutionsExpiresInTickOrder(){
+		TimingWheel<String> wheel = new TimingWheel<String>(TICK, 8, 0);
+		wheel.schedule("c", 20 * TICK, 0);
+		wheel.schedule("a", 4 * TICK, 0);
+		wheel.schedule("b", 7 * TICK, 0);
+		wheel.schedule("later", 200 * TICK, 0);
+		assertEquals(Arrays.asList("a", "b", "c"), advance(wheel, 100 * TICK));
+		assertEquals(1, wheel.size());
+		assertEquals(Arrays.asList("later"), advance(wheel, 200 * TICK));
+	}
+
+	@Test
+	public void emptyWheelJumpsToTheCurrentTick(){
+		TimingWheel<String> wheel = new TimingWheel<String>(TICK, 8, 0);
+		advance(wheel, 1000000 * TICK);
+		wheel.schedule("a", 2 * TICK, 1000000 * TICK);
+		assertTrue(advance(wheel, 1000001 * TICK).isEmpty());
+		assertEquals(Arrays.asList("a"), advance(wheel, 1000002 * TICK));
+		assertEquals(TICK, wheel.nanosToNextTick(1000002 * TICK));
+	}
+
+	@Test
+	public void nanoTimeWrapDoesNotMatter(){
+		long start = Long.MAX_VALUE - 3 * TICK;
+		TimingWheel<String> wheel = new TimingWheel<String>(TICK, 8, start);
+		wheel.schedule("a", 5 * TICK, start);
+		assertTrue(advance(wheel, start + 4 * TICK).isEmpty());
+		assertEquals(Arrays.asList("a"), advance(wheel, start + 5 * TICK));
+	}
+
+	@Test
+	public void cancelledTimeoutsDoNotExpire(){
+		TimingWheel<String> wheel = new TimingWheel<String>(TICK, 8, 0);
+		TimingWheel.Timeout<String> a = wheel.schedule("a", 4 * TICK, 0);
+		TimingWheel.Timeout<String> b = wheel.schedule("b", 4 * TICK, 0);
+		wheel.schedule("c", 4 * TICK, 0);
+		assertTrue(wheel.cancel(b));
+		assertFalse(wheel.cancel(b));
+		assertFalse(b.isPending());
+		assertEquals(2, wheel.size());
+		List<String> expired = advance(wheel, 4 * TICK);
+		assertEquals(2, expired.size());
+		assertTrue(expired.contains("a") && expired.contains("c"));
+		assertFalse(a.isPending());
+		assertFalse(wheel.cancel(a));
+	}
+
+	@Test
+	public void slotsAreRoundedUpToAPowerOfTwo(){
+		// 5 slots become 8: ticks 1 and 9 share a slot, 1 and 6 do not
+		TimingWheel<String> wheel = new TimingWheel<String>(TICK, 5, 0);
+		wheel.schedule("a", TICK, 0);
+		wheel.schedule("b", 9 * TICK, 0);
+		wheel.schedule("c", 6 * TICK, 0);
+		assertEquals(Arrays.asList("a"), advance(wheel, TICK));
+		assertEquals(Arrays.asList("c"), advance(wheel, 8 * TICK));
+		assertEquals(Arrays.asList("b"), advance(wheel, 9 * TICK));
+	}
+}
@@ -0,0 +1,163 @@
+package de.smahoo.jwave.console.sched;
+
+import de.smahoo.jwave.cmd.JWaveCommand;
+import de.smahoo.jwave.console.cmd.CommandIndex;
+import de.smahoo.jwave.console.cmd.SendTemplate;
+import de.smahoo.jwave.specification.JWaveSpecification;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SendSchedulerTest {
+
+	private static final String MULTILEVEL = "0x26";
+	private static final String CONFIGURATION = "0x70";
+	private static final String ASSOCIATION = "0x85";
+
+	private CommandIndex index;
+	private SendScheduler scheduler;
+	private final BlockingQueue<SendTemplate> dispatched = new LinkedBlockingQueue<SendTemplate>();
+	private final List<String> results = new ArrayList<String>();
+
+	@Before
+	public void setUp() throws Exception {
+		index = new CommandIndex(JWaveSpecification.loadDefaultSpecification());
+		scheduler = new SendScheduler("test", new SendScheduler.Dispatcher() {
+			public boolean dispatch(SendTemplate template) {
+				dispatched.add(template);
+				// the transmit callback right away, so the next command may go
+				scheduler.onSendCompleted(template.getNodeId(), template.getCommandClassKey(), true);
+				return true;
+			}
+		});
+		scheduler.start();
+		// hold everything until the test resumes, then the queue order decides
+		scheduler.pause(SendScheduler.DEFAULT_CAPACITY);
+	}
+
+	@After
+	public void tearDown(){
+		scheduler.close();
+	}
+
+	private SendTemplate template(int nodeId, String cl, String cmd, SendPriority priority, int... params){
+		JWaveCommand command = index.getCommand(cl, cmd, 1);
+		StringBuilder source = new StringBuilder().append(nodeId).append(' ').append(cl).append(' ').append(cmd);
+		for (int param : params){
+			source.append(' ').append(param);
+		}
+		return SendTemplate.of(null, nodeId, command.getCommandClass().getKey(), command, params, priority, source.toString());
+	}
+
+	private void submit(SendTemplate template) throws InterruptedException {
+		assertTrue(scheduler.submit(template, 0, new SendCallback() {
+			public void onResult(SendTemplate t, SendResult result, long latencyNanos) {
+				synchronized (results){
+					results.add(t.getSource()+": "+result.getLabel());
+				}
+			}
+		}));
+	}
+
+	private List<String> dispatch(int expected) throws InterruptedException {
+		scheduler.resume();
+		List<String> sources = new ArrayList<String>();
+		for (int i = 0; i < expected; i++){
+			SendTemplate template = dispatched.poll(5, TimeUnit.SECONDS);
+			if (template == null){
+				break;
+			}
+			sources.add(template.getSource());
+		}
+		// nothing else follows
+		assertNull(dispatched.poll(200, TimeUnit.MILLISECONDS));
+		return sources;
+	}
+
+	private static List<String> list(String... values){
+		List<String> list = new ArrayList<String>();
+		for (String value : values){
+			list.add(value);
+		}
+		return list;
+	}
+
+	@Test
+	public void queuedSetIsReplacedInPlace() throws InterruptedException {
+		submit(template(2, MULTILEVEL, "0x01", SendPriority.NORMAL, 10));
+		submit(template(2, MULTILEVEL, "0x02", SendPriority.NORMAL));
+		submit(template(2, MULTILEVEL, "0x01", SendPriority.NORMAL, 50));
+		submit(template(2, MULTILEVEL, "0x01", SendPriority.NORMAL, 99));
+		assertEquals(list("2 0x26 0x01 99", "2 0x26 0x02"), dispatch(2));
+		synchronized (results){
+			assertTrue(results.contains("2 0x26 0x01 10: superseded"));
+			assertTrue(results.contains("2 0x26 0x01 50: superseded"));
+			assertTrue(results.contains("2 0x26 0x01 99: ok"));
+		}
+	}
+
+	@Test
+	public void setOfAnotherPriorityMovesToItsQueue() throws InterruptedException {
+		submit(template(2, MULTILEVEL, "0x01", SendPriority.LOW, 10));
+		submit(template(2, MULTILEVEL, "0x02", SendPriority.NORMAL));
+		submit(template(2, MULTILEVEL, "0x01", SendPriority.HIGH, 99));
+		assertEquals(list("2 0x26 0x01 99", "2 0x26 0x02"), dispatch(2));
+		assertEquals(0, scheduler.getQueued());
+	}
+
+	@Test
+	public void setsOfOtherNodesAreKept() throws InterruptedException {
+		submit(template(2, MULTILEVEL, "0x01", SendPriority.NORMAL, 10));
+		submit(template(3, MULTILEVEL, "0x01", SendPriority.NORMAL, 20));
+		submit(template(2, MULTILEVEL, "0x01", SendPriority.NORMAL, 30));
+		assertEquals(list("2 0x26 0x01 30", "3 0x26 0x01 20"), dispatch(2));
+	}
+
+	@Test
+	public void indexedSetsCoalescePerParameter() throws InterruptedException {
+		submit(template(2, CONFIGURATION, "0x04", SendPriority.NORMAL, 5, 1, 1));
+		submit(template(2, CONFIGURATION, "0x04", SendPriority.NORMAL, 6, 1, 1));
+		submit(template(2, CONFIGURATION, "0x04", SendPriority.NORMAL, 5, 1, 2));
+		assertEquals(list("2 0x70 0x04 5 1 2", "2 0x70 0x04 6 1 1"), dispatch(2));
+	}
+
+	@Test
+	public void cumulativeSetsAreAllSent() throws InterruptedException {
+		submit(template(2, ASSOCIATION, "0x01", SendPriority.NORMAL, 1, 1));
+		submit(template(2, ASSOCIATION, "0x01", SendPriority.NORMAL, 1, 5));
+		assertEquals(list("2 0x85 0x01 1 1", "2 0x85 0x01 1 5"), dispatch(2));
+	}
+
+	@Test
+	public void higherPriorityFirstThenRoundRobinOverNodes() throws InterruptedException {
+		submit(template(2, MULTILEVEL, "0x02", SendPriority.LOW));
+		submit(template(2, MULTILEVEL, "0x02", SendPriority.NORMAL));
+		submit(template(2, MULTILEVEL, "0x02", SendPriority.NORMAL));
+		submit(template(2, MULTILEVEL, "0x02", SendPriority.NORMAL));
+		submit(template(3, MULTILEVEL, "0x02", SendPriority.NORMAL));
+		submit(template(4, MULTILEVEL, "0x02", SendPriority.HIGH));
+		assertEquals(list("4 0x26 0x02", "2 0x26 0x02", "3 0x26 0x02",
+				"2 0x26 0x02", "2 0x26 0x02", "2 0x26 0x02"), dispatch(6));
+	}
+
+	@Test
+	public void coalesceKeys(){
+		long level = SendScheduler.coalesceKey(template(2, MULTILEVEL, "0x01", SendPriority.NORMAL, 10));
+		assertTrue(level >= 0);
+		assertEquals(level, SendScheduler.coalesceKey(template(5, MULTILEVEL, "0x01", SendPriority.LOW, 80)));
+		assertEquals(-1, SendScheduler.coalesceKey(template(2, MULTILEVEL, "0x02", SendPriority.NORMAL)));
+		assertEquals(-1, SendScheduler.coalesceKey(template(2, ASSOCIATION, "0x01", SendPriority.NORMAL, 1, 1)));
+		assertTrue(SendScheduler.coalesceKey(template(2, CONFIGURATION, "0x04", SendPriority.NORMAL, 5, 1, 1))
+				!= SendScheduler.coalesceKey(template(2, CONFIGURATION, "0x04", SendPriority.NORMAL, 6, 1, 1)));
+	}
+}